@@ -1,7 +1,10 @@
 package cn.jimmiez.pcu.alg.normal;
 
 import Jama.Matrix;
-import cn.jimmiez.pcu.common.graphics.Octree;
+import cn.jimmiez.pcu.common.graphics.FlatOctree;
+import cn.jimmiez.pcu.common.graphics.NeighborhoodCache;
+import cn.jimmiez.pcu.common.graphics.Neighborhoods;
+import cn.jimmiez.pcu.common.graphics.SpatialIndex;
 import com.mkobos.pca_transform.covmatrixevd.EVD;
 
 import javax.vecmath.Point3d;
@@ -21,6 +24,17 @@ public class HoppeEstimator implements NormalEstimator {
 
     private final int MINIMAL_POINTS = 5;
 
+    /** the spatial index used to search nearest neighbors **/
+    private SpatialIndex spatialIndex = new FlatOctree();
+
+    /**
+     * the error bound of k-nearest-neighbors search, it is set on the spatial index while searching,
+     * and the former error bound of the index is restored afterwards
+     **/
+    private double approximationError = 0;
+
+    /** the cache of neighborhoods shared with other algorithms, null means no cache **/
+    private NeighborhoodCache neighborhoodCache = null;
 
     /**
      * {@inheritDoc}
@@ -33,10 +47,22 @@ public class HoppeEstimator implements NormalEstimator {
         }
         int k = defaultNeighborhoodSize(data);
         List<Vector3d> normals = new Vector<>();
-        Octree octree = new Octree();
-        octree.buildIndex(data);
+        Neighborhoods neighborhoods;
+        double formerError = spatialIndex.getApproximationError();
+        spatialIndex.setApproximationError(approximationError);
+        try {
+            neighborhoods = neighborhoodCache == null ? Neighborhoods.knn(data, k, spatialIndex)
+                    : neighborhoodCache.knn(data, k, spatialIndex);
+        } finally {
+            spatialIndex.setApproximationError(formerError);
+        }
         for (int i = 0; i < data.size(); i ++) {
-            int[] neighborIndices = octree.searchNearestNeighbors(k, i);
+            int[] neighborIndices = neighborhoods.neighborsOf(i);
+            if (neighborIndices.length < 1) {
+                // the point is invalid, or all points coincide with it
+                normals.add(new Vector3d(Double.NaN, Double.NaN, Double.NaN));
+                continue;
+            }
             normals.add(estimateNormal(data, i, neighborIndices));
         }
         return normals;
@@ -98,4 +124,42 @@ public class HoppeEstimator implements NormalEstimator {
         //// TODO: 2018/11/10 Automatic determine k
         return Math.max(MINIMAL_POINTS - 1, 16);
     }
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * @param spatialIndex the spatial index used to search nearest neighbors, {@link FlatOctree} by default
+     */
+    public void setSpatialIndex(SpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    public double getApproximationError() {
+        return approximationError;
+    }
+
+    /**
+     * The fitted planes are hardly changed by approximate neighbors, so a positive
+     * error bound speeds up the estimation of dense point clouds.
+     * @param approximationError the error bound of k-nearest-neighbors search, 0 by default,
+     *                           see {@link SpatialIndex#setApproximationError(double)}
+     */
+    public void setApproximationError(double approximationError) {
+        if (! (approximationError >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = approximationError;
+    }
+
+    public NeighborhoodCache getNeighborhoodCache() {
+        return neighborhoodCache;
+    }
+
+    /**
+     * @param neighborhoodCache the cache of neighborhoods, the k nearest neighbors of points are
+     *                          taken from it if they have been searched, null by default
+     */
+    public void setNeighborhoodCache(NeighborhoodCache neighborhoodCache) {
+        this.neighborhoodCache = neighborhoodCache;
+    }
+
 }
@@ -2,6 +2,7 @@ package cn.jimmiez.pcu.alg.projector;
 
 import cn.jimmiez.pcu.common.graphics.BoundingBox;
 import cn.jimmiez.pcu.common.graphics.Octree;
+import cn.jimmiez.pcu.common.graphics.SpatialIndex;
 
 import javax.vecmath.Point3d;
 import java.util.ArrayList;
@@ -29,7 +30,7 @@ public class LocallyOptimalProjector {
     private double miu = 0.4;
 
     /** dataOctree that helps find nearest neighbors **/
-    private Octree dataOctree = new Octree();
+    private SpatialIndex dataOctree = new Octree();
 
     /**
      * Construct the locally optimal projector
@@ -169,4 +170,11 @@ public class LocallyOptimalProjector {
         }
         return projectedPoints;
     }
+
+    /**
+     * @param spatialIndex the spatial index used to search nearest neighbors in data, {@link Octree} by default
+     */
+    public void setSpatialIndex(SpatialIndex spatialIndex) {
+        this.dataOctree = spatialIndex;
+    }
 }
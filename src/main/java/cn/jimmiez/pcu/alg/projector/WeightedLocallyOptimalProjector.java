@@ -1,7 +1,12 @@
 package cn.jimmiez.pcu.alg.projector;
 
 import cn.jimmiez.pcu.common.graphics.BoundingBox;
+import cn.jimmiez.pcu.common.graphics.FlatOctree;
+import cn.jimmiez.pcu.common.graphics.NeighborBuffer;
+import cn.jimmiez.pcu.common.graphics.NeighborhoodCache;
+import cn.jimmiez.pcu.common.graphics.Neighborhoods;
 import cn.jimmiez.pcu.common.graphics.Octree;
+import cn.jimmiez.pcu.common.graphics.SpatialIndex;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
@@ -23,14 +28,19 @@ public class WeightedLocallyOptimalProjector {
     /** the sample points which will be projected onto original surface **/
     private List<Point3d> samples = null;
 
-    /** the indices of neighbors of sample points on ORIGINAL surfaces **/
-    private List<List<Integer>> sampleOriginalNeighbors = new ArrayList<>();
+    /**
+     * the neighbors of sample points on ORIGINAL surfaces, the neighbors of the i-th
+     * sample are located in [sampleOriginalOffsets[i], sampleOriginalOffsets[i + 1])
+     **/
+    private NeighborBuffer sampleOriginalNeighbors = new NeighborBuffer();
+
+    private int[] sampleOriginalOffsets = new int[0];
 
-    /** the indices of neighbors of sample points on SAMPLE surfaces **/
-    private List<List<Integer>> sampleSelfNeighbors = new ArrayList<>();
+    /** the neighbors of sample points on SAMPLE surfaces **/
+    private NeighborBuffer sampleSelfNeighbors = new NeighborBuffer();
+
+    private int[] sampleSelfOffsets = new int[0];
 
-    /** the indices of neighbors of original points on ORIGINAL surfaces **/
-    private List<List<Integer>> originalSelfNeighbors = new ArrayList<>();
 
     /** the local density of sample points **/
     private List<Double> sampleDensity = new ArrayList<>();
@@ -52,18 +62,36 @@ public class WeightedLocallyOptimalProjector {
     private double repulsionMu = 0.5;
 
     /**
-     * the octree used to search nearest neighbors in original data set
+     * the spatial index used to search nearest neighbors in original data set
      */
-    private Octree originalOctree;
+    private SpatialIndex originalIndex;
+
+    /**
+     * the spatial index used to search nearest neighbors in samples, it is rebuilt in every
+     * iteration, except that an {@link Octree} is updated by the samples that have moved
+     */
+    private SpatialIndex sampleIndex = new FlatOctree();
+
+    /** the cache of neighborhoods shared with other algorithms, null means no cache **/
+    private NeighborhoodCache neighborhoodCache = null;
 
     /**
      * The ctor of WLOP.
      * @param originals The original points set, which might have noise, outliers and missing data.
      */
     public WeightedLocallyOptimalProjector(List<Point3d> originals) {
+        this(originals, new FlatOctree());
+    }
+
+    /**
+     * The ctor of WLOP.
+     * @param originals The original points set, which might have noise, outliers and missing data.
+     * @param originalIndex the spatial index used to search nearest neighbors in original points set
+     */
+    public WeightedLocallyOptimalProjector(List<Point3d> originals, SpatialIndex originalIndex) {
         this.originals = originals;
-        originalOctree = new Octree();
-        originalOctree.buildIndex(originals);
+        this.originalIndex = originalIndex;
+        originalIndex.buildIndex(originals);
         for (int i = 0; i < originals.size(); i ++) originalDensity.add(1.0);
         BoundingBox box = BoundingBox.of(originals);
         h = 4 * Math.sqrt(box.diagonalLength() / originals.size());
@@ -92,11 +120,11 @@ public class WeightedLocallyOptimalProjector {
             Point3d sample = samples.get(i);
             double averageWeightSum = 0;
             Vector3d delta = new Vector3d(); // delta = sampleNeighbor * averageWeight
-            for (int originalNeighborIndex : sampleOriginalNeighbors.get(i)) {
+            for (int j = sampleOriginalOffsets[i]; j < sampleOriginalOffsets[i + 1]; j ++) {
+                int originalNeighborIndex = sampleOriginalNeighbors.index(j);
                 double averageWeight;
-                Vector3d deltaj;
                 Point3d neighborPoint = originals.get(originalNeighborIndex);
-                double distance = sample.distance(neighborPoint);
+                double distance = sampleOriginalNeighbors.distance(j);
 
                 // in case distance is near zero, resulting in INFINITY weight
                 distance = Math.max(h * 0.01 , distance);
@@ -105,9 +133,7 @@ public class WeightedLocallyOptimalProjector {
                 // density based weighted
                 averageWeight *= originalDensity.get(originalNeighborIndex);
 
-                deltaj = new Vector3d(neighborPoint);
-                deltaj.scale(averageWeight);
-                delta.add(deltaj);
+                delta.scaleAdd(averageWeight, neighborPoint, delta);
                 averageWeightSum += averageWeight;
             }
             averageWeightSums.add(averageWeightSum);
@@ -122,19 +148,21 @@ public class WeightedLocallyOptimalProjector {
         for (int i = 0; i < samples.size(); i ++) {
             Point3d sample = samples.get(i);
             Vector3d delta = new Vector3d();
+            Vector3d neighborSampleVec = new Vector3d();
             double repulsionWeightSum = 0;
-            for (int neighborIndex : sampleSelfNeighbors.get(i)) {
+            for (int j = sampleSelfOffsets[i]; j < sampleSelfOffsets[i + 1]; j ++) {
+                int neighborIndex = sampleSelfNeighbors.index(j);
                 if (i == neighborIndex) continue;
                 Point3d neighborPoint = samples.get(neighborIndex);
 
-                double distance = neighborPoint.distance(sample);
+                double distance = sampleSelfNeighbors.distance(j);
 
                 // in case distance is near zero, resulting in INFINITY weight
                 distance = Math.max(h * 0.01 , distance);
                 // the eta function is - 1 / r^3
                 double repulsionWeight = theta(distance) / Math.pow(distance, 4);
 
-                Vector3d neighborSampleVec = new Vector3d(sample.x - neighborPoint.x, sample.y - neighborPoint.y, sample.z - neighborPoint.z);
+                neighborSampleVec.sub(sample, neighborPoint);
 
                 // density-based weighted
                 repulsionWeight *= sampleDensity.get(neighborIndex);
@@ -148,50 +176,70 @@ public class WeightedLocallyOptimalProjector {
         }
     }
 
-    private void computeDensity(List<Point3d> points, List<Double> densities, List<List<Integer>> neighborList, double h, boolean original) {
-        for (int i = 0; i < points.size(); i ++) {
+    private void computeSampleDensity() {
+        for (int i = 0; i < samples.size(); i ++) {
             double density = 1.0;
-            Point3d point = points.get(i);
-            List<Integer> neighbors = neighborList.get(i);
 
-            for (int neighborIndex : neighbors) {
-                Point3d neighbor = points.get(neighborIndex);
-                double distance = point.distance(neighbor);
+            for (int j = sampleSelfOffsets[i]; j < sampleSelfOffsets[i + 1]; j ++) {
+                double distance = sampleSelfNeighbors.distance(j);
                 double den = theta(distance);
                 density += den;
             }
-            if (original) {
-                density = 1.0 / density;
-            } else {
-                density = Math.sqrt(density);
-            }
-            densities.set(i, density);
+            sampleDensity.set(i, Math.sqrt(density));
         }
     }
 
-    private void iterate(int iter) {
-        Octree sampleOctree = new Octree();
-        sampleOctree.buildIndex(samples);
-        sampleSelfNeighbors.clear();
-        sampleOriginalNeighbors.clear();
-        originalSelfNeighbors.clear();
+    private void computeOriginalDensity(Neighborhoods neighborhoods) {
+        for (int i = 0; i < originals.size(); i ++) {
+            double density = 1.0;
 
-        for (int i = 0; i < samples.size(); i ++) {
-            sampleSelfNeighbors.add(sampleOctree.searchAllNeighborsWithinDistance(i, h));
-            sampleOriginalNeighbors.add(originalOctree.searchAllNeighborsWithinDistance(samples.get(i), h));
+            for (int j = neighborhoods.offset(i); j < neighborhoods.offset(i + 1); j ++) {
+                double distance = neighborhoods.distance(j);
+                double den = theta(distance);
+                density += den;
+            }
+            originalDensity.set(i, 1.0 / density);
         }
+    }
 
-        final double MAGIC_RATIO = 0.95;
+    /**
+     * search the neighbors of every query point within radius h, the neighborhoods are
+     * stored in the buffer one after another, so the buffers are reused among iterations
+     * @param index the spatial index of the point set where neighbors are searched
+     * @param queries the query points
+     * @param buffer the buffer of neighbors, it is cleared before searching
+     * @param offsets the offsets of last search, reused if its length is queries.size() + 1
+     * @return the offsets, the neighbors of the i-th query are located in [offsets[i], offsets[i + 1])
+     */
+    private int[] searchNeighborhoods(SpatialIndex index, List<Point3d> queries, NeighborBuffer buffer, int[] offsets) {
+        if (offsets.length != queries.size() + 1) offsets = new int[queries.size() + 1];
+        buffer.clear();
+        for (int i = 0; i < queries.size(); i ++) {
+            index.searchAllNeighborsWithinDistance(queries.get(i), h, buffer);
+            offsets[i + 1] = buffer.size();
+        }
+        return offsets;
+    }
+
+    private void iterate(int iter) {
+        if (iter > 0 && sampleIndex instanceof Octree) {
+            Octree sampleOctree = (Octree) sampleIndex;
+            for (int i = 0; i < samples.size(); i ++) sampleOctree.update(i, samples.get(i));
+        } else {
+            sampleIndex.buildIndex(samples);
+        }
+        sampleSelfOffsets = searchNeighborhoods(sampleIndex, samples, sampleSelfNeighbors, sampleSelfOffsets);
+        sampleOriginalOffsets = searchNeighborhoods(originalIndex, samples, sampleOriginalNeighbors, sampleOriginalOffsets);
 
         if (iter == 0) {
-            // compute density of original points
-            for (int i = 0; i < originals.size(); i ++) {
-                originalSelfNeighbors.add(originalOctree.searchAllNeighborsWithinDistance(i, h));
-            }
-            computeDensity(originals, originalDensity, originalSelfNeighbors, h * MAGIC_RATIO, true);
+            // compute density of original points, the neighborhoods of originals do not change among
+            // iterations and projections, so they are taken from the cache if it is set
+            Neighborhoods originalNeighborhoods = neighborhoodCache == null ? Neighborhoods.radius(originals, h, originalIndex)
+                    : neighborhoodCache.radius(originals, h, originalIndex);
+            computeOriginalDensity(originalNeighborhoods);
         }
 
-        computeDensity(samples, sampleDensity, sampleSelfNeighbors, h, false);
+        computeSampleDensity();
         List<Double> averageWeightSums = new ArrayList<>();
         List<Double> repulsionWeightSums = new ArrayList<>();
         List<Vector3d> averageVectors = new ArrayList<>();
@@ -241,5 +289,24 @@ public class WeightedLocallyOptimalProjector {
     public void setRepulsionMu(double repulsionMu) {
         this.repulsionMu = repulsionMu;
     }
-}
 
+    /**
+     * @param sampleIndex the spatial index used to search nearest neighbors in samples, {@link FlatOctree} by default,
+     *                    an {@link Octree} is updated by the moved samples instead of being rebuilt
+     */
+    public void setSampleIndex(SpatialIndex sampleIndex) {
+        this.sampleIndex = sampleIndex;
+    }
+
+    public NeighborhoodCache getNeighborhoodCache() {
+        return neighborhoodCache;
+    }
+
+    /**
+     * @param neighborhoodCache the cache of neighborhoods, the neighbors of original points within h are
+     *                          taken from it if they have been searched, null by default
+     */
+    public void setNeighborhoodCache(NeighborhoodCache neighborhoodCache) {
+        this.neighborhoodCache = neighborhoodCache;
+    }
+}
@@ -1,11 +1,11 @@
 package cn.jimmiez.pcu.alg.sampler;
 
 import cn.jimmiez.pcu.common.graphics.BoundingBox;
-import cn.jimmiez.pcu.common.graphics.Octree;
+import cn.jimmiez.pcu.common.graphics.FlatOctree;
+import cn.jimmiez.pcu.common.graphics.SpatialIndex;
 import cn.jimmiez.pcu.common.graphics.shape.Box;
 
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector3d;
 import java.util.*;
 
 public class GridVoxelizer {
@@ -36,6 +36,15 @@ public class GridVoxelizer {
 
     private boolean specifyCellSize = false;
 
+    /** the spatial index used to estimate the average distance between neighboring points **/
+    private SpatialIndex spatialIndex = new FlatOctree();
+
+    /**
+     * the error bound of k-nearest-neighbors search, it is set on the spatial index while searching,
+     * and the former error bound of the index is restored afterwards
+     **/
+    private double approximationError = 0;
+
     public GridVoxelizer() {
         this(2.5);
     }
@@ -78,22 +87,28 @@ public class GridVoxelizer {
 
         if (! specifyCellSize) {
 //        List<Double> threeNNEdgeLength = new ArrayList<>();
-            Octree octree = new Octree();
-            octree.buildIndex(points);
+            spatialIndex.buildIndex(points);
 
             double lengthSum = 0.0;
             int edgeCnt = 0;
             int sampleCnt = Math.min(points.size(), Math.max(points.size() / 15, 1000));
             Random random = new Random(System.currentTimeMillis());
+            int[] samples = new int[sampleCnt];
             for (int i = 0; i < sampleCnt; i ++) {
-                int randomIndex = random.nextInt(points.size());
-                Point3d point = points.get(randomIndex);
-                for (int index : octree.searchNearestNeighbors(3, randomIndex)) {
-                    Point3d neighbor = points.get(index);
-                    Vector3d vector = new Vector3d(neighbor.x - point.x, neighbor.y - point.y, neighbor.z - point.z);
-                    lengthSum += vector.length();
-                    edgeCnt += 1;
-                }
+                samples[i] = random.nextInt(points.size());
+            }
+            double[] distances = new double[sampleCnt * 3];
+            double formerError = spatialIndex.getApproximationError();
+            spatialIndex.setApproximationError(approximationError);
+            try {
+                spatialIndex.searchNearestNeighbors(3, samples, distances);
+            } finally {
+                spatialIndex.setApproximationError(formerError);
+            }
+            for (double distance : distances) {
+                if (Double.isInfinite(distance)) continue;
+                lengthSum += distance;
+                edgeCnt += 1;
             }
             double averageLength = lengthSum / edgeCnt;
             cellSize = averageLength * cellRatio;
@@ -152,6 +167,32 @@ public class GridVoxelizer {
         return this.cellSize;
     }
 
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * @param spatialIndex the spatial index used to search nearest neighbors, {@link FlatOctree} by default
+     */
+    public void setSpatialIndex(SpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    public double getApproximationError() {
+        return approximationError;
+    }
+
+    /**
+     * The cell size is derived from the average distance of 3 nearest neighbors, so a
+     * positive error bound speeds up the voxelizing of dense point clouds.
+     * @param approximationError the error bound of k-nearest-neighbors search, 0 by default,
+     *                           see {@link SpatialIndex#setApproximationError(double)}
+     */
+    public void setApproximationError(double approximationError) {
+        if (! (approximationError >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = approximationError;
+    }
+
     public class GridCell {
 
         /**
@@ -1,7 +1,11 @@
 package cn.jimmiez.pcu.alg.skeleton;
 
 import cn.jimmiez.pcu.common.graph.*;
-import cn.jimmiez.pcu.common.graphics.Octree;
+import cn.jimmiez.pcu.common.graphics.FlatOctree;
+import cn.jimmiez.pcu.common.graphics.NeighborhoodCache;
+import cn.jimmiez.pcu.common.graphics.Neighborhoods;
+import cn.jimmiez.pcu.common.graphics.SpatialIndex;
+import cn.jimmiez.pcu.common.graphics.SpatialIndexes;
 import cn.jimmiez.pcu.model.Skeleton;
 import cn.jimmiez.pcu.util.Pair;
 import cn.jimmiez.pcu.util.PcuCommonUtil;
@@ -21,8 +25,11 @@ public class LevelSetSkeleton implements Skeletonization{
     /** point cloud **/
     private List<Point3d> data;
 
-    /** the octree to speed up search nearest neighbors **/
-    private Octree octree = null;
+    /** the spatial index to speed up search nearest neighbors **/
+    private SpatialIndex spatialIndex = new FlatOctree();
+
+    /** the cache of neighborhoods shared with other algorithms, null means no cache **/
+    private NeighborhoodCache neighborhoodCache = null;
 
     /** constructed by connecting n nearest neighbors of each vertex  **/
     private BaseGraph neighborhoodGraph = null;
@@ -77,13 +84,10 @@ public class LevelSetSkeleton implements Skeletonization{
         skeleton = new Skeleton();
         distanceMap = new Vector<>();
         paths = new HashMap<>();
-        octree = new Octree();
-        octree.buildIndex(data);
         n = Math.min(data.size(), n);
     }
 
     private void clean() {
-        octree = null;
         distanceMap = null;
         neighborhoodGraph = null;
         geodesicGraph = null;
@@ -100,14 +104,22 @@ public class LevelSetSkeleton implements Skeletonization{
      */
     private void buildNeighborhoodGraph(int n) {
         List<int[]> nnIndices = new Vector<>();
+        Neighborhoods neighborhoods = nearestNeighbors(data, n);
         for (int i = 0; i < data.size(); i ++) {
-            int[] neighborIndices = octree.searchNearestNeighbors(n, i);
-            nnIndices.add(neighborIndices);
+            nnIndices.add(neighborhoods.neighborsOf(i));
         }
         neighborhoodGraph = Graphs.knnGraph(data, nnIndices);
         checkConnectivity();
     }
 
+    /**
+     * search the k nearest neighbors of every point, they are taken from the cache if it is set
+     */
+    private Neighborhoods nearestNeighbors(List<Point3d> points, int k) {
+        if (neighborhoodCache == null) return Neighborhoods.knn(points, k, spatialIndex);
+        return neighborhoodCache.knn(points, k, spatialIndex);
+    }
+
     /**
      * a proper n should be chosen to guarantee that the neighborhood graph is
      * a connected graph
@@ -135,14 +147,13 @@ public class LevelSetSkeleton implements Skeletonization{
                 data.addAll(subset);
 
                 UndirectedGraph neighborhoodGraph2 = new UndirectedGraph();
-                octree.buildIndex(data);
                 for (int i = 0; i < data.size(); i ++) {
                     neighborhoodGraph2.addVertex(i);
                 }
+                Neighborhoods neighborhoods = nearestNeighbors(data, k);
                 for (int i = 0; i < data.size(); i ++) {
                     Point3d pi = data.get(i);
-                    int[] neighborIndices = octree.searchNearestNeighbors(k, i);
-                    for (int neighbor : neighborIndices) {
+                    for (int neighbor : neighborhoods.neighborsOf(i)) {
                         Point3d pj = data.get(neighbor);
                         neighborhoodGraph2.addEdge(i, neighbor, pi.distance(pj));
                     }
@@ -263,7 +274,7 @@ public class LevelSetSkeleton implements Skeletonization{
         // System.out.println("num of level set: " + levelSets.size());
         // divide a level set into multiple connected components
         for (LevelSet levelSet : levelSets) {
-            levelSet.partition();
+            levelSet.partition(spatialIndex);
             // System.out.println("num of sub graphs: " + levelSet.subGraphs.size());
         }
         // connect the skeleton points
@@ -436,16 +447,17 @@ public class LevelSetSkeleton implements Skeletonization{
 
         /**
          * a two-nearest neighbor graph is needed for partitioning level set
+         * @param spatialIndex the spatial index to be rebuilt for the points in level set
          */
-        void partition() {
-            Octree octree = new Octree();
-            octree.buildIndex(points);
+        void partition(SpatialIndex spatialIndex) {
+            spatialIndex.buildIndex(points);
             Graph graph = new UndirectedGraph();
             double secondaryEdgeSum = 0.0;
             for (int i = 0; i < points.size(); i ++) graph.addVertex(i);
             int k = Math.min(points.size() - 1, 10);
+            int[] neighbors = points.size() > 0 ? spatialIndex.knnAll(k) : new int[0];
             for (int i = 0; i < points.size(); i ++) {
-                int[] indices = octree.searchNearestNeighbors(k, i);
+                int[] indices = SpatialIndexes.neighborsOf(neighbors, k, i);
                 for (int j = 0; j < indices.length; j ++) {
                     int index = indices[j];
                     double dis = points.get(i).distance(points.get(index));
@@ -480,4 +492,27 @@ public class LevelSetSkeleton implements Skeletonization{
 
     public int getK() {return this.k;}
 
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * @param spatialIndex the spatial index used to search nearest neighbors, {@link FlatOctree} by default
+     */
+    public void setSpatialIndex(SpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    public NeighborhoodCache getNeighborhoodCache() {
+        return neighborhoodCache;
+    }
+
+    /**
+     * @param neighborhoodCache the cache of neighborhoods, the nearest neighbors of the whole point
+     *                          cloud are taken from it if they have been searched, null by default
+     */
+    public void setNeighborhoodCache(NeighborhoodCache neighborhoodCache) {
+        this.neighborhoodCache = neighborhoodCache;
+    }
+
 }
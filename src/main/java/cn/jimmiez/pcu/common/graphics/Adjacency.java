@@ -11,7 +11,10 @@ public enum Adjacency {
     /** the two boxes has at least one common edge **/
     EDGE,
 
-    /** the two boxes has at least one common vertex **/
-    VERTEX
+    /** the two boxes has only one common vertex **/
+    VERTEX,
+
+    /** the two boxes has a common face, edge or vertex **/
+    TOUCHING
 
 }
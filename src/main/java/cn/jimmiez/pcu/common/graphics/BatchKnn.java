@@ -0,0 +1,114 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A batch of k-nearest-neighbors queries, shared by the spatial indices that search a batch
+ * in fork/join tasks. The queries are split into tasks of at most BATCH_SIZE queries,
+ * and a task reuses one searcher for all its queries to avoid allocation.
+ * @param <S> the type of the buffers used by a task
+ */
+abstract class BatchKnn<S> {
+
+    /** the number of queries in a fork/join task **/
+    static final int BATCH_SIZE = 1024;
+
+    /** the number of nearest neighbors **/
+    final int k;
+
+    BatchKnn(int k) {
+        this.k = k;
+    }
+
+    /**
+     * @throws IllegalArgumentException if k is out of range or the distances are too short
+     * @param pointNumber the number of points in the index
+     * @param queryNumber the number of queries
+     */
+    static void checkArguments(int k, int pointNumber, int queryNumber, double[] distances) {
+        if (k >= pointNumber || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
+        if ((long) queryNumber * k > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many neighbors to be stored in an array.");
+        if (distances != null && distances.length < queryNumber * k) throw new IllegalArgumentException("The length of distances is less than " + queryNumber * k);
+    }
+
+    /**
+     * @return the buffers of search used by the queries of one task
+     */
+    abstract S newSearcher();
+
+    /**
+     * search the neighbors of a query and write them in the row of the query
+     * @param searcher the buffers of the task
+     * @param query a number in [0, taskSize) passed to run()
+     */
+    abstract void search(S searcher, int query, int[] neighbors, double[] distances);
+
+    /**
+     * search all queries, in parallel if a pool is given. If the pool is shut down by its
+     * owner, the queries are searched on current thread.
+     * @param queryNumber the number of rows in the result
+     * @param taskSize the number of queries passed to search(), it may differ from queryNumber
+     *                 if a query is not a row of the result, e.g. a position in the order of leaves
+     * @param distances if not null, the distances of neighbors are written in it
+     * @param pool the pool running the tasks, null means running on current thread
+     * @return the neighbors of the rows, -1 if a row has fewer than k neighbors
+     */
+    int[] run(int queryNumber, int taskSize, double[] distances, ForkJoinPool pool) {
+        int[] neighbors = new int[queryNumber * k];
+        Arrays.fill(neighbors, -1);
+        if (distances != null) Arrays.fill(distances, 0, queryNumber * k, Double.POSITIVE_INFINITY);
+        if (k == 0) return neighbors;
+        if (pool != null && taskSize > BATCH_SIZE) {
+            try {
+                pool.invoke(new KnnTask(0, taskSize, neighbors, distances, true));
+                return neighbors;
+            } catch (RejectedExecutionException e) {
+                // the pool is shut down, nothing is searched yet
+            }
+        }
+        new KnnTask(0, taskSize, neighbors, distances, false).compute();
+        return neighbors;
+    }
+
+    /**
+     * Searches nearest neighbors for a range of queries.
+     */
+    private class KnnTask extends RecursiveAction {
+
+        private final int from;
+
+        private final int to;
+
+        private final int[] neighbors;
+
+        private final double[] distances;
+
+        private final boolean parallel;
+
+        KnnTask(int from, int to, int[] neighbors, double[] distances, boolean parallel) {
+            this.from = from;
+            this.to = to;
+            this.neighbors = neighbors;
+            this.distances = distances;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            if (parallel && to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new KnnTask(from, middle, neighbors, distances, true),
+                        new KnnTask(middle, to, neighbors, distances, true));
+                return;
+            }
+            S searcher = newSearcher();
+            for (int i = from; i < to; i ++) {
+                search(searcher, i, neighbors, distances);
+            }
+        }
+    }
+
+}
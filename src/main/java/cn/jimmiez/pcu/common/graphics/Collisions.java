@@ -1,6 +1,7 @@
 package cn.jimmiez.pcu.common.graphics;
 
 import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
 import cn.jimmiez.pcu.common.graphics.shape.Sphere;
 
 import javax.vecmath.Point3d;
@@ -63,4 +64,88 @@ public class Collisions {
         return c1c2.length() <= sphere.getRadius();
     }
 
+    /**
+     * test if two AABBoxes intersect with each other, the boxes touching each other are intersected
+     * @param box1 an AABBox
+     * @param box2 another AABBox
+     * @return test result
+     */
+    public static boolean intersect(Box box1, Box box2) {
+        return intersect(box1, box2.minX(), box2.minY(), box2.minZ(), box2.maxX(), box2.maxY(), box2.maxZ());
+    }
+
+    /**
+     * test if an AABBox intersects with the AABBox [x0, x1] * [y0, y1] * [z0, z1], e.g. a node
+     * of spatial index, the boxes touching each other are intersected
+     * @param box the AABBox
+     * @return test result
+     */
+    public static boolean intersect(Box box, double x0, double y0, double z0, double x1, double y1, double z1) {
+        return box.minX() <= x1 && x0 <= box.maxX()
+                && box.minY() <= y1 && y0 <= box.maxY()
+                && box.minZ() <= z1 && z0 <= box.maxZ();
+    }
+
+    /**
+     * test if an AABBox contains another AABBox
+     * @param outer the AABBox which is expected to be larger
+     * @param inner the AABBox which is expected to be inside
+     * @return test result
+     */
+    public static boolean contains(Box outer, Box inner) {
+        return contains(outer, inner.minX(), inner.minY(), inner.minZ(), inner.maxX(), inner.maxY(), inner.maxZ());
+    }
+
+    /**
+     * test if an AABBox contains the AABBox [x0, x1] * [y0, y1] * [z0, z1], a point is
+     * tested by passing the same coordinates twice
+     * @param outer the AABBox which is expected to be larger
+     * @return test result
+     */
+    public static boolean contains(Box outer, double x0, double y0, double z0, double x1, double y1, double z1) {
+        return outer.minX() <= x0 && x1 <= outer.maxX()
+                && outer.minY() <= y0 && y1 <= outer.maxY()
+                && outer.minZ() <= z0 && z1 <= outer.maxZ();
+    }
+
+    /**
+     * test if an AABBox may intersect with a convex polytope, the test is conservative,
+     * see {@link ConvexPolytope#intersects(double, double, double, double, double, double)}
+     * @param box the AABBox
+     * @param polytope the convex polytope, e.g. a view frustum
+     * @return false if the box is certainly separated from the polytope
+     */
+    public static boolean intersect(Box box, ConvexPolytope polytope) {
+        return intersect(polytope, box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ());
+    }
+
+    /**
+     * test if the AABBox [x0, x1] * [y0, y1] * [z0, z1] may intersect with a convex polytope,
+     * the test is conservative, see {@link #intersect(Box, ConvexPolytope)}
+     * @param polytope the convex polytope
+     * @return false if the box is certainly separated from the polytope
+     */
+    public static boolean intersect(ConvexPolytope polytope, double x0, double y0, double z0, double x1, double y1, double z1) {
+        return polytope.intersects(x0, y0, z0, x1, y1, z1);
+    }
+
+    /**
+     * test if a convex polytope contains an AABBox
+     * @param polytope the convex polytope
+     * @param box the AABBox
+     * @return test result
+     */
+    public static boolean contains(ConvexPolytope polytope, Box box) {
+        return contains(polytope, box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ());
+    }
+
+    /**
+     * test if a convex polytope contains the AABBox [x0, x1] * [y0, y1] * [z0, z1]
+     * @param polytope the convex polytope
+     * @return test result
+     */
+    public static boolean contains(ConvexPolytope polytope, double x0, double y0, double z0, double x1, double y1, double z1) {
+        return polytope.contains(x0, y0, z0, x1, y1, z1);
+    }
+
 }
@@ -0,0 +1,768 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.ForkJoinPoolHolder;
+import cn.jimmiez.pcu.util.PcuCommonUtil;
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An octree whose nodes and points are stored in flat primitive arrays.
+ *
+ * Unlike {@link Octree}, this tree does not keep a List of boxed indices in every
+ * node. The indices of points are permuted into one int array, and each node owns
+ * a contiguous range [start, end) of the array. The coordinates of points are
+ * copied in the same permuted order, so that scanning a leaf is a sequential read.
+ * The metadata of nodes lives in parallel primitive arrays, the eight children of
+ * an inner node are stored next to each other, in the same octant order as the
+ * children of {@link Octree.OctreeNode}.
+ *
+ * The search methods keep the semantics of the ones in {@link Octree}.
+ */
+public class FlatOctree implements SpatialIndex {
+
+    /** the position of root node in node arrays **/
+    protected static final int ROOT = 0;
+
+    /** the first child of a leaf node **/
+    protected static final int NO_CHILD = -1;
+
+    /** the point cloud **/
+    protected List<Point3d> points = null;
+
+    /**
+     * the indices of valid points, permuted so that every node owns a contiguous range,
+     * the invalid (NaN or infinite) points are not indexed
+     **/
+    protected int[] order = new int[0];
+
+    /** the x, y, z of points in permuted order, i.e., coordinates[3 * i] is the x of point order[i] **/
+    protected double[] coordinates = new double[0];
+
+    /** the number of nodes **/
+    protected int nodeCount = 0;
+
+    /** the first position of points in a node, inclusive **/
+    protected int[] nodeStart = new int[0];
+
+    /** the last position of points in a node, exclusive **/
+    protected int[] nodeEnd = new int[0];
+
+    /** the position of the first one of eight children, or NO_CHILD for a leaf **/
+    protected int[] nodeFirstChild = new int[0];
+
+    protected int[] nodeDepth = new int[0];
+
+    /** the depth of the deepest node **/
+    protected int treeDepth = 0;
+
+    protected double[] nodeCenterX = new double[0];
+
+    protected double[] nodeCenterY = new double[0];
+
+    protected double[] nodeCenterZ = new double[0];
+
+    /** half of the edge length of the cubic node **/
+    protected double[] nodeHalfLength = new double[0];
+
+    /** a leaf contains at most 100 points unless its depth reaches maxDepth **/
+    private int maxPointsPerNode = 100;
+
+    private int maxDepth = Octree.MAX_DEPTH;
+
+    /** the error bound of k-nearest-neighbors search, 0 means exact search, it is read once by a search **/
+    private volatile double approximationError = 0;
+
+    /**
+     * the pool used to build the tree and run batch search in parallel,
+     * they run on current thread if it is null
+     **/
+    private final ForkJoinPoolHolder poolHolder = new ForkJoinPoolHolder();
+
+    /** the nodes that have fewer points than the threshold are split on current thread **/
+    private int parallelThreshold = 1 << 14;
+
+    /**
+     * build spatial index for point cloud
+     * @param points the point cloud
+     */
+    @Override
+    public void buildIndex(List<Point3d> points) {
+        if (points.size() < 1) {
+            System.err.println("Warning: input for buildIndex() is an empty list.");
+            return;
+        }
+        this.points = points;
+        collectValidPoints();
+        this.nodeCount = 0;
+        this.treeDepth = 0;
+        ensureNodeCapacity(Math.max(16, order.length / maxPointsPerNode * 2));
+        createRootNode();
+        sortPoints();
+        createOctree(ROOT);
+    }
+
+    private void collectValidPoints() {
+        int validCount = 0;
+        for (Point3d point : points) {
+            if (VectorUtil.validPoint(point)) validCount += 1;
+        }
+        order = new int[validCount];
+        coordinates = new double[validCount * 3];
+        int position = 0;
+        for (int i = 0; i < points.size(); i ++) {
+            Point3d point = points.get(i);
+            if (! VectorUtil.validPoint(point)) continue;
+            order[position] = i;
+            coordinates[position * 3] = point.x;
+            coordinates[position * 3 + 1] = point.y;
+            coordinates[position * 3 + 2] = point.z;
+            position += 1;
+        }
+    }
+
+    /**
+     * determine bounding box of data points, expand the box to make it cubic
+     */
+    private void createRootNode() {
+        Box bbox = BoundingBox.of(points);
+        double maxExtent = PcuCommonUtil.max(bbox.getxExtent(), bbox.getyExtent(), bbox.getzExtent());
+        Point3d center = bbox.getCenter();
+        int root = allocateNodes(1);
+        initNode(root, 0, order.length, 0, center.x, center.y, center.z, maxExtent);
+    }
+
+    protected boolean isLeaf(int pointNumber, int depth) {
+        return pointNumber <= maxPointsPerNode || depth >= maxDepth;
+    }
+
+    protected static double childCenter(double center, boolean upper, double childHalfLength) {
+        return upper ? center + childHalfLength : center - childHalfLength;
+    }
+
+    /**
+     * reorder the points so that the points of every node in the octree are contiguous,
+     * if a pool is set, the subtrees with enough points are reordered in parallel
+     */
+    protected void sortPoints() {
+        int[] orderBuffer = new int[order.length];
+        double[] coordinateBuffer = new double[coordinates.length];
+        ForkJoinPool forkJoinPool = poolHolder.getForkJoinPool();
+        boolean parallel = forkJoinPool != null && order.length >= parallelThreshold;
+        PartitionTask task = new PartitionTask(0, order.length, 0,
+                nodeCenterX[ROOT], nodeCenterY[ROOT], nodeCenterZ[ROOT], nodeHalfLength[ROOT],
+                orderBuffer, coordinateBuffer, parallel);
+        if (parallel) {
+            forkJoinPool.invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    /**
+     * create the nodes of octree recursively, the points must have been sorted by sortPoints(),
+     * so the points of each child are found by binary search
+     * @param node the position of current node
+     */
+    protected void createOctree(int node) {
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        if (isLeaf(end - start, nodeDepth[node])) return;
+        int firstChild = allocateNodes(8);
+        nodeFirstChild[node] = firstChild;
+        double cx = nodeCenterX[node];
+        double cy = nodeCenterY[node];
+        double cz = nodeCenterZ[node];
+        double halfLength = nodeHalfLength[node] / 2;
+        int childStart = start;
+        for (int octant = 0; octant < 8; octant ++) {
+            int childEnd = octant == 7 ? end : lowerBound(childStart, end, octant + 1, cx, cy, cz);
+            initNode(firstChild + octant, childStart, childEnd, nodeDepth[node] + 1,
+                    childCenter(cx, (octant & 4) != 0, halfLength),
+                    childCenter(cy, (octant & 2) != 0, halfLength),
+                    childCenter(cz, (octant & 1) != 0, halfLength),
+                    halfLength);
+            childStart = childEnd;
+        }
+        for (int octant = 0; octant < 8; octant ++) {
+            createOctree(firstChild + octant);
+        }
+    }
+
+    /**
+     * @return the first position in [from, to) whose octant is not less than the given octant,
+     * the points in [from, to) must be sorted by their octants
+     */
+    private int lowerBound(int from, int to, int octant, double cx, double cy, double cz) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (octantOf(middle, cx, cy, cz) < octant) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * reorder the points in [start, end) by the octant they are located in,
+     * octant = xi * 4 + yj * 2 + zk, where xi (yj, zk) is 1 if the x (y, z) of point is
+     * not less than the x (y, z) of center
+     * @return the end positions of eight octants
+     */
+    private int[] partition(int start, int end, double cx, double cy, double cz, int[] orderBuffer, double[] coordinateBuffer) {
+        int[] counts = new int[8];
+        for (int i = start; i < end; i ++) {
+            counts[octantOf(i, cx, cy, cz)] += 1;
+        }
+        int[] offsets = new int[8];
+        int[] childEnds = new int[8];
+        int offset = start;
+        for (int octant = 0; octant < 8; octant ++) {
+            offsets[octant] = offset;
+            offset += counts[octant];
+            childEnds[octant] = offset;
+        }
+        for (int i = start; i < end; i ++) {
+            int target = offsets[octantOf(i, cx, cy, cz)] ++;
+            orderBuffer[target] = order[i];
+            coordinateBuffer[target * 3] = coordinates[i * 3];
+            coordinateBuffer[target * 3 + 1] = coordinates[i * 3 + 1];
+            coordinateBuffer[target * 3 + 2] = coordinates[i * 3 + 2];
+        }
+        System.arraycopy(orderBuffer, start, order, start, end - start);
+        System.arraycopy(coordinateBuffer, start * 3, coordinates, start * 3, (end - start) * 3);
+        return childEnds;
+    }
+
+    private int octantOf(int position, double cx, double cy, double cz) {
+        int xi = coordinates[position * 3] < cx ? 0 : 1;
+        int yj = coordinates[position * 3 + 1] < cy ? 0 : 1;
+        int zk = coordinates[position * 3 + 2] < cz ? 0 : 1;
+        return xi * 4 + yj * 2 + zk;
+    }
+
+    protected int allocateNodes(int number) {
+        ensureNodeCapacity(nodeCount + number);
+        int first = nodeCount;
+        nodeCount += number;
+        return first;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (nodeStart.length >= capacity) return;
+        int newCapacity = Math.max(capacity, nodeStart.length * 2);
+        nodeStart = Arrays.copyOf(nodeStart, newCapacity);
+        nodeEnd = Arrays.copyOf(nodeEnd, newCapacity);
+        nodeFirstChild = Arrays.copyOf(nodeFirstChild, newCapacity);
+        nodeDepth = Arrays.copyOf(nodeDepth, newCapacity);
+        nodeCenterX = Arrays.copyOf(nodeCenterX, newCapacity);
+        nodeCenterY = Arrays.copyOf(nodeCenterY, newCapacity);
+        nodeCenterZ = Arrays.copyOf(nodeCenterZ, newCapacity);
+        nodeHalfLength = Arrays.copyOf(nodeHalfLength, newCapacity);
+    }
+
+    protected void initNode(int node, int start, int end, int depth, double x, double y, double z, double halfLength) {
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeFirstChild[node] = NO_CHILD;
+        nodeDepth[node] = depth;
+        treeDepth = Math.max(treeDepth, depth);
+        nodeCenterX[node] = x;
+        nodeCenterY[node] = y;
+        nodeCenterZ[node] = z;
+        nodeHalfLength[node] = halfLength;
+    }
+
+    /**
+     * If you want to acquire the k-nearest neighbors of a certain point p, call this function
+     * @param k the number of nearest neighbors
+     * @param index the index of point p
+     * @return the indices of nearest neighbors
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int index) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchNearestNeighbors.");
+        return searchNearestNeighbors(k, points.get(index));
+    }
+
+    /**
+     * search k nearest neighbors for the point, the points that coincide with the
+     * given point are not regarded as its neighbors
+     * @throws IllegalStateException if previously forget to call buildIndex()
+     * @throws IllegalArgumentException if size of points is less than k + 1
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param point the point, non-null
+     * @return an array of indices of neighboring point, sorted from near to far, the length is k
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, Point3d point) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchNearestNeighbors.");
+        if (k >= this.points.size() || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
+        if (!VectorUtil.validPoint(point)) throw new IllegalArgumentException("The coordinates of given point is invalid");
+        if (k == 0) return new int[] {};
+        KnnSearcher searcher = new KnnSearcher(k, approximationError);
+        searcher.search(point.x, point.y, point.z);
+        return searcher.heap.sortedIndices();
+    }
+
+    /**
+     * search k nearest neighbors for every point in the point cloud
+     * @see FlatOctree#knnAll(int, double[])
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @return the indices of neighbors, the neighbors of the i-th point are located in [i * k, i * k + k)
+     */
+    @Override
+    public int[] knnAll(int k) {
+        return knnAll(k, null);
+    }
+
+    /**
+     * search k nearest neighbors for every point in the point cloud.
+     * The points are processed leaf by leaf, so consecutive queries visit the same
+     * nodes. If a pool is set by setForkJoinPool() or setParallelism(), the leaves
+     * are processed in parallel, and the buffers of search are reused by all queries
+     * in a fork/join task.
+     * @throws IllegalStateException if previously forget to call buildIndex()
+     * @throws IllegalArgumentException if size of points is less than k + 1
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param distances if not null, the distances of neighbors are written in it, in the same
+     *                  layout as the returned indices, so its length must be at least n * k
+     * @return the indices of neighbors, the neighbors of the i-th point are located in [i * k, i * k + k),
+     * sorted from near to far. If the i-th point is invalid or has fewer than k neighbors, the rest
+     * of its neighbors is -1 and the rest of distances is positive infinity.
+     */
+    @Override
+    public int[] knnAll(int k, double[] distances) {
+        checkBatchArguments(k, points == null ? 0 : points.size(), distances);
+        return searchNearestNeighbors(k, null, points.size(), distances);
+    }
+
+    /**
+     * search k nearest neighbors for a batch of points in the point cloud
+     * @see FlatOctree#knnAll(int, double[])
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param indices the indices of query points
+     * @param distances if not null, the distances of neighbors are written in it, in the same
+     *                  layout as the returned indices, so its length must be at least indices.length * k
+     * @return the indices of neighbors, the neighbors of indices[i] are located in [i * k, i * k + k)
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int[] indices, double[] distances) {
+        checkBatchArguments(k, indices.length, distances);
+        return searchNearestNeighbors(k, indices, indices.length, distances);
+    }
+
+    private void checkBatchArguments(int k, int queryNumber, double[] distances) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchNearestNeighbors.");
+        BatchKnn.checkArguments(k, points.size(), queryNumber, distances);
+    }
+
+    private int[] searchNearestNeighbors(int k, final int[] queryIndices, int queryNumber, double[] distances) {
+        final double epsilon = approximationError;
+        BatchKnn<KnnSearcher> batch = new BatchKnn<KnnSearcher>(k) {
+            @Override
+            KnnSearcher newSearcher() {
+                return new KnnSearcher(k, epsilon);
+            }
+
+            /** a query is either a position in permuted order (the points are then visited leaf by leaf), or an index in queryIndices **/
+            @Override
+            void search(KnnSearcher searcher, int query, int[] neighbors, double[] distances) {
+                int row;
+                if (queryIndices == null) {
+                    row = order[query];
+                    searcher.search(coordinates[query * 3], coordinates[query * 3 + 1], coordinates[query * 3 + 2]);
+                } else {
+                    row = query;
+                    Point3d point = points.get(queryIndices[query]);
+                    if (! VectorUtil.validPoint(point)) return;
+                    searcher.search(point.x, point.y, point.z);
+                }
+                searcher.heap.drain(neighbors, distances, row * k);
+            }
+        };
+        // if the indices are not given, the queries are the positions in permuted order
+        return batch.run(queryNumber, queryIndices == null ? order.length : queryNumber, distances, poolHolder.getForkJoinPool());
+    }
+
+    /**
+     * The buffers used by k-nearest-neighbors search. A searcher is used by only
+     * one thread, and it can be reused by many queries to avoid allocation.
+     */
+    private class KnnSearcher {
+
+        private final NeighborHeap heap;
+
+        /** the children of nodes on the search path, eight slots for each depth **/
+        private final int[] children;
+
+        private final double[] childDistances;
+
+        /** a node is skipped if its squared distance times pruneFactor is not less than the worst one in heap **/
+        private final double pruneFactor;
+
+        KnnSearcher(int k, double epsilon) {
+            this.heap = new NeighborHeap(k);
+            this.pruneFactor = (1 + epsilon) * (1 + epsilon);
+            this.children = new int[8 * (treeDepth + 1)];
+            this.childDistances = new double[8 * (treeDepth + 1)];
+        }
+
+        void search(double x, double y, double z) {
+            heap.clear();
+            search(ROOT, x, y, z);
+        }
+
+        /**
+         * visit the nodes from near to far, skip the nodes that are farther than
+         * the current k-th nearest neighbor
+         */
+        private void search(int node, double x, double y, double z) {
+            int firstChild = nodeFirstChild[node];
+            if (firstChild == NO_CHILD) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                    double distance = distanceSquared(i, x, y, z);
+                    // the point itself is not its nearest neighbor
+                    if (distance == 0) continue;
+                    heap.offer(order[i], distance);
+                }
+                return;
+            }
+            int base = nodeDepth[node] * 8;
+            int childCount = 0;
+            for (int child = firstChild; child < firstChild + 8; child ++) {
+                if (nodeStart[child] == nodeEnd[child]) continue;
+                double distance = boxDistanceSquared(child, x, y, z);
+                int i = base + childCount ++;
+                while (i > base && childDistances[i - 1] > distance) {
+                    childDistances[i] = childDistances[i - 1];
+                    children[i] = children[i - 1];
+                    i -= 1;
+                }
+                childDistances[i] = distance;
+                children[i] = child;
+            }
+            for (int i = base; i < base + childCount; i ++) {
+                if (childDistances[i] * pruneFactor >= heap.worst()) break;
+                search(children[i], x, y, z);
+            }
+        }
+    }
+
+    /**
+     * search all neighboring points of specified point within distance
+     * @param point the point
+     * @param radius the distance
+     * @return a List of indices of neighboring points, sorted from near to far
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius) {
+        NeighborBuffer buffer = new NeighborBuffer();
+        searchAllNeighborsWithinDistance(point, radius, buffer);
+        return buffer.toList(0, buffer.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        int from = buffer.size();
+        double squaredRadius = radius * radius;
+        int[] stack = buffer.stack(7 * treeDepth + 8);
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            if (nodeStart[node] == nodeEnd[node]) continue;
+            if (boxDistanceSquared(node, point.x, point.y, point.z) > squaredRadius) continue;
+            int firstChild = nodeFirstChild[node];
+            if (firstChild != NO_CHILD) {
+                for (int child = firstChild + 7; child >= firstChild; child --) stack[top ++] = child;
+                continue;
+            }
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                double distance = distanceSquared(i, point.x, point.y, point.z);
+                if (distance < squaredRadius) buffer.add(order[i], distance);
+            }
+        }
+        return buffer.finish(from);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        return searchAllNeighborsWithinDistance(points.get(index), radius, buffer);
+    }
+
+    /**
+     * search all neighboring points of the point with specified index within distance
+     * @param index the index of a point
+     * @param radius radius of neighborhood
+     * @return indices of neighboring points of this point
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(int index, double radius) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        return searchAllNeighborsWithinDistance(points.get(index), radius);
+    }
+
+    /**
+     * search all points located in an axis-aligned box, the points on the faces of box are included
+     * @param box the box
+     * @return a List of indices of points in the box, in no particular order
+     */
+    @Override
+    public List<Integer> searchAllPointsInBox(Box box) {
+        return searchRangesInBox(box).toList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope) {
+        return searchRangesInPolytope(polytope).toList();
+    }
+
+    /**
+     * search all points located in an axis-aligned box, the result is not materialized
+     * as one index per point, see {@link IndexRanges}
+     * @param box the box, the points on its faces are included
+     * @return the ranges of points in the box
+     */
+    public IndexRanges searchRangesInBox(Box box) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchRangesInBox.");
+        return searchRanges(SpatialIndexes.regionOf(box));
+    }
+
+    /**
+     * search all points located in a convex polytope, e.g. a view frustum, the result is
+     * not materialized as one index per point, see {@link IndexRanges}
+     * @param polytope the convex polytope, the points on its faces are included
+     * @return the ranges of points in the polytope
+     */
+    public IndexRanges searchRangesInPolytope(ConvexPolytope polytope) {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before searchRangesInPolytope.");
+        return searchRanges(SpatialIndexes.regionOf(polytope));
+    }
+
+    /**
+     * the nodes outside the region are skipped, and a node inside the region is taken as a
+     * whole range, only the points in the leaves crossing the boundary are tested one by one
+     */
+    private IndexRanges searchRanges(QueryRegion region) {
+        IndexRanges result = new IndexRanges(order);
+        int[] stack = new int[7 * treeDepth + 8];
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            if (nodeStart[node] == nodeEnd[node]) continue;
+            double halfLength = nodeHalfLength[node];
+            double minX = nodeCenterX[node] - halfLength, maxX = nodeCenterX[node] + halfLength;
+            double minY = nodeCenterY[node] - halfLength, maxY = nodeCenterY[node] + halfLength;
+            double minZ = nodeCenterZ[node] - halfLength, maxZ = nodeCenterZ[node] + halfLength;
+            if (! region.intersects(minX, minY, minZ, maxX, maxY, maxZ)) continue;
+            if (region.contains(minX, minY, minZ, maxX, maxY, maxZ)) {
+                // all points of this node are in the region
+                result.add(nodeStart[node], nodeEnd[node]);
+                continue;
+            }
+            int firstChild = nodeFirstChild[node];
+            if (firstChild != NO_CHILD) {
+                for (int child = firstChild + 7; child >= firstChild; child --) stack[top ++] = child;
+                continue;
+            }
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                if (region.contains(coordinates[i * 3], coordinates[i * 3 + 1], coordinates[i * 3 + 2])) result.add(i, i + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param position the position of point in permuted order
+     * @return the squared distance between the point and (x, y, z)
+     */
+    protected double distanceSquared(int position, double x, double y, double z) {
+        double dx = coordinates[position * 3] - x;
+        double dy = coordinates[position * 3 + 1] - y;
+        double dz = coordinates[position * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @param node the position of node
+     * @return the squared distance between the box of node and (x, y, z), zero if (x, y, z) is inside
+     */
+    protected double boxDistanceSquared(int node, double x, double y, double z) {
+        double halfLength = nodeHalfLength[node];
+        double dx = Math.max(0, Math.abs(x - nodeCenterX[node]) - halfLength);
+        double dy = Math.max(0, Math.abs(y - nodeCenterY[node]) - halfLength);
+        double dz = Math.max(0, Math.abs(z - nodeCenterZ[node]) - halfLength);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Reorders the points in the range of a node, and then the ranges of its eight children.
+     * The ranges of different nodes never overlap, so the children can be reordered
+     * concurrently, and the result does not depend on the order of execution.
+     */
+    private class PartitionTask extends RecursiveAction {
+
+        private final int start;
+
+        private final int end;
+
+        private final int depth;
+
+        private final double cx;
+
+        private final double cy;
+
+        private final double cz;
+
+        private final double halfLength;
+
+        private final int[] orderBuffer;
+
+        private final double[] coordinateBuffer;
+
+        /** if false, the children are reordered on current thread **/
+        private final boolean parallel;
+
+        PartitionTask(int start, int end, int depth, double cx, double cy, double cz, double halfLength,
+                      int[] orderBuffer, double[] coordinateBuffer, boolean parallel) {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+            this.halfLength = halfLength;
+            this.orderBuffer = orderBuffer;
+            this.coordinateBuffer = coordinateBuffer;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            if (isLeaf(end - start, depth)) return;
+            int[] childEnds = partition(start, end, cx, cy, cz, orderBuffer, coordinateBuffer);
+            double childHalfLength = halfLength / 2;
+            List<PartitionTask> subtasks = new ArrayList<>(8);
+            int childStart = start;
+            for (int octant = 0; octant < 8; octant ++) {
+                int childEnd = childEnds[octant];
+                subtasks.add(new PartitionTask(childStart, childEnd, depth + 1,
+                        childCenter(cx, (octant & 4) != 0, childHalfLength),
+                        childCenter(cy, (octant & 2) != 0, childHalfLength),
+                        childCenter(cz, (octant & 1) != 0, childHalfLength),
+                        childHalfLength, orderBuffer, coordinateBuffer,
+                        parallel && childEnd - childStart >= parallelThreshold));
+                childStart = childEnd;
+            }
+            if (parallel) {
+                invokeAll(subtasks);
+            } else {
+                for (PartitionTask subtask : subtasks) subtask.compute();
+            }
+        }
+    }
+
+    /**
+     * save the octree to a file, which can be opened by {@link MappedOctree#open(File)}
+     * so that the octree need not be built again
+     * @param file the file, it is overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        if (points == null) throw new IllegalStateException("FlatOctree.buildIndex() must be called before save.");
+        MappedOctree.write(this, file);
+    }
+
+    /**
+     * @return the number of nodes, including the empty children of inner nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApproximationError(double epsilon) {
+        if (! (epsilon >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = epsilon;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getApproximationError() {
+        return this.approximationError;
+    }
+
+    public int getMaxPointsPerNode() {return this.maxPointsPerNode;}
+
+    public void setMaxPointsPerNode(int m) {
+        this.maxPointsPerNode = m;
+    }
+
+    public int getMaxDepth() {return this.maxDepth;}
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * set the parallelism of building and batch search, the tree built in parallel is
+     * identical to the one built on a single thread
+     * A pool created by a former call is shut down, the pool is kept if the parallelism is not changed.
+     * @param parallelism the number of threads, 1 means building on current thread
+     */
+    public void setParallelism(int parallelism) {
+        poolHolder.setParallelism(parallelism);
+    }
+
+    /**
+     * the pool is owned by the caller, it is never shut down by this class
+     * @param forkJoinPool the pool used to build the tree and run batch search in parallel,
+     *                     null means running on current thread
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        poolHolder.setForkJoinPool(forkJoinPool);
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return poolHolder.getForkJoinPool();
+    }
+
+    public int getParallelThreshold() {return this.parallelThreshold;}
+
+    /**
+     * @param parallelThreshold the node that has at least parallelThreshold points is split in a fork/join task
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+}
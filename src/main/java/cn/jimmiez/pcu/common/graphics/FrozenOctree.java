@@ -0,0 +1,244 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+
+import javax.vecmath.Point3d;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of {@link Octree}, which is created by {@link Octree#freeze()}.
+ *
+ * The nodes of the octree are copied into the flat arrays of {@link FlatOctree}, and the
+ * coordinates of points are copied as well, so neither later changes of the octree (e.g.
+ * insert() and update()) nor changes of the point cloud affect a frozen octree. Nothing
+ * is modified after the constructor returns, and every search allocates its own buffers,
+ * so any number of threads can search a frozen octree at the same time without locks.
+ * A frozen octree can be shared among threads without synchronization. Only the
+ * approximation error can be changed, and a search sees the value when it starts.
+ *
+ * A frozen octree can be passed to the algorithms that build their spatial index for the
+ * point cloud before searching, e.g. {@link Neighborhoods#knn(List, int, SpatialIndex)},
+ * since building it for the points it was frozen with does nothing.
+ *
+ * The batch search runs in the pool of the octree when it is frozen, and on current thread
+ * once the pool is shut down, e.g. after the octree replaces the pool it created.
+ *
+ * The search methods keep the semantics of the ones in {@link Octree}. The points that
+ * are invalid or removed from the octree are not found by any search, and their rows
+ * returned by knnAll() are -1.
+ */
+public final class FrozenOctree implements SpatialIndex {
+
+    /** the nodes and the copied points, never modified or exposed after construction **/
+    private final FlatOctree tree;
+
+    FrozenOctree(Octree octree) {
+        if (octree.points == null) throw new IllegalStateException("Octree.buildIndex() must be called before freeze.");
+        List<Point3d> copies = new ArrayList<>(octree.points.size());
+        for (Point3d point : octree.points) copies.add(new Point3d(point));
+        FlatOctree tree = new FlatOctree();
+        tree.points = Collections.unmodifiableList(copies);
+        tree.order = new int[countPoints(octree.root)];
+        tree.coordinates = new double[tree.order.length * 3];
+        int root = tree.allocateNodes(1);
+        initNode(tree, root, octree.root);
+        copyNode(tree, root, octree.root, 0);
+        tree.setApproximationError(octree.getApproximationError());
+        // the pool is shared, no pool is created by freezing
+        tree.setForkJoinPool(octree.getForkJoinPool());
+        this.tree = tree;
+    }
+
+    private static int countPoints(Octree.OctreeNode node) {
+        if (node.isLeaf()) return node.indices.size();
+        int count = 0;
+        for (Octree.OctreeNode child : node.children) count += countPoints(child);
+        return count;
+    }
+
+    private static void initNode(FlatOctree tree, int node, Octree.OctreeNode source) {
+        Point3d center = source.getCenter();
+        tree.initNode(node, 0, 0, source.depth, center.x, center.y, center.z, source.getxExtent());
+    }
+
+    /**
+     * copy the subtree of source into the node, the points of the subtree are put
+     * at the positions from start
+     * @return the position next to the points of the subtree
+     */
+    private static int copyNode(FlatOctree tree, int node, Octree.OctreeNode source, int start) {
+        int end = start;
+        if (source.isLeaf()) {
+            for (int index : source.indices) {
+                Point3d point = tree.points.get(index);
+                tree.order[end] = index;
+                tree.coordinates[end * 3] = point.x;
+                tree.coordinates[end * 3 + 1] = point.y;
+                tree.coordinates[end * 3 + 2] = point.z;
+                end += 1;
+            }
+        } else {
+            // the children of a node are contiguous in the node arrays
+            int firstChild = tree.allocateNodes(source.children.length);
+            tree.nodeFirstChild[node] = firstChild;
+            for (int i = 0; i < source.children.length; i ++) initNode(tree, firstChild + i, source.children[i]);
+            for (int i = 0; i < source.children.length; i ++) end = copyNode(tree, firstChild + i, source.children[i], end);
+        }
+        tree.nodeStart[node] = start;
+        tree.nodeEnd[node] = end;
+        return end;
+    }
+
+    /**
+     * do nothing if the points are the ones of the octree when it is frozen, a frozen octree
+     * cannot be built for other points, freeze an octree instead
+     * @throws UnsupportedOperationException if the points are different
+     */
+    @Override
+    public void buildIndex(List<Point3d> points) {
+        if (! SpatialIndexes.samePoints(tree.points, points)) {
+            throw new UnsupportedOperationException("A frozen octree is immutable, call Octree.freeze() for other points instead.");
+        }
+    }
+
+    /**
+     * @return the number of points in the point cloud, including the invalid and removed ones
+     */
+    public int getPointNumber() {
+        return tree.points.size();
+    }
+
+    /**
+     * @param index the index of point
+     * @return a copy of the point when the octree is frozen
+     */
+    public Point3d getPoint(int index) {
+        return new Point3d(tree.points.get(index));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int index) {
+        return tree.searchNearestNeighbors(k, index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, Point3d point) {
+        return tree.searchNearestNeighbors(k, point);
+    }
+
+    /**
+     * {@inheritDoc}
+     * It is copied from the octree when it is frozen. The searches already running in other
+     * threads are not affected.
+     */
+    @Override
+    public void setApproximationError(double epsilon) {
+        tree.setApproximationError(epsilon);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getApproximationError() {
+        return tree.getApproximationError();
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the octree has a pool when it is frozen, the points are searched in the pool.
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int[] indices, double[] distances) {
+        return tree.searchNearestNeighbors(k, indices, distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] knnAll(int k) {
+        return tree.knnAll(k);
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the octree has a pool when it is frozen, the points are searched in the pool.
+     */
+    @Override
+    public int[] knnAll(int k, double[] distances) {
+        return tree.knnAll(k, distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(int index, double radius) {
+        return tree.searchAllNeighborsWithinDistance(index, radius);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius) {
+        return tree.searchAllNeighborsWithinDistance(point, radius);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer) {
+        return tree.searchAllNeighborsWithinDistance(index, radius, buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer) {
+        return tree.searchAllNeighborsWithinDistance(point, radius, buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInBox(Box box) {
+        return tree.searchAllPointsInBox(box);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope) {
+        return tree.searchAllPointsInPolytope(polytope);
+    }
+
+    /**
+     * @see FlatOctree#searchRangesInBox(Box)
+     */
+    public IndexRanges searchRangesInBox(Box box) {
+        return tree.searchRangesInBox(box);
+    }
+
+    /**
+     * @see FlatOctree#searchRangesInPolytope(ConvexPolytope)
+     */
+    public IndexRanges searchRangesInPolytope(ConvexPolytope polytope) {
+        return tree.searchRangesInPolytope(polytope);
+    }
+
+}
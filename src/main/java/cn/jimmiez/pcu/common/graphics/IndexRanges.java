@@ -0,0 +1,114 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The result of a range query on {@link FlatOctree}, which is stored as ranges of
+ * positions in the permuted order of octree.
+ *
+ * The points of a node are contiguous in the permuted order, so all points of a node
+ * inside the query region are one range [start, end), no matter how many points the node
+ * has. The index of the point at a position is index(position). The ranges refer to the
+ * octree on which the query is performed, they are still valid after the octree is built
+ * again, but they do not reflect the new points.
+ */
+public class IndexRanges {
+
+    /** the indices of points in permuted order **/
+    private final int[] order;
+
+    /** start and end of ranges **/
+    private int[] bounds = new int[16];
+
+    private int rangeCount = 0;
+
+    private int size = 0;
+
+    IndexRanges(int[] order) {
+        this.order = order;
+    }
+
+    /**
+     * append the range [start, end), it is merged into the last range if they are adjacent
+     */
+    void add(int start, int end) {
+        if (start >= end) return;
+        size += end - start;
+        if (rangeCount > 0 && bounds[rangeCount * 2 - 1] == start) {
+            bounds[rangeCount * 2 - 1] = end;
+            return;
+        }
+        if (rangeCount * 2 == bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        bounds[rangeCount * 2] = start;
+        bounds[rangeCount * 2 + 1] = end;
+        rangeCount += 1;
+    }
+
+    /**
+     * @return the number of points in all ranges
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of ranges
+     */
+    public int rangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * @param i the i-th range
+     * @return the first position of range, inclusive
+     */
+    public int start(int i) {
+        if (i < 0 || i >= rangeCount) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + rangeCount);
+        return bounds[i * 2];
+    }
+
+    /**
+     * @param i the i-th range
+     * @return the last position of range, exclusive
+     */
+    public int end(int i) {
+        if (i < 0 || i >= rangeCount) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + rangeCount);
+        return bounds[i * 2 + 1];
+    }
+
+    /**
+     * @param position a position in a range
+     * @return the index of the point at the position
+     */
+    public int index(int position) {
+        return order[position];
+    }
+
+    /**
+     * @return the indices of all points in the ranges
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int offset = 0;
+        for (int i = 0; i < rangeCount; i ++) {
+            int start = bounds[i * 2], length = bounds[i * 2 + 1] - start;
+            System.arraycopy(order, start, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    /**
+     * @return the indices of all points in the ranges
+     */
+    public List<Integer> toList() {
+        List<Integer> result = new ArrayList<>(size);
+        for (int i = 0; i < rangeCount; i ++) {
+            for (int position = bounds[i * 2]; position < bounds[i * 2 + 1]; position ++) result.add(order[position]);
+        }
+        return result;
+    }
+
+}
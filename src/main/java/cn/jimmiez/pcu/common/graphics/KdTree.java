@@ -0,0 +1,542 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.ForkJoinPoolHolder;
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A k-d tree stored in flat primitive arrays.
+ *
+ * Each node splits its points at the median of the axis along which its bounding
+ * box is the longest, so the tree stays balanced on elongated point clouds (e.g.
+ * corridors and pipelines) and on clouds with very non-uniform density, and its
+ * depth is not limited. As in {@link FlatOctree}, the indices of points are permuted
+ * into one int array, each node owns a contiguous range [start, end) of the array,
+ * and the coordinates are copied in the same order. The two children of a node are
+ * stored next to each other, every node keeps the tight bounding box of its points.
+ */
+public class KdTree implements SpatialIndex {
+
+    /** the position of root node in node arrays **/
+    private static final int ROOT = 0;
+
+    /** the first child of a leaf node **/
+    private static final int NO_CHILD = -1;
+
+    /** the point cloud **/
+    private List<Point3d> points = null;
+
+    /** the indices of valid points, permuted so that every node owns a contiguous range **/
+    private int[] order = new int[0];
+
+    /** the x, y, z of points in permuted order, i.e., coordinates[3 * i] is the x of point order[i] **/
+    private double[] coordinates = new double[0];
+
+    private int nodeCount = 0;
+
+    /** the depth of the deepest node **/
+    private int treeDepth = 0;
+
+    private int[] nodeStart = new int[0];
+
+    private int[] nodeEnd = new int[0];
+
+    /** the position of the left child, the right child is next to it **/
+    private int[] nodeFirstChild = new int[0];
+
+    /** min x, min y, min z, max x, max y, max z of the points in a node **/
+    private double[] nodeBounds = new double[0];
+
+    /** a leaf contains at most 16 points **/
+    private int maxPointsPerNode = 16;
+
+    /** the error bound of k-nearest-neighbors search, 0 means exact search **/
+    private double approximationError = 0;
+
+    /**
+     * the pool used to run batch search in parallel, the batch search runs on
+     * current thread if it is null
+     **/
+    private final ForkJoinPoolHolder poolHolder = new ForkJoinPoolHolder();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void buildIndex(List<Point3d> points) {
+        if (points.size() < 1) {
+            System.err.println("Warning: input for buildIndex() is an empty list.");
+            return;
+        }
+        this.points = points;
+        collectValidPoints();
+        this.nodeCount = 0;
+        this.treeDepth = 0;
+        ensureNodeCapacity(Math.max(16, order.length / maxPointsPerNode * 2));
+        int root = allocateNodes(1);
+        createKdTree(root, 0, order.length, 0);
+    }
+
+    private void collectValidPoints() {
+        int validCount = 0;
+        for (Point3d point : points) {
+            if (VectorUtil.validPoint(point)) validCount += 1;
+        }
+        order = new int[validCount];
+        coordinates = new double[validCount * 3];
+        int position = 0;
+        for (int i = 0; i < points.size(); i ++) {
+            Point3d point = points.get(i);
+            if (! VectorUtil.validPoint(point)) continue;
+            order[position] = i;
+            coordinates[position * 3] = point.x;
+            coordinates[position * 3 + 1] = point.y;
+            coordinates[position * 3 + 2] = point.z;
+            position += 1;
+        }
+    }
+
+    /**
+     * split the points of a node at the median of its longest axis recursively
+     * @param node the position of current node
+     * @param start the first position of points in the node
+     * @param end the last position of points in the node, exclusive
+     * @param depth the depth of current node
+     */
+    private void createKdTree(int node, int start, int end, int depth) {
+        treeDepth = Math.max(treeDepth, depth);
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeFirstChild[node] = NO_CHILD;
+        computeBounds(node, start, end);
+        if (end - start <= maxPointsPerNode) return;
+        int axis = 0;
+        double longest = -1;
+        for (int dimension = 0; dimension < 3; dimension ++) {
+            double extent = nodeBounds[node * 6 + 3 + dimension] - nodeBounds[node * 6 + dimension];
+            if (extent > longest) {
+                longest = extent;
+                axis = dimension;
+            }
+        }
+        // all points in this node coincide
+        if (longest <= 0) return;
+        int middle = (start + end) >>> 1;
+        select(start, end, middle, axis);
+        int firstChild = allocateNodes(2);
+        nodeFirstChild[node] = firstChild;
+        createKdTree(firstChild, start, middle, depth + 1);
+        createKdTree(firstChild + 1, middle, end, depth + 1);
+    }
+
+    private void computeBounds(int node, int start, int end) {
+        double[] bounds = new double[] {
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (int i = start; i < end; i ++) {
+            for (int dimension = 0; dimension < 3; dimension ++) {
+                double value = coordinates[i * 3 + dimension];
+                bounds[dimension] = Math.min(bounds[dimension], value);
+                bounds[3 + dimension] = Math.max(bounds[3 + dimension], value);
+            }
+        }
+        System.arraycopy(bounds, 0, nodeBounds, node * 6, 6);
+    }
+
+    /**
+     * reorder the points in [from, to) so that the point at nth position is the one that
+     * would be there if the points were sorted along the axis
+     */
+    private void select(int from, int to, int nth, int axis) {
+        int left = from, right = to - 1;
+        while (left < right) {
+            double a = coordinates[left * 3 + axis];
+            double b = coordinates[((left + right) >>> 1) * 3 + axis];
+            double c = coordinates[right * 3 + axis];
+            double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            int i = left, j = right;
+            while (i <= j) {
+                while (coordinates[i * 3 + axis] < pivot) i += 1;
+                while (coordinates[j * 3 + axis] > pivot) j -= 1;
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (nth <= j) {
+                right = j;
+            } else if (nth >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int index = order[i];
+        order[i] = order[j];
+        order[j] = index;
+        for (int dimension = 0; dimension < 3; dimension ++) {
+            double value = coordinates[i * 3 + dimension];
+            coordinates[i * 3 + dimension] = coordinates[j * 3 + dimension];
+            coordinates[j * 3 + dimension] = value;
+        }
+    }
+
+    private int allocateNodes(int number) {
+        ensureNodeCapacity(nodeCount + number);
+        int first = nodeCount;
+        nodeCount += number;
+        return first;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (nodeStart.length >= capacity) return;
+        int newCapacity = Math.max(capacity, nodeStart.length * 2);
+        nodeStart = Arrays.copyOf(nodeStart, newCapacity);
+        nodeEnd = Arrays.copyOf(nodeEnd, newCapacity);
+        nodeFirstChild = Arrays.copyOf(nodeFirstChild, newCapacity);
+        nodeBounds = Arrays.copyOf(nodeBounds, newCapacity * 6);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int index) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchNearestNeighbors.");
+        return searchNearestNeighbors(k, points.get(index));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, Point3d point) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchNearestNeighbors.");
+        if (k >= this.points.size() || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
+        if (!VectorUtil.validPoint(point)) throw new IllegalArgumentException("The coordinates of given point is invalid");
+        if (k == 0) return new int[] {};
+        KnnSearcher searcher = new KnnSearcher(k, approximationError);
+        searcher.search(point.x, point.y, point.z);
+        return searcher.heap.sortedIndices();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] knnAll(int k) {
+        return knnAll(k, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The points are processed in the order of leaves, and the leaves are processed in
+     * parallel if a pool is set by setForkJoinPool() or setParallelism().
+     */
+    @Override
+    public int[] knnAll(int k, double[] distances) {
+        checkBatchArguments(k, points == null ? 0 : points.size(), distances);
+        return searchNearestNeighbors(k, null, points.size(), distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int[] indices, double[] distances) {
+        checkBatchArguments(k, indices.length, distances);
+        return searchNearestNeighbors(k, indices, indices.length, distances);
+    }
+
+    private void checkBatchArguments(int k, int queryNumber, double[] distances) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchNearestNeighbors.");
+        BatchKnn.checkArguments(k, points.size(), queryNumber, distances);
+    }
+
+    private int[] searchNearestNeighbors(int k, final int[] queryIndices, int queryNumber, double[] distances) {
+        final double epsilon = approximationError;
+        BatchKnn<KnnSearcher> batch = new BatchKnn<KnnSearcher>(k) {
+            @Override
+            KnnSearcher newSearcher() {
+                return new KnnSearcher(k, epsilon);
+            }
+
+            /** a query is either a position in permuted order (the points are then visited leaf by leaf), or an index in queryIndices **/
+            @Override
+            void search(KnnSearcher searcher, int query, int[] neighbors, double[] distances) {
+                int row;
+                if (queryIndices == null) {
+                    row = order[query];
+                    searcher.search(coordinates[query * 3], coordinates[query * 3 + 1], coordinates[query * 3 + 2]);
+                } else {
+                    row = query;
+                    Point3d point = points.get(queryIndices[query]);
+                    if (! VectorUtil.validPoint(point)) return;
+                    searcher.search(point.x, point.y, point.z);
+                }
+                searcher.heap.drain(neighbors, distances, row * k);
+            }
+        };
+        // if the indices are not given, the queries are the positions in permuted order
+        return batch.run(queryNumber, queryIndices == null ? order.length : queryNumber, distances, poolHolder.getForkJoinPool());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(int index, double radius) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        return searchAllNeighborsWithinDistance(points.get(index), radius);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius) {
+        NeighborBuffer buffer = new NeighborBuffer();
+        searchAllNeighborsWithinDistance(point, radius, buffer);
+        return buffer.toList(0, buffer.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        return searchAllNeighborsWithinDistance(points.get(index), radius, buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        int from = buffer.size();
+        double squaredRadius = radius * radius;
+        int[] stack = buffer.stack(treeDepth + 2);
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            if (boxDistanceSquared(node, point.x, point.y, point.z) >= squaredRadius) continue;
+            int firstChild = nodeFirstChild[node];
+            if (firstChild != NO_CHILD) {
+                stack[top ++] = firstChild + 1;
+                stack[top ++] = firstChild;
+                continue;
+            }
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                double distance = distanceSquared(i, point.x, point.y, point.z);
+                if (distance < squaredRadius) buffer.add(order[i], distance);
+            }
+        }
+        return buffer.finish(from);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInBox(Box box) {
+        return searchRangesInBox(box).toList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope) {
+        return searchRangesInPolytope(polytope).toList();
+    }
+
+    /**
+     * search all points located in an axis-aligned box, the result is not materialized
+     * as one index per point, see {@link IndexRanges}
+     * @param box the box, the points on its faces are included
+     * @return the ranges of points in the box
+     */
+    public IndexRanges searchRangesInBox(Box box) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchRangesInBox.");
+        return searchRanges(SpatialIndexes.regionOf(box));
+    }
+
+    /**
+     * search all points located in a convex polytope, e.g. a view frustum, the result is
+     * not materialized as one index per point, see {@link IndexRanges}
+     * @param polytope the convex polytope, the points on its faces are included
+     * @return the ranges of points in the polytope
+     */
+    public IndexRanges searchRangesInPolytope(ConvexPolytope polytope) {
+        if (points == null) throw new IllegalStateException("KdTree.buildIndex() must be called before searchRangesInPolytope.");
+        return searchRanges(SpatialIndexes.regionOf(polytope));
+    }
+
+    /**
+     * the nodes are tested by their tight bounds, a node inside the region is taken as a whole range
+     */
+    private IndexRanges searchRanges(QueryRegion region) {
+        IndexRanges result = new IndexRanges(order);
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            int bounds = node * 6;
+            double minX = nodeBounds[bounds], minY = nodeBounds[bounds + 1], minZ = nodeBounds[bounds + 2];
+            double maxX = nodeBounds[bounds + 3], maxY = nodeBounds[bounds + 4], maxZ = nodeBounds[bounds + 5];
+            if (! region.intersects(minX, minY, minZ, maxX, maxY, maxZ)) continue;
+            if (region.contains(minX, minY, minZ, maxX, maxY, maxZ)) {
+                result.add(nodeStart[node], nodeEnd[node]);
+                continue;
+            }
+            int firstChild = nodeFirstChild[node];
+            if (firstChild != NO_CHILD) {
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top ++] = firstChild + 1;
+                stack[top ++] = firstChild;
+                continue;
+            }
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                if (region.contains(coordinates[i * 3], coordinates[i * 3 + 1], coordinates[i * 3 + 2])) result.add(i, i + 1);
+            }
+        }
+        return result;
+    }
+
+    private double distanceSquared(int position, double x, double y, double z) {
+        double dx = coordinates[position * 3] - x;
+        double dy = coordinates[position * 3 + 1] - y;
+        double dz = coordinates[position * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the squared distance between the bounding box of node and (x, y, z), zero if (x, y, z) is inside
+     */
+    private double boxDistanceSquared(int node, double x, double y, double z) {
+        int bounds = node * 6;
+        double dx = Math.max(0, Math.max(nodeBounds[bounds] - x, x - nodeBounds[bounds + 3]));
+        double dy = Math.max(0, Math.max(nodeBounds[bounds + 1] - y, y - nodeBounds[bounds + 4]));
+        double dz = Math.max(0, Math.max(nodeBounds[bounds + 2] - z, z - nodeBounds[bounds + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * The buffers used by k-nearest-neighbors search. A searcher is used by only
+     * one thread, and it can be reused by many queries to avoid allocation.
+     */
+    private class KnnSearcher {
+
+        private final NeighborHeap heap;
+
+        /** a node is skipped if its squared distance times pruneFactor is not less than the worst one in heap **/
+        private final double pruneFactor;
+
+        KnnSearcher(int k, double epsilon) {
+            this.heap = new NeighborHeap(k);
+            this.pruneFactor = (1 + epsilon) * (1 + epsilon);
+        }
+
+        void search(double x, double y, double z) {
+            heap.clear();
+            search(ROOT, x, y, z);
+        }
+
+        /**
+         * visit the nearer child first, skip the child that is farther than the
+         * current k-th nearest neighbor
+         */
+        private void search(int node, double x, double y, double z) {
+            int firstChild = nodeFirstChild[node];
+            if (firstChild == NO_CHILD) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i ++) {
+                    double distance = distanceSquared(i, x, y, z);
+                    // the point itself is not its nearest neighbor
+                    if (distance == 0) continue;
+                    heap.offer(order[i], distance);
+                }
+                return;
+            }
+            int near = firstChild, far = firstChild + 1;
+            double nearDistance = boxDistanceSquared(near, x, y, z);
+            double farDistance = boxDistanceSquared(far, x, y, z);
+            if (farDistance < nearDistance) {
+                near = firstChild + 1;
+                far = firstChild;
+                double distance = nearDistance;
+                nearDistance = farDistance;
+                farDistance = distance;
+            }
+            if (nearDistance * pruneFactor < heap.worst()) search(near, x, y, z);
+            if (farDistance * pruneFactor < heap.worst()) search(far, x, y, z);
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApproximationError(double epsilon) {
+        if (! (epsilon >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = epsilon;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getApproximationError() {
+        return this.approximationError;
+    }
+
+    public int getMaxPointsPerNode() {return this.maxPointsPerNode;}
+
+    public void setMaxPointsPerNode(int m) {
+        if (m < 1) throw new IllegalArgumentException("A leaf must be able to hold at least one point.");
+        this.maxPointsPerNode = m;
+    }
+
+    /**
+     * set the parallelism of batch search
+     * A pool created by a former call is shut down, the pool is kept if the parallelism is not changed.
+     * @param parallelism the number of threads, 1 means searching on current thread
+     */
+    public void setParallelism(int parallelism) {
+        poolHolder.setParallelism(parallelism);
+    }
+
+    /**
+     * the pool is owned by the caller, it is never shut down by this class
+     * @param forkJoinPool the pool used to run batch search in parallel, null means running on current thread
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        poolHolder.setForkJoinPool(forkJoinPool);
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return poolHolder.getForkJoinPool();
+    }
+
+}
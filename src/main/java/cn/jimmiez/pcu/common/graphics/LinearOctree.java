@@ -0,0 +1,233 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.util.PcuArrayUtil;
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A linear octree, whose points are sorted by their 63-bit Morton codes (Z-order).
+ *
+ * The bounding cube of point cloud is divided into a 2^21 x 2^21 x 2^21 grid, and every
+ * point gets the Morton code of the grid cell it is located in. Since the highest 3 * d
+ * bits of a code are the path from the root to the node of depth d, the points of any
+ * node are a contiguous range of the sorted array. The points are sorted by a radix
+ * sort (in parallel if a pool is set), which costs O(n), and the nodes are derived from
+ * the sorted codes. The nodes are stored in the same flat arrays as {@link FlatOctree},
+ * so all the search methods of {@link FlatOctree} are available.
+ *
+ * The Morton code of a node also gives its position in the grid, so the adjacent
+ * nodes of a node are found by bit arithmetic, see adjacentNodes().
+ */
+public class LinearOctree extends FlatOctree {
+
+    /** the Morton codes of points in permuted order, i.e., in ascending order **/
+    protected long[] codes = new long[0];
+
+    /** the Morton code of a node, i.e., the highest 3 * depth bits of the codes of its points **/
+    protected long[] nodeCodes = new long[0];
+
+    public LinearOctree() {
+        super.setMaxDepth(MortonCode.BITS);
+    }
+
+    /**
+     * compute the Morton codes of points and sort the points by the codes
+     */
+    @Override
+    protected void sortPoints() {
+        int n = order.length;
+        codes = new long[n];
+        int[] positions = new int[n];
+        double halfLength = nodeHalfLength[ROOT];
+        double minX = nodeCenterX[ROOT] - halfLength;
+        double minY = nodeCenterY[ROOT] - halfLength;
+        double minZ = nodeCenterZ[ROOT] - halfLength;
+        double scale = halfLength > 0 ? MortonCode.RESOLUTION / (2 * halfLength) : 0;
+        for (int i = 0; i < n; i ++) {
+            codes[i] = MortonCode.encode(
+                    cellOf(coordinates[i * 3], minX, scale),
+                    cellOf(coordinates[i * 3 + 1], minY, scale),
+                    cellOf(coordinates[i * 3 + 2], minZ, scale));
+            positions[i] = i;
+        }
+        boolean parallel = getForkJoinPool() != null && n >= getParallelThreshold();
+        PcuArrayUtil.radixSort(codes, positions, parallel ? getForkJoinPool() : null);
+        int[] sortedOrder = new int[n];
+        double[] sortedCoordinates = new double[n * 3];
+        for (int i = 0; i < n; i ++) {
+            int position = positions[i];
+            sortedOrder[i] = order[position];
+            System.arraycopy(coordinates, position * 3, sortedCoordinates, i * 3, 3);
+        }
+        order = sortedOrder;
+        coordinates = sortedCoordinates;
+    }
+
+    /**
+     * @return the coordinate of grid cell, clamped to [0, 2^21)
+     */
+    private static long cellOf(double value, double min, double scale) {
+        long cell = (long) ((value - min) * scale);
+        return Math.max(0, Math.min(MortonCode.RESOLUTION - 1, cell));
+    }
+
+    /**
+     * create the nodes of octree recursively, the points of each child are found by
+     * binary search on the sorted Morton codes
+     * @param node the position of current node
+     */
+    @Override
+    protected void createOctree(int node) {
+        if (node == ROOT) ensureCodeCapacity();
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        int depth = nodeDepth[node];
+        if (isLeaf(end - start, depth)) return;
+        int firstChild = allocateNodes(8);
+        ensureCodeCapacity();
+        nodeFirstChild[node] = firstChild;
+        double cx = nodeCenterX[node];
+        double cy = nodeCenterY[node];
+        double cz = nodeCenterZ[node];
+        double halfLength = nodeHalfLength[node] / 2;
+        int shift = 3 * (MortonCode.BITS - depth - 1);
+        int childStart = start;
+        for (int octant = 0; octant < 8; octant ++) {
+            long childCode = (nodeCodes[node] << 3) | octant;
+            int childEnd = octant == 7 ? end : lowerBound(childStart, end, childCode + 1, shift);
+            initNode(firstChild + octant, childStart, childEnd, depth + 1,
+                    childCenter(cx, (octant & 4) != 0, halfLength),
+                    childCenter(cy, (octant & 2) != 0, halfLength),
+                    childCenter(cz, (octant & 1) != 0, halfLength),
+                    halfLength);
+            nodeCodes[firstChild + octant] = childCode;
+            childStart = childEnd;
+        }
+        for (int octant = 0; octant < 8; octant ++) {
+            createOctree(firstChild + octant);
+        }
+    }
+
+    private void ensureCodeCapacity() {
+        if (nodeCodes.length < nodeStart.length) nodeCodes = Arrays.copyOf(nodeCodes, nodeStart.length);
+    }
+
+    /**
+     * @return the first position in [from, to) whose code prefix is not less than the given prefix
+     */
+    private int lowerBound(int from, int to, long prefix, int shift) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if ((codes[middle] >>> shift) < prefix) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * find the leaf in which the point is located by the Morton code of point
+     * @param point the point
+     * @return the position of leaf, which may be an empty leaf, or -1 if the point is outside the octree
+     */
+    public int locateLeaf(Point3d point) {
+        if (points == null) throw new IllegalStateException("LinearOctree.buildIndex() must be called before locateLeaf.");
+        if (! VectorUtil.validPoint(point)) return -1;
+        if (boxDistanceSquared(ROOT, point.x, point.y, point.z) > 0) return -1;
+        double halfLength = nodeHalfLength[ROOT];
+        double scale = halfLength > 0 ? MortonCode.RESOLUTION / (2 * halfLength) : 0;
+        long code = MortonCode.encode(
+                cellOf(point.x, nodeCenterX[ROOT] - halfLength, scale),
+                cellOf(point.y, nodeCenterY[ROOT] - halfLength, scale),
+                cellOf(point.z, nodeCenterZ[ROOT] - halfLength, scale));
+        int node = ROOT;
+        while (nodeFirstChild[node] != NO_CHILD) {
+            int octant = (int) (code >>> (3 * (MortonCode.BITS - nodeDepth[node] - 1))) & 7;
+            node = nodeFirstChild[node] + octant;
+        }
+        return node;
+    }
+
+    /**
+     * @param node the position of node
+     * @return the indices of points in the node
+     */
+    public int[] pointsInNode(int node) {
+        if (node < 0 || node >= nodeCount) throw new IllegalArgumentException("Cannot find the octree node.");
+        return Arrays.copyOfRange(order, nodeStart[node], nodeEnd[node]);
+    }
+
+    /**
+     * @param node the position of node
+     * @return true if the node has no child
+     */
+    public boolean isLeaf(int node) {
+        if (node < 0 || node >= nodeCount) throw new IllegalArgumentException("Cannot find the octree node.");
+        return nodeFirstChild[node] == NO_CHILD;
+    }
+
+    /**
+     * search the non-empty leaves adjacent to a node. The grid positions of nodes are
+     * decoded from their Morton codes, and only the subtrees touching the node are visited,
+     * so the leaves of different sizes are found without a radius search.
+     * @param node the position of node
+     * @param adjacency see {@link Adjacency}, FACE means sharing a face, EDGE means sharing
+     *                  a face or an edge, VERTEX means sharing only a vertex, TOUCHING means
+     *                  sharing a face, an edge or a vertex
+     * @return the positions of adjacent leaves
+     */
+    public List<Integer> adjacentNodes(int node, Adjacency adjacency) {
+        if (points == null) throw new IllegalStateException("Must call buildIndex() before searching adjacent nodes.");
+        if (node < 0 || node >= nodeCount) throw new IllegalArgumentException("Cannot find the octree node.");
+        long[] low = new long[3], high = new long[3];
+        long[] candidateLow = new long[3], candidateHigh = new long[3];
+        cellBounds(node, low, high);
+        List<Integer> result = new ArrayList<>();
+        int[] stack = new int[7 * treeDepth + 8];
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int candidate = stack[-- top];
+            if (candidate == node || nodeStart[candidate] == nodeEnd[candidate]) continue;
+            cellBounds(candidate, candidateLow, candidateHigh);
+            int touching = MortonCode.touchingAxes(low, high, candidateLow, candidateHigh);
+            // separated, or a descendant of the node
+            if (touching < 0 || (touching == 0 && nodeDepth[candidate] >= nodeDepth[node])) continue;
+            int firstChild = nodeFirstChild[candidate];
+            if (firstChild != NO_CHILD) {
+                for (int child = firstChild + 7; child >= firstChild; child --) stack[top ++] = child;
+            } else if (MortonCode.isAdjacent(touching, adjacency)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * compute the range of the node in the 2^21 x 2^21 x 2^21 grid
+     */
+    private void cellBounds(int node, long[] low, long[] high) {
+        long code = nodeCodes[node];
+        int shift = MortonCode.BITS - nodeDepth[node];
+        low[0] = MortonCode.decodeX(code) << shift;
+        low[1] = MortonCode.decodeY(code) << shift;
+        low[2] = MortonCode.decodeZ(code) << shift;
+        for (int axis = 0; axis < 3; axis ++) high[axis] = low[axis] + (1L << shift);
+    }
+
+    /**
+     * @param maxDepth the max depth of octree, at most 21 because a Morton code has 63 bits
+     */
+    @Override
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0 || maxDepth > MortonCode.BITS) throw new IllegalArgumentException("The max depth of linear octree must be in [0, " + MortonCode.BITS + "].");
+        super.setMaxDepth(maxDepth);
+    }
+
+}
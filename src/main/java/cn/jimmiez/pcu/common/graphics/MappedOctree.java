@@ -0,0 +1,637 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.ForkJoinPoolHolder;
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A read-only octree which is saved by {@link FlatOctree#save(File)} and mapped into
+ * memory by {@link MappedOctree#open(File)}.
+ *
+ * The file keeps the flat arrays of {@link FlatOctree} as they are in memory, so opening
+ * a file only maps it by FileChannel.map(), nothing is copied or parsed, and the pages of
+ * nodes and points are loaded by the operating system when they are visited. Since a
+ * mapped buffer cannot exceed 2GB, a large array is mapped in chunks of 1GB. The original
+ * points are not needed, the coordinates of points are stored in the file as well.
+ *
+ * The search methods keep the semantics of the ones in {@link FlatOctree}. A mapped
+ * octree can be searched by many threads at the same time.
+ */
+public class MappedOctree implements SpatialIndex {
+
+    /** "PCUOCTR1" **/
+    private static final long MAGIC = 0x315254434F554350L;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    /** the size of a mapped chunk is 1GB **/
+    private static final int CHUNK_BITS = 30;
+
+    private static final int ROOT = FlatOctree.ROOT;
+
+    private static final int NO_CHILD = FlatOctree.NO_CHILD;
+
+    /** the number of points passed to FlatOctree.buildIndex(), including the invalid ones **/
+    private final int pointNumber;
+
+    /** the number of valid points **/
+    private final int validNumber;
+
+    private final int nodeCount;
+
+    private final int treeDepth;
+
+    /** the indices of valid points in permuted order **/
+    private final MappedSection order;
+
+    /** the position of a point in permuted order, -1 for invalid points **/
+    private final MappedSection positions;
+
+    /** the x, y, z of points in permuted order **/
+    private final MappedSection coordinates;
+
+    private final MappedSection nodeStart;
+
+    private final MappedSection nodeEnd;
+
+    private final MappedSection nodeFirstChild;
+
+    private final MappedSection nodeDepth;
+
+    private final MappedSection nodeCenterX;
+
+    private final MappedSection nodeCenterY;
+
+    private final MappedSection nodeCenterZ;
+
+    private final MappedSection nodeHalfLength;
+
+    /** the error bound of k-nearest-neighbors search, 0 means exact search **/
+    private double approximationError = 0;
+
+    /** the pool used to run batch search in parallel, the batch search runs on current thread if it is null **/
+    private final ForkJoinPoolHolder poolHolder = new ForkJoinPoolHolder();
+
+    private MappedOctree(FileChannel channel, int chunkBits) throws IOException {
+        if (channel.size() < HEADER_SIZE) throw new IOException("The file is too small to be an octree file.");
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getLong(0) != MAGIC) throw new IOException("The file is not an octree file.");
+        if (header.getInt(8) != VERSION) throw new IOException("Unsupported version of octree file: " + header.getInt(8));
+        pointNumber = header.getInt(12);
+        validNumber = header.getInt(16);
+        nodeCount = header.getInt(20);
+        treeDepth = header.getInt(24);
+        long[] offsets = sectionOffsets(pointNumber, validNumber, nodeCount);
+        if (channel.size() < offsets[offsets.length - 1]) throw new IOException("The octree file is truncated.");
+        int section = 0;
+        order = new MappedSection(channel, offsets[section ++], validNumber, 4, chunkBits);
+        positions = new MappedSection(channel, offsets[section ++], pointNumber, 4, chunkBits);
+        coordinates = new MappedSection(channel, offsets[section ++], validNumber * 3L, 8, chunkBits);
+        nodeStart = new MappedSection(channel, offsets[section ++], nodeCount, 4, chunkBits);
+        nodeEnd = new MappedSection(channel, offsets[section ++], nodeCount, 4, chunkBits);
+        nodeFirstChild = new MappedSection(channel, offsets[section ++], nodeCount, 4, chunkBits);
+        nodeDepth = new MappedSection(channel, offsets[section ++], nodeCount, 4, chunkBits);
+        nodeCenterX = new MappedSection(channel, offsets[section ++], nodeCount, 8, chunkBits);
+        nodeCenterY = new MappedSection(channel, offsets[section ++], nodeCount, 8, chunkBits);
+        nodeCenterZ = new MappedSection(channel, offsets[section ++], nodeCount, 8, chunkBits);
+        nodeHalfLength = new MappedSection(channel, offsets[section], nodeCount, 8, chunkBits);
+    }
+
+    /**
+     * map an octree file saved by {@link FlatOctree#save(File)}, the file shall not be
+     * modified while the octree is in use
+     * @param file the octree file
+     * @return the mapped octree
+     * @throws IOException if the file cannot be read or is not an octree file
+     */
+    public static MappedOctree open(File file) throws IOException {
+        return open(file, CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits the size of a mapped chunk is 2^chunkBits bytes, at least 3
+     */
+    static MappedOctree open(File file, int chunkBits) throws IOException {
+        // the mapping is still valid after the channel is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new MappedOctree(channel, chunkBits);
+        }
+    }
+
+    /**
+     * write the arrays of a flat octree into a file in the layout of sectionOffsets()
+     */
+    static void write(FlatOctree tree, File file) throws IOException {
+        int pointNumber = tree.points.size();
+        int validNumber = tree.order.length;
+        int nodeCount = tree.nodeCount;
+        int[] positions = new int[pointNumber];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < validNumber; i ++) positions[tree.order[i]] = i;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            SectionWriter writer = new SectionWriter(channel);
+            writer.putLong(MAGIC);
+            writer.putInt(VERSION);
+            writer.putInt(pointNumber);
+            writer.putInt(validNumber);
+            writer.putInt(nodeCount);
+            writer.putInt(tree.treeDepth);
+            writer.pad(HEADER_SIZE);
+            writer.putInts(tree.order, validNumber);
+            writer.putInts(positions, pointNumber);
+            writer.putDoubles(tree.coordinates, validNumber * 3);
+            writer.putInts(tree.nodeStart, nodeCount);
+            writer.putInts(tree.nodeEnd, nodeCount);
+            writer.putInts(tree.nodeFirstChild, nodeCount);
+            writer.putInts(tree.nodeDepth, nodeCount);
+            writer.putDoubles(tree.nodeCenterX, nodeCount);
+            writer.putDoubles(tree.nodeCenterY, nodeCount);
+            writer.putDoubles(tree.nodeCenterZ, nodeCount);
+            writer.putDoubles(tree.nodeHalfLength, nodeCount);
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return the offsets of sections in file, every section starts at a multiple of 8,
+     * the last element is the size of file
+     */
+    private static long[] sectionOffsets(int pointNumber, int validNumber, int nodeCount) {
+        long[] sizes = {
+                validNumber * 4L, pointNumber * 4L, validNumber * 24L,
+                nodeCount * 4L, nodeCount * 4L, nodeCount * 4L, nodeCount * 4L,
+                nodeCount * 8L, nodeCount * 8L, nodeCount * 8L, nodeCount * 8L};
+        long[] offsets = new long[sizes.length + 1];
+        offsets[0] = HEADER_SIZE;
+        for (int i = 0; i < sizes.length; i ++) offsets[i + 1] = align(offsets[i] + sizes[i]);
+        return offsets;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * A mapped int or double array, which is split into chunks of 2^chunkBits bytes,
+     * an element never crosses two chunks because the size of chunk is a multiple of 8.
+     */
+    private static class MappedSection {
+
+        private final ByteBuffer[] chunks;
+
+        private final int chunkBits;
+
+        private final long chunkMask;
+
+        MappedSection(FileChannel channel, long offset, long length, int elementSize, int chunkBits) throws IOException {
+            this.chunkBits = chunkBits;
+            this.chunkMask = (1L << chunkBits) - 1;
+            long size = length * elementSize;
+            int chunkNumber = (int) Math.max(1, (size + chunkMask) >>> chunkBits);
+            chunks = new ByteBuffer[chunkNumber];
+            for (int i = 0; i < chunkNumber; i ++) {
+                long position = (long) i << chunkBits;
+                long chunkSize = Math.min(size - position, 1L << chunkBits);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + position, Math.max(0, chunkSize))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        int getInt(long i) {
+            long position = i << 2;
+            return chunks[(int) (position >>> chunkBits)].getInt((int) (position & chunkMask));
+        }
+
+        double getDouble(long i) {
+            long position = i << 3;
+            return chunks[(int) (position >>> chunkBits)].getDouble((int) (position & chunkMask));
+        }
+    }
+
+    /**
+     * Writes the sections through a direct buffer of 1MB, and pads every section to a multiple of 8.
+     */
+    private static class SectionWriter {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        private long written = 0;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void putInts(int[] values, int length) throws IOException {
+            for (int i = 0; i < length; i ++) putInt(values[i]);
+            pad(align(written + buffer.position()));
+        }
+
+        void putDoubles(double[] values, int length) throws IOException {
+            for (int i = 0; i < length; i ++) {
+                ensureRemaining(8);
+                buffer.putDouble(values[i]);
+            }
+        }
+
+        /**
+         * write zeros until the size of file reaches offset
+         */
+        void pad(long offset) throws IOException {
+            while (written + buffer.position() < offset) {
+                ensureRemaining(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void ensureRemaining(int size) throws IOException {
+            if (buffer.remaining() < size) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) written += channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * a mapped octree is read-only, nothing is done if the points are the ones the octree was saved with,
+     * so it can be passed to the algorithms building their spatial index, e.g. {@link Neighborhoods#knn(List, int, SpatialIndex)}.
+     * For other points build a {@link FlatOctree} and save it instead.
+     * @throws UnsupportedOperationException if the points differ from the mapped ones
+     */
+    @Override
+    public void buildIndex(List<Point3d> points) {
+        if (! isMappedFrom(points)) {
+            throw new UnsupportedOperationException("A mapped octree is read-only, build a FlatOctree and save it instead.");
+        }
+    }
+
+    private boolean isMappedFrom(List<Point3d> points) {
+        if (points == null || points.size() != pointNumber) return false;
+        for (int i = 0; i < pointNumber; i ++) {
+            Point3d point = points.get(i);
+            int position = positions.getInt(i);
+            if (position < 0) {
+                if (point != null && VectorUtil.validPoint(point)) return false;
+                continue;
+            }
+            if (point == null
+                    || Double.compare(point.x, coordinates.getDouble(position * 3L)) != 0
+                    || Double.compare(point.y, coordinates.getDouble(position * 3L + 1)) != 0
+                    || Double.compare(point.z, coordinates.getDouble(position * 3L + 2)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of points passed to FlatOctree.buildIndex(), including the invalid ones
+     */
+    public int getPointNumber() {
+        return pointNumber;
+    }
+
+    /**
+     * @return the number of nodes, including the empty children of inner nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @param index the index of point
+     * @return the coordinates of point, NaN if the point is invalid
+     */
+    public Point3d getPoint(int index) {
+        if (index < 0 || index >= pointNumber) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pointNumber);
+        int position = positions.getInt(index);
+        if (position < 0) return new Point3d(Double.NaN, Double.NaN, Double.NaN);
+        return new Point3d(coordinates.getDouble(position * 3L), coordinates.getDouble(position * 3L + 1), coordinates.getDouble(position * 3L + 2));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int index) {
+        return searchNearestNeighbors(k, getPoint(index));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, Point3d point) {
+        if (k >= pointNumber || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
+        if (!VectorUtil.validPoint(point)) throw new IllegalArgumentException("The coordinates of given point is invalid");
+        if (k == 0) return new int[] {};
+        KnnSearcher searcher = new KnnSearcher(k, approximationError);
+        searcher.search(point.x, point.y, point.z);
+        return searcher.heap.sortedIndices();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] knnAll(int k) {
+        return knnAll(k, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The points are processed leaf by leaf, and in parallel if a pool is set.
+     */
+    @Override
+    public int[] knnAll(int k, double[] distances) {
+        BatchKnn.checkArguments(k, pointNumber, pointNumber, distances);
+        return searchNearestNeighbors(k, null, pointNumber, distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int[] indices, double[] distances) {
+        BatchKnn.checkArguments(k, pointNumber, indices.length, distances);
+        return searchNearestNeighbors(k, indices, indices.length, distances);
+    }
+
+    private int[] searchNearestNeighbors(int k, final int[] queryIndices, int queryNumber, double[] distances) {
+        final double epsilon = approximationError;
+        BatchKnn<KnnSearcher> batch = new BatchKnn<KnnSearcher>(k) {
+            @Override
+            KnnSearcher newSearcher() {
+                return new KnnSearcher(k, epsilon);
+            }
+
+            @Override
+            void search(KnnSearcher searcher, int query, int[] neighbors, double[] distances) {
+                int row;
+                long position;
+                if (queryIndices == null) {
+                    row = order.getInt(query);
+                    position = query;
+                } else {
+                    row = query;
+                    if (queryIndices[query] < 0 || queryIndices[query] >= pointNumber) throw new IndexOutOfBoundsException("Index: " + queryIndices[query] + ", Size: " + pointNumber);
+                    position = positions.getInt(queryIndices[query]);
+                    if (position < 0) return;
+                }
+                searcher.search(coordinates.getDouble(position * 3), coordinates.getDouble(position * 3 + 1), coordinates.getDouble(position * 3 + 2));
+                searcher.heap.drain(neighbors, distances, row * k);
+            }
+        };
+        // if the indices are not given, the queries are the positions in permuted order
+        return batch.run(queryNumber, queryIndices == null ? validNumber : queryNumber, distances, poolHolder.getForkJoinPool());
+    }
+
+    /**
+     * The buffers used by k-nearest-neighbors search, see the one of {@link FlatOctree}.
+     */
+    private class KnnSearcher {
+
+        private final NeighborHeap heap;
+
+        /** the children of nodes on the search path, eight slots for each depth **/
+        private final int[] children;
+
+        private final double[] childDistances;
+
+        private final double pruneFactor;
+
+        KnnSearcher(int k, double epsilon) {
+            this.heap = new NeighborHeap(k);
+            this.children = new int[8 * (treeDepth + 1)];
+            this.childDistances = new double[8 * (treeDepth + 1)];
+            this.pruneFactor = (1 + epsilon) * (1 + epsilon);
+        }
+
+        void search(double x, double y, double z) {
+            heap.clear();
+            if (nodeCount > 0) search(ROOT, x, y, z);
+        }
+
+        private void search(int node, double x, double y, double z) {
+            int firstChild = nodeFirstChild.getInt(node);
+            if (firstChild == NO_CHILD) {
+                int end = nodeEnd.getInt(node);
+                for (int i = nodeStart.getInt(node); i < end; i ++) {
+                    double distance = distanceSquared(i, x, y, z);
+                    // the point itself is not its nearest neighbor
+                    if (distance == 0) continue;
+                    heap.offer(order.getInt(i), distance);
+                }
+                return;
+            }
+            int base = nodeDepth.getInt(node) * 8;
+            int childCount = 0;
+            for (int child = firstChild; child < firstChild + 8; child ++) {
+                if (nodeStart.getInt(child) == nodeEnd.getInt(child)) continue;
+                double distance = boxDistanceSquared(child, x, y, z);
+                int i = base + childCount ++;
+                while (i > base && childDistances[i - 1] > distance) {
+                    childDistances[i] = childDistances[i - 1];
+                    children[i] = children[i - 1];
+                    i -= 1;
+                }
+                childDistances[i] = distance;
+                children[i] = child;
+            }
+            for (int i = base; i < base + childCount; i ++) {
+                if (childDistances[i] * pruneFactor >= heap.worst()) break;
+                search(children[i], x, y, z);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(int index, double radius) {
+        return searchAllNeighborsWithinDistance(getPoint(index), radius);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius) {
+        NeighborBuffer buffer = new NeighborBuffer();
+        searchAllNeighborsWithinDistance(point, radius, buffer);
+        return buffer.toList(0, buffer.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer) {
+        return searchAllNeighborsWithinDistance(getPoint(index), radius, buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer) {
+        int from = buffer.size();
+        if (nodeCount < 1) return 0;
+        double squaredRadius = radius * radius;
+        int[] stack = buffer.stack(7 * treeDepth + 8);
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            int start = nodeStart.getInt(node), end = nodeEnd.getInt(node);
+            if (start == end) continue;
+            if (boxDistanceSquared(node, point.x, point.y, point.z) > squaredRadius) continue;
+            int firstChild = nodeFirstChild.getInt(node);
+            if (firstChild != NO_CHILD) {
+                for (int child = firstChild + 7; child >= firstChild; child --) stack[top ++] = child;
+                continue;
+            }
+            for (int i = start; i < end; i ++) {
+                double distance = distanceSquared(i, point.x, point.y, point.z);
+                if (distance < squaredRadius) buffer.add(order.getInt(i), distance);
+            }
+        }
+        return buffer.finish(from);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInBox(Box box) {
+        return searchAllPointsInRegion(SpatialIndexes.regionOf(box));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope) {
+        return searchAllPointsInRegion(SpatialIndexes.regionOf(polytope));
+    }
+
+    private List<Integer> searchAllPointsInRegion(QueryRegion region) {
+        List<Integer> result = new ArrayList<>();
+        if (nodeCount < 1) return result;
+        int[] stack = new int[7 * treeDepth + 8];
+        int top = 0;
+        stack[top ++] = ROOT;
+        while (top > 0) {
+            int node = stack[-- top];
+            int start = nodeStart.getInt(node), end = nodeEnd.getInt(node);
+            if (start == end) continue;
+            double halfLength = nodeHalfLength.getDouble(node);
+            double cx = nodeCenterX.getDouble(node), cy = nodeCenterY.getDouble(node), cz = nodeCenterZ.getDouble(node);
+            double minX = cx - halfLength, maxX = cx + halfLength;
+            double minY = cy - halfLength, maxY = cy + halfLength;
+            double minZ = cz - halfLength, maxZ = cz + halfLength;
+            if (! region.intersects(minX, minY, minZ, maxX, maxY, maxZ)) continue;
+            if (region.contains(minX, minY, minZ, maxX, maxY, maxZ)) {
+                // all points of this node are in the region
+                for (int i = start; i < end; i ++) result.add(order.getInt(i));
+                continue;
+            }
+            int firstChild = nodeFirstChild.getInt(node);
+            if (firstChild != NO_CHILD) {
+                for (int child = firstChild + 7; child >= firstChild; child --) stack[top ++] = child;
+                continue;
+            }
+            for (int i = start; i < end; i ++) {
+                if (region.contains(coordinates.getDouble(i * 3L), coordinates.getDouble(i * 3L + 1), coordinates.getDouble(i * 3L + 2))) {
+                    result.add(order.getInt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    private double distanceSquared(int position, double x, double y, double z) {
+        double dx = coordinates.getDouble(position * 3L) - x;
+        double dy = coordinates.getDouble(position * 3L + 1) - y;
+        double dz = coordinates.getDouble(position * 3L + 2) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double boxDistanceSquared(int node, double x, double y, double z) {
+        double halfLength = nodeHalfLength.getDouble(node);
+        double dx = Math.max(0, Math.abs(x - nodeCenterX.getDouble(node)) - halfLength);
+        double dy = Math.max(0, Math.abs(y - nodeCenterY.getDouble(node)) - halfLength);
+        double dz = Math.max(0, Math.abs(z - nodeCenterZ.getDouble(node)) - halfLength);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApproximationError(double epsilon) {
+        if (! (epsilon >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = epsilon;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getApproximationError() {
+        return this.approximationError;
+    }
+
+    /**
+     * set the parallelism of batch search
+     * A pool created by a former call is shut down, the pool is kept if the parallelism is not changed.
+     * @param parallelism the number of threads, 1 means searching on current thread
+     */
+    public void setParallelism(int parallelism) {
+        poolHolder.setParallelism(parallelism);
+    }
+
+    /**
+     * the pool is owned by the caller, it is never shut down by this class
+     * @param forkJoinPool the pool used to run batch search in parallel, null means running on current thread
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        poolHolder.setForkJoinPool(forkJoinPool);
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return poolHolder.getForkJoinPool();
+    }
+
+}
@@ -0,0 +1,107 @@
+package cn.jimmiez.pcu.common.graphics;
+
+/**
+ * The 63-bit Morton code (Z-order) of a cell in a 2^21 x 2^21 x 2^21 grid, which
+ * interleaves the bits of the x, y, z coordinates of the cell as ...xyzxyz. The three
+ * highest bits of a code are the octant of the cell in the root of octree, the next three
+ * bits are the octant in the child, and so forth, the octant is xi * 4 + yj * 2 + zk as
+ * the one used by {@link Octree}.
+ */
+final class MortonCode {
+
+    /** the number of bits of a coordinate, i.e., the max depth of an octree using Morton code **/
+    static final int BITS = 21;
+
+    /** the number of cells along an axis **/
+    static final long RESOLUTION = 1L << BITS;
+
+    private MortonCode() {}
+
+    /**
+     * @param x the x of cell, {@literal 0 <= x < 2^21}
+     * @param y the y of cell, {@literal 0 <= y < 2^21}
+     * @param z the z of cell, {@literal 0 <= z < 2^21}
+     * @return the Morton code
+     */
+    static long encode(long x, long y, long z) {
+        return (spread(x) << 2) | (spread(y) << 1) | spread(z);
+    }
+
+    static long decodeX(long code) {
+        return compact(code >>> 2);
+    }
+
+    static long decodeY(long code) {
+        return compact(code >>> 1);
+    }
+
+    static long decodeZ(long code) {
+        return compact(code);
+    }
+
+    /**
+     * insert two zero bits between every two bits of the lower 21 bits
+     */
+    private static long spread(long value) {
+        long x = value & 0x1fffffL;
+        x = (x | x << 32) & 0x1f00000000ffffL;
+        x = (x | x << 16) & 0x1f0000ff0000ffL;
+        x = (x | x << 8) & 0x100f00f00f00f00fL;
+        x = (x | x << 4) & 0x10c30c30c30c30c3L;
+        x = (x | x << 2) & 0x1249249249249249L;
+        return x;
+    }
+
+    /**
+     * the inverse of spread()
+     */
+    private static long compact(long value) {
+        long x = value & 0x1249249249249249L;
+        x = (x ^ (x >>> 2)) & 0x10c30c30c30c30c3L;
+        x = (x ^ (x >>> 4)) & 0x100f00f00f00f00fL;
+        x = (x ^ (x >>> 8)) & 0x1f0000ff0000ffL;
+        x = (x ^ (x >>> 16)) & 0x1f00000000ffffL;
+        x = (x ^ (x >>> 32)) & 0x1fffffL;
+        return x;
+    }
+
+    /**
+     * Test how two cells touch each other. A cell is represented by the range [low, high)
+     * of its coordinates on each axis, e.g. a cell of depth d whose x is cx covers
+     * [cx * 2^(21 - d), (cx + 1) * 2^(21 - d)) on x axis.
+     * @return -1 if the two cells are separated, 0 if they overlap, otherwise the number
+     * of axes on which they only touch, i.e., 1 for sharing a face, 2 for sharing an edge
+     * and 3 for sharing a vertex
+     */
+    static int touchingAxes(long[] low1, long[] high1, long[] low2, long[] high2) {
+        int touching = 0;
+        for (int axis = 0; axis < 3; axis ++) {
+            if (high1[axis] == low2[axis] || high2[axis] == low1[axis]) {
+                touching += 1;
+            } else if (high1[axis] < low2[axis] || high2[axis] < low1[axis]) {
+                return -1;
+            }
+        }
+        return touching;
+    }
+
+    /**
+     * @param touchingAxes the result of touchingAxes()
+     * @param adjacency the expected adjacency
+     * @return true if two cells touching on touchingAxes axes are adjacent in the way of adjacency
+     */
+    static boolean isAdjacent(int touchingAxes, Adjacency adjacency) {
+        if (touchingAxes < 1) return false;
+        switch (adjacency) {
+            case FACE:
+                return touchingAxes == 1;
+            case EDGE:
+                return touchingAxes <= 2;
+            case VERTEX:
+                return touchingAxes == 3;
+            default:
+                return true;
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.util.PcuArrayUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable buffer of neighbors, which keeps the indices and the distances of
+ * neighboring points in two primitive arrays.
+ *
+ * The radius search of {@link SpatialIndex} appends the neighbors of a query to the
+ * buffer, so the neighborhoods of many queries can be stored in one buffer one after
+ * another. A buffer only grows, after calling clear() it can be reused without
+ * allocating new arrays. A buffer is not thread-safe.
+ */
+public class NeighborBuffer {
+
+    private int[] indices;
+
+    private double[] distances;
+
+    private int size = 0;
+
+    /** the traversal stack used by search, reused by queries **/
+    private int[] stack = new int[64];
+
+    public NeighborBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the initial capacity
+     */
+    public NeighborBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be positive.");
+        indices = new int[capacity];
+        distances = new double[capacity];
+    }
+
+    /**
+     * @return the number of neighbors in buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * remove all neighbors, the arrays are kept for reuse
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @param i the position in buffer, {@literal 0 <= i < size()}
+     * @return the index of the i-th neighbor
+     */
+    public int index(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return indices[i];
+    }
+
+    /**
+     * @param i the position in buffer, {@literal 0 <= i < size()}
+     * @return the distance between the i-th neighbor and its query point
+     */
+    public double distance(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return distances[i];
+    }
+
+    /**
+     * @return the underlying array of indices, only the first size() elements are valid,
+     * the array may be replaced when the buffer grows
+     */
+    public int[] indices() {
+        return indices;
+    }
+
+    /**
+     * @return the underlying array of distances, only the first size() elements are valid,
+     * the array may be replaced when the buffer grows
+     */
+    public double[] distances() {
+        return distances;
+    }
+
+    /**
+     * @param from the first position, inclusive
+     * @param to the last position, exclusive
+     * @return the indices of neighbors in [from, to)
+     */
+    public List<Integer> toList(int from, int to) {
+        if (from < 0 || to > size || from > to) throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") is out of [0, " + size + ")");
+        List<Integer> list = new ArrayList<>(to - from);
+        for (int i = from; i < to; i ++) list.add(indices[i]);
+        return list;
+    }
+
+    /**
+     * append a neighbor whose distance is not squared-rooted yet
+     */
+    void add(int index, double squaredDistance) {
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            distances = Arrays.copyOf(distances, size * 2);
+        }
+        indices[size] = index;
+        distances[size] = squaredDistance;
+        size += 1;
+    }
+
+    /**
+     * sort the neighbors appended since position from by distance, and turn their
+     * squared distances into distances
+     * @param from the size of buffer before the search
+     * @return the number of neighbors appended since position from
+     */
+    int finish(int from) {
+        PcuArrayUtil.sort(distances, indices, from, size);
+        for (int i = from; i < size; i ++) distances[i] = Math.sqrt(distances[i]);
+        return size - from;
+    }
+
+    /**
+     * @param capacity the minimal length of stack
+     * @return a stack whose length is at least capacity
+     */
+    int[] stack(int capacity) {
+        if (stack.length < capacity) stack = new int[Math.max(capacity, stack.length * 2)];
+        return stack;
+    }
+
+}
@@ -0,0 +1,108 @@
+package cn.jimmiez.pcu.common.graphics;
+
+/**
+ * A bounded max-heap of (squared distance, point index) pairs, which keeps the
+ * k nearest candidates found so far during a k-nearest-neighbors search.
+ * The pairs are stored in two primitive arrays, so no boxing happens when the
+ * candidates are offered.
+ */
+final class NeighborHeap {
+
+    private final double[] distances;
+
+    private final int[] indices;
+
+    private int size = 0;
+
+    NeighborHeap(int capacity) {
+        this.distances = new double[capacity];
+        this.indices = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return indices.length;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the squared distance of the k-th nearest candidate, or positive infinity
+     * if less than k candidates are found
+     */
+    double worst() {
+        return size < indices.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * offer a candidate, it is kept only if it is nearer than the current k-th candidate
+     * @param index the index of point
+     * @param distance the squared distance between the point and the query point
+     */
+    void offer(int index, double distance) {
+        if (size < indices.length) {
+            int i = size ++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) break;
+                distances[i] = distances[parent];
+                indices[i] = indices[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            indices[i] = index;
+        } else if (distance < distances[0]) {
+            siftDown(index, distance);
+        }
+    }
+
+    private void siftDown(int index, double distance) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && distances[child + 1] > distances[child]) child += 1;
+            if (distances[child] <= distance) break;
+            distances[i] = distances[child];
+            indices[i] = indices[child];
+            i = child;
+        }
+        distances[i] = distance;
+        indices[i] = index;
+    }
+
+    /**
+     * drain the heap, from near to far, into the given arrays
+     * @param resultIndices the indices of candidates are written at [offset, offset + size)
+     * @param resultDistances if not null, the (non-squared) distances are written at [offset, offset + size)
+     * @param offset the position of the nearest candidate in result arrays
+     * @return the number of drained candidates
+     */
+    int drain(int[] resultIndices, double[] resultDistances, int offset) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i --) {
+            double distance = distances[0];
+            resultIndices[offset + i] = indices[0];
+            if (resultDistances != null) resultDistances[offset + i] = Math.sqrt(distance);
+            size -= 1;
+            if (size > 0) siftDown(indices[size], distances[size]);
+        }
+        return count;
+    }
+
+    /**
+     * drain the heap and return the indices of candidates, from near to far
+     * @return the indices of candidates
+     */
+    int[] sortedIndices() {
+        int[] result = new int[size];
+        drain(result, null, 0);
+        return result;
+    }
+
+}
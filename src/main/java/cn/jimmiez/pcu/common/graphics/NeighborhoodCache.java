@@ -0,0 +1,260 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import javax.vecmath.Point3d;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of {@link Neighborhoods} shared by the algorithms of a pipeline, e.g. normal
+ * estimation, WLOP and skeleton extraction on the same point cloud, so the neighborhoods
+ * of the same points are searched only once.
+ *
+ * The neighborhoods are keyed by the identity of the point list (not its content), the
+ * kind of search (k nearest neighbors or within a radius), k or radius, and the approximation
+ * error of the spatial index. The cache does not keep a point list alive. Since a list can
+ * be modified in place, a fingerprint of the coordinates is checked on every lookup, and
+ * the neighborhoods of a modified list are searched again.
+ *
+ * The size of cache is bounded by the memory of the cached arrays, the least recently used
+ * neighborhoods are evicted first. The k nearest neighbors for a smaller k are taken from the
+ * cached ones for a larger k if the search is exact. A cache is thread-safe.
+ */
+public class NeighborhoodCache {
+
+    /** 256MB **/
+    private static final long DEFAULT_CAPACITY = 256L << 20;
+
+    private static final int KNN = 0;
+
+    private static final int RADIUS = 1;
+
+    /** the max bytes of cached arrays **/
+    private final long capacity;
+
+    private long usedBytes = 0;
+
+    private int hitCount = 0;
+
+    private int missCount = 0;
+
+    /** ordered from the least recently used to the most recently used **/
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public NeighborhoodCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the max bytes of cached neighborhoods, see {@link Neighborhoods#memorySize()}
+     */
+    public NeighborhoodCache(long capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("The capacity cannot be negative.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * get the k nearest neighbors of every point, they are searched by
+     * {@link Neighborhoods#knn(List, int, SpatialIndex)} if not cached
+     * @param points the point cloud
+     * @param k the number of nearest neighbors
+     * @param index the spatial index used if the neighborhoods are not cached, it is built for points
+     * @return the neighborhoods
+     */
+    public Neighborhoods knn(List<Point3d> points, int k, SpatialIndex index) {
+        double epsilon = index.getApproximationError();
+        long fingerprint = fingerprint(points);
+        Neighborhoods neighborhoods = lookup(new Key(points, KNN, k, epsilon), fingerprint);
+        if (neighborhoods != null) return neighborhoods;
+        if (epsilon == 0) neighborhoods = lookupNearest(points, k, fingerprint);
+        if (neighborhoods == null) neighborhoods = Neighborhoods.knn(points, k, index);
+        store(new Key(points, KNN, k, epsilon), fingerprint, neighborhoods);
+        return neighborhoods;
+    }
+
+    /**
+     * get the neighbors within radius of every point, they are searched by
+     * {@link Neighborhoods#radius(List, double, SpatialIndex)} if not cached
+     * @param points the point cloud
+     * @param radius the radius of neighborhood
+     * @param index the spatial index used if the neighborhoods are not cached, it is built for points
+     * @return the neighborhoods
+     */
+    public Neighborhoods radius(List<Point3d> points, double radius, SpatialIndex index) {
+        double epsilon = index.getApproximationError();
+        long fingerprint = fingerprint(points);
+        Neighborhoods neighborhoods = lookup(new Key(points, RADIUS, radius, epsilon), fingerprint);
+        if (neighborhoods != null) return neighborhoods;
+        neighborhoods = Neighborhoods.radius(points, radius, index);
+        store(new Key(points, RADIUS, radius, epsilon), fingerprint, neighborhoods);
+        return neighborhoods;
+    }
+
+    private synchronized Neighborhoods lookup(Key key, long fingerprint) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.fingerprint != fingerprint) {
+            // the points have been modified
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount += 1;
+            return null;
+        }
+        hitCount += 1;
+        return entry.neighborhoods;
+    }
+
+    /**
+     * take the k nearest neighbors from the cached exact ones for a larger k
+     */
+    private synchronized Neighborhoods lookupNearest(List<Point3d> points, int k, long fingerprint) {
+        for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+            Key key = entry.getKey();
+            if (key.points.get() != points || key.kind != KNN || key.parameter <= k || key.epsilon != 0) continue;
+            if (entry.getValue().fingerprint != fingerprint) continue;
+            return entry.getValue().neighborhoods.nearest(k);
+        }
+        return null;
+    }
+
+    private synchronized void store(Key key, long fingerprint, Neighborhoods neighborhoods) {
+        long bytes = neighborhoods.memorySize();
+        if (bytes > capacity) return;
+        remove(key);
+        entries.put(key, new Entry(neighborhoods, fingerprint));
+        usedBytes += bytes;
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > capacity && iterator.hasNext()) {
+            usedBytes -= iterator.next().getValue().neighborhoods.memorySize();
+            iterator.remove();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) usedBytes -= entry.neighborhoods.memorySize();
+    }
+
+    /**
+     * remove the cached neighborhoods of a point list
+     * @param points the point list
+     */
+    public synchronized void invalidate(List<Point3d> points) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            List<Point3d> cached = entry.getKey().points.get();
+            if (cached == null || cached == points) {
+                usedBytes -= entry.getValue().neighborhoods.memorySize();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * @return the number of cached neighborhoods
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the bytes of cached neighborhoods
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of lookups that found cached neighborhoods
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups that did not find cached neighborhoods, the neighborhoods
+     * taken from the ones for a larger k are counted as misses as well
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * a hash of the size and the coordinates of points, which is cheap compared with searching
+     */
+    private static long fingerprint(List<Point3d> points) {
+        long hash = points.size();
+        for (Point3d point : points) {
+            hash = hash * 31 + Double.doubleToLongBits(point.x);
+            hash = hash * 31 + Double.doubleToLongBits(point.y);
+            hash = hash * 31 + Double.doubleToLongBits(point.z);
+        }
+        return hash;
+    }
+
+    private static class Key {
+
+        /** the point list is compared by identity, and not kept alive by the cache **/
+        private final WeakReference<List<Point3d>> points;
+
+        private final int identity;
+
+        private final int kind;
+
+        /** k or radius **/
+        private final double parameter;
+
+        private final double epsilon;
+
+        Key(List<Point3d> points, int kind, double parameter, double epsilon) {
+            this.points = new WeakReference<>(points);
+            this.identity = System.identityHashCode(points);
+            this.kind = kind;
+            this.parameter = parameter;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (! (o instanceof Key)) return false;
+            Key key = (Key) o;
+            List<Point3d> list = points.get();
+            return list != null && list == key.points.get() && kind == key.kind
+                    && Double.compare(parameter, key.parameter) == 0 && Double.compare(epsilon, key.epsilon) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(parameter) * 31 + Double.doubleToLongBits(epsilon);
+            return (identity * 31 + kind) * 31 + (int) (bits ^ (bits >>> 32));
+        }
+    }
+
+    private static class Entry {
+
+        private final Neighborhoods neighborhoods;
+
+        /** the fingerprint of points when the neighborhoods are searched **/
+        private final long fingerprint;
+
+        Entry(Neighborhoods neighborhoods, long fingerprint) {
+            this.neighborhoods = neighborhoods;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+}
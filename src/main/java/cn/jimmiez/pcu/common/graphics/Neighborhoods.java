@@ -0,0 +1,163 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The neighborhoods of all points in a point cloud, stored in compressed sparse row (CSR)
+ * layout: the neighbors of the i-th point are the positions [offset(i), offset(i + 1)) of
+ * two primitive arrays, one for the indices of neighbors and one for their distances. The
+ * neighbors of a point are sorted from near to far. An invalid point has no neighbors.
+ *
+ * Neighborhoods are immutable, so they can be shared by algorithms and threads, e.g. by
+ * {@link NeighborhoodCache}.
+ */
+public final class Neighborhoods {
+
+    private final int[] offsets;
+
+    private final int[] indices;
+
+    private final double[] distances;
+
+    Neighborhoods(int[] offsets, int[] indices, double[] distances) {
+        this.offsets = offsets;
+        this.indices = indices;
+        this.distances = distances;
+    }
+
+    /**
+     * search the k nearest neighbors of every point, see {@link SpatialIndex#knnAll(int, double[])}
+     * @param points the point cloud
+     * @param k the number of nearest neighbors
+     * @param index the spatial index, it is built for points before searching
+     * @return the neighborhoods
+     */
+    public static Neighborhoods knn(List<Point3d> points, int k, SpatialIndex index) {
+        index.buildIndex(points);
+        double[] knnDistances = new double[points.size() * k];
+        int[] neighbors = index.knnAll(k, knnDistances);
+        return ofKnn(neighbors, knnDistances, k, points.size());
+    }
+
+    /**
+     * search the neighbors of every point within radius, see
+     * {@link SpatialIndex#searchAllNeighborsWithinDistance(Point3d, double, NeighborBuffer)},
+     * the neighbors of a point include itself
+     * @param points the point cloud
+     * @param radius the radius of neighborhood
+     * @param index the spatial index, it is built for points before searching
+     * @return the neighborhoods
+     */
+    public static Neighborhoods radius(List<Point3d> points, double radius, SpatialIndex index) {
+        index.buildIndex(points);
+        NeighborBuffer buffer = new NeighborBuffer();
+        int[] offsets = new int[points.size() + 1];
+        for (int i = 0; i < points.size(); i ++) {
+            Point3d point = points.get(i);
+            if (VectorUtil.validPoint(point)) index.searchAllNeighborsWithinDistance(point, radius, buffer);
+            offsets[i + 1] = buffer.size();
+        }
+        return new Neighborhoods(offsets, Arrays.copyOf(buffer.indices(), buffer.size()), Arrays.copyOf(buffer.distances(), buffer.size()));
+    }
+
+    /**
+     * @param neighbors the result of knnAll(), the invalid neighbors (-1) are dropped
+     * @param knnDistances the distances written by knnAll()
+     * @param k the number of nearest neighbors
+     * @param n the number of points
+     */
+    static Neighborhoods ofKnn(int[] neighbors, double[] knnDistances, int k, int n) {
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i ++) {
+            int count = 0;
+            while (count < k && neighbors[i * k + count] >= 0) count += 1;
+            offsets[i + 1] = offsets[i] + count;
+        }
+        int[] indices = new int[offsets[n]];
+        double[] distances = new double[offsets[n]];
+        for (int i = 0; i < n; i ++) {
+            int count = offsets[i + 1] - offsets[i];
+            System.arraycopy(neighbors, i * k, indices, offsets[i], count);
+            System.arraycopy(knnDistances, i * k, distances, offsets[i], count);
+        }
+        return new Neighborhoods(offsets, indices, distances);
+    }
+
+    /**
+     * @param k the number of nearest neighbors to be kept, no more than the k of these neighborhoods
+     * @return the first k neighbors of every point, i.e., the k nearest neighbors if
+     * these neighborhoods are the result of k-nearest-neighbors search
+     */
+    Neighborhoods nearest(int k) {
+        int n = size();
+        int[] newOffsets = new int[n + 1];
+        for (int i = 0; i < n; i ++) newOffsets[i + 1] = newOffsets[i] + Math.min(k, count(i));
+        int[] newIndices = new int[newOffsets[n]];
+        double[] newDistances = new double[newOffsets[n]];
+        for (int i = 0; i < n; i ++) {
+            int count = newOffsets[i + 1] - newOffsets[i];
+            System.arraycopy(indices, offsets[i], newIndices, newOffsets[i], count);
+            System.arraycopy(distances, offsets[i], newDistances, newOffsets[i], count);
+        }
+        return new Neighborhoods(newOffsets, newIndices, newDistances);
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param i the index of point
+     * @return the position of the first neighbor of the i-th point, offset(i + 1) is the end
+     */
+    public int offset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @param i the index of point
+     * @return the number of neighbors of the i-th point
+     */
+    public int count(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * @param position a position in [offset(i), offset(i + 1))
+     * @return the index of the neighbor at the position
+     */
+    public int index(int position) {
+        return indices[position];
+    }
+
+    /**
+     * @param position a position in [offset(i), offset(i + 1))
+     * @return the distance between the neighbor at the position and its point
+     */
+    public double distance(int position) {
+        return distances[position];
+    }
+
+    /**
+     * @param i the index of point
+     * @return the indices of neighbors of the i-th point, sorted from near to far
+     */
+    public int[] neighborsOf(int i) {
+        return Arrays.copyOfRange(indices, offsets[i], offsets[i + 1]);
+    }
+
+    /**
+     * @return the number of bytes of the arrays
+     */
+    public long memorySize() {
+        return 4L * offsets.length + 12L * indices.length;
+    }
+
+}
@@ -2,13 +2,17 @@ package cn.jimmiez.pcu.common.graphics;
 
 
 import cn.jimmiez.pcu.common.graphics.shape.Box;
-import cn.jimmiez.pcu.common.graphics.shape.Sphere;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.ForkJoinPoolHolder;
 import cn.jimmiez.pcu.util.PcuArrayUtil;
 import cn.jimmiez.pcu.util.PcuCommonUtil;
 import cn.jimmiez.pcu.util.VectorUtil;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static java.lang.Math.*;
 
@@ -16,9 +20,13 @@ import static java.lang.Math.*;
 /**
  * An octree recursively divide a box 3d space into eight octants and can accelerate
  * the process of searching nearest neighbors of points.
+ *
+ * An octree is not thread-safe: it can be searched by many threads only if no thread
+ * calls buildIndex(), insert(), remove() or update() and the point cloud is not changed
+ * meanwhile. To share it among threads, search the immutable snapshot returned by freeze().
  */
 //@SuppressWarnings("Duplicates")
-public class Octree {
+public class Octree implements SpatialIndex {
 
     /**
      * the root node of the octree,
@@ -35,31 +43,215 @@ public class Octree {
     protected Map<Long, OctreeNode> octreeIndices = new HashMap<>();
 
     /**
-     * the max depth of this tree,
+     * the default max depth of this tree,
      * theoretically it shall be less than 21, because every three bits in a Long-type
      * octree-node index is used to locate its position of siblings.
      **/
     protected static final int MAX_DEPTH = 10;
 
-    /** an octree cell contains at most 100 points **/
+    /** the ratio by which the root node is enlarged when a point is inserted outside it **/
+    private static final double ROOT_MARGIN = 0.25;
+
+    /**
+     * the deepest depth of octree node that can be used, the index of a node at depth d
+     * takes 3 * d + 3 bits of a Long-type index
+     **/
+    static final int DEPTH_LIMIT = 20;
+
+    /** an octree cell contains at most 100 points unless its depth reaches maxDepth **/
     private int maxPointsPerNode = 100;
 
+    private int maxDepth = MAX_DEPTH;
+
+    /** if true, maxPointsPerNode and maxDepth are chosen by buildIndex() according to the points **/
+    private boolean autoTuning = false;
+
+    /** the error bound of k-nearest-neighbors search, 0 means exact search **/
+    private double approximationError = 0;
+
+    /** the pool used to build the tree in parallel, the tree is built on current thread if it is null **/
+    private final ForkJoinPoolHolder poolHolder = new ForkJoinPoolHolder();
+
+    /** the nodes that have fewer points than the threshold are split on current thread **/
+    private int parallelThreshold = 1 << 14;
+
+    /** the leaf in which a point is located, null if the point is invalid or removed **/
+    private OctreeNode[] leafOfPoint = new OctreeNode[0];
+
+    /** the points removed by remove(), they are excluded when the octree is rebuilt **/
+    private BitSet removedPoints = new BitSet();
+
     /**
      * build spatial index for point cloud
      * note that the length double array in List points must be 3
      * @param points the point cloud
      */
+    @Override
     public void buildIndex(List<Point3d> points) {
         if (points.size() < 1) {
             System.err.println("Warning: input for buildIndex() is an empty list.");
             return;
         }
 
-        this.octreeIndices.clear();
         this.points = points;
+        this.removedPoints.clear();
+        if (autoTuning) {
+            OctreeTuner tuner = OctreeTuner.tune(points, DEPTH_LIMIT);
+            this.maxPointsPerNode = tuner.maxPointsPerNode;
+            this.maxDepth = tuner.maxDepth;
+        }
+        rebuild(0);
+    }
+
+    /**
+     * build the octree for the points that are not removed
+     * @param margin the ratio by which the root node is enlarged, so that the points
+     *               moving out of the bounding box do not cause rebuilding every time
+     */
+    private void rebuild(double margin) {
+        this.octreeIndices.clear();
+        this.leafOfPoint = new OctreeNode[points.size()];
+
+        createRootNode(margin);
+        ForkJoinPool forkJoinPool = poolHolder.getForkJoinPool();
+        if (forkJoinPool != null && points.size() >= parallelThreshold) {
+            forkJoinPool.invoke(new OctreeTask(0, this.root));
+            registerLeaves(this.root);
+        } else {
+            createOctree(0, this.root);
+        }
+    }
+
+    /**
+     * Append a point to the point cloud and insert it into the octree. The point is added
+     * to the list passed to buildIndex(), so its index is the last one of the list. Only
+     * the leaf in which the point is located is changed, the leaf is split if it has more
+     * than maxPointsPerNode points. If the point is outside the root node, the octree is
+     * rebuilt with a root node enlarged by ROOT_MARGIN.
+     * @param point the new point
+     * @return the index of the new point
+     */
+    public int insert(Point3d point) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before insert.");
+        points.add(point);
+        int index = points.size() - 1;
+        if (VectorUtil.validPoint(point)) insertIndex(index);
+        return index;
+    }
+
+    /**
+     * Remove a point from the octree. The point is kept in the point cloud so that the
+     * indices of other points are not changed, but it will not be found by any search.
+     * If the leaf and its siblings have no more than maxPointsPerNode points in total,
+     * they are merged into their parent.
+     * @param index the index of point
+     * @return false if the point is not in the octree, i.e., it is invalid or has been removed
+     */
+    public boolean remove(int index) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before remove.");
+        if (index < 0 || index >= points.size()) throw new IllegalArgumentException("Cannot find the point " + index + ".");
+        removedPoints.set(index);
+        return removeIndex(index);
+    }
+
+    /**
+     * Move a point to a new position, the coordinates of the point in the point cloud are
+     * set to newPosition. Nothing is changed in the octree if the point is still inside
+     * its leaf, otherwise it is removed from the leaf and inserted again. If the point
+     * has been removed, it is inserted back.
+     * @param index the index of point
+     * @param newPosition the new position, it can be the point itself whose coordinates
+     *                    have been changed
+     */
+    public void update(int index, Point3d newPosition) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before update.");
+        if (index < 0 || index >= points.size()) throw new IllegalArgumentException("Cannot find the point " + index + ".");
+        Point3d point = points.get(index);
+        if (point != newPosition) point.set(newPosition);
+        removedPoints.clear(index);
+        boolean valid = VectorUtil.validPoint(point);
+        OctreeNode leaf = index < leafOfPoint.length ? leafOfPoint[index] : null;
+        if (leaf != null && valid && boxDistanceSquared(leaf, point) == 0) return;
+        removeIndex(index);
+        if (valid) insertIndex(index);
+    }
 
-        createRootNode();
-        createOctree(0, this.root);
+    /**
+     * Create an immutable snapshot of this octree, the nodes and the coordinates of
+     * points are copied, so the snapshot can be searched by any number of threads at
+     * the same time, while this octree and the point cloud are still modifiable.
+     * @see FrozenOctree
+     * @return the frozen octree
+     */
+    public FrozenOctree freeze() {
+        return new FrozenOctree(this);
+    }
+
+    /**
+     * put a point into the leaf in which it is located, and split the leaf if necessary
+     */
+    private void insertIndex(int index) {
+        if (index >= leafOfPoint.length) leafOfPoint = Arrays.copyOf(leafOfPoint, Math.max(index + 1, leafOfPoint.length * 2));
+        Point3d point = points.get(index);
+        if (boxDistanceSquared(root, point) > 0) {
+            rebuild(ROOT_MARGIN);
+            return;
+        }
+        OctreeNode node = root;
+        while (! node.isLeaf()) {
+            Point3d center = node.getCenter();
+            int xi = point.x < center.x ? 0 : 1;
+            int yj = point.y < center.y ? 0 : 1;
+            int zk = point.z < center.z ? 0 : 1;
+            node = node.children[xi * 4 + yj * 2 + zk * 1];
+        }
+        node.indices.add(index);
+        leafOfPoint[index] = node;
+        if (node.indices.size() == 1) this.octreeIndices.put(node.index, node);
+        if (node.indices.size() > maxPointsPerNode && node.depth < maxDepth) {
+            this.octreeIndices.remove(node.index);
+            splitNode(node.depth, node);
+            for (OctreeNode child : node.children) createOctree(node.depth + 1, child);
+        }
+    }
+
+    /**
+     * take a point out of its leaf, and merge the leaf into its parent if possible
+     * @return false if the point is not in any leaf
+     */
+    private boolean removeIndex(int index) {
+        OctreeNode leaf = index < leafOfPoint.length ? leafOfPoint[index] : null;
+        if (leaf == null) return false;
+        leafOfPoint[index] = null;
+        leaf.indices.remove(Integer.valueOf(index));
+        if (leaf.indices.size() < 1) this.octreeIndices.remove(leaf.index);
+        mergeNode(leaf.parent);
+        return true;
+    }
+
+    /**
+     * merge the children of a node into it if all of them are leaves and they have no
+     * more than maxPointsPerNode points in total, then try the parent of the node
+     * @param node the parent of a changed leaf, null for root
+     */
+    private void mergeNode(OctreeNode node) {
+        while (node != null) {
+            int size = 0;
+            for (OctreeNode child : node.children) {
+                if (! child.isLeaf()) return;
+                size += child.indices.size();
+            }
+            if (size > maxPointsPerNode) return;
+            List<Integer> indices = new ArrayList<>(size);
+            for (OctreeNode child : node.children) {
+                indices.addAll(child.indices);
+                this.octreeIndices.remove(child.index);
+            }
+            node.children = null;
+            node.indices = indices;
+            if (size > 0) registerLeaf(node);
+            node = node.parent;
+        }
     }
 
 
@@ -71,114 +263,104 @@ public class Octree {
      * @param index the index of point p
      * @return the indices of nearest neighbors
      */
+    @Override
     public int[] searchNearestNeighbors(int k, int index) {
         return searchNearestNeighbors(k, points.get(index));
     }
 
-    private Comparator<Integer> distanceComparator(final Point3d point, boolean smallFirst) {
-        if (smallFirst)
-        return new Comparator<Integer>() {
-            @Override
-            public int compare(Integer pointIndex1, Integer pointIndex2) {
-                Point3d p1 = points.get(pointIndex1);
-                Point3d p2 = points.get(pointIndex2);
-                return Double.compare(p1.distance(point), p2.distance(point));
-            }
-        };
-        return new Comparator<Integer>() {
-            @Override
-            public int compare(Integer pointIndex1, Integer pointIndex2) {
-                Point3d p1 = points.get(pointIndex1);
-                Point3d p2 = points.get(pointIndex2);
-                return - Double.compare(p1.distance(point), p2.distance(point));
-            }
-        };
-    }
-
-    private Long indexOfNearestCell(final Point3d point) {
-        long result = locateOctreeNode(root, point);
-        if (result == -1) {
-            PriorityQueue<Long> queue = new PriorityQueue<>(octreeIndices.size(), new Comparator<Long>() {
-                @Override
-                public int compare(Long o1, Long o2) {
-                    OctreeNode node1 = octreeIndices.get(o1);
-                    OctreeNode node2 = octreeIndices.get(o2);
-                    Double distance1 = point.distance(node1.getCenter());
-                    Double distance2 = point.distance(node2.getCenter());
-                    return distance1.compareTo(distance2);
-                }
-            });
-            queue.addAll(octreeIndices.keySet());
-            result = queue.poll();
-        }
-        return result;
-    }
-
     /**
-     * search k nearest neighbors for the point
+     * search k nearest neighbors for the point by a best-first descent from the root,
+     * the point can be inside or outside the octree. The points that coincide with the
+     * given point are not regarded as its neighbors.
      * @throws IllegalStateException if previously forget to call buildIndex()
      * @throws IllegalArgumentException if size of points is less than k + 1
      * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
      * @param point the point, non-null
-     * @return an array of indices of neighboring point, the length is k,
+     * @return an array of indices of neighboring point, sorted from near to far, the length is k
+     * unless there are fewer than k valid points
      */
-    public int[] searchNearestNeighbors(int k, final Point3d point) {
+    @Override
+    public int[] searchNearestNeighbors(int k, Point3d point) {
         if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchNearestNeighbors.");
         if (k >= this.points.size() || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
         if (!VectorUtil.validPoint(point)) throw new IllegalArgumentException("The coordinates of given point is invalid");
         if (k == 0 ) return new int[] {};
-        Comparator<Integer> comparator = distanceComparator(point, false);
-
-        long leafNodeIndex = indexOfNearestCell(point);
-
-        PriorityQueue<Integer> queue = new PriorityQueue<>(k + 1, comparator);
-        Set<Point3d> set = new HashSet<>(k * 2);
-        Set<Long> visitedBoxes = new HashSet<>();
-        double leafSize = octreeIndices.get(leafNodeIndex).getxExtent();
-
-        Sphere searchRange = new Sphere(point, leafSize);
-        set.add(point);
-
-        while (queue.size() < k) {
-            Set<Long> candidates = new HashSet<>();
-//            determineCandidatesWithinRadius(currentSearchRadius, point, candidates);
-            determineCandidatesWithinRadius(searchRange.getRadius(), searchRange.getCenter(), candidates);
-            for (Long newNode : candidates) {
-                if (visitedBoxes.contains(newNode)) continue;
-                if (Collisions.contains(searchRange, octreeIndices.get(newNode))) visitedBoxes.add(newNode);
-                for (int index : octreeIndices.get(newNode).indices) {
-                    if (set.contains(points.get(index))) continue;
-                    if (points.get(index).distance(point) <= searchRange.getRadius()) {
-                        queue.add(index);
-                        set.add(points.get(index));
-                    }
-                    if (queue.size() > k) queue.poll();
+        NeighborHeap heap = new NeighborHeap(k);
+        double pruneFactor = (1 + approximationError) * (1 + approximationError);
+        // visit the nodes from near to far, whether the point is inside the octree or not
+        PriorityQueue<QueuedNode> queue = new PriorityQueue<>();
+        queue.add(new QueuedNode(root, boxDistanceSquared(root, point)));
+        while (queue.size() > 0) {
+            QueuedNode nearest = queue.poll();
+            // the rest nodes are farther than the current k-th nearest neighbor
+            if (nearest.distance * pruneFactor >= heap.worst()) break;
+            OctreeNode node = nearest.node;
+            if (node.isLeaf()) {
+                List<Integer> indices = node.indices;
+                for (int i = 0; i < indices.size(); i ++) {
+                    int index = indices.get(i);
+                    double distance = points.get(index).distanceSquared(point);
+                    // the point itself is not its nearest neighbor, NaN is skipped as well
+                    if (! (distance > 0)) continue;
+                    heap.offer(index, distance);
                 }
-//                queue.addAll(octreeIndices.get(newNode).indices);
+                continue;
             }
-//            Collections.sort(queue, comparator);
-//            while (queue.size() > k) queue.remove(queue.size() - 1);
-            searchRange.setRadius(searchRange.getRadius() + leafSize);
+            for (OctreeNode child : node.children) {
+                if (child.isLeaf() && child.indices.size() < 1) continue;
+                double distance = boxDistanceSquared(child, point);
+                if (distance * pruneFactor < heap.worst()) queue.add(new QueuedNode(child, distance));
+            }
+        }
+        return heap.sortedIndices();
+    }
+
+    /**
+     * an octree node in the queue of k-nearest-neighbors search
+     */
+    private static class QueuedNode implements Comparable<QueuedNode> {
+
+        private final OctreeNode node;
+
+        /** the squared distance between the node and the query point **/
+        private final double distance;
+
+        QueuedNode(OctreeNode node, double distance) {
+            this.node = node;
+            this.distance = distance;
         }
 
-        int[] indices = new int[k];
-        for (int i = 0; i < k; i ++) {
-//            indices[i] = queue.get(i);
-            indices[i] = queue.poll();
+        @Override
+        public int compareTo(QueuedNode o) {
+            return Double.compare(distance, o.distance);
         }
-        PcuArrayUtil.reverse(indices);
-        return indices;
     }
 
     /**
-     * determine bounding box of data points, expand the box to make it cubic
+     * @return the squared distance between the cubic node and the point, zero if the point is inside
      */
-    private void createRootNode() {
+    private static double boxDistanceSquared(OctreeNode node, Point3d point) {
+        Point3d center = node.getCenter();
+        double halfLength = node.getxExtent();
+        double dx = Math.max(0, Math.abs(point.x - center.x) - halfLength);
+        double dy = Math.max(0, Math.abs(point.y - center.y) - halfLength);
+        double dz = Math.max(0, Math.abs(point.z - center.z) - halfLength);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * determine bounding box of data points, expand the box to make it cubic,
+     * the invalid points and the removed points are not put into the root
+     * @param margin the ratio by which the cube is enlarged
+     */
+    private void createRootNode(double margin) {
         Box bbox = BoundingBox.of(points);
         double maxExtent = PcuCommonUtil.max(bbox.getxExtent(), bbox.getyExtent(), bbox.getzExtent());
-        this.root = new OctreeNode(bbox.getCenter(), maxExtent, 0);
+        this.root = new OctreeNode(bbox.getCenter(), maxExtent * (1 + margin), 0);
         this.root.indices = new ArrayList<>(points.size());
-        this.root.indices.addAll(PcuCommonUtil.incrementalIntegerList(points.size()));
+        for (int i = 0; i < points.size(); i ++) {
+            if (VectorUtil.validPoint(points.get(i)) && ! removedPoints.get(i)) this.root.indices.add(i);
+        }
     }
 
     /**
@@ -188,10 +370,22 @@ public class Octree {
      */
     protected void createOctree(int currentDepth, OctreeNode currentNode) {
         if (currentNode.indices.size() < 1) return;
-        if (currentNode.indices.size() <= maxPointsPerNode || currentDepth >= MAX_DEPTH) {
-            this.octreeIndices.put(currentNode.index, currentNode);
+        if (currentNode.indices.size() <= maxPointsPerNode || currentDepth >= maxDepth) {
+            registerLeaf(currentNode);
             return;
         }
+        splitNode(currentDepth, currentNode);
+        for (OctreeNode node : currentNode.children) {
+            createOctree(currentDepth + 1, node);
+        }
+    }
+
+    /**
+     * create eight children of an octree node and distribute its points to the children
+     * @param currentDepth  the depth of current octree node
+     * @param currentNode current octree node
+     */
+    private void splitNode(int currentDepth, OctreeNode currentNode) {
         currentNode.children = new OctreeNode[8];
         int cnt = 0;
         for (int i : new int[]{-1, 1}) {
@@ -205,6 +399,7 @@ public class Octree {
                     OctreeNode node = new OctreeNode(center, length / 2, currentDepth + 1);
                     currentNode.children[cnt] = node;
                     node.index = index;
+                    node.parent = currentNode;
                     node.indices = new ArrayList<>(currentNode.indices.size() / 8 + 10);
                     cnt += 1;
                 }
@@ -221,11 +416,59 @@ public class Octree {
             currentNode.children[childIndex].indices.add(index);
         }
         currentNode.indices = null;
-        for (OctreeNode node : currentNode.children) {
-            createOctree(currentDepth + 1, node);
+    }
+
+    /**
+     * put the non-empty leaves into octreeIndices in the same order as createOctree() does
+     * @param node the root of subtree
+     */
+    private void registerLeaves(OctreeNode node) {
+        if (node.isLeaf()) {
+            if (node.indices.size() > 0) registerLeaf(node);
+            return;
         }
+        for (OctreeNode child : node.children) registerLeaves(child);
     }
 
+    /**
+     * put a non-empty leaf into octreeIndices and record the leaf of its points
+     */
+    private void registerLeaf(OctreeNode leaf) {
+        this.octreeIndices.put(leaf.index, leaf);
+        for (int index : leaf.indices) leafOfPoint[index] = leaf;
+    }
+
+    /**
+     * Splits an octree node and then its children. The children of a node share no
+     * data with each other, so they can be split concurrently. The leaves are
+     * registered in octreeIndices after all tasks are done.
+     */
+    private class OctreeTask extends RecursiveAction {
+
+        private final int currentDepth;
+
+        private final OctreeNode currentNode;
+
+        OctreeTask(int currentDepth, OctreeNode currentNode) {
+            this.currentDepth = currentDepth;
+            this.currentNode = currentNode;
+        }
+
+        @Override
+        protected void compute() {
+            int size = currentNode.indices.size();
+            if (size < 1) return;
+            if (size <= maxPointsPerNode || currentDepth >= maxDepth) return;
+            splitNode(currentDepth, currentNode);
+            List<OctreeTask> subtasks = new ArrayList<>(8);
+            for (OctreeNode node : currentNode.children) subtasks.add(new OctreeTask(currentDepth + 1, node));
+            if (size >= parallelThreshold) {
+                invokeAll(subtasks);
+            } else {
+                for (OctreeTask subtask : subtasks) subtask.compute();
+            }
+        }
+    }
 
     /**
      * find the index of octree node in which the target point is located
@@ -251,47 +494,55 @@ public class Octree {
     }
 
 
-    private PriorityQueue<Integer> searchNeighborsInNodes(List<Long> candidateLeaves, final Point3d point) {
-        int capacity = 0;
-        for (long leafIndex : candidateLeaves) capacity += this.octreeIndices.get(leafIndex).indices.size();
-        PriorityQueue<Integer> queue = new PriorityQueue<>(capacity, new Comparator<Integer>() {
-            @Override
-            public int compare(Integer pointIndex1, Integer pointIndex2) {
-                Point3d p1 = points.get(pointIndex1);
-                Point3d p2 = points.get(pointIndex2);
-                return Double.compare(p1.distance(point), p2.distance(point));
-            }
-        });
-        for (long leafIndex : candidateLeaves) {
-            queue.addAll(this.octreeIndices.get(leafIndex).indices);
-        }
-        return queue;
-    }
-
     /**
      * search all neighboring points of specified point within distance
      * @param point the point
      * @param radius the distance
      * @return a List of indices of neighboring points
      */
+    @Override
     public List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius) {
-        List<Integer> neighborIndices = new ArrayList<>();
-        List<Long> candidateLeaves = new ArrayList<>();
-        determineCandidatesWithinRadius(radius, point, candidateLeaves);
+        NeighborBuffer buffer = new NeighborBuffer();
+        searchAllNeighborsWithinDistance(point, radius, buffer);
+        return buffer.toList(0, buffer.size());
+    }
 
-        PriorityQueue<Integer> queue = searchNeighborsInNodes(candidateLeaves, point);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        int from = buffer.size();
+        collectNeighborsWithinDistance(root, point, radius * radius, buffer);
+        return buffer.finish(from);
+    }
 
-        while (queue.size() > 0) {
-            Integer nextIndex = queue.poll();
-            Point3d neighboringPoint = points.get(nextIndex);
-            if (point.distance(neighboringPoint) >= radius) {
-                break;
-            } else {
-                neighborIndices.add(nextIndex);
-            }
-        }
-        return neighborIndices;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchAllNeighborsWithinDistance.");
+        return searchAllNeighborsWithinDistance(points.get(index), radius, buffer);
+    }
 
+    /**
+     * append the points in a subtree whose squared distances to the point are less than squaredRadius
+     */
+    private void collectNeighborsWithinDistance(OctreeNode node, Point3d point, double squaredRadius, NeighborBuffer buffer) {
+        if (boxDistanceSquared(node, point) >= squaredRadius) return;
+        if (! node.isLeaf()) {
+            for (OctreeNode child : node.children) collectNeighborsWithinDistance(child, point, squaredRadius, buffer);
+            return;
+        }
+        List<Integer> indices = node.indices;
+        for (int i = 0; i < indices.size(); i ++) {
+            int index = indices.get(i);
+            Point3d neighbor = points.get(index);
+            double distance = neighbor.distanceSquared(point);
+            if (distance < squaredRadius) buffer.add(index, distance);
+        }
     }
 
     /**
@@ -300,73 +551,307 @@ public class Octree {
      * @param radius radius of neighborhood
      * @return indices of neighboring points of this point
      */
+    @Override
     public List<Integer> searchAllNeighborsWithinDistance(int index, double radius) {
         return searchAllNeighborsWithinDistance(points.get(index), radius);
     }
 
-    private void determineCandidatesWithinRadius(double radius, Point3d point, Collection<Long> candidates) {
-        Sphere sphere = new Sphere(point, radius);
-        // ===========================================
-        // all octree nodes that intersects with sphere will be added into queue
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] knnAll(int k) {
+        return knnAll(k, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The points are searched one by one.
+     */
+    @Override
+    public int[] knnAll(int k, double[] distances) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before knnAll.");
+        return searchNearestNeighbors(k, SpatialIndexes.allIndices(points.size()), distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The points are searched one by one.
+     */
+    @Override
+    public int[] searchNearestNeighbors(int k, int[] indices, double[] distances) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchNearestNeighbors.");
+        if (k >= this.points.size() || k < 0) throw new IllegalArgumentException("number of nearest neighbors is larger than data size");
+        return SpatialIndexes.searchOneByOne(this, points, k, indices, distances);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInBox(Box box) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchAllPointsInBox.");
+        return searchAllPointsInRegion(SpatialIndexes.regionOf(box));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchAllPointsInPolytope.");
+        return searchAllPointsInRegion(SpatialIndexes.regionOf(polytope));
+    }
+
+    /**
+     * the nodes outside the region are skipped, and all points of a node inside the region are taken
+     */
+    private List<Integer> searchAllPointsInRegion(QueryRegion region) {
+        List<Integer> result = new ArrayList<>();
         List<OctreeNode> visitingQueue = new ArrayList<>();
-        if (Collisions.intersect(root, sphere)) visitingQueue.add(root);
-        int currentVisit = 0;
-        for (; currentVisit < visitingQueue.size(); currentVisit ++) {
+        visitingQueue.add(root);
+        for (int currentVisit = 0; currentVisit < visitingQueue.size(); currentVisit ++) {
             OctreeNode visiting = visitingQueue.get(currentVisit);
-            if (visiting.isLeaf()) {
-                if (octreeIndices.get(visiting.index) == null) continue;
-                candidates.add(visiting.index);
-            } else {
-                for (OctreeNode child : visiting.children) {
-                    if (Collisions.intersect(child, sphere)) {
-                        visitingQueue.add(child);
-                    }
+            if (! region.intersects(visiting.minX(), visiting.minY(), visiting.minZ(), visiting.maxX(), visiting.maxY(), visiting.maxZ())) continue;
+            if (! visiting.isLeaf()) {
+                visitingQueue.addAll(Arrays.asList(visiting.children));
+                continue;
+            }
+            boolean contained = region.contains(visiting.minX(), visiting.minY(), visiting.minZ(), visiting.maxX(), visiting.maxY(), visiting.maxZ());
+            for (int index : visiting.indices) {
+                Point3d point = points.get(index);
+                if (contained || region.contains(point.x, point.y, point.z)) result.add(index);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cast a ray into the point cloud and find the first point whose distance to the ray is less
+     * than radius, e.g. to test whether a line of sight is occluded. The points are ordered by
+     * the parameters t of their projections on the ray origin + t * direction. The nodes are
+     * visited from front to back, and a node is skipped if the ray misses the node enlarged by
+     * radius (see {@link Box#clipRay(Point3d, Vector3d, double, double[])}), or if the ray enters
+     * it behind the first point found so far, so only the nodes along the ray are visited.
+     * @param origin the origin of ray
+     * @param direction the direction of ray, non-zero, not necessarily normalized
+     * @param radius the radius of ray, positive
+     * @return the index of the first point hit by the ray, -1 if no point is hit
+     */
+    public int castRay(Point3d origin, Vector3d direction, double radius) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before castRay.");
+        if (! VectorUtil.validPoint(origin)) throw new IllegalArgumentException("The coordinates of origin is invalid");
+        if (! (direction.lengthSquared() > 0) || Double.isInfinite(direction.lengthSquared())) throw new IllegalArgumentException("The direction must be a non-zero vector");
+        if (! (radius > 0)) throw new IllegalArgumentException("The radius must be positive.");
+        RayQuery query = new RayQuery(origin, direction, radius, Double.POSITIVE_INFINITY, true);
+        query.search();
+        return query.firstIndex;
+    }
+
+    /**
+     * search all points whose distances to the segment from start to end are less than radius,
+     * e.g. the points hit by a simulated laser beam. The nodes are visited in the same way as
+     * castRay() does.
+     * @param start the start of segment
+     * @param end the end of segment
+     * @param radius the radius of segment, positive
+     * @return the indices of points, sorted from start to end by the projections of points on the segment
+     */
+    public List<Integer> searchPointsAlongSegment(Point3d start, Point3d end, double radius) {
+        if (points == null) throw new IllegalStateException("Octree.buildIndex() must be called before searchPointsAlongSegment.");
+        if (! VectorUtil.validPoint(start) || ! VectorUtil.validPoint(end)) throw new IllegalArgumentException("The coordinates of segment is invalid");
+        if (! (radius > 0)) throw new IllegalArgumentException("The radius must be positive.");
+        Vector3d direction = new Vector3d();
+        direction.sub(end, start);
+        // a degenerate segment is a point
+        if (direction.lengthSquared() == 0) return searchAllNeighborsWithinDistance(start, radius);
+        RayQuery query = new RayQuery(start, direction, radius, 1, false);
+        query.search();
+        PcuArrayUtil.sort(query.hitParameters, query.hitIndices, 0, query.hitCount);
+        List<Integer> result = new ArrayList<>(query.hitCount);
+        for (int i = 0; i < query.hitCount; i ++) result.add(query.hitIndices[i]);
+        return result;
+    }
+
+    /**
+     * the state of a ray query, the ray is origin + t * direction, {@literal 0 <= t <= maxParameter}
+     */
+    private class RayQuery {
+
+        private final Point3d origin;
+
+        private final Vector3d direction;
+
+        private final double radius;
+
+        private final double maxParameter;
+
+        /** if true, only the first hit point is kept **/
+        private final boolean firstOnly;
+
+        private final double lengthSquared;
+
+        /** the range of ray clipped by a node **/
+        private final double[] range = new double[2];
+
+        private int firstIndex = -1;
+
+        private double firstParameter = Double.POSITIVE_INFINITY;
+
+        private int[] hitIndices = new int[16];
+
+        private double[] hitParameters = new double[16];
+
+        private int hitCount = 0;
+
+        RayQuery(Point3d origin, Vector3d direction, double radius, double maxParameter, boolean firstOnly) {
+            this.origin = origin;
+            this.direction = direction;
+            this.radius = radius;
+            this.maxParameter = maxParameter;
+            this.firstOnly = firstOnly;
+            this.lengthSquared = direction.lengthSquared();
+        }
+
+        void search() {
+            if (clip(root)) visit(root);
+        }
+
+        /**
+         * clip the ray by the node enlarged by radius, range[0] is where the ray enters the node
+         */
+        private boolean clip(OctreeNode node) {
+            range[0] = 0;
+            range[1] = maxParameter;
+            return node.clipRay(origin, direction, radius, range) && range[0] < firstParameter;
+        }
+
+        private void visit(OctreeNode node) {
+            if (node.isLeaf()) {
+                for (int index : node.indices) test(index);
+                return;
+            }
+            // sort the children hit by the ray from front to back
+            OctreeNode[] children = new OctreeNode[8];
+            double[] entries = new double[8];
+            int childCount = 0;
+            for (OctreeNode child : node.children) {
+                if (child.isLeaf() && child.indices.size() < 1) continue;
+                if (! clip(child)) continue;
+                int i = childCount ++;
+                while (i > 0 && entries[i - 1] > range[0]) {
+                    entries[i] = entries[i - 1];
+                    children[i] = children[i - 1];
+                    i -= 1;
                 }
+                entries[i] = range[0];
+                children[i] = child;
             }
+            for (int i = 0; i < childCount; i ++) {
+                // the rest children are entered behind the first hit point
+                if (entries[i] >= firstParameter) break;
+                visit(children[i]);
+            }
+        }
+
+        private void test(int index) {
+            Point3d point = points.get(index);
+            double dx = point.x - origin.x, dy = point.y - origin.y, dz = point.z - origin.z;
+            double t = (dx * direction.x + dy * direction.y + dz * direction.z) / lengthSquared;
+            t = Math.max(0, Math.min(maxParameter, t));
+            dx -= t * direction.x;
+            dy -= t * direction.y;
+            dz -= t * direction.z;
+            if (dx * dx + dy * dy + dz * dz >= radius * radius) return;
+            if (firstOnly) {
+                if (t < firstParameter) {
+                    firstParameter = t;
+                    firstIndex = index;
+                }
+                return;
+            }
+            if (hitCount == hitIndices.length) {
+                hitIndices = Arrays.copyOf(hitIndices, hitCount * 2);
+                hitParameters = Arrays.copyOf(hitParameters, hitCount * 2);
+            }
+            hitIndices[hitCount] = index;
+            hitParameters[hitCount] = t;
+            hitCount += 1;
         }
     }
 
     /**
-     * search adjacent nodes of an octree node
+     * search adjacent nodes of an octree node. The position of a node in the grid of
+     * its depth is decoded from the bits of its index, so only the subtrees touching
+     * the node are visited.
      * @param nodeIndex the index of octree node
-     * @param adjacency see {@link Adjacency}
-     * @return the list of adjacent octree nodes
+     * @param adjacency see {@link Adjacency}, FACE means sharing a face, EDGE means sharing
+     *                  a face or an edge, VERTEX means sharing only a vertex, TOUCHING means
+     *                  sharing a face, an edge or a vertex
+     * @return the list of adjacent non-empty leaves
      */
     public List<OctreeNode> adjacentNodes(Long nodeIndex, Adjacency adjacency) {
         List<OctreeNode> result = new ArrayList<>();
-        OctreeNode node = octreeIndices.get(nodeIndex);
         if (points == null) throw new IllegalStateException("Must call buildIndex() before searching adjacent nodes.");
+        OctreeNode node = octreeIndices.get(nodeIndex);
         if (node == null) throw new IllegalArgumentException("Cannot find the octree node.");
-        // compute half of diagonal length of the box
-        double threshold = pow(node.getxExtent(), 2) + pow(node.getyExtent(), 2) + pow(node.getzExtent(), 2);
-        threshold = sqrt(threshold);
-        List<Long> candidates = new ArrayList<>();
-        determineCandidatesWithinRadius(threshold + 1E-5, node.getCenter(), candidates);
-        for (Long leafIndex : candidates) {
-            OctreeNode leafNode = octreeIndices.get(leafIndex);
-            double distance = leafNode.getCenter().distance(node.getCenter());
-            double faceThreshold = leafNode.getxExtent() + node.getxExtent();
-            double edgeThreshold = (leafNode.getxExtent() + node.getxExtent()) * sqrt(2.0);
-            double vertexThreshold = (leafNode.getxExtent() + node.getxExtent()) * sqrt(3.0);
-            switch (adjacency) {
-                case FACE:
-                    if (distance >= faceThreshold && distance < edgeThreshold - 1E-6) {
-                        result.add(leafNode);
-                    }
-                    break;
-                case EDGE:
-                    if (distance >= faceThreshold && distance < vertexThreshold - 1E-6) {
-                        result.add(leafNode);
-                    }
-                    break;
-                case VERTEX:
-                    if (distance >= vertexThreshold - 1E-6 && distance <= vertexThreshold + 1E-6) {
-                        result.add(leafNode);
-                    }
-                    break;
+        long[] low = new long[3], high = new long[3];
+        cellBounds(node, low, high);
+        collectAdjacentNodes(root, node, low, high, adjacency, new long[3], new long[3], result);
+        return result;
+    }
+
+    private void collectAdjacentNodes(OctreeNode candidate, OctreeNode node, long[] low, long[] high,
+                                      Adjacency adjacency, long[] candidateLow, long[] candidateHigh, List<OctreeNode> result) {
+        if (candidate == node) return;
+        cellBounds(candidate, candidateLow, candidateHigh);
+        int touching = MortonCode.touchingAxes(low, high, candidateLow, candidateHigh);
+        // separated, or a descendant of the node
+        if (touching < 0 || (touching == 0 && candidate.depth >= node.depth)) return;
+        if (! candidate.isLeaf()) {
+            for (OctreeNode child : candidate.children) {
+                collectAdjacentNodes(child, node, low, high, adjacency, candidateLow, candidateHigh, result);
             }
+        } else if (MortonCode.isAdjacent(touching, adjacency) && candidate.indices.size() > 0) {
+            result.add(candidate);
         }
-        return result;
+    }
+
+    /**
+     * compute the range of a node in the 2^21 x 2^21 x 2^21 grid, the octant of a node
+     * of depth d in its parent is stored in the bits [3d, 3d + 3) of its index
+     */
+    private void cellBounds(OctreeNode node, long[] low, long[] high) {
+        long index = node.index;
+        long x = 0, y = 0, z = 0;
+        for (int depth = 1; depth <= node.depth; depth ++) {
+            long octant = (index >>> (3 * depth)) & 7;
+            x = (x << 1) | (octant >>> 2);
+            y = (y << 1) | ((octant >>> 1) & 1);
+            z = (z << 1) | (octant & 1);
+        }
+        int shift = MortonCode.BITS - node.depth;
+        low[0] = x << shift;
+        low[1] = y << shift;
+        low[2] = z << shift;
+        for (int axis = 0; axis < 3; axis ++) high[axis] = low[axis] + (1L << shift);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApproximationError(double epsilon) {
+        if (! (epsilon >= 0)) throw new IllegalArgumentException("The approximation error must be non-negative.");
+        this.approximationError = epsilon;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getApproximationError() {
+        return this.approximationError;
     }
 
     public int getMaxPointsPerNode() {return this.maxPointsPerNode;}
@@ -375,6 +860,62 @@ public class Octree {
         this.maxPointsPerNode = m;
     }
 
+    public boolean isAutoTuning() {return this.autoTuning;}
+
+    /**
+     * Let buildIndex() choose maxPointsPerNode and maxDepth according to a sample of the
+     * points, so that the leaves in dense regions are split as finely as the ones in sparse
+     * regions and the expected cost of a query is minimized, see {@link OctreeTuner}. The
+     * chosen parameters are reported by getMaxPointsPerNode() and getMaxDepth() after
+     * buildIndex(), and they are kept by insert() and update().
+     * @param autoTuning true to choose the parameters on every buildIndex(), false to use the ones set by setters
+     */
+    public void setAutoTuning(boolean autoTuning) {
+        this.autoTuning = autoTuning;
+    }
+
+    public int getMaxDepth() {return this.maxDepth;}
+
+    /**
+     * @param maxDepth the max depth of octree, in [0, 20], the leaves at this depth are not
+     *                 split no matter how many points they have
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0 || maxDepth > DEPTH_LIMIT) throw new IllegalArgumentException("The max depth of octree must be in [0, " + DEPTH_LIMIT + "].");
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * set the parallelism of building, the tree built in parallel is identical to the
+     * one built on a single thread
+     * A pool created by a former call is shut down, the pool is kept if the parallelism is not changed.
+     * @param parallelism the number of threads, 1 means building on current thread
+     */
+    public void setParallelism(int parallelism) {
+        poolHolder.setParallelism(parallelism);
+    }
+
+    /**
+     * the pool is owned by the caller, it is never shut down by this class
+     * @param forkJoinPool the pool used to build the tree in parallel, null means building on current thread
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        poolHolder.setForkJoinPool(forkJoinPool);
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return poolHolder.getForkJoinPool();
+    }
+
+    public int getParallelThreshold() {return this.parallelThreshold;}
+
+    /**
+     * @param parallelThreshold the node that has at least parallelThreshold points is split in a fork/join task
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
     /**
      * The octree node in the 3d space.
      * Each node can have eight children nodes.
@@ -397,6 +938,9 @@ public class Octree {
         /** in a non-leaf node, field indices is null **/
         OctreeNode[] children = null;
 
+        /** the parent of root is null **/
+        OctreeNode parent = null;
+
         int depth = 0;
 
         public OctreeNode(Point3d center, double length, int depth) {
@@ -431,6 +975,10 @@ public class Octree {
             this.children = nodes;
         }
 
+        public OctreeNode getParent() {
+            return parent;
+        }
+
         public int getDepth() {
             return depth;
         }
@@ -0,0 +1,140 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the leaf capacity and the max depth of an octree from a sample of the points.
+ *
+ * The sampled points are sorted by Morton code in the root cube, so the points in a node
+ * of depth d are a run of codes sharing the highest 3 * d bits, and the number of points
+ * in the densest node of every depth is found by one scan. How fast the densest node
+ * shrinks from depth to depth tells the local dimension D of the points, e.g. 2 for a
+ * surface scan and 3 for a volume.
+ *
+ * A query whose neighborhood holds k points overlaps about (1 + (k / c)^(1 / D))^D leaves
+ * of capacity c, and the cost of visiting a leaf is its c points plus a constant overhead of
+ * the node, so the capacity minimizing the expected cost is chosen. The max depth is then
+ * the depth at which the densest node has no more than c points, extrapolated by D when
+ * the sample is too small to see it, so the leaves in dense regions are as small as the
+ * ones in sparse regions, and the query cost does not depend on the local density.
+ */
+final class OctreeTuner {
+
+    /** the max number of sampled points **/
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    /** the densest node is extrapolated from the deepest node having at least so many sampled points **/
+    private static final int MIN_SAMPLE_COUNT = 32;
+
+    /** the number of neighbors of a typical query **/
+    private static final int EXPECTED_NEIGHBORS = 16;
+
+    /** the overhead of visiting a node, measured in the cost of testing a point **/
+    private static final double NODE_COST = 64;
+
+    private static final int[] CAPACITIES = {4, 8, 16, 32, 64, 128, 256};
+
+    /** the chosen leaf capacity **/
+    final int maxPointsPerNode;
+
+    /** the chosen max depth **/
+    final int maxDepth;
+
+    /** the estimated local dimension of the densest region, in [1, 3] **/
+    final double dimension;
+
+    private OctreeTuner(int maxPointsPerNode, int maxDepth, double dimension) {
+        this.maxPointsPerNode = maxPointsPerNode;
+        this.maxDepth = maxDepth;
+        this.dimension = dimension;
+    }
+
+    /**
+     * @param points the point cloud, the invalid points are ignored
+     * @param depthLimit the depth that the octree cannot exceed
+     * @return the chosen parameters
+     */
+    static OctreeTuner tune(List<Point3d> points, int depthLimit) {
+        int validNumber = 0;
+        for (Point3d point : points) {
+            if (VectorUtil.validPoint(point)) validNumber += 1;
+        }
+        BoundingBox box = BoundingBox.of(points);
+        double halfLength = Math.max(box.getxExtent(), Math.max(box.getyExtent(), box.getzExtent()));
+        if (validNumber < 1 || ! (halfLength > 0)) return new OctreeTuner(CAPACITIES[CAPACITIES.length - 1], 0, 3);
+
+        // take every step-th valid point, so the sample of the same points is always the same
+        int step = (validNumber + SAMPLE_SIZE - 1) / SAMPLE_SIZE;
+        long[] codes = new long[(validNumber + step - 1) / step];
+        double minX = box.getCenter().x - halfLength, minY = box.getCenter().y - halfLength, minZ = box.getCenter().z - halfLength;
+        double scale = MortonCode.RESOLUTION / (2 * halfLength);
+        int validIndex = 0, sampleNumber = 0;
+        for (Point3d point : points) {
+            if (! VectorUtil.validPoint(point)) continue;
+            if (validIndex ++ % step != 0) continue;
+            codes[sampleNumber ++] = MortonCode.encode(cell(point.x, minX, scale), cell(point.y, minY, scale), cell(point.z, minZ, scale));
+        }
+        Arrays.sort(codes, 0, sampleNumber);
+
+        int[] densest = new int[MortonCode.BITS + 1];
+        for (int depth = 0; depth <= MortonCode.BITS; depth ++) densest[depth] = densestRun(codes, sampleNumber, 3 * (MortonCode.BITS - depth));
+
+        // the deepest depth at which the densest node is still well sampled
+        int sampledDepth = 0;
+        while (sampledDepth < MortonCode.BITS && densest[sampledDepth + 1] >= MIN_SAMPLE_COUNT) sampledDepth += 1;
+        int levels = Math.min(sampledDepth, 3);
+        double ratio = levels == 0 ? 8 : Math.pow((double) densest[sampledDepth - levels] / densest[sampledDepth], 1.0 / levels);
+        ratio = Math.max(2, Math.min(8, ratio));
+        double dimension = Math.log(ratio) / Math.log(2);
+
+        int capacity = CAPACITIES[0];
+        double minCost = Double.POSITIVE_INFINITY;
+        for (int c : CAPACITIES) {
+            double cost = Math.pow(1 + Math.pow((double) EXPECTED_NEIGHBORS / c, 1 / dimension), dimension) * (c + NODE_COST);
+            if (cost < minCost) {
+                minCost = cost;
+                capacity = c;
+            }
+        }
+
+        double sampleRatio = (double) validNumber / sampleNumber;
+        int depth = 0;
+        while (depth < sampledDepth && densest[depth] * sampleRatio > capacity) depth += 1;
+        double expected = densest[depth] * sampleRatio;
+        if (expected > capacity) {
+            if (step == 1) {
+                // the sample is the whole point cloud, the densest nodes are known exactly
+                while (depth < MortonCode.BITS && densest[depth] > capacity) depth += 1;
+            } else {
+                depth += (int) Math.ceil(Math.log(expected / capacity) / Math.log(ratio));
+            }
+        }
+        // one more depth for the error of estimation
+        return new OctreeTuner(capacity, Math.min(depthLimit, depth + 1), dimension);
+    }
+
+    private static long cell(double value, double min, double scale) {
+        long cell = (long) ((value - min) * scale);
+        return Math.max(0, Math.min(MortonCode.RESOLUTION - 1, cell));
+    }
+
+    /**
+     * @return the length of the longest run of codes whose bits higher than shift are equal
+     */
+    private static int densestRun(long[] codes, int length, int shift) {
+        int longest = 0;
+        int start = 0;
+        for (int i = 1; i <= length; i ++) {
+            if (i == length || (codes[i] >>> shift) != (codes[start] >>> shift)) {
+                longest = Math.max(longest, i - start);
+                start = i;
+            }
+        }
+        return longest;
+    }
+
+}
@@ -0,0 +1,27 @@
+package cn.jimmiez.pcu.common.graphics;
+
+/**
+ * The region of a range query, e.g. an axis-aligned box or a convex polytope. The
+ * spatial indices test the bounds of their nodes against the region, so a node outside
+ * the region is skipped, and the points of a node inside the region are taken without
+ * being tested one by one. The instances are created by SpatialIndexes.regionOf().
+ */
+interface QueryRegion {
+
+    /**
+     * @return false if the axis-aligned box [min, max] is certainly outside the region,
+     * the test may be conservative
+     */
+    boolean intersects(double minX, double minY, double minZ, double maxX, double maxY, double maxZ);
+
+    /**
+     * @return true if the axis-aligned box [min, max] is entirely inside the region
+     */
+    boolean contains(double minX, double minY, double minZ, double maxX, double maxY, double maxZ);
+
+    /**
+     * @return true if the point (x, y, z) is inside the region, the points on the boundary are included
+     */
+    boolean contains(double x, double y, double z);
+
+}
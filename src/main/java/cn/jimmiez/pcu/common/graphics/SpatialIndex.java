@@ -0,0 +1,140 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+
+import javax.vecmath.Point3d;
+import java.util.List;
+
+/**
+ * A spatial index of point cloud, which accelerates searching the neighbors of
+ * points. The invalid points (NaN or infinite coordinates) are not indexed.
+ *
+ * The implementations are {@link Octree}, {@link FlatOctree} and {@link KdTree},
+ * the faster one depends on the distribution of points.
+ */
+public interface SpatialIndex {
+
+    /**
+     * build spatial index for point cloud, the previous index is discarded
+     * @param points the point cloud
+     */
+    void buildIndex(List<Point3d> points);
+
+    /**
+     * search k nearest neighbors for the point with specified index
+     * @param k the number of nearest neighbors
+     * @param index the index of point
+     * @return the indices of nearest neighbors
+     */
+    int[] searchNearestNeighbors(int k, int index);
+
+    /**
+     * search k nearest neighbors for the point, the points that coincide with the
+     * given point are not regarded as its neighbors
+     * @throws IllegalStateException if previously forget to call buildIndex()
+     * @throws IllegalArgumentException if size of points is less than k + 1
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param point the point, non-null
+     * @return an array of indices of neighboring point, sorted from near to far
+     */
+    int[] searchNearestNeighbors(int k, Point3d point);
+
+    /**
+     * Set the error bound of k-nearest-neighbors search. If epsilon is positive, the search is
+     * approximate: the distance of the i-th returned neighbor is at most (1 + epsilon) times the
+     * distance of the true i-th nearest neighbor, so the nodes that cannot contain a point nearer
+     * than that are skipped. The radius search and the box search are always exact.
+     * @param epsilon the error bound, 0 by default, which means the search is exact
+     */
+    void setApproximationError(double epsilon);
+
+    /**
+     * @return the error bound of k-nearest-neighbors search
+     */
+    double getApproximationError();
+
+    /**
+     * search k nearest neighbors for a batch of points in the point cloud
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param indices the indices of query points
+     * @param distances if not null, the distances of neighbors are written in it, in the same
+     *                  layout as the returned indices, so its length must be at least indices.length * k
+     * @return the indices of neighbors, the neighbors of indices[i] are located in [i * k, i * k + k),
+     * sorted from near to far. If a query point is invalid or has fewer than k neighbors, the rest
+     * of its neighbors is -1 and the rest of distances is positive infinity.
+     */
+    int[] searchNearestNeighbors(int k, int[] indices, double[] distances);
+
+    /**
+     * search k nearest neighbors for every point in the point cloud
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @return the indices of neighbors, the neighbors of the i-th point are located in [i * k, i * k + k)
+     */
+    int[] knnAll(int k);
+
+    /**
+     * search k nearest neighbors for every point in the point cloud
+     * @see SpatialIndex#searchNearestNeighbors(int, int[], double[])
+     * @param k the number of nearest neighbors, {@literal 0 <= k < points.size()}
+     * @param distances if not null, the distances of neighbors are written in it, its length
+     *                  must be at least n * k
+     * @return the indices of neighbors, the neighbors of the i-th point are located in [i * k, i * k + k)
+     */
+    int[] knnAll(int k, double[] distances);
+
+    /**
+     * search all neighboring points of the point with specified index within distance
+     * @param index the index of a point
+     * @param radius radius of neighborhood
+     * @return indices of neighboring points of this point, sorted from near to far
+     */
+    List<Integer> searchAllNeighborsWithinDistance(int index, double radius);
+
+    /**
+     * search all neighboring points of specified point within distance
+     * @param point the point
+     * @param radius the distance, the points whose distances are less than radius are neighbors
+     * @return a List of indices of neighboring points, sorted from near to far
+     */
+    List<Integer> searchAllNeighborsWithinDistance(Point3d point, double radius);
+
+    /**
+     * search all neighboring points of the point with specified index within distance,
+     * and append them to the buffer
+     * @see SpatialIndex#searchAllNeighborsWithinDistance(Point3d, double, NeighborBuffer)
+     * @param index the index of a point
+     * @param radius radius of neighborhood
+     * @param buffer the buffer to which the neighbors are appended
+     * @return the number of neighbors appended
+     */
+    int searchAllNeighborsWithinDistance(int index, double radius, NeighborBuffer buffer);
+
+    /**
+     * search all neighboring points of specified point within distance, and append them
+     * to the buffer. The neighbors appended are sorted from near to far, together with
+     * their distances. The search allocates nothing once the buffer is large enough, so
+     * reuse one buffer for many queries.
+     * @param point the point
+     * @param radius the distance, the points whose distances are less than radius are neighbors
+     * @param buffer the buffer to which the neighbors are appended
+     * @return the number of neighbors appended
+     */
+    int searchAllNeighborsWithinDistance(Point3d point, double radius, NeighborBuffer buffer);
+
+    /**
+     * search all points located in an axis-aligned box, the points on the faces of box are included
+     * @param box the box
+     * @return a List of indices of points in the box, in no particular order
+     */
+    List<Integer> searchAllPointsInBox(Box box);
+
+    /**
+     * search all points located in a convex polytope, e.g. a view frustum, the points on
+     * the faces of polytope are included
+     * @param polytope the convex polytope
+     * @return a List of indices of points in the polytope, in no particular order
+     */
+    List<Integer> searchAllPointsInPolytope(ConvexPolytope polytope);
+
+}
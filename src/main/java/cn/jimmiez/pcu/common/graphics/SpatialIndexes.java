@@ -0,0 +1,129 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.VectorUtil;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class provides some static methods that operate on {@link SpatialIndex}
+ * and on the results of its batch search.
+ */
+public class SpatialIndexes {
+
+    /**
+     * pick the neighbors of one query from the result of batch search
+     * @param neighbors the result of knnAll() or batch searchNearestNeighbors()
+     * @param k the number of nearest neighbors used in batch search
+     * @param i the i-th query
+     * @return the indices of neighbors of the i-th query, the invalid ones (-1) are excluded
+     */
+    public static int[] neighborsOf(int[] neighbors, int k, int i) {
+        int count = 0;
+        while (count < k && neighbors[i * k + count] >= 0) count += 1;
+        return Arrays.copyOfRange(neighbors, i * k, i * k + count);
+    }
+
+    /**
+     * perform a batch search by calling searchNearestNeighbors() for each query, the
+     * layout of result is the same as {@link SpatialIndex#searchNearestNeighbors(int, int[], double[])}
+     * @param index the spatial index of points
+     * @param points the indexed point cloud
+     * @param k the number of nearest neighbors
+     * @param indices the indices of query points
+     * @param distances nullable, the distances of neighbors
+     * @return the indices of neighbors
+     */
+    static int[] searchOneByOne(SpatialIndex index, List<Point3d> points, int k, int[] indices, double[] distances) {
+        if ((long) indices.length * k > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many neighbors to be stored in an array.");
+        if (distances != null && distances.length < indices.length * k) throw new IllegalArgumentException("The length of distances is less than " + indices.length * k);
+        int[] neighbors = new int[indices.length * k];
+        Arrays.fill(neighbors, -1);
+        if (distances != null) Arrays.fill(distances, 0, indices.length * k, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < indices.length; i ++) {
+            Point3d point = points.get(indices[i]);
+            if (! VectorUtil.validPoint(point)) continue;
+            int[] result = index.searchNearestNeighbors(k, point);
+            System.arraycopy(result, 0, neighbors, i * k, result.length);
+            if (distances == null) continue;
+            for (int j = 0; j < result.length; j ++) {
+                distances[i * k + j] = points.get(result[j]).distance(point);
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * @return true if both lists have the same points, a NaN coordinate equals a NaN coordinate
+     */
+    static boolean samePoints(List<Point3d> points1, List<Point3d> points2) {
+        if (points1 == points2) return true;
+        if (points1.size() != points2.size()) return false;
+        for (int i = 0; i < points1.size(); i ++) {
+            Point3d p1 = points1.get(i);
+            Point3d p2 = points2.get(i);
+            if (Double.compare(p1.x, p2.x) != 0 || Double.compare(p1.y, p2.y) != 0 || Double.compare(p1.z, p2.z) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param n the number of points
+     * @return the array [0, 1, ..., n - 1]
+     */
+    static int[] allIndices(int n) {
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i ++) indices[i] = i;
+        return indices;
+    }
+
+    /**
+     * @param box an axis-aligned box, the points on its faces are included
+     * @return the query region of box
+     */
+    static QueryRegion regionOf(final Box box) {
+        return new QueryRegion() {
+            @Override
+            public boolean intersects(double x0, double y0, double z0, double x1, double y1, double z1) {
+                return Collisions.intersect(box, x0, y0, z0, x1, y1, z1);
+            }
+
+            @Override
+            public boolean contains(double x0, double y0, double z0, double x1, double y1, double z1) {
+                return Collisions.contains(box, x0, y0, z0, x1, y1, z1);
+            }
+
+            @Override
+            public boolean contains(double x, double y, double z) {
+                return Collisions.contains(box, x, y, z, x, y, z);
+            }
+        };
+    }
+
+    /**
+     * @param polytope a convex polytope, the points on its faces are included
+     * @return the query region of polytope
+     */
+    static QueryRegion regionOf(final ConvexPolytope polytope) {
+        return new QueryRegion() {
+            @Override
+            public boolean intersects(double x0, double y0, double z0, double x1, double y1, double z1) {
+                return Collisions.intersect(polytope, x0, y0, z0, x1, y1, z1);
+            }
+
+            @Override
+            public boolean contains(double x0, double y0, double z0, double x1, double y1, double z1) {
+                return Collisions.contains(polytope, x0, y0, z0, x1, y1, z1);
+            }
+
+            @Override
+            public boolean contains(double x, double y, double z) {
+                return polytope.contains(x, y, z);
+            }
+        };
+    }
+
+}
@@ -1,6 +1,7 @@
 package cn.jimmiez.pcu.common.graphics.shape;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 
 import static java.lang.Math.abs;
 
@@ -130,4 +131,42 @@ public class Box {
                 && (point.z >= center.z - zExtent - tolerance);
     }
 
+    /**
+     * Clip the ray origin + t * direction by this box enlarged by margin on every side,
+     * using the slab test: the ray is clipped by the two planes of each axis in turn.
+     * @param origin the origin of ray
+     * @param direction the direction of ray, not necessarily normalized
+     * @param margin the box is enlarged by margin on every side, non-negative
+     * @param range the range [t0, t1] of ray to be clipped, it is set to the part inside the
+     *              box if the ray intersects the box, the points on the faces are included,
+     *              otherwise its content is undefined
+     * @return false if the range of ray does not intersect the box
+     */
+    public boolean clipRay(Point3d origin, Vector3d direction, double margin, double[] range) {
+        return clipSlab(origin.x - center.x, direction.x, xExtent + margin, range)
+                && clipSlab(origin.y - center.y, direction.y, yExtent + margin, range)
+                && clipSlab(origin.z - center.z, direction.z, zExtent + margin, range);
+    }
+
+    /**
+     * clip the range of ray by the slab [-extent, extent] of an axis
+     * @param o the coordinate of origin relative to the center of box
+     * @param d the coordinate of direction
+     */
+    private static boolean clipSlab(double o, double d, double extent, double[] range) {
+        if (d == 0) {
+            // the ray is parallel to the slab
+            return abs(o) <= extent;
+        }
+        double near = (- extent - o) / d, far = (extent - o) / d;
+        if (near > far) {
+            double temp = near;
+            near = far;
+            far = temp;
+        }
+        if (near > range[0]) range[0] = near;
+        if (far < range[1]) range[1] = far;
+        return range[0] <= range[1];
+    }
+
 }
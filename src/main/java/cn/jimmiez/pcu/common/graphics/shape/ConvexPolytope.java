@@ -0,0 +1,187 @@
+package cn.jimmiez.pcu.common.graphics.shape;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+import java.util.Arrays;
+
+import static java.lang.Math.abs;
+
+/**
+ * A convex polytope, which is the intersection of half-spaces. A half-space is
+ * represented by a plane a * x + b * y + c * z + d = 0, whose normal (a, b, c) points
+ * outward, so a point p is inside the polytope if a * p.x + b * p.y + c * p.z + d {@literal <=} 0
+ * holds for every plane. A polytope without planes is the whole space.
+ *
+ * A view frustum is a convex polytope of six planes, see frustum().
+ */
+public class ConvexPolytope {
+
+    /** a, b, c, d of planes **/
+    private double[] planes = new double[24];
+
+    private int planeCount = 0;
+
+    /**
+     * add a half-space a * x + b * y + c * z + d {@literal <=} 0
+     * @param a the x of outward normal
+     * @param b the y of outward normal
+     * @param c the z of outward normal
+     * @param d the constant term
+     */
+    public void addPlane(double a, double b, double c, double d) {
+        if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(c) || Double.isNaN(d)) {
+            throw new IllegalArgumentException("The param cannot be Double.NaN");
+        }
+        if (planeCount * 4 == planes.length) planes = Arrays.copyOf(planes, planes.length * 2);
+        planes[planeCount * 4] = a;
+        planes[planeCount * 4 + 1] = b;
+        planes[planeCount * 4 + 2] = c;
+        planes[planeCount * 4 + 3] = d;
+        planeCount += 1;
+    }
+
+    /**
+     * add a half-space bounded by the plane passing through the point
+     * @param normal the outward normal of plane
+     * @param point a point on the plane
+     */
+    public void addPlane(Vector3d normal, Point3d point) {
+        addPlane(normal.x, normal.y, normal.z, - (normal.x * point.x + normal.y * point.y + normal.z * point.z));
+    }
+
+    public int getPlaneCount() {
+        return planeCount;
+    }
+
+    /**
+     * @param i the index of plane
+     * @return a, b, c, d of the i-th plane
+     */
+    public double[] getPlane(int i) {
+        if (i < 0 || i >= planeCount) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + planeCount);
+        return Arrays.copyOfRange(planes, i * 4, i * 4 + 4);
+    }
+
+    /**
+     * test if this polytope contains the specified point, the points on the faces are included
+     * @param point the point
+     * @return test result
+     */
+    public boolean contains(Point3d point) {
+        return contains(point.x, point.y, point.z);
+    }
+
+    /**
+     * test if this polytope contains the point (x, y, z)
+     */
+    public boolean contains(double x, double y, double z) {
+        for (int i = 0; i < planeCount * 4; i += 4) {
+            if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test if an axis-aligned box may intersect with this polytope. The test is conservative:
+     * false means the box is entirely outside one of the half-spaces, so it is certainly
+     * separated from the polytope, while a box near an edge of polytope may be reported as
+     * intersected though it is not.
+     * @return test result
+     */
+    public boolean intersects(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2, cz = (minZ + maxZ) / 2;
+        double ex = (maxX - minX) / 2, ey = (maxY - minY) / 2, ez = (maxZ - minZ) / 2;
+        for (int i = 0; i < planeCount * 4; i += 4) {
+            double a = planes[i], b = planes[i + 1], c = planes[i + 2];
+            double distance = a * cx + b * cy + c * cz + planes[i + 3];
+            double radius = abs(a) * ex + abs(b) * ey + abs(c) * ez;
+            // the corner nearest to the inside is outside
+            if (distance - radius > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * test if an axis-aligned box is entirely inside this polytope
+     * @return test result
+     */
+    public boolean contains(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        for (int i = 0; i < planeCount * 4; i += 4) {
+            double a = planes[i], b = planes[i + 1], c = planes[i + 2], d = planes[i + 3];
+            // the corner farthest from the inside
+            double x = a > 0 ? maxX : minX;
+            double y = b > 0 ? maxY : minY;
+            double z = c > 0 ? maxZ : minZ;
+            if (a * x + b * y + c * z + d > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param box an axis-aligned box
+     * @return the polytope of the six faces of box
+     */
+    public static ConvexPolytope of(Box box) {
+        ConvexPolytope polytope = new ConvexPolytope();
+        polytope.addPlane(1, 0, 0, - box.maxX());
+        polytope.addPlane(-1, 0, 0, box.minX());
+        polytope.addPlane(0, 1, 0, - box.maxY());
+        polytope.addPlane(0, -1, 0, box.minY());
+        polytope.addPlane(0, 0, 1, - box.maxZ());
+        polytope.addPlane(0, 0, -1, box.minZ());
+        return polytope;
+    }
+
+    /**
+     * create the view frustum of a perspective camera
+     * @param eye the position of camera
+     * @param direction the view direction, non-zero
+     * @param up the up direction, not parallel to the view direction
+     * @param verticalFov the vertical field of view in radians, in (0, PI)
+     * @param aspect the ratio of width to height, positive
+     * @param near the distance of near plane, non-negative
+     * @param far the distance of far plane, larger than near
+     * @return the frustum, which has six planes
+     */
+    public static ConvexPolytope frustum(Point3d eye, Vector3d direction, Vector3d up,
+                                         double verticalFov, double aspect, double near, double far) {
+        if (! (verticalFov > 0 && verticalFov < Math.PI)) throw new IllegalArgumentException("The field of view must be in (0, PI).");
+        if (! (aspect > 0)) throw new IllegalArgumentException("The aspect must be positive.");
+        if (! (near >= 0 && far > near)) throw new IllegalArgumentException("The near and far distances must satisfy 0 <= near < far.");
+        Vector3d forward = new Vector3d(direction);
+        forward.normalize();
+        Vector3d right = new Vector3d();
+        right.cross(forward, up);
+        if (! (right.length() > 0)) throw new IllegalArgumentException("The up direction cannot be parallel to the view direction.");
+        right.normalize();
+        Vector3d upward = new Vector3d();
+        upward.cross(right, forward);
+
+        double tanY = Math.tan(verticalFov / 2);
+        double tanX = tanY * aspect;
+        ConvexPolytope polytope = new ConvexPolytope();
+        Vector3d normal = new Vector3d();
+        Point3d point = new Point3d();
+        // near and far
+        point.scaleAdd(near, forward, eye);
+        normal.negate(forward);
+        polytope.addPlane(normal, point);
+        point.scaleAdd(far, forward, eye);
+        polytope.addPlane(forward, point);
+        // left, right, bottom and top pass through the eye
+        for (int sign : new int[] {-1, 1}) {
+            normal.scaleAdd(- tanX, forward, scaled(right, sign));
+            polytope.addPlane(normal, eye);
+            normal.scaleAdd(- tanY, forward, scaled(upward, sign));
+            polytope.addPlane(normal, eye);
+        }
+        return polytope;
+    }
+
+    private static Vector3d scaled(Vector3d vector, double scale) {
+        Vector3d result = new Vector3d(vector);
+        result.scale(scale);
+        return result;
+    }
+
+}
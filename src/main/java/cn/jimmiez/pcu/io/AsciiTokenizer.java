@@ -0,0 +1,379 @@
+package cn.jimmiez.pcu.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits ascii text into lines and whitespace-separated tokens, and parses numbers
+ * directly from the bytes, without creating a String for every line or token. It is
+ * shared by the readers of ascii ply, off and obj files.
+ *
+ * The text is read line by line: {@link #nextLine()} moves to the beginning of the next
+ * line, and the tokens of the current line are read by nextDouble(), nextFloat(), nextInt()
+ * or nextToken() while {@link #hasNext()} is true. A token never crosses a line.
+ *
+ * <pre>
+ * while (tokenizer.nextLine()) {
+ *     while (tokenizer.hasNext()) values.add(tokenizer.nextDouble());
+ * }
+ * </pre>
+ *
+ * The numbers are correctly rounded, i.e., nextDouble() and nextFloat() return the same
+ * values as Double.parseDouble() and Float.parseFloat(); a float is rounded from the decimal
+ * digits directly instead of from a double. The tokens that are not plain decimal numbers,
+ * e.g. "NaN" or hexadecimal floats, are passed to the JDK parsers.
+ */
+public class AsciiTokenizer implements Closeable {
+
+    /** 1MB **/
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ReadableByteChannel channel;
+
+    private byte[] bytes;
+
+    /** the position of the next byte to be read **/
+    private int position;
+
+    /** the end of the bytes read **/
+    private int limit;
+
+    /** true if the channel has no more bytes **/
+    private boolean exhausted;
+
+    /** false before the first call of nextLine() **/
+    private boolean started = false;
+
+    /**
+     * @param channel the text is read from channel through a buffer of 1MB
+     */
+    public AsciiTokenizer(ReadableByteChannel channel) {
+        this(channel, null, BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel the rest of text is read from channel
+     * @param pending the bytes already read from channel, between its position and limit
+     */
+    public AsciiTokenizer(ReadableByteChannel channel, ByteBuffer pending) {
+        this(channel, pending, BUFFER_SIZE);
+    }
+
+    AsciiTokenizer(ReadableByteChannel channel, ByteBuffer pending, int bufferSize) {
+        int pendingSize = pending == null ? 0 : pending.remaining();
+        this.channel = channel;
+        this.bytes = new byte[Math.max(bufferSize, pendingSize)];
+        if (pending != null) pending.get(bytes, 0, pendingSize);
+        this.position = 0;
+        this.limit = pendingSize;
+        this.exhausted = channel == null;
+    }
+
+    /**
+     * @param bytes the text, the array is not copied
+     * @param from the first byte of text
+     * @param to the end of text (exclusive)
+     */
+    public AsciiTokenizer(byte[] bytes, int from, int to) {
+        this.channel = null;
+        this.bytes = bytes;
+        this.position = from;
+        this.limit = to;
+        this.exhausted = true;
+    }
+
+    /**
+     * move the bytes not read to the beginning of buffer and read more bytes from channel
+     * @return false if no byte is read
+     */
+    private boolean refill() throws IOException {
+        if (exhausted) return false;
+        if (position > 0) {
+            System.arraycopy(bytes, position, bytes, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == bytes.length) {
+            // a token or line as long as the buffer
+            byte[] larger = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, larger, 0, limit);
+            bytes = larger;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        if (read < 0) {
+            exhausted = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * move to the beginning of the next line, the rest of the current line is skipped
+     * @return false if there is no more line
+     * @throws IOException if the text cannot be read
+     */
+    public boolean nextLine() throws IOException {
+        if (started) {
+            while (true) {
+                int i = position;
+                while (i < limit && bytes[i] != '\n') i ++;
+                if (i < limit) {
+                    position = i + 1;
+                    break;
+                }
+                position = limit;
+                if (! refill()) return false;
+            }
+        }
+        started = true;
+        return position < limit || refill();
+    }
+
+    /**
+     * @return true if there is another token in the current line
+     * @throws IOException if the text cannot be read
+     */
+    public boolean hasNext() throws IOException {
+        if (! started) throw new IllegalStateException("Call nextLine() before reading tokens.");
+        while (true) {
+            while (position < limit && isSpace(bytes[position])) position ++;
+            if (position < limit) return bytes[position] != '\n';
+            if (! refill()) return false;
+        }
+    }
+
+    /**
+     * @return the first byte of the next token in the current line, or -1 if there is no more token
+     * @throws IOException if the text cannot be read
+     */
+    public int peek() throws IOException {
+        return hasNext() ? bytes[position] : -1;
+    }
+
+    /**
+     * make sure that the next token is in buffer
+     * @return the end of the next token
+     */
+    private int tokenEnd() throws IOException {
+        if (! hasNext()) throw new NoSuchElementException("No more token in the line.");
+        int i = position;
+        while (true) {
+            while (i < limit && bytes[i] != '\n' && ! isSpace(bytes[i])) i ++;
+            if (i < limit) return i;
+            int length = i - position;
+            if (! refill()) return limit;
+            i = position + length;
+        }
+    }
+
+    /**
+     * @return the next token in the current line
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     */
+    public String nextToken() throws IOException {
+        int end = tokenEnd();
+        String token = new String(bytes, position, end - position, ASCII);
+        position = end;
+        return token;
+    }
+
+    /**
+     * move over the next token in the current line without converting it
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     */
+    public void skipToken() throws IOException {
+        position = tokenEnd();
+    }
+
+    /**
+     * @return the next token in the current line, it is not consumed
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     */
+    public String peekToken() throws IOException {
+        int end = tokenEnd();
+        return new String(bytes, position, end - position, ASCII);
+    }
+
+    /**
+     * @return the next token in the current line parsed as a double
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     * @throws NumberFormatException if the token is not a number
+     */
+    public double nextDouble() throws IOException {
+        int end = tokenEnd();
+        double value = parseDouble(bytes, position, end);
+        position = end;
+        return value;
+    }
+
+    /**
+     * @return the next token in the current line parsed as a float
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     * @throws NumberFormatException if the token is not a number
+     */
+    public float nextFloat() throws IOException {
+        int end = tokenEnd();
+        float value = parseFloat(bytes, position, end);
+        position = end;
+        return value;
+    }
+
+    /**
+     * @return the next token in the current line parsed as an int
+     * @throws IOException if the text cannot be read
+     * @throws NoSuchElementException if there is no more token in the current line
+     * @throws NumberFormatException if the token is not an int
+     */
+    public int nextInt() throws IOException {
+        int end = tokenEnd();
+        int value = parseInt(bytes, position, end);
+        position = end;
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * parse an int in the same way as Integer.parseInt()
+     */
+    public static int parseInt(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) negative = bytes[i ++] == '-';
+        if (i == to || to - i > 10) return Integer.parseInt(new String(bytes, from, to - from, ASCII));
+        long value = 0;
+        for (; i < to; i ++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) return Integer.parseInt(new String(bytes, from, to - from, ASCII));
+            value = value * 10 + digit;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + new String(bytes, from, to - from, ASCII) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * parse a double in the same way as Double.parseDouble()
+     */
+    public static double parseDouble(byte[] bytes, int from, int to) {
+        Decimal decimal = new Decimal();
+        if (decimal.parse(bytes, from, to)) {
+            double value = DecimalConversion.toDouble(decimal.mantissa, decimal.exponent, decimal.negative);
+            if (decimal.truncated && value == value) {
+                // the digits after the 19th are not zero, the value is between mantissa and mantissa + 1
+                double upper = DecimalConversion.toDouble(decimal.mantissa + 1, decimal.exponent, decimal.negative);
+                if (upper != value) value = Double.NaN;
+            }
+            if (value == value) return value;
+        }
+        return Double.parseDouble(new String(bytes, from, to - from, ASCII));
+    }
+
+    /**
+     * parse a float in the same way as Float.parseFloat()
+     */
+    public static float parseFloat(byte[] bytes, int from, int to) {
+        Decimal decimal = new Decimal();
+        if (decimal.parse(bytes, from, to)) {
+            float value = DecimalConversion.toFloat(decimal.mantissa, decimal.exponent, decimal.negative);
+            if (decimal.truncated && value == value) {
+                float upper = DecimalConversion.toFloat(decimal.mantissa + 1, decimal.exponent, decimal.negative);
+                if (upper != value) value = Float.NaN;
+            }
+            if (value == value) return value;
+        }
+        return Float.parseFloat(new String(bytes, from, to - from, ASCII));
+    }
+
+    /**
+     * A plain decimal number [+-]digits[.digits][(e|E)[+-]digits], split into the first
+     * 19 significant digits and a power of 10.
+     */
+    private static class Decimal {
+
+        /** the significant digits as an unsigned integer **/
+        long mantissa = 0;
+
+        int exponent = 0;
+
+        boolean negative = false;
+
+        /** true if some non-zero digits after the 19th are dropped **/
+        boolean truncated = false;
+
+        /**
+         * @return false if the text is not a plain decimal number
+         */
+        boolean parse(byte[] bytes, int from, int to) {
+            int i = from;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) negative = bytes[i ++] == '-';
+            int digits = 0;
+            boolean hasDigit = false;
+            for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i ++) {
+                hasDigit = true;
+                int digit = bytes[i] - '0';
+                if (digits < 19) {
+                    if (mantissa == 0 && digit == 0) continue;
+                    mantissa = mantissa * 10 + digit;
+                    digits += 1;
+                } else {
+                    exponent += 1;
+                    if (digit != 0) truncated = true;
+                }
+            }
+            if (i < to && bytes[i] == '.') {
+                for (i += 1; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i ++) {
+                    hasDigit = true;
+                    int digit = bytes[i] - '0';
+                    if (digits < 19) {
+                        exponent -= 1;
+                        if (mantissa == 0 && digit == 0) continue;
+                        mantissa = mantissa * 10 + digit;
+                        digits += 1;
+                    } else if (digit != 0) {
+                        truncated = true;
+                    }
+                }
+            }
+            if (! hasDigit) return false;
+            if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+                i += 1;
+                boolean negativeExponent = false;
+                if (i < to && (bytes[i] == '-' || bytes[i] == '+')) negativeExponent = bytes[i ++] == '-';
+                if (i == to) return false;
+                int value = 0;
+                for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i ++) {
+                    if (value < 100000) value = value * 10 + bytes[i] - '0';
+                }
+                exponent += negativeExponent ? -value : value;
+            }
+            return i == to;
+        }
+    }
+
+}
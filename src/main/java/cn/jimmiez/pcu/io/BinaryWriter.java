@@ -1,92 +1,203 @@
 package cn.jimmiez.pcu.io;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 
-public class BinaryWriter {
+/**
+ * Writes primitive values in a byte order. The values are put into a direct buffer, and the
+ * buffer is written to the channel when it is full, so a file is written by a few large
+ * writes instead of a system call per value. The bulk methods, e.g.
+ * {@link #writeFloats(float[], int, int)}, copy a whole array into the buffer at a time.
+ *
+ * The buffer is written out by {@link #flush()} and {@link #close()}; the values written
+ * after the last flush are lost if the writer is not closed.
+ */
+public class BinaryWriter implements Closeable {
 
-    private FileOutputStream fos = null;
-    private ByteOrder order = null;
-    private byte[] byteBuffer = new byte[1];
-    private byte[] intBuffer = new byte[4];
-    private byte[] shortBuffer = new byte[2];
-    private byte[] longBuffer = new byte[8];
+    /** 1MB **/
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** the shorter arrays are written value by value, which is cheaper than creating a view of buffer **/
+    private static final int BULK_THRESHOLD = 16;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer;
 
     public BinaryWriter(File file, ByteOrder order) throws FileNotFoundException {
-        this.fos = new FileOutputStream(file);
-        this.order = order;
+        this(new FileOutputStream(file).getChannel(), order, BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel the channel written to, it is closed by {@link #close()}
+     * @param order the byte order of values
+     * @param bufferSize the size of buffer in bytes, at least 8
+     */
+    public BinaryWriter(WritableByteChannel channel, ByteOrder order, int bufferSize) {
+        if (bufferSize < 8) throw new IllegalArgumentException("The buffer size must be at least 8.");
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize).order(order);
+    }
+
+    public ByteOrder getOrder() {
+        return buffer.order();
+    }
+
+    /**
+     * make sure that there is room for n bytes in the buffer, n is not larger than 8
+     */
+    private void require(int n) throws IOException {
+        if (buffer.remaining() < n) drain();
+    }
+
+    /**
+     * write all bytes in the buffer to the channel
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
     }
 
     public void writeString(String str) throws IOException {
-        fos.write(str.getBytes());
+        byte[] bytes = str.getBytes();
+        writeBytes(bytes, 0, bytes.length);
     }
 
     public void writeInt(int i) throws IOException {
-        if (order == ByteOrder.LITTLE_ENDIAN) {
-            intBuffer[3] = (byte) ((i >> 24) & 0x0000_00FF);
-            intBuffer[2] = (byte) ((i >> 16) & 0x0000_00FF);
-            intBuffer[1] = (byte) ((i >> 8) & 0x0000_00FF);
-            intBuffer[0] = (byte) ((i >> 0) & 0x0000_00FF);
-        } else {
-            intBuffer[0] = (byte) ((i >> 24) & 0x0000_00FF);
-            intBuffer[1] = (byte) ((i >> 16) & 0x0000_00FF);
-            intBuffer[2] = (byte) ((i >> 8) & 0x0000_00FF);
-            intBuffer[3] = (byte) ((i >> 0) & 0x0000_00FF);
-        }
-        fos.write(intBuffer);
+        require(4);
+        buffer.putInt(i);
     }
 
     public void writeLong(long l) throws IOException {
-        if (order == ByteOrder.LITTLE_ENDIAN) {
-            longBuffer[7] = (byte) ((l >> 56) & 0x0000_00FF);
-            longBuffer[6] = (byte) ((l >> 48) & 0x0000_00FF);
-            longBuffer[5] = (byte) ((l >> 40) & 0x0000_00FF);
-            longBuffer[4] = (byte) ((l >> 32) & 0x0000_00FF);
-            longBuffer[3] = (byte) ((l >> 24) & 0x0000_00FF);
-            longBuffer[2] = (byte) ((l >> 16) & 0x0000_00FF);
-            longBuffer[1] = (byte) ((l >> 8) & 0x0000_00FF);
-            longBuffer[0] = (byte) ((l >> 0) & 0x0000_00FF);
-        } else {
-            longBuffer[0] = (byte) ((l >> 56) & 0x0000_00FF);
-            longBuffer[1] = (byte) ((l >> 48) & 0x0000_00FF);
-            longBuffer[2] = (byte) ((l >> 40) & 0x0000_00FF);
-            longBuffer[3] = (byte) ((l >> 32) & 0x0000_00FF);
-            longBuffer[4] = (byte) ((l >> 24) & 0x0000_00FF);
-            longBuffer[5] = (byte) ((l >> 16) & 0x0000_00FF);
-            longBuffer[6] = (byte) ((l >> 8) & 0x0000_00FF);
-            longBuffer[7] = (byte) ((l >> 0) & 0x0000_00FF);
-        }
-        fos.write(longBuffer);
+        require(8);
+        buffer.putLong(l);
     }
 
     public void writeByte(byte b) throws IOException {
-        byteBuffer[0] = b;
-        fos.write(byteBuffer);
+        require(1);
+        buffer.put(b);
     }
 
     public void writeShort(short s) throws IOException {
-        if (order == ByteOrder.LITTLE_ENDIAN) {
-            shortBuffer[1] = (byte) ((s >> 8) & 0x0000_00FF);
-            shortBuffer[0] = (byte) ((s >> 0) & 0x0000_00FF);
-        } else {
-            shortBuffer[0] = (byte) ((s >> 8) & 0x0000_00FF);
-            shortBuffer[1] = (byte) ((s >> 0) & 0x0000_00FF);
-        }
-        fos.write(shortBuffer);
+        require(2);
+        buffer.putShort(s);
     }
 
     public void writeFloat(float f) throws IOException {
-        writeInt(Float.floatToIntBits(f));
+        require(4);
+        buffer.putFloat(f);
     }
 
     public void writeDouble(double d) throws IOException {
-        writeLong(Double.doubleToLongBits(d));
+        require(8);
+        buffer.putDouble(d);
+    }
+
+    public void writeBytes(byte[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (! buffer.hasRemaining()) drain();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(values, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void writeShorts(short[] values, int offset, int length) throws IOException {
+        if (length < BULK_THRESHOLD) {
+            for (int i = offset; i < offset + length; i ++) writeShort(values[i]);
+            return;
+        }
+        while (length > 0) {
+            require(2);
+            int n = Math.min(length, buffer.remaining() / 2);
+            buffer.asShortBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 2);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void writeInts(int[] values, int offset, int length) throws IOException {
+        if (length < BULK_THRESHOLD) {
+            for (int i = offset; i < offset + length; i ++) writeInt(values[i]);
+            return;
+        }
+        while (length > 0) {
+            require(4);
+            int n = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 4);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void writeLongs(long[] values, int offset, int length) throws IOException {
+        if (length < BULK_THRESHOLD) {
+            for (int i = offset; i < offset + length; i ++) writeLong(values[i]);
+            return;
+        }
+        while (length > 0) {
+            require(8);
+            int n = Math.min(length, buffer.remaining() / 8);
+            buffer.asLongBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void writeFloats(float[] values, int offset, int length) throws IOException {
+        if (length < BULK_THRESHOLD) {
+            for (int i = offset; i < offset + length; i ++) writeFloat(values[i]);
+            return;
+        }
+        while (length > 0) {
+            require(4);
+            int n = Math.min(length, buffer.remaining() / 4);
+            buffer.asFloatBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 4);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void writeDoubles(double[] values, int offset, int length) throws IOException {
+        if (length < BULK_THRESHOLD) {
+            for (int i = offset; i < offset + length; i ++) writeDouble(values[i]);
+            return;
+        }
+        while (length > 0) {
+            require(8);
+            int n = Math.min(length, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+            length -= n;
+        }
     }
 
+    /**
+     * write the values in buffer to the channel
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
     public void close() throws IOException {
-        fos.close();
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
     }
 }
@@ -0,0 +1,173 @@
+package cn.jimmiez.pcu.io;
+
+import java.math.BigInteger;
+
+/**
+ * Converts a decimal number, given as a mantissa of at most 19 digits and a power of 10,
+ * to the nearest double or float.
+ *
+ * The exact cases, where the mantissa and the power of 10 are both exact in floating
+ * point, are computed by one multiplication or division (Clinger's fast path). The other
+ * cases are computed by the Eisel-Lemire algorithm, which multiplies the mantissa by a
+ * 128-bit approximation of the power of 10 and proves the rounding from the bits of the
+ * product. In the rare cases it cannot prove the rounding, NaN is returned and the caller
+ * falls back to the JDK parser.
+ */
+final class DecimalConversion {
+
+    /** the powers of 10 exact in double **/
+    private static final double[] DOUBLE_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** the powers of 10 exact in float **/
+    private static final float[] FLOAT_POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private static final int MIN_EXPONENT = -348;
+
+    private static final int MAX_EXPONENT = 347;
+
+    private DecimalConversion() {}
+
+    /**
+     * @param mantissa the decimal digits as an unsigned integer
+     * @param exponent the power of 10
+     * @param negative the sign
+     * @return the nearest double of mantissa * 10^exponent, or NaN if it cannot be decided
+     */
+    static double toDouble(long mantissa, int exponent, boolean negative) {
+        if (mantissa == 0) return negative ? -0.0 : 0.0;
+        if (mantissa > 0 && mantissa <= (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / DOUBLE_POWERS[-exponent] : value * DOUBLE_POWERS[exponent];
+            return negative ? -value : value;
+        }
+        if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) return Double.NaN;
+        int clz = Long.numberOfLeadingZeros(mantissa);
+        long man = mantissa << clz;
+        long retExp2 = ((217706 * exponent) >> 16) + 64 + 1023 - clz;
+        int index = exponent - MIN_EXPONENT;
+        long xHi = multiplyHigh(man, Powers.HIGH[index]);
+        long xLo = man * Powers.HIGH[index];
+        // the error of the approximation may carry into the high bits
+        if ((xHi & 0x1FF) == 0x1FF && lessUnsigned(xLo + man, man)) {
+            long yHi = multiplyHigh(man, Powers.LOW[index]);
+            long yLo = man * Powers.LOW[index];
+            long mergedHi = xHi, mergedLo = xLo + yHi;
+            if (lessUnsigned(mergedLo, xLo)) mergedHi += 1;
+            if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && lessUnsigned(yLo + man, man)) return Double.NaN;
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+        long msb = xHi >>> 63;
+        long retMantissa = xHi >>> (msb + 9);
+        retExp2 -= 1 ^ msb;
+        // exactly half way between two doubles
+        if (xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1) return Double.NaN;
+        retMantissa += retMantissa & 1;
+        retMantissa >>>= 1;
+        if ((retMantissa >>> 53) > 0) {
+            retMantissa >>>= 1;
+            retExp2 += 1;
+        }
+        // subnormal, infinite or out of range
+        if (retExp2 < 1 || retExp2 > 0x7FE) return Double.NaN;
+        long bits = retExp2 << 52 | retMantissa & 0x000FFFFFFFFFFFFFL;
+        if (negative) bits |= Long.MIN_VALUE;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * @param mantissa the decimal digits as an unsigned integer
+     * @param exponent the power of 10
+     * @param negative the sign
+     * @return the nearest float of mantissa * 10^exponent, or NaN if it cannot be decided
+     */
+    static float toFloat(long mantissa, int exponent, boolean negative) {
+        if (mantissa == 0) return negative ? -0.0f : 0.0f;
+        if (mantissa > 0 && mantissa <= (1L << 24) && exponent >= -10 && exponent <= 10) {
+            float value = mantissa;
+            value = exponent < 0 ? value / FLOAT_POWERS[-exponent] : value * FLOAT_POWERS[exponent];
+            return negative ? -value : value;
+        }
+        if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) return Float.NaN;
+        int clz = Long.numberOfLeadingZeros(mantissa);
+        long man = mantissa << clz;
+        long retExp2 = ((217706 * exponent) >> 16) + 64 + 127 - clz;
+        int index = exponent - MIN_EXPONENT;
+        long xHi = multiplyHigh(man, Powers.HIGH[index]);
+        long xLo = man * Powers.HIGH[index];
+        if ((xHi & 0x3FFFFFFFFFL) == 0x3FFFFFFFFFL && lessUnsigned(xLo + man, man)) {
+            long yHi = multiplyHigh(man, Powers.LOW[index]);
+            long yLo = man * Powers.LOW[index];
+            long mergedHi = xHi, mergedLo = xLo + yHi;
+            if (lessUnsigned(mergedLo, xLo)) mergedHi += 1;
+            if ((mergedHi & 0x3FFFFFFFFFL) == 0x3FFFFFFFFFL && mergedLo + 1 == 0 && lessUnsigned(yLo + man, man)) return Float.NaN;
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+        long msb = xHi >>> 63;
+        long retMantissa = xHi >>> (msb + 38);
+        retExp2 -= 1 ^ msb;
+        if (xLo == 0 && (xHi & 0x3FFFFFFFFFL) == 0 && (retMantissa & 3) == 1) return Float.NaN;
+        retMantissa += retMantissa & 1;
+        retMantissa >>>= 1;
+        if ((retMantissa >>> 24) > 0) {
+            retMantissa >>>= 1;
+            retExp2 += 1;
+        }
+        if (retExp2 < 1 || retExp2 > 0xFE) return Float.NaN;
+        int bits = (int) (retExp2 << 23 | retMantissa & 0x007FFFFFL);
+        if (negative) bits |= Integer.MIN_VALUE;
+        return Float.intBitsToFloat(bits);
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128-bit product
+     */
+    static long multiplyHigh(long a, long b) {
+        long aLo = a & 0xFFFFFFFFL, aHi = a >>> 32;
+        long bLo = b & 0xFFFFFFFFL, bHi = b >>> 32;
+        long loLo = aLo * bLo;
+        long hiLo = aHi * bLo;
+        long loHi = aLo * bHi;
+        long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + loHi;
+        return aHi * bHi + (hiLo >>> 32) + (cross >>> 32);
+    }
+
+    private static boolean lessUnsigned(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * The 128-bit mantissas of 10^e for e in [-348, 347], rounded down, whose highest bit
+     * is set. They are computed when they are used for the first time.
+     */
+    private static class Powers {
+
+        static final long[] HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+        static final long[] LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+        static {
+            BigInteger power = BigInteger.ONE;
+            for (int e = 0; e <= MAX_EXPONENT; e ++) {
+                store(e, power.shiftLeft(128).shiftRight(power.bitLength()));
+                power = power.multiply(BigInteger.TEN);
+            }
+            power = BigInteger.TEN;
+            for (int e = -1; e >= MIN_EXPONENT; e --) {
+                // 2^(b + 127) / 10^-e is in [2^127, 2^128) if 10^-e has b bits
+                store(e, BigInteger.ONE.shiftLeft(power.bitLength() + 127).divide(power));
+                power = power.multiply(BigInteger.TEN);
+            }
+        }
+
+        private static void store(int e, BigInteger mantissa) {
+            HIGH[e - MIN_EXPONENT] = mantissa.shiftRight(64).longValue();
+            LOW[e - MIN_EXPONENT] = mantissa.longValue();
+        }
+    }
+
+}
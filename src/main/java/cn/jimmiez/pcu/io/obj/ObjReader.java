@@ -1,14 +1,14 @@
 package cn.jimmiez.pcu.io.obj;
 
+import cn.jimmiez.pcu.io.AsciiTokenizer;
 import cn.jimmiez.pcu.util.Pair;
 import cn.jimmiez.pcu.util.PcuReflectUtil;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
 import java.util.*;
 
 public class ObjReader {
@@ -27,6 +27,11 @@ public class ObjReader {
         private static final int STATE_ERROR = 10;
         private Map<String, ObjDataType> keywordMap = new HashMap<>();
 
+        /** the values of the current line **/
+        private double[] values = new double[16];
+
+        private List<String> tokens = new ArrayList<>();
+
         ObjParser() {
             ObjDataType[] enumValues = ObjDataType.class.getEnumConstants();
             for (ObjDataType type : enumValues) {
@@ -36,50 +41,35 @@ public class ObjReader {
 
         void parseObjFile(File file) throws IOException {
             objData.clear();
-            byte[] bytes = Files.readAllBytes(file.toPath());
-            ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
-            Scanner scanner = new Scanner(stream);
+            try (AsciiTokenizer tokenizer = new AsciiTokenizer(new FileInputStream(file).getChannel())) {
+                parseObjFile(tokenizer);
+            }
+        }
+
+        private void parseObjFile(AsciiTokenizer tokenizer) throws IOException {
             boolean loop = true;
             int currentState = STATE_READY;
             ObjDataType currentType = null;
-            String currentLine = null;
             String errorMessage = null;
-            String[] slices = null;
 
             while (loop) {
                 switch (currentState) {
                     case STATE_READY:
-                        currentLine = null;
                         currentType = null;
                         currentState = STATE_READING_LINE;
                         break;
                     case STATE_READING_LINE:
-                        if (scanner.hasNextLine()) {
-                            currentLine = scanner.nextLine();
+                        if (tokenizer.nextLine()) {
                             // skip empty lines and comments
-                            if (currentLine.isEmpty() || currentLine.startsWith("#")) break;
-
-                            // '\' may occur in the matrix definition
-                            while (currentLine.endsWith("\\") && scanner.hasNextLine()) {
-                                currentLine = currentLine + scanner.nextLine();
-                            }
+                            int first = tokenizer.peek();
+                            if (first == -1 || first == '#') break;
                             currentState = STATE_PARSING_TYPE;
                         } else {
                             currentState = STATE_COMPLETE;
                         }
                         break;
                     case STATE_PARSING_TYPE: {
-                        if (currentLine == null) {
-                            currentState = STATE_ERROR;
-                            break;
-                        }
-                        slices = currentLine.split("(\\s)+");
-                        if (slices.length < 1) {
-                            // empty line, skip
-                            currentState = STATE_READING_LINE;
-                            break;
-                        }
-                        String typeKeyword = slices[0];
+                        String typeKeyword = tokenizer.nextToken();
                         currentType = keywordMap.get(typeKeyword);
                         if (currentType == null) {
                             System.err.println("Warning: unrecognized data type: " + typeKeyword);
@@ -91,7 +81,7 @@ public class ObjReader {
                     }
                     case STATE_PARSING_DATA: {
                         try {
-                            parseObjData(currentType, slices);
+                            parseObjData(currentType, tokenizer);
                         } catch (IOException e) {
                             currentState = STATE_ERROR;
                             errorMessage = e.getMessage();
@@ -111,19 +101,32 @@ public class ObjReader {
             }
         }
 
-        private void parseObjData(ObjDataType type, String[] slices) throws IOException {
-            if (slices.length < 2) throw new IOException("Expect the value of " + type.getKeyword() + ".");
+        /**
+         * @return true if there is another value of the current statement
+         */
+        private boolean hasNextValue(AsciiTokenizer tokenizer) throws IOException {
+            while (tokenizer.hasNext()) {
+                if (tokenizer.peek() != '\\') return true;
+                // '\' may occur in the matrix definition, the values continue in the next line
+                if (! tokenizer.nextLine()) return false;
+            }
+            return false;
+        }
+
+        private void parseObjData(ObjDataType type, AsciiTokenizer tokenizer) throws IOException {
+            if (! hasNextValue(tokenizer)) throw new IOException("Expect the value of " + type.getKeyword() + ".");
             switch (type) {
                 /* vertex data */
                 case V_GEOMETRIC_VERTICES:
                 case VT_TEXTURE_VERTICES:
                 case VN_VERTEX_NORMALS:
                 case VP_PARAMETER_SPACE_VERTICES: {
-                    double[] dataArray = new double[slices.length - 1];
-                    for (int i = 1; i < slices.length; i++) {
-                        dataArray[i - 1] = Double.valueOf(slices[i]);
+                    int length = 0;
+                    while (hasNextValue(tokenizer)) {
+                        if (length == values.length) values = Arrays.copyOf(values, length * 2);
+                        values[length ++] = tokenizer.nextDouble();
                     }
-                    objData.vectorData.get(type).add(dataArray);
+                    objData.vectorData.get(type).add(Arrays.copyOf(values, length));
                 }
                     break;
 
@@ -145,16 +148,18 @@ public class ObjReader {
                 case F_FACE: {
                     // spec p.17
                     // int cnt = 0;
+                    tokens.clear();
+                    while (hasNextValue(tokenizer)) tokens.add(tokenizer.nextToken());
                     Pair<Integer, List<double[]>> pair = objData.elementData.get(type);
                     int indicesCntPerVertex = pair.getKey();
                     if (indicesCntPerVertex == 0) {
-                        indicesCntPerVertex = slices[1].split("/").length;
+                        indicesCntPerVertex = tokens.get(0).split("/").length;
                         pair.setKey(indicesCntPerVertex);
                     }
-                    double[] dataArray = new double[(slices.length - 1) * 3];
+                    double[] dataArray = new double[tokens.size() * 3];
                     for (int valIndex = 0; valIndex < dataArray.length; valIndex ++) dataArray[valIndex] = ObjData.DEFAULT_INDEX;
-                    for (int i = 1; i < slices.length; i++) {
-                        String[] subArrays = slices[i].split("/");
+                    for (int i = 1; i <= tokens.size(); i++) {
+                        String[] subArrays = tokens.get(i - 1).split("/");
                         for (int subArrayIndex = 0; subArrayIndex < subArrays.length; subArrayIndex ++) {
                             String subArray = subArrays[subArrayIndex];
                             if (subArray.isEmpty()) continue;
@@ -206,7 +211,7 @@ public class ObjReader {
                     break;
                 case USEMTL_MATERIAL_NAME:
                 case MTLLIB_MATERIAL_LIBRARY:
-                    objData.textData.put(type, slices[1]);
+                    objData.textData.put(type, tokenizer.nextToken());
                     break;
                 case SHADOW_OBJ_SHADOW_CASTING:
                 case TRACE_OBJ_RAY_TRACING:
@@ -1,14 +1,16 @@
 package cn.jimmiez.pcu.io.off;
 
+import cn.jimmiez.pcu.io.AsciiTokenizer;
+import cn.jimmiez.pcu.util.AnnotatedGetter;
 import cn.jimmiez.pcu.util.PcuReflectUtil;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Object File Format(off / OFF) is used to represent the geometry of polygonal mesh by
@@ -25,20 +27,48 @@ public class OffReader {
     private static final int STATE_COMPLETE = 6;
     private static final int STATE_ERROR = 7;
 
-    private String fetchNextLine(Scanner scanner) {
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            if (line.startsWith("#")) continue;
-            return line;
+    /** the largest number of float values in a line of vertex: xyz, normal and rgba **/
+    private static final int MAX_VERTEX_VALUES = 10;
+
+    /** the getters decorated with {@link ReadFromOff}, fetched once per class **/
+    private static final ClassValue<List<AnnotatedGetter<ReadFromOff>>> GETTERS = new ClassValue<List<AnnotatedGetter<ReadFromOff>>>() {
+        @Override
+        protected List<AnnotatedGetter<ReadFromOff>> computeValue(Class<?> type) {
+            return PcuReflectUtil.fetchAnnotatedGetters(type, ReadFromOff.class, MethodHandles.lookup());
+        }
+    };
+
+    /**
+     * move to the next line that is neither empty nor a comment
+     * @return false if there is no more line
+     */
+    private boolean fetchNextLine(AsciiTokenizer tokenizer) throws IOException {
+        while (tokenizer.nextLine()) {
+            int first = tokenizer.peek();
+            if (first == -1 || first == '#') continue;
+            return true;
         }
-        return null;
+        return false;
+    }
+
+    /**
+     * read the float values left in the current line, at most values.length ones
+     * @return the number of values read
+     */
+    private int readFloats(AsciiTokenizer tokenizer, float[] values) throws IOException {
+        int count = 0;
+        while (count < values.length && tokenizer.hasNext()) values[count ++] = tokenizer.nextFloat();
+        return count;
     }
 
-    private void readImpl(Scanner scanner, OffData data) throws IOException {
+    private void readImpl(AsciiTokenizer tokenizer, OffData data) throws IOException {
         int state = STATE_READY;
         boolean loop = true;
         OffHeader header = new OffHeader();
         String message = null;
+        // true if the rest of the current line is not parsed yet
+        boolean pendingLine = false;
+        float[] values = new float[MAX_VERTEX_VALUES];
         while (loop) {
             switch (state) {
                 case STATE_READY: {
@@ -46,14 +76,17 @@ public class OffReader {
                     break;
                 }
                 case STATE_PARSE_HEADER_KEYWORD: {
-                    String line = fetchNextLine(scanner);
-                    if (line == null) {
+                    if (! fetchNextLine(tokenizer)) {
                         state = STATE_ERROR;
                         message = "Cannot read first line";
                         break;
                     }
-                    String keyword = line.trim();
+                    // some files may omit OFF keyword in first line
+                    pendingLine = true;
+                    String keyword = tokenizer.peekToken();
                     if (keyword.endsWith("OFF")) {
+                        tokenizer.nextToken();
+                        pendingLine = tokenizer.hasNext();
                         header.setName(keyword);
                         if (keyword.contains("ST")) header.setHasTextureCoordinates(true);
                         if (keyword.contains("N")) header.setHasNormal(true);
@@ -61,7 +94,6 @@ public class OffReader {
                         if (keyword.contains("4")) header.setHas4Components(true);
                         if (keyword.contains("n")) header.setIfDimensionSpecified(true);
                     }
-                    // some files may omit OFF keyword in first line
                     if (header.isDimensionSpecified()) {
                         state = STATE_PARSE_HEADER_N_DIM;
                     } else {
@@ -70,13 +102,13 @@ public class OffReader {
                     break;
                 }
                 case STATE_PARSE_HEADER_N_DIM: {
-                    String line = fetchNextLine(scanner);
-                    if (line == null) {
+                    if (! pendingLine && ! fetchNextLine(tokenizer)) {
                         state = STATE_ERROR;
                         message = "Cannot read the number of dimensions";
                         break;
                     }
-                    int dimen = Integer.valueOf(line);
+                    int dimen = tokenizer.nextInt();
+                    pendingLine = tokenizer.hasNext();
                     if (dimen >= 1) {
                         header.setDimension(dimen);
                         state = STATE_PARSE_ELEMENT_NUM;
@@ -87,23 +119,22 @@ public class OffReader {
                     break;
                 }
                 case STATE_PARSE_ELEMENT_NUM: {
-                    String line = fetchNextLine(scanner);
-                    if (line == null) {
+                    if (! pendingLine && ! fetchNextLine(tokenizer)) {
                         state = STATE_ERROR;
                         message = "Cannot read number of vertices and faces.";
                         break;
                     }
-                    String[] nums = line.split(" ");
+                    pendingLine = false;
                     int verticesNum = -1, facesNum = -1, edgesNum = -1;
-                    if (nums.length < 2) {
+                    verticesNum = tokenizer.nextInt();
+                    if (! tokenizer.hasNext()) {
                         message = "Too few numbers for parsing element size.";
                         state = STATE_ERROR;
                         break;
                     }
-                    verticesNum = Integer.valueOf(nums[0]);
-                    facesNum = Integer.valueOf(nums[1]);
-                    if (nums.length > 2){
-                        edgesNum = Integer.valueOf(nums[2]);
+                    facesNum = tokenizer.nextInt();
+                    if (tokenizer.hasNext()){
+                        edgesNum = tokenizer.nextInt();
                     }
                     if (verticesNum >= 0) header.setVerticesNum(verticesNum);
                     if (facesNum >= 0) header.setFacesNum(facesNum);
@@ -120,17 +151,21 @@ public class OffReader {
                     }
                     boolean success = true;
                     for (int i = 0; i < header.getVerticesNum(); i ++) {
-                        String line = fetchNextLine(scanner);
-                        if (line == null) {
+                        if (! fetchNextLine(tokenizer)) {
                             message = "Fewer vertices than expected.";
                             success = false;
                             break;
                         }
                         int expectedLength = 3;
-                        String[] values = line.trim().split("(\\s)+");
+                        int length = readFloats(tokenizer, values);
+                        if (length < 3) {
+                            message = "Fewer float values than expected.";
+                            success = false;
+                            break;
+                        }
                         float[] xyz = new float[3];
                         int j;
-                        for (j = 0; j < 3; j ++) xyz[j] = Float.valueOf(values[j]);
+                        for (j = 0; j < 3; j ++) xyz[j] = values[j];
                         data.vertices.add(xyz);
 
                         if (header.hasTextureCoordinates()) {
@@ -139,9 +174,9 @@ public class OffReader {
                         }
                         if (header.hasNormal()) {
                             expectedLength += 3;
-                            if (values.length >= expectedLength) {
+                            if (length >= expectedLength) {
                                 float[] normal = new float[3];
-                                for (; j < expectedLength; j ++) normal[j - 3] = Float.valueOf(values[j]);
+                                for (; j < expectedLength; j ++) normal[j - 3] = values[j];
                                 data.vertexNormals.add(normal);
                             } else {
                                 System.err.println("Fewer float values than expected.");
@@ -150,9 +185,9 @@ public class OffReader {
                         }
                         if (header.hasColor()) {
                             expectedLength += 4;
-                            if (values.length >= expectedLength) {
+                            if (length >= expectedLength) {
                                 float[] rgba = new float[4];
-                                for (; j < expectedLength; j ++) rgba[j - (expectedLength - 4)] = Float.valueOf(values[j]);
+                                for (; j < expectedLength; j ++) rgba[j - (expectedLength - 4)] = values[j];
                                 data.vertexColors.add(rgba);
                             }
                         }
@@ -174,22 +209,29 @@ public class OffReader {
                     }
                     boolean success = true;
                     for (int i = 0; i < header.getFacesNum(); i ++) {
-                        String line = fetchNextLine(scanner);
-                        if (line == null) {
+                        if (! fetchNextLine(tokenizer)) {
                             message = "Fewer faces than expected.";
                             success = false;
                             break;
                         }
-                        String[] values = line.trim().split("(\\s)+");
-                        int arrayLength = Integer.valueOf(values[0]);
+                        int arrayLength = tokenizer.nextInt();
+                        if (arrayLength < 0) {
+                            message = "Negative number of face vertices.";
+                            success = false;
+                            break;
+                        }
                         int[] indices = new int[arrayLength];
                         int j;
-                        for (j = 1; j < arrayLength + 1; j ++) indices[j - 1] = Integer.valueOf(values[j]);
+                        for (j = 0; j < arrayLength && tokenizer.hasNext(); j ++) indices[j] = tokenizer.nextInt();
+                        if (j < arrayLength) {
+                            message = "Fewer vertex indices than expected.";
+                            success = false;
+                            break;
+                        }
                         data.faces.add(indices);
 
-                        if (values.length >= arrayLength + 5) {
-                            float[] rgba = new float[4];
-                            for (; j < arrayLength + 5; j ++) rgba[j - arrayLength - 1] = Float.valueOf(values[j]);
+                        float[] rgba = new float[4];
+                        if (readFloats(tokenizer, rgba) == 4) {
                             data.faceColors.add(rgba);
                         }
                     }
@@ -214,62 +256,34 @@ public class OffReader {
     }
 
     public OffData read(File file) throws IOException {
-        Scanner scanner = new Scanner(file);
         OffData data = new OffData();
-        readImpl(scanner, data);
+        try (AsciiTokenizer tokenizer = new AsciiTokenizer(new FileInputStream(file).getChannel())) {
+            readImpl(tokenizer, data);
+        }
         return data;
     }
 
-    private void injectData(OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<Method> methods = PcuReflectUtil.fetchAllMethods(object);
-        for (Method method : methods) {
-            ReadFromOff annotation = method.getAnnotation(ReadFromOff.class);
-            if (annotation != null) {
-                if (annotation.dataType() == ReadFromOff.VERTICES) {
-                    injectVerticesData(method, data, object);
-                } else if (annotation.dataType() == ReadFromOff.FACES) {
-                    injectFacesData(method, data, object);
-                } else if (annotation.dataType() == ReadFromOff.VERTEX_COLORS) {
-                    injectVertexColorsData(method, data, object);
-                } else if (annotation.dataType() == ReadFromOff.VERTEX_NORMALS) {
-                    injectVertexNormalsData(method, data, object);
-                } else if (annotation.dataType() == ReadFromOff.FACE_COLORS) {
-                    injectFaceColorsData(method, data, object);
+    @SuppressWarnings("unchecked")
+    private void injectData(OffData data, Object object) throws InvocationTargetException {
+        for (AnnotatedGetter<ReadFromOff> getter : GETTERS.get(object.getClass())) {
+            List<float[]> floatList = null;
+            switch (getter.getAnnotation().dataType()) {
+                case ReadFromOff.VERTICES: floatList = data.vertices; break;
+                case ReadFromOff.VERTEX_COLORS: floatList = data.vertexColors; break;
+                case ReadFromOff.VERTEX_NORMALS: floatList = data.vertexNormals; break;
+                case ReadFromOff.FACE_COLORS: floatList = data.faceColors; break;
+                case ReadFromOff.FACES: {
+                    List<int[]> list = (List<int[]>) getter.invoke(object);
+                    list.addAll(data.faces);
+                    continue;
                 }
+                default: continue;
             }
+            List<float[]> list = (List<float[]>) getter.invoke(object);
+            list.addAll(floatList);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void injectVerticesData(Method method, OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<float[]> list = (List<float[]>) method.invoke(object);
-        list.addAll(data.vertices);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void injectFacesData(Method method, OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<int[]> list = (List<int[]>) method.invoke(object);
-        list.addAll(data.faces);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void injectVertexColorsData(Method method, OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<float[]> list = (List<float[]>) method.invoke(object);
-        list.addAll(data.vertexColors);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void injectVertexNormalsData(Method method, OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<float[]> list = (List<float[]>) method.invoke(object);
-        list.addAll(data.vertexNormals);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void injectFaceColorsData(Method method, OffData data, Object object) throws InvocationTargetException, IllegalAccessException {
-        List<float[]> list = (List<float[]>) method.invoke(object);
-        list.addAll(data.faceColors);
-    }
-
     public <T> T read(File file, Class<T> clazz) throws IOException {
         OffData data = read(file);
         // inject into object ....
@@ -0,0 +1,129 @@
+package cn.jimmiez.pcu.io.pcd;
+
+/**
+ * The LZF compression of liblzf, used by the binary_compressed pcd files. The compressed
+ * data is a sequence of chunks, each of which starts with a control byte:
+ * <pre>
+ * 000LLLLL                      a run of L + 1 literal bytes follows
+ * LLLooooo oooooooo             copy L + 2 bytes from (o + 1) bytes back, L in [1, 6]
+ * 111ooooo LLLLLLLL oooooooo    copy L + 9 bytes from (o + 1) bytes back
+ * </pre>
+ */
+final class Lzf {
+
+    private static final int HASH_BITS = 14;
+
+    /** the longest literal run **/
+    private static final int MAX_LITERAL = 1 << 5;
+
+    /** the farthest back reference **/
+    private static final int MAX_OFFSET = 1 << 13;
+
+    /** the longest back reference **/
+    private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+    private Lzf() {}
+
+    /**
+     * @return the max size of data of length bytes after compression
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / MAX_LITERAL + 1;
+    }
+
+    /**
+     * @param input the data to be compressed
+     * @param length the number of bytes in input
+     * @param output the compressed data, at least {@link #maxCompressedLength(int)} bytes
+     * @return the size of compressed data
+     */
+    static int compress(byte[] input, int length, byte[] output) {
+        // the position + 1 of the last occurrence of each hashed 3 bytes, 0 if none
+        int[] table = new int[1 << HASH_BITS];
+        int in = 0, out = 1;
+        // the control byte of current literal run is at out - literals - 1
+        int literals = 0;
+        while (in < length) {
+            if (in + 2 < length) {
+                int next = ((input[in] & 0xFF) << 16) | ((input[in + 1] & 0xFF) << 8) | (input[in + 2] & 0xFF);
+                int hash = ((next * 0x9E3779B1) >>> (32 - HASH_BITS));
+                int reference = table[hash] - 1;
+                table[hash] = in + 1;
+                int offset = in - reference - 1;
+                if (reference >= 0 && offset < MAX_OFFSET
+                        && input[reference] == input[in] && input[reference + 1] == input[in + 1] && input[reference + 2] == input[in + 2]) {
+                    int maxLength = Math.min(MAX_REFERENCE, length - in);
+                    int matched = 3;
+                    while (matched < maxLength && input[reference + matched] == input[in + matched]) matched ++;
+                    // close the literal run, or drop its control byte if it is empty
+                    if (literals > 0) {
+                        output[out - literals - 1] = (byte) (literals - 1);
+                    } else {
+                        out -= 1;
+                    }
+                    int code = matched - 2;
+                    if (code < 7) {
+                        output[out ++] = (byte) ((code << 5) | (offset >>> 8));
+                    } else {
+                        output[out ++] = (byte) ((7 << 5) | (offset >>> 8));
+                        output[out ++] = (byte) (code - 7);
+                    }
+                    output[out ++] = (byte) offset;
+                    in += matched;
+                    // a new literal run
+                    out += 1;
+                    literals = 0;
+                    continue;
+                }
+            }
+            output[out ++] = input[in ++];
+            literals += 1;
+            if (literals == MAX_LITERAL) {
+                output[out - literals - 1] = (byte) (literals - 1);
+                out += 1;
+                literals = 0;
+            }
+        }
+        if (literals > 0) {
+            output[out - literals - 1] = (byte) (literals - 1);
+        } else {
+            out -= 1;
+        }
+        return out;
+    }
+
+    /**
+     * @param input the compressed data
+     * @param from the position of the first compressed byte
+     * @param to the position after the last compressed byte
+     * @param output the decompressed data, its length is the size of decompressed data
+     * @throws IllegalArgumentException if the data is broken or not of the size of output
+     */
+    static void decompress(byte[] input, int from, int to, byte[] output) {
+        int in = from, out = 0;
+        while (in < to) {
+            int control = input[in ++] & 0xFF;
+            if (control < MAX_LITERAL) {
+                int literals = control + 1;
+                if (in + literals > to || out + literals > output.length) throw new IllegalArgumentException("Broken LZF data.");
+                System.arraycopy(input, in, output, out, literals);
+                in += literals;
+                out += literals;
+                continue;
+            }
+            int copied = control >>> 5;
+            if (copied == 7) {
+                if (in >= to) throw new IllegalArgumentException("Broken LZF data.");
+                copied += input[in ++] & 0xFF;
+            }
+            copied += 2;
+            if (in >= to) throw new IllegalArgumentException("Broken LZF data.");
+            int reference = out - ((control & 0x1F) << 8) - (input[in ++] & 0xFF) - 1;
+            if (reference < 0 || out + copied > output.length) throw new IllegalArgumentException("Broken LZF data.");
+            // the reference may overlap the bytes being copied
+            for (int i = 0; i < copied; i ++) output[out ++] = output[reference ++];
+        }
+        if (out != output.length) throw new IllegalArgumentException("The LZF data is shorter than expected.");
+    }
+
+}
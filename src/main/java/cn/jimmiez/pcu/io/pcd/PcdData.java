@@ -0,0 +1,173 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+
+/**
+ * The points of a pcd file, stored by columns: the values of a field of all points are kept
+ * in a primitive array of the width of its data type, e.g. a float[] for F 4 and a byte[]
+ * for U 1. If a field has several values per point, the values of point i are
+ * [i * count, (i + 1) * count) in its column.
+ *
+ * The typed getters convert the values if the data type of field is different. The unsigned
+ * types are read as unsigned values, except that getInt() returns the bits of a uint as
+ * they are. The fields not read, see {@link PcdReader#read(java.io.File, String...)}, have
+ * no column.
+ */
+public class PcdData {
+
+    private final PcdHeader header;
+
+    /** the column of each field, null if the field is not read **/
+    final Object[] columns;
+
+    PcdData(PcdHeader header) {
+        this.header = header;
+        this.columns = new Object[header.getFields().size()];
+    }
+
+    /**
+     * create the column of a field for all points
+     */
+    void allocate(int field) {
+        PcdField pcdField = header.getFields().get(field);
+        int length = (int) Math.min(Integer.MAX_VALUE, (long) header.getPoints() * pcdField.getCount());
+        if (length != (long) header.getPoints() * pcdField.getCount()) {
+            throw new IllegalStateException("Too many values in field " + pcdField.getName());
+        }
+        switch (pcdField.getType()) {
+            case CHAR:
+            case UCHAR:
+                columns[field] = new byte[length];
+                break;
+            case SHORT:
+            case USHORT:
+                columns[field] = new short[length];
+                break;
+            case INT:
+            case UINT:
+                columns[field] = new int[length];
+                break;
+            case FLOAT:
+                columns[field] = new float[length];
+                break;
+            default:
+                columns[field] = new double[length];
+        }
+    }
+
+    public PcdHeader getHeader() {
+        return header;
+    }
+
+    public int getPointNumber() {
+        return header.getPoints();
+    }
+
+    /**
+     * @param field the index of field
+     * @return false if the field is not read
+     */
+    public boolean isRead(int field) {
+        return columns[field] != null;
+    }
+
+    /**
+     * @param point the index of point
+     * @param field the index of field
+     * @param k the index of value in the field, 0 for a field of one value
+     */
+    public double getDouble(int point, int field, int k) {
+        return value(field, point * header.getFields().get(field).getCount() + k);
+    }
+
+    /**
+     * @see #getDouble(int, int, int)
+     */
+    public float getFloat(int point, int field, int k) {
+        Object column = columns[field];
+        int i = point * header.getFields().get(field).getCount() + k;
+        if (column instanceof float[]) return ((float[]) column)[i];
+        return (float) value(field, i);
+    }
+
+    /**
+     * @see #getDouble(int, int, int)
+     */
+    public int getInt(int point, int field, int k) {
+        Object column = columns[field];
+        int i = point * header.getFields().get(field).getCount() + k;
+        if (column instanceof int[]) return ((int[]) column)[i];
+        return (int) value(field, i);
+    }
+
+    /**
+     * @return the column of a I 1 or U 1 field
+     */
+    public byte[] getBytes(int field) {
+        return (byte[]) column(field, PcuDataType.CHAR, PcuDataType.UCHAR);
+    }
+
+    /**
+     * @return the column of a I 2 or U 2 field
+     */
+    public short[] getShorts(int field) {
+        return (short[]) column(field, PcuDataType.SHORT, PcuDataType.USHORT);
+    }
+
+    /**
+     * @return the column of a I 4 or U 4 field
+     */
+    public int[] getInts(int field) {
+        return (int[]) column(field, PcuDataType.INT, PcuDataType.UINT);
+    }
+
+    /**
+     * @return the column of a F 4 field
+     */
+    public float[] getFloats(int field) {
+        return (float[]) column(field, PcuDataType.FLOAT, PcuDataType.FLOAT);
+    }
+
+    /**
+     * @return the column of a F 8 field
+     */
+    public double[] getDoubles(int field) {
+        return (double[]) column(field, PcuDataType.DOUBLE, PcuDataType.DOUBLE);
+    }
+
+    private Object column(int field, PcuDataType type, PcuDataType unsignedType) {
+        if (columns[field] == null) throw new IllegalArgumentException("The field is not read: " + field);
+        PcuDataType actual = header.getFields().get(field).getType();
+        if (actual != type && actual != unsignedType) {
+            throw new IllegalArgumentException("The data type of field " + field + " is " + actual.typeName());
+        }
+        return columns[field];
+    }
+
+    /**
+     * @return the i-th value in the column of field
+     */
+    private double value(int field, int i) {
+        Object column = columns[field];
+        if (column == null) throw new IllegalArgumentException("The field is not read: " + field);
+        switch (header.getFields().get(field).getType()) {
+            case CHAR:
+                return ((byte[]) column)[i];
+            case UCHAR:
+                return ((byte[]) column)[i] & 0xFF;
+            case SHORT:
+                return ((short[]) column)[i];
+            case USHORT:
+                return ((short[]) column)[i] & 0xFFFF;
+            case INT:
+                return ((int[]) column)[i];
+            case UINT:
+                return ((int[]) column)[i] & 0xFFFFFFFFL;
+            case FLOAT:
+                return ((float[]) column)[i];
+            default:
+                return ((double[]) column)[i];
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+
+/**
+ * A field declared in the header of pcd file, e.g. x, rgb or normal_x. A field may have
+ * several values per point, e.g. the 33 values of a FPFH signature.
+ */
+public class PcdField {
+
+    private final String name;
+
+    private final PcuDataType type;
+
+    private final int count;
+
+    public PcdField(String name, PcuDataType type, int count) {
+        if (type == null || type == PcuDataType.NIL) throw new IllegalArgumentException("Invalid data type of field " + name);
+        if (count < 1) throw new IllegalArgumentException("The count of field " + name + " must be positive.");
+        this.name = name;
+        this.type = type;
+        this.count = count;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PcuDataType getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of values of the field in a point
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the bytes of the field in a point
+     */
+    public int size() {
+        return type.size() * count;
+    }
+
+    /**
+     * @return the TYPE letter of the data type in header: I, U or F
+     */
+    char typeLetter() {
+        switch (type) {
+            case CHAR:
+            case SHORT:
+            case INT:
+                return 'I';
+            case UCHAR:
+            case USHORT:
+            case UINT:
+                return 'U';
+            default:
+                return 'F';
+        }
+    }
+
+    /**
+     * @param letter the TYPE letter in header
+     * @param size the SIZE in header
+     * @return the data type, or null if it is not supported, e.g. 8-byte integers
+     */
+    static PcuDataType dataType(String letter, int size) {
+        switch (letter) {
+            case "I":
+                return size == 1 ? PcuDataType.CHAR : size == 2 ? PcuDataType.SHORT : size == 4 ? PcuDataType.INT : null;
+            case "U":
+                return size == 1 ? PcuDataType.UCHAR : size == 2 ? PcuDataType.USHORT : size == 4 ? PcuDataType.UINT : null;
+            case "F":
+                return size == 4 ? PcuDataType.FLOAT : size == 8 ? PcuDataType.DOUBLE : null;
+        }
+        return null;
+    }
+
+}
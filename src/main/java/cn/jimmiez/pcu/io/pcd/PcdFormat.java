@@ -0,0 +1,37 @@
+package cn.jimmiez.pcu.io.pcd;
+
+/**
+ * The layouts of data in a pcd file, declared by the DATA line of header.
+ */
+public enum PcdFormat {
+
+    /** a point in a line, the values are separated by spaces **/
+    ASCII("ascii"),
+
+    /** the points one after another, the values of a point in the order of fields **/
+    BINARY("binary"),
+
+    /** the values of a field of all points one after another, then the next field, compressed by LZF **/
+    BINARY_COMPRESSED("binary_compressed");
+
+    private final String keyword;
+
+    PcdFormat(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * @return the word in the DATA line of header
+     */
+    public String keyword() {
+        return keyword;
+    }
+
+    static PcdFormat of(String keyword) {
+        for (PcdFormat format : values()) {
+            if (format.keyword.equals(keyword)) return format;
+        }
+        return null;
+    }
+
+}
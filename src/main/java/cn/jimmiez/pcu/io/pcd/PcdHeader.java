@@ -0,0 +1,128 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The header of a pcd file (version 0.7), e.g.
+ * <pre>
+ * VERSION 0.7
+ * FIELDS x y z rgb
+ * SIZE 4 4 4 4
+ * TYPE F F F U
+ * COUNT 1 1 1 1
+ * WIDTH 640
+ * HEIGHT 480
+ * VIEWPOINT 0 0 0 1 0 0 0
+ * POINTS 307200
+ * DATA binary
+ * </pre>
+ */
+public class PcdHeader {
+
+    private String version = "0.7";
+
+    private List<PcdField> fields = new ArrayList<>();
+
+    private int width = 0;
+
+    private int height = 1;
+
+    /** translation (tx ty tz) and quaternion (qw qx qy qz) **/
+    private double[] viewpoint = new double[] {0, 0, 0, 1, 0, 0, 0};
+
+    private int points = 0;
+
+    private PcdFormat format = PcdFormat.ASCII;
+
+    /** the size of header in bytes, the data starts after it **/
+    private long bytesCount = 0;
+
+    public String getVersion() {
+        return version;
+    }
+
+    void setVersion(String version) {
+        this.version = version;
+    }
+
+    public List<PcdField> getFields() {
+        return fields;
+    }
+
+    /**
+     * @param name the name of field
+     * @return the index of field, or -1 if there is no such field
+     */
+    public int findField(String name) {
+        for (int i = 0; i < fields.size(); i ++) {
+            if (fields.get(i).getName().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the bytes of a point in a binary file
+     */
+    public int pointBytes() {
+        int bytes = 0;
+        for (PcdField field : fields) bytes += field.size();
+        return bytes;
+    }
+
+    /**
+     * @return the width of an organized point cloud, or the number of points for an unorganized one
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * @return the height of an organized point cloud, or 1 for an unorganized one
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    void setHeight(int height) {
+        this.height = height;
+    }
+
+    public double[] getViewpoint() {
+        return Arrays.copyOf(viewpoint, viewpoint.length);
+    }
+
+    void setViewpoint(double[] viewpoint) {
+        this.viewpoint = viewpoint;
+    }
+
+    public int getPoints() {
+        return points;
+    }
+
+    void setPoints(int points) {
+        this.points = points;
+    }
+
+    public PcdFormat getFormat() {
+        return format;
+    }
+
+    void setFormat(PcdFormat format) {
+        this.format = format;
+    }
+
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    void setBytesCount(long bytesCount) {
+        this.bytesCount = bytesCount;
+    }
+
+}
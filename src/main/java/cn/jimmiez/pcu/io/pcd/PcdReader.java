@@ -0,0 +1,462 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.io.AsciiTokenizer;
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+import cn.jimmiez.pcu.util.AnnotatedGetter;
+import cn.jimmiez.pcu.util.PcuReflectUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a pcd file of Point Cloud Library into {@link PcdData}, whose fields are decoded
+ * into primitive columns directly. The ascii files are parsed by {@link AsciiTokenizer},
+ * the binary files are mapped into memory and decoded from the mapped pages, and the
+ * binary_compressed files are mapped and decompressed by LZF.
+ *
+ * <pre>
+ * PcdData data = new PcdReader().read(file, "x", "y", "z");
+ * float[] xs = data.getFloats(data.getHeader().findField("x"));
+ * </pre>
+ *
+ * More details about PCD file format can be found in:
+ * http://pointclouds.org/documentation/tutorials/pcd_file_format.php
+ */
+public class PcdReader {
+
+    /** the size of a mapped chunk is at most 1GB **/
+    private static final int CHUNK_BITS = 30;
+
+    /** the getters decorated with {@link ReadFromPcd}, fetched once per class **/
+    private static final ClassValue<List<AnnotatedGetter<ReadFromPcd>>> GETTERS = new ClassValue<List<AnnotatedGetter<ReadFromPcd>>>() {
+        @Override
+        protected List<AnnotatedGetter<ReadFromPcd>> computeValue(Class<?> type) {
+            List<AnnotatedGetter<ReadFromPcd>> getters = new ArrayList<>();
+            for (AnnotatedGetter<ReadFromPcd> getter : PcuReflectUtil.fetchAnnotatedGetters(type, ReadFromPcd.class, MethodHandles.lookup())) {
+                if (getter.getMethod().getReturnType() == List.class) getters.add(getter);
+            }
+            return getters;
+        }
+    };
+
+    /**
+     * read all fields of a pcd file
+     * @param file the pcd file
+     * @return the points
+     * @throws IOException if the file cannot be read or it is broken
+     */
+    public PcdData read(File file) throws IOException {
+        return readImpl(file, null);
+    }
+
+    /**
+     * read some fields of a pcd file, the other fields are skipped without being decoded
+     * @param file the pcd file
+     * @param fields the names of fields to be read
+     * @return the points, the fields not read have no column
+     * @throws IOException if the file cannot be read or it is broken
+     */
+    public PcdData read(File file, String... fields) throws IOException {
+        return readImpl(file, new HashSet<>(Arrays.asList(fields)));
+    }
+
+    /**
+     * read the fields in the {@link ReadFromPcd} annotations of a class into a new instance of it
+     * @param file the pcd file
+     * @param clazz the user-defined class
+     * @return the instance, or null if it cannot be created
+     * @throws IOException if the file cannot be read or it is broken
+     */
+    public <T> T read(File file, Class<T> clazz) throws IOException {
+        List<AnnotatedGetter<ReadFromPcd>> getters = GETTERS.get(clazz);
+        Set<String> fields = new HashSet<>();
+        for (AnnotatedGetter<ReadFromPcd> getter : getters) fields.addAll(Arrays.asList(getter.getAnnotation().fields()));
+        PcdData data = readImpl(file, fields);
+        T object = null;
+        try {
+            object = clazz.newInstance();
+            for (AnnotatedGetter<ReadFromPcd> getter : getters) {
+                List list = (List) getter.invoke(object);
+                if (list != null) injectData(data, list, getter.getAnnotation().fields());
+            }
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return object;
+    }
+
+    /**
+     * add the values of fields of each point into the list as an array of the data type of
+     * the first field, e.g. a float[] for F 4
+     */
+    @SuppressWarnings("unchecked")
+    private void injectData(PcdData data, List list, String[] fieldNames) {
+        if (fieldNames.length < 1) return;
+        list.clear();
+        PcdHeader header = data.getHeader();
+        int[] fields = new int[fieldNames.length];
+        int length = 0;
+        for (int i = 0; i < fields.length; i ++) {
+            fields[i] = header.findField(fieldNames[i]);
+            if (fields[i] == -1) {
+                System.err.println("Cannot recognize the field name in the annotation: " + fieldNames[i]);
+                return;
+            }
+            length += header.getFields().get(fields[i]).getCount();
+        }
+        PcuDataType type = header.getFields().get(fields[0]).getType();
+        for (int point = 0; point < data.getPointNumber(); point ++) {
+            Object values;
+            switch (type) {
+                case CHAR:
+                case UCHAR:
+                    values = new byte[length];
+                    break;
+                case SHORT:
+                case USHORT:
+                    values = new short[length];
+                    break;
+                case INT:
+                case UINT:
+                    values = new int[length];
+                    break;
+                case FLOAT:
+                    values = new float[length];
+                    break;
+                default:
+                    values = new double[length];
+            }
+            int j = 0;
+            for (int field : fields) {
+                for (int k = 0; k < header.getFields().get(field).getCount(); k ++, j ++) {
+                    if (values instanceof float[]) {
+                        ((float[]) values)[j] = data.getFloat(point, field, k);
+                    } else if (values instanceof double[]) {
+                        ((double[]) values)[j] = data.getDouble(point, field, k);
+                    } else if (values instanceof int[]) {
+                        ((int[]) values)[j] = data.getInt(point, field, k);
+                    } else if (values instanceof short[]) {
+                        ((short[]) values)[j] = (short) data.getInt(point, field, k);
+                    } else {
+                        ((byte[]) values)[j] = (byte) data.getInt(point, field, k);
+                    }
+                }
+            }
+            list.add(values);
+        }
+    }
+
+    /**
+     * @param selected the names of fields to be read, null means all
+     */
+    private PcdData readImpl(File file, Set<String> selected) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            PcdHeader header = readHeader(channel);
+            PcdData data = new PcdData(header);
+            for (int i = 0; i < header.getFields().size(); i ++) {
+                if (selected == null || selected.contains(header.getFields().get(i).getName())) data.allocate(i);
+            }
+            switch (header.getFormat()) {
+                case ASCII:
+                    channel.position(header.getBytesCount());
+                    decodeAscii(new AsciiTokenizer(channel), data);
+                    break;
+                case BINARY:
+                    decodeBinary(channel, data);
+                    break;
+                case BINARY_COMPRESSED:
+                    decodeCompressed(channel, data);
+                    break;
+            }
+            return data;
+        }
+    }
+
+    /**
+     * read the header of pcd file, the channel is at the end of header after reading
+     */
+    static PcdHeader readHeader(FileChannel channel) throws IOException {
+        PcdHeader header = new PcdHeader();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        buffer.flip();
+        StringBuilder line = new StringBuilder();
+        long position = 0;
+        List<String> names = null, sizes = null, types = null, counts = null;
+        boolean hasPoints = false;
+        while (header.getBytesCount() == 0) {
+            if (! buffer.hasRemaining()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) throw new IOException("Invalid pcd file: Cannot find DATA in header.");
+                buffer.flip();
+            }
+            byte b = buffer.get();
+            position += 1;
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            String text = line.toString().trim();
+            line.setLength(0);
+            if (text.isEmpty() || text.startsWith("#")) continue;
+            String[] slices = text.split("\\s+");
+            List<String> values = Arrays.asList(slices).subList(1, slices.length);
+            try {
+                switch (slices[0]) {
+                    case "VERSION":
+                        if (values.size() > 0) header.setVersion(values.get(0));
+                        break;
+                    case "FIELDS":
+                        names = values;
+                        break;
+                    case "SIZE":
+                        sizes = values;
+                        break;
+                    case "TYPE":
+                        types = values;
+                        break;
+                    case "COUNT":
+                        counts = values;
+                        break;
+                    case "WIDTH":
+                        header.setWidth(Integer.parseInt(values.get(0)));
+                        break;
+                    case "HEIGHT":
+                        header.setHeight(Integer.parseInt(values.get(0)));
+                        break;
+                    case "VIEWPOINT":
+                        if (values.size() != 7) throw new IOException("Invalid pcd file: VIEWPOINT needs 7 values.");
+                        double[] viewpoint = new double[7];
+                        for (int i = 0; i < 7; i ++) viewpoint[i] = Double.parseDouble(values.get(i));
+                        header.setViewpoint(viewpoint);
+                        break;
+                    case "POINTS":
+                        header.setPoints(Integer.parseInt(values.get(0)));
+                        hasPoints = true;
+                        break;
+                    case "DATA":
+                        PcdFormat format = values.isEmpty() ? null : PcdFormat.of(values.get(0).toLowerCase());
+                        if (format == null) throw new IOException("Unsupported pcd data format: " + text);
+                        header.setFormat(format);
+                        header.setBytesCount(position);
+                        break;
+                    default:
+                        throw new IOException("Invalid pcd file: Unknown line in header: " + text);
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Invalid pcd file: Wrong line in header: " + text, e);
+            }
+        }
+        // a file of version 0.6 or older may have no COUNT or POINTS
+        if (names == null || sizes == null || types == null) throw new IOException("Invalid pcd file: No FIELDS, SIZE or TYPE in header.");
+        if (sizes.size() != names.size() || types.size() != names.size() || (counts != null && counts.size() != names.size())) {
+            throw new IOException("Invalid pcd file: The numbers of FIELDS, SIZE, TYPE and COUNT are different.");
+        }
+        try {
+            for (int i = 0; i < names.size(); i ++) {
+                PcuDataType type = PcdField.dataType(types.get(i), Integer.parseInt(sizes.get(i)));
+                if (type == null) throw new IOException("Unsupported pcd field type: " + types.get(i) + " " + sizes.get(i));
+                int count = counts == null ? 1 : Integer.parseInt(counts.get(i));
+                if (count < 1) throw new IOException("Invalid pcd file: The count of field is not positive: " + names.get(i));
+                header.getFields().add(new PcdField(names.get(i), type, count));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid pcd file: Wrong SIZE or COUNT in header.", e);
+        }
+        if (! hasPoints) header.setPoints(header.getWidth() * header.getHeight());
+        if (header.getPoints() < 0) throw new IOException("Invalid pcd file: Negative number of points.");
+        return header;
+    }
+
+    /**
+     * a point in a line, the empty lines are skipped
+     */
+    private void decodeAscii(AsciiTokenizer tokenizer, PcdData data) throws IOException {
+        List<PcdField> fields = data.getHeader().getFields();
+        for (int point = 0; point < data.getPointNumber(); point ++) {
+            do {
+                if (! tokenizer.nextLine()) throw new IOException("no enough data");
+            } while (! tokenizer.hasNext());
+            for (int f = 0; f < fields.size(); f ++) {
+                PcdField field = fields.get(f);
+                Object column = data.columns[f];
+                int count = field.getCount();
+                for (int k = 0; k < count; k ++) {
+                    if (! tokenizer.hasNext()) throw new IOException("Less values than expected in point " + point);
+                    if (column == null) {
+                        tokenizer.skipToken();
+                    } else if (column instanceof float[]) {
+                        ((float[]) column)[point * count + k] = (float) nextAsciiValue(tokenizer, true);
+                    } else {
+                        store(column, point * count + k, nextAsciiValue(tokenizer, false));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next value in the line, PCL writes nan for the missing values
+     */
+    private static double nextAsciiValue(AsciiTokenizer tokenizer, boolean isFloat) throws IOException {
+        int first = tokenizer.peek();
+        if (first == 'n' || first == 'N') {
+            String token = tokenizer.nextToken();
+            if (token.equalsIgnoreCase("nan")) return Double.NaN;
+            throw new NumberFormatException("For input string: \"" + token + "\"");
+        }
+        return isFloat ? tokenizer.nextFloat() : tokenizer.nextDouble();
+    }
+
+    /**
+     * store a value into an integer or double column, an unsigned value is kept in its bits
+     */
+    private static void store(Object column, int i, double value) {
+        if (column instanceof double[]) {
+            ((double[]) column)[i] = value;
+        } else if (column instanceof int[]) {
+            ((int[]) column)[i] = (int) (long) value;
+        } else if (column instanceof short[]) {
+            ((short[]) column)[i] = (short) value;
+        } else {
+            ((byte[]) column)[i] = (byte) value;
+        }
+    }
+
+    /**
+     * the points one after another, mapped into memory chunk by chunk
+     */
+    private void decodeBinary(FileChannel channel, PcdData data) throws IOException {
+        PcdHeader header = data.getHeader();
+        int pointBytes = header.pointBytes();
+        int points = header.getPoints();
+        long start = header.getBytesCount();
+        if (start + (long) points * pointBytes > channel.size()) throw new IOException("The pcd file is truncated.");
+        if (points == 0 || pointBytes == 0) return;
+        int chunkPoints = Math.max(1, (1 << CHUNK_BITS) / pointBytes);
+        for (int first = 0; first < points; first += chunkPoints) {
+            int count = Math.min(chunkPoints, points - first);
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start + (long) first * pointBytes, (long) count * pointBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int offset = 0;
+            for (int f = 0; f < header.getFields().size(); f ++) {
+                PcdField field = header.getFields().get(f);
+                if (data.columns[f] != null) decodeInterleaved(buffer, offset, pointBytes, field, data.columns[f], first, count);
+                offset += field.size();
+            }
+        }
+    }
+
+    /**
+     * decode a field of points whose values are interleaved with the other fields
+     * @param offset the position of field in a point
+     * @param stride the bytes of a point
+     * @param first the index of the first point in buffer
+     * @param points the number of points in buffer
+     */
+    private static void decodeInterleaved(ByteBuffer buffer, int offset, int stride, PcdField field, Object column, int first, int points) {
+        int count = field.getCount();
+        int size = field.getType().size();
+        int index = first * count;
+        for (int point = 0; point < points; point ++) {
+            int position = point * stride + offset;
+            for (int k = 0; k < count; k ++, index ++, position += size) {
+                switch (field.getType()) {
+                    case CHAR:
+                    case UCHAR:
+                        ((byte[]) column)[index] = buffer.get(position);
+                        break;
+                    case SHORT:
+                    case USHORT:
+                        ((short[]) column)[index] = buffer.getShort(position);
+                        break;
+                    case INT:
+                    case UINT:
+                        ((int[]) column)[index] = buffer.getInt(position);
+                        break;
+                    case FLOAT:
+                        ((float[]) column)[index] = buffer.getFloat(position);
+                        break;
+                    default:
+                        ((double[]) column)[index] = buffer.getDouble(position);
+                }
+            }
+        }
+    }
+
+    /**
+     * the sizes of compressed and decompressed data, followed by the LZF compressed data, in
+     * which the values of a field of all points are one after another
+     */
+    private void decodeCompressed(FileChannel channel, PcdData data) throws IOException {
+        PcdHeader header = data.getHeader();
+        long start = header.getBytesCount();
+        if (start + 8 > channel.size()) throw new IOException("The pcd file is truncated.");
+        ByteBuffer sizes = channel.map(FileChannel.MapMode.READ_ONLY, start, 8).order(ByteOrder.LITTLE_ENDIAN);
+        long compressedSize = sizes.getInt(0) & 0xFFFFFFFFL;
+        long decompressedSize = sizes.getInt(4) & 0xFFFFFFFFL;
+        if (decompressedSize != (long) header.getPoints() * header.pointBytes()) {
+            throw new IOException("Invalid pcd file: The size of decompressed data is " + decompressedSize);
+        }
+        if (start + 8 + compressedSize > channel.size()) throw new IOException("The pcd file is truncated.");
+        if (decompressedSize > Integer.MAX_VALUE - 8 || compressedSize > Integer.MAX_VALUE - 8) {
+            throw new IOException("The compressed pcd file is too large.");
+        }
+        if (decompressedSize == 0) return;
+        byte[] compressed = new byte[(int) compressedSize];
+        channel.map(FileChannel.MapMode.READ_ONLY, start + 8, compressedSize).get(compressed);
+        byte[] decompressed = new byte[(int) decompressedSize];
+        try {
+            Lzf.decompress(compressed, 0, compressed.length, decompressed);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid pcd file: " + e.getMessage(), e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(decompressed).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        for (int f = 0; f < header.getFields().size(); f ++) {
+            PcdField field = header.getFields().get(f);
+            Object column = data.columns[f];
+            int length = header.getPoints() * field.getCount();
+            if (column != null) {
+                buffer.position(offset);
+                switch (field.getType()) {
+                    case CHAR:
+                    case UCHAR:
+                        buffer.get((byte[]) column, 0, length);
+                        break;
+                    case SHORT:
+                    case USHORT:
+                        buffer.asShortBuffer().get((short[]) column, 0, length);
+                        break;
+                    case INT:
+                    case UINT:
+                        buffer.asIntBuffer().get((int[]) column, 0, length);
+                        break;
+                    case FLOAT:
+                        buffer.asFloatBuffer().get((float[]) column, 0, length);
+                        break;
+                    default:
+                        buffer.asDoubleBuffer().get((double[]) column, 0, length);
+                }
+            }
+            offset += length * field.getType().size();
+        }
+    }
+
+}
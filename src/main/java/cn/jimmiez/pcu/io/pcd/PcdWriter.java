@@ -0,0 +1,468 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.Constants;
+import cn.jimmiez.pcu.io.BinaryWriter;
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes points into a pcd file of Point Cloud Library, in ascii, binary or binary_compressed.
+ * The values of fields are converted into columns of their data types when the fields are
+ * defined, the same layout as {@link PcdData}, so the binary_compressed data is copied from
+ * the columns in bulk.
+ *
+ * <pre>
+ * new PcdWriter().prepare()
+ *         .format(PcdFormat.BINARY_COMPRESSED)
+ *         .defineFields(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, points)
+ *         .defineFields(new String[] {"intensity"}, PcuDataType.FLOAT, intensities)
+ *         .writeTo(file)
+ *         .okay();
+ * </pre>
+ */
+public class PcdWriter {
+
+    /** 64KB **/
+    private static final int ASCII_BUFFER_SIZE = 1 << 16;
+
+    public PcdWriterRequest prepare() {
+        return new PcdWriterRequest();
+    }
+
+    /**
+     * write the points read by {@link PcdReader}, all fields must have been read
+     * @param data the points
+     * @param format the layout of data in file
+     * @param file the pcd file
+     * @return an error code in {@link Constants}
+     */
+    public int write(PcdData data, PcdFormat format, File file) {
+        for (int i = 0; i < data.columns.length; i ++) {
+            if (data.columns[i] == null) throw new IllegalArgumentException("The field is not read: " + data.getHeader().getFields().get(i).getName());
+        }
+        int result = Constants.ERR_CODE_NO_ERROR;
+        try {
+            writeImpl(data, format, file);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            result = Constants.ERR_CODE_FILE_NOT_FOUND;
+        } catch (IOException e) {
+            e.printStackTrace();
+            result = Constants.ERR_CODE_FILE_NOT_FOUND;
+        }
+        return result;
+    }
+
+    private void writeImpl(PcdData data, PcdFormat format, File file) throws IOException {
+        String header = headerString(data.getHeader(), format);
+        switch (format) {
+            case ASCII:
+                writeAscii(header, data, file);
+                break;
+            case BINARY:
+                writeBinary(header, data, file);
+                break;
+            case BINARY_COMPRESSED:
+                writeCompressed(header, data, file);
+                break;
+        }
+    }
+
+    private static String headerString(PcdHeader header, PcdFormat format) {
+        StringBuilder builder = new StringBuilder("# .PCD v0.7 - Point Cloud Data file format\nVERSION 0.7\nFIELDS");
+        for (PcdField field : header.getFields()) builder.append(' ').append(field.getName());
+        builder.append("\nSIZE");
+        for (PcdField field : header.getFields()) builder.append(' ').append(field.getType().size());
+        builder.append("\nTYPE");
+        for (PcdField field : header.getFields()) builder.append(' ').append(field.typeLetter());
+        builder.append("\nCOUNT");
+        for (PcdField field : header.getFields()) builder.append(' ').append(field.getCount());
+        builder.append("\nWIDTH ").append(header.getWidth());
+        builder.append("\nHEIGHT ").append(header.getHeight());
+        builder.append("\nVIEWPOINT");
+        for (double value : header.getViewpoint()) builder.append(' ').append(numberString(value));
+        builder.append("\nPOINTS ").append(header.getPoints());
+        builder.append("\nDATA ").append(format.keyword()).append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * @return an integral value without ".0", nan for NaN as PCL writes
+     */
+    private static String numberString(double value) {
+        if (value != value) return "nan";
+        if (value == Math.rint(value) && Math.abs(value) < 1E15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private void writeAscii(String header, PcdData data, File file) throws IOException {
+        List<PcdField> fields = data.getHeader().getFields();
+        try (PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), ASCII_BUFFER_SIZE))) {
+            stream.print(header);
+            for (int point = 0; point < data.getPointNumber(); point ++) {
+                for (int f = 0; f < fields.size(); f ++) {
+                    PcdField field = fields.get(f);
+                    Object column = data.columns[f];
+                    for (int k = 0; k < field.getCount(); k ++) {
+                        if (f > 0 || k > 0) stream.print(' ');
+                        int i = point * field.getCount() + k;
+                        switch (field.getType()) {
+                            case CHAR:
+                                stream.print(((byte[]) column)[i]);
+                                break;
+                            case UCHAR:
+                                stream.print(((byte[]) column)[i] & 0xFF);
+                                break;
+                            case SHORT:
+                                stream.print(((short[]) column)[i]);
+                                break;
+                            case USHORT:
+                                stream.print(((short[]) column)[i] & 0xFFFF);
+                                break;
+                            case INT:
+                                stream.print(((int[]) column)[i]);
+                                break;
+                            case UINT:
+                                stream.print(((int[]) column)[i] & 0xFFFFFFFFL);
+                                break;
+                            case FLOAT:
+                                float f32 = ((float[]) column)[i];
+                                if (f32 != f32) {
+                                    stream.print("nan");
+                                } else {
+                                    stream.print(f32);
+                                }
+                                break;
+                            default:
+                                stream.print(numberString(((double[]) column)[i]));
+                        }
+                    }
+                }
+                stream.print('\n');
+            }
+            if (stream.checkError()) throw new IOException("Cannot write the pcd file: " + file);
+        }
+    }
+
+    private void writeBinary(String header, PcdData data, File file) throws IOException {
+        List<PcdField> fields = data.getHeader().getFields();
+        try (BinaryWriter writer = new BinaryWriter(file, ByteOrder.LITTLE_ENDIAN)) {
+            writer.writeString(header);
+            for (int point = 0; point < data.getPointNumber(); point ++) {
+                for (int f = 0; f < fields.size(); f ++) {
+                    PcdField field = fields.get(f);
+                    Object column = data.columns[f];
+                    int count = field.getCount();
+                    switch (field.getType()) {
+                        case CHAR:
+                        case UCHAR:
+                            writer.writeBytes((byte[]) column, point * count, count);
+                            break;
+                        case SHORT:
+                        case USHORT:
+                            writer.writeShorts((short[]) column, point * count, count);
+                            break;
+                        case INT:
+                        case UINT:
+                            writer.writeInts((int[]) column, point * count, count);
+                            break;
+                        case FLOAT:
+                            writer.writeFloats((float[]) column, point * count, count);
+                            break;
+                        default:
+                            writer.writeDoubles((double[]) column, point * count, count);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeCompressed(String header, PcdData data, File file) throws IOException {
+        PcdHeader pcdHeader = data.getHeader();
+        long size = (long) pcdHeader.getPoints() * pcdHeader.pointBytes();
+        if (size > Integer.MAX_VALUE - 8) throw new IOException("Too many points to be compressed.");
+        // the values of a field of all points one after another
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f < pcdHeader.getFields().size(); f ++) {
+            Object column = data.columns[f];
+            switch (pcdHeader.getFields().get(f).getType()) {
+                case CHAR:
+                case UCHAR:
+                    buffer.put((byte[]) column);
+                    break;
+                case SHORT:
+                case USHORT:
+                    buffer.asShortBuffer().put((short[]) column);
+                    buffer.position(buffer.position() + ((short[]) column).length * 2);
+                    break;
+                case INT:
+                case UINT:
+                    buffer.asIntBuffer().put((int[]) column);
+                    buffer.position(buffer.position() + ((int[]) column).length * 4);
+                    break;
+                case FLOAT:
+                    buffer.asFloatBuffer().put((float[]) column);
+                    buffer.position(buffer.position() + ((float[]) column).length * 4);
+                    break;
+                default:
+                    buffer.asDoubleBuffer().put((double[]) column);
+                    buffer.position(buffer.position() + ((double[]) column).length * 8);
+            }
+        }
+        byte[] compressed = new byte[Lzf.maxCompressedLength((int) size)];
+        int compressedSize = Lzf.compress(buffer.array(), (int) size, compressed);
+        try (BinaryWriter writer = new BinaryWriter(file, ByteOrder.LITTLE_ENDIAN)) {
+            writer.writeString(header);
+            writer.writeInt(compressedSize);
+            writer.writeInt((int) size);
+            writer.writeBytes(compressed, 0, compressedSize);
+        }
+    }
+
+    public class PcdWriterRequest {
+
+        private final List<PcdField> fields = new ArrayList<>();
+
+        private final List<Object> columns = new ArrayList<>();
+
+        /** the number of points, -1 before the first fields are defined **/
+        private int points = -1;
+
+        private int width = -1;
+
+        private int height = 1;
+
+        private double[] viewpoint = null;
+
+        private PcdFormat format = PcdFormat.ASCII;
+
+        private File file = null;
+
+        /**
+         * Prohibit creating writer request manually
+         */
+        private PcdWriterRequest() {
+            // do nothing
+        }
+
+        /**
+         * @param fieldNames the names of fields, each field has a value per point
+         * @param type the data type of fields in file
+         * @param data the points, each of which is an array holding the values of fields, e.g. a float[]
+         */
+        public PcdWriterRequest defineFields(String[] fieldNames, PcuDataType type, List data) {
+            Object[] columns = new Object[fieldNames.length];
+            for (int j = 0; j < fieldNames.length; j ++) columns[j] = newColumn(type, data.size());
+            for (int i = 0; i < data.size(); i ++) {
+                Object row = data.get(i);
+                for (int j = 0; j < fieldNames.length; j ++) store(columns[j], type, i, rowValue(row, j));
+            }
+            for (int j = 0; j < fieldNames.length; j ++) addField(new PcdField(fieldNames[j], type, 1), data.size(), columns[j]);
+            return this;
+        }
+
+        /**
+         * @param fieldNames the names of fields, each field has a value per point
+         * @param type the data type of fields in file, the values are converted if it is not float
+         * @param data the values of all points, e.g. {x0, y0, z0, x1, y1, z1, ...}
+         */
+        public PcdWriterRequest defineFields(String[] fieldNames, PcuDataType type, float[] data) {
+            if (data.length % fieldNames.length != 0) throw new IllegalArgumentException("The length of data is not a multiple of the number of fields.");
+            int points = data.length / fieldNames.length;
+            for (int j = 0; j < fieldNames.length; j ++) {
+                Object column = newColumn(type, points);
+                for (int i = 0; i < points; i ++) {
+                    float value = data[i * fieldNames.length + j];
+                    if (column instanceof float[]) {
+                        ((float[]) column)[i] = value;
+                    } else {
+                        store(column, type, i, value);
+                    }
+                }
+                addField(new PcdField(fieldNames[j], type, 1), points, column);
+            }
+            return this;
+        }
+
+        /**
+         * @param fieldNames the names of fields, each field has a value per point
+         * @param type the data type of fields in file, the values are converted if it is not double
+         * @param data the values of all points, e.g. {x0, y0, z0, x1, y1, z1, ...}
+         */
+        public PcdWriterRequest defineFields(String[] fieldNames, PcuDataType type, double[] data) {
+            if (data.length % fieldNames.length != 0) throw new IllegalArgumentException("The length of data is not a multiple of the number of fields.");
+            int points = data.length / fieldNames.length;
+            for (int j = 0; j < fieldNames.length; j ++) {
+                Object column = newColumn(type, points);
+                for (int i = 0; i < points; i ++) store(column, type, i, data[i * fieldNames.length + j]);
+                addField(new PcdField(fieldNames[j], type, 1), points, column);
+            }
+            return this;
+        }
+
+        /**
+         * define a field of several values per point, e.g. a histogram
+         * @param fieldName the name of field
+         * @param type the data type of field in file
+         * @param count the number of values per point
+         * @param data the points, each of which is an array holding count values, e.g. a float[]
+         */
+        public PcdWriterRequest defineField(String fieldName, PcuDataType type, int count, List data) {
+            PcdField field = new PcdField(fieldName, type, count);
+            Object column = newColumn(type, data.size() * count);
+            for (int i = 0; i < data.size(); i ++) {
+                Object row = data.get(i);
+                for (int k = 0; k < count; k ++) store(column, type, i * count + k, rowValue(row, k));
+            }
+            addField(field, data.size(), column);
+            return this;
+        }
+
+        private void addField(PcdField field, int points, Object column) {
+            if (this.points != -1 && this.points != points) {
+                throw new IllegalArgumentException("The field " + field.getName() + " has " + points + " points, but the former fields have " + this.points);
+            }
+            this.points = points;
+            fields.add(field);
+            columns.add(column);
+        }
+
+        /**
+         * declare an organized point cloud, e.g. the points of a depth image, width * height must be the number of points
+         */
+        public PcdWriterRequest organize(int width, int height) {
+            if (width < 0 || height < 1) throw new IllegalArgumentException("Invalid width or height.");
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * @param viewpoint the translation (tx ty tz) and quaternion (qw qx qy qz) of the sensor
+         */
+        public PcdWriterRequest viewpoint(double[] viewpoint) {
+            if (viewpoint.length != 7) throw new IllegalArgumentException("The viewpoint needs 7 values.");
+            this.viewpoint = viewpoint.clone();
+            return this;
+        }
+
+        public PcdWriterRequest format(PcdFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        public PcdWriterRequest writeTo(File file) {
+            this.file = file;
+            return this;
+        }
+
+        public int okay() {
+            if (file == null) {
+                throw new IllegalStateException("writeTo() must be called before okay()");
+            }
+            int result = Constants.ERR_CODE_NO_ERROR;
+            try {
+                writeImpl(build(), format, file);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                result = Constants.ERR_CODE_FILE_NOT_FOUND;
+            } catch (IOException e) {
+                e.printStackTrace();
+                result = Constants.ERR_CODE_FILE_NOT_FOUND;
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                result = Constants.ERR_CODE_BAD_WRITE_REQUEST;
+            }
+            return result;
+        }
+
+        private PcdData build() {
+            if (fields.isEmpty()) throw new IllegalStateException("No field is defined.");
+            PcdHeader header = new PcdHeader();
+            header.getFields().addAll(fields);
+            header.setPoints(points);
+            if (width == -1) {
+                header.setWidth(points);
+                header.setHeight(1);
+            } else if ((long) width * height != points) {
+                throw new IllegalStateException("The width * height of an organized point cloud must be the number of points.");
+            } else {
+                header.setWidth(width);
+                header.setHeight(height);
+            }
+            if (viewpoint != null) header.setViewpoint(viewpoint);
+            header.setFormat(format);
+            PcdData data = new PcdData(header);
+            for (int i = 0; i < fields.size(); i ++) data.columns[i] = columns.get(i);
+            return data;
+        }
+    }
+
+    private static Object newColumn(PcuDataType type, int length) {
+        switch (type) {
+            case CHAR:
+            case UCHAR:
+                return new byte[length];
+            case SHORT:
+            case USHORT:
+                return new short[length];
+            case INT:
+            case UINT:
+                return new int[length];
+            case FLOAT:
+                return new float[length];
+            case DOUBLE:
+                return new double[length];
+        }
+        throw new IllegalArgumentException("Invalid data type: " + type);
+    }
+
+    /**
+     * @return the j-th value of a row, which is an array of a primitive type
+     */
+    private static double rowValue(Object row, int j) {
+        if (row instanceof float[]) return ((float[]) row)[j];
+        if (row instanceof double[]) return ((double[]) row)[j];
+        if (row instanceof int[]) return ((int[]) row)[j];
+        if (row instanceof short[]) return ((short[]) row)[j];
+        if (row instanceof byte[]) return ((byte[]) row)[j];
+        if (row instanceof long[]) return ((long[]) row)[j];
+        throw new IllegalArgumentException("A point must be an array of a primitive type: " + row);
+    }
+
+    /**
+     * store a value into a column, the integers are kept in their bits, e.g. 255 and -1 are the same uchar
+     */
+    private static void store(Object column, PcuDataType type, int i, double value) {
+        switch (type) {
+            case CHAR:
+            case UCHAR:
+                ((byte[]) column)[i] = (byte) (long) value;
+                break;
+            case SHORT:
+            case USHORT:
+                ((short[]) column)[i] = (short) (long) value;
+                break;
+            case INT:
+            case UINT:
+                ((int[]) column)[i] = (int) (long) value;
+                break;
+            case FLOAT:
+                ((float[]) column)[i] = (float) value;
+                break;
+            default:
+                ((double[]) column)[i] = value;
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * User can decorate a List getter in their entity class with this annotation, then
+ * {@link PcdReader} will add the values of the fields of each point into the List as an
+ * array, whose type is the data type of the first field, e.g. a float[] for F 4.
+ *
+ * {@literal public List<float[]> points() { ... }}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadFromPcd {
+
+    /**
+     * @return the names of fields, e.g. {"normal_x", "normal_y", "normal_z"}
+     */
+    String[] fields() default {"x", "y", "z"};
+
+}
@@ -0,0 +1,155 @@
+package cn.jimmiez.pcu.io.ply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary ply file mapped into memory by FileChannel.map(). Opening a file only reads
+ * its header, and an element with fixed-size rows is accessed by {@link MappedPlyElement}
+ * directly over the mapped pages, nothing is copied or decoded in advance, so only the
+ * pages that are touched are loaded by the operating system.
+ *
+ * The offset of an element is the total size of the elements before it. If an element
+ * before it has list properties, e.g. faces before vertices, the rows of that element are
+ * scanned once to find the offset.
+ *
+ * <pre>
+ * MappedPly ply = MappedPly.open(file);
+ * MappedPlyElement vertices = ply.getElement("vertex");
+ * int x = vertices.getHeader().findProperty("x");
+ * for (long row = 0; row &lt; vertices.getRowNumber(); row ++) {
+ *     float value = vertices.getFloat(row, x);
+ * }
+ * </pre>
+ */
+public class MappedPly {
+
+    /** the size of a mapped chunk is at most 1GB **/
+    private static final int CHUNK_BITS = 30;
+
+    private final File file;
+
+    private final PlyHeader header;
+
+    private final ByteOrder order;
+
+    private final int chunkBits;
+
+    /** the offsets of elements in file, found when an element is mapped, -1 if not known yet **/
+    private final long[] offsets;
+
+    private final MappedPlyElement[] elements;
+
+    private MappedPly(File file, PlyHeader header, int chunkBits) {
+        this.file = file;
+        this.header = header;
+        this.order = header.getFormat() == PlyFormat.BINARY_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.chunkBits = chunkBits;
+        int elementNumber = header.getElementHeaders().size();
+        this.offsets = new long[elementNumber + 1];
+        for (int i = 1; i <= elementNumber; i ++) offsets[i] = -1;
+        offsets[0] = header.getBytesCount();
+        this.elements = new MappedPlyElement[elementNumber];
+    }
+
+    /**
+     * read the header of a binary ply file, the file shall not be modified while it is mapped
+     * @param file the ply file
+     * @return the mapped ply file
+     * @throws IOException if the file cannot be read, or it is not a binary ply file
+     */
+    public static MappedPly open(File file) throws IOException {
+        return open(file, CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits a mapped chunk has at most 2^chunkBits bytes, or one row if a row is larger
+     */
+    static MappedPly open(File file, int chunkBits) throws IOException {
+        PlyHeader header;
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            header = reader.getHeader();
+        }
+        if (header.getFormat() == PlyFormat.ASCII) throw new IOException("Cannot map an ascii ply file.");
+        return new MappedPly(file, header, chunkBits);
+    }
+
+    public PlyHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * map an element, the element must have no list properties
+     * @param elementName the name of element
+     * @return the mapped element, or null if there is no such element
+     * @throws IOException if the file is truncated
+     */
+    public synchronized MappedPlyElement getElement(String elementName) throws IOException {
+        int index = header.findElement(elementName);
+        if (index < 0) return null;
+        if (elements[index] != null) return elements[index];
+        PlyHeader.PlyElementHeader elementHeader = header.getElementHeaders().get(index);
+        int[] propertyOffsets = new int[elementHeader.properties.size()];
+        PcuDataType[] types = new PcuDataType[propertyOffsets.length];
+        int stride = 0;
+        for (int i = 0; i < types.length; i ++) {
+            PlyPropertyType propertyType = elementHeader.properties.get(i).getValue();
+            if (propertyType instanceof PlyPropertyType.PlyListType) {
+                throw new IllegalArgumentException("Cannot map the element with list properties: " + elementName);
+            }
+            types[i] = ((PlyPropertyType.PlyScalarType) propertyType).dataType();
+            propertyOffsets[i] = stride;
+            stride += types[i].size();
+        }
+        long offset = offset(index);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (offset + (long) elementHeader.number * stride > channel.size()) {
+                throw new IOException("The ply file is truncated: " + elementName);
+            }
+            // the mapping stays valid after the channel is closed
+            elements[index] = new MappedPlyElement(elementHeader, channel, offset, stride, propertyOffsets, types, order, chunkBits);
+        }
+        return elements[index];
+    }
+
+    /**
+     * @return the offset of the index-th element in file
+     */
+    private long offset(int index) throws IOException {
+        if (offsets[index] >= 0) return offsets[index];
+        // find the first known offset before index, then walk through the elements after it
+        int known = index;
+        while (offsets[known] < 0) known -= 1;
+        for (int i = known; i < index; i ++) {
+            long stride = fixedStride(header.getElementHeaders().get(i));
+            if (stride < 0) break;
+            offsets[i + 1] = offsets[i] + stride * header.getElementHeaders().get(i).number;
+        }
+        if (offsets[index] >= 0) return offsets[index];
+        // an element with list properties, its rows are scanned by a stream reader
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            for (int i = 0; i <= index; i ++) {
+                reader.nextElement();
+                if (offsets[i] < 0) offsets[i] = reader.position();
+            }
+        }
+        return offsets[index];
+    }
+
+    /**
+     * @return the bytes of a row, or -1 if the element has list properties
+     */
+    private static long fixedStride(PlyHeader.PlyElementHeader elementHeader) {
+        long stride = 0;
+        for (int i = 0; i < elementHeader.properties.size(); i ++) {
+            PlyPropertyType propertyType = elementHeader.properties.get(i).getValue();
+            if (propertyType instanceof PlyPropertyType.PlyListType) return -1;
+            stride += ((PlyPropertyType.PlyScalarType) propertyType).dataType().size();
+        }
+        return stride;
+    }
+
+}
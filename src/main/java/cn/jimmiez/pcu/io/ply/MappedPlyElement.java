@@ -0,0 +1,127 @@
+package cn.jimmiez.pcu.io.ply;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An element of a binary ply file with fixed-size rows, mapped by {@link MappedPly}. The
+ * value of a property in a row is read from the mapped buffer every time it is accessed.
+ *
+ * The rows are mapped in chunks, each chunk holds as many whole rows as fit in 1GB, so
+ * an element larger than 2GB can be mapped and a row never crosses two chunks.
+ *
+ * The typed getters read the stored value as it is if the data type of property matches,
+ * otherwise the value is converted. The unsigned types are read as unsigned values, except
+ * that getInt() returns the bits of a uint as they are. A mapped element can be read by many
+ * threads at the same time.
+ */
+public class MappedPlyElement {
+
+    private final PlyHeader.PlyElementHeader header;
+
+    private final ByteBuffer[] chunks;
+
+    private final long rowNumber;
+
+    private final int rowsPerChunk;
+
+    /** the bytes of a row **/
+    private final int stride;
+
+    /** the offset of each property in a row **/
+    private final int[] propertyOffsets;
+
+    private final PcuDataType[] types;
+
+    MappedPlyElement(PlyHeader.PlyElementHeader header, FileChannel channel, long offset, int stride,
+                     int[] propertyOffsets, PcuDataType[] types, ByteOrder order, int chunkBits) throws IOException {
+        this.header = header;
+        this.rowNumber = header.number;
+        this.stride = stride;
+        this.propertyOffsets = propertyOffsets;
+        this.types = types;
+        this.rowsPerChunk = (int) Math.max(1, (1L << chunkBits) / Math.max(1, stride));
+        int chunkNumber = (int) Math.max(1, (rowNumber + rowsPerChunk - 1) / rowsPerChunk);
+        this.chunks = new ByteBuffer[chunkNumber];
+        for (int i = 0; i < chunkNumber; i ++) {
+            long firstRow = (long) i * rowsPerChunk;
+            long rows = Math.min(rowsPerChunk, rowNumber - firstRow);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + firstRow * stride, Math.max(0, rows * stride)).order(order);
+        }
+    }
+
+    public PlyHeader.PlyElementHeader getHeader() {
+        return header;
+    }
+
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * @param property the index of property in the element
+     * @return the data type of the property
+     */
+    public PcuDataType getType(int property) {
+        return types[property];
+    }
+
+    private ByteBuffer chunk(long row) {
+        return chunks[(int) (row / rowsPerChunk)];
+    }
+
+    private int position(long row, int property) {
+        return (int) (row % rowsPerChunk) * stride + propertyOffsets[property];
+    }
+
+    public float getFloat(long row, int property) {
+        if (types[property] == PcuDataType.FLOAT) return chunk(row).getFloat(position(row, property));
+        return (float) getDouble(row, property);
+    }
+
+    public int getInt(long row, int property) {
+        PcuDataType type = types[property];
+        if (type == PcuDataType.INT || type == PcuDataType.UINT) return chunk(row).getInt(position(row, property));
+        return (int) getDouble(row, property);
+    }
+
+    public double getDouble(long row, int property) {
+        ByteBuffer chunk = chunk(row);
+        int position = position(row, property);
+        switch (types[property]) {
+            case CHAR:
+                return chunk.get(position);
+            case UCHAR:
+                return chunk.get(position) & 0xFF;
+            case SHORT:
+                return chunk.getShort(position);
+            case USHORT:
+                return chunk.getShort(position) & 0xFFFF;
+            case INT:
+                return chunk.getInt(position);
+            case UINT:
+                return chunk.getInt(position) & 0xFFFFFFFFL;
+            case FLOAT:
+                return chunk.getFloat(position);
+            case DOUBLE:
+                return chunk.getDouble(position);
+        }
+        return 0;
+    }
+
+    /**
+     * copy a property of consecutive rows, e.g. the x coordinates of all vertices
+     * @param property the index of property in the element
+     * @param fromRow the first row
+     * @param data the values are stored here
+     * @param offset the position in data to store the first value
+     * @param length the number of rows
+     */
+    public void getFloats(int property, long fromRow, float[] data, int offset, int length) {
+        if (fromRow < 0 || fromRow + length > rowNumber) throw new IndexOutOfBoundsException("Rows out of range: " + fromRow + " + " + length);
+        for (int i = 0; i < length; i ++) data[offset + i] = getFloat(fromRow + i, property);
+    }
+
+}
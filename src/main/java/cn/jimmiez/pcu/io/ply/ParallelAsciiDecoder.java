@@ -0,0 +1,374 @@
+package cn.jimmiez.pcu.io.ply;
+
+import cn.jimmiez.pcu.io.AsciiTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes the body of an ascii ply file in parallel. A row of ascii ply is a line, so the
+ * body is divided into chunks of bytes, and a line belongs to the chunk in which it starts.
+ *
+ * The chunks are processed in two passes. The first pass counts the lines of every chunk,
+ * from which the element and row of the first line of every chunk are known. The second
+ * pass parses the chunks: the scalar values are written to the columns of elements at their
+ * rows directly, while the lists, whose sizes vary, are parsed into the buffers of the chunk
+ * and are copied into the list columns in the order of chunks at last.
+ *
+ * The elements decoded are identical to the ones decoded by {@link PlyStreamReader}.
+ */
+final class ParallelAsciiDecoder {
+
+    /** 8MB **/
+    static final int CHUNK_SIZE = 1 << 23;
+
+    /** the bytes read at a time when a line crosses the end of chunk **/
+    private static final int EXTENSION_SIZE = 1 << 12;
+
+    private final File file;
+
+    private final PlyHeader header;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    /** the properties read of each element, see {@link PlyData#parse(File, ForkJoinPool, PlyProjection)}, null to read all **/
+    private final boolean[][] selections;
+
+    private FileChannel channel = null;
+
+    private long bodyStart;
+
+    private long bodyEnd;
+
+    /** the nominal beginning of chunk i, the end of the last chunk is bodyEnd **/
+    private long[] chunkStarts;
+
+    /** the number of lines starting in each chunk **/
+    private long[] lineCounts;
+
+    /** the index of the first line of each chunk in the body **/
+    private long[] firstLines;
+
+    /** the index of the first line of each element in the body, the last one is the number of rows **/
+    private long[] elementLines;
+
+    /** null for the elements not read **/
+    private PlyElement[] elements;
+
+    /** the lists parsed in each chunk, [chunk][element], null if the element has no list in the chunk **/
+    private ChunkLists[][] chunkLists;
+
+    /**
+     * @param file the ply file
+     * @param header the header of file, read by {@link PlyStreamReader}
+     * @param pool the pool in which the chunks are processed
+     */
+    ParallelAsciiDecoder(File file, PlyHeader header, ForkJoinPool pool) {
+        this(file, header, pool, null, CHUNK_SIZE);
+    }
+
+    /**
+     * @param selections the properties read of each element, null for an element not read; null to read all elements
+     */
+    ParallelAsciiDecoder(File file, PlyHeader header, ForkJoinPool pool, boolean[][] selections) {
+        this(file, header, pool, selections, CHUNK_SIZE);
+    }
+
+    ParallelAsciiDecoder(File file, PlyHeader header, ForkJoinPool pool, int chunkSize) {
+        this(file, header, pool, null, chunkSize);
+    }
+
+    ParallelAsciiDecoder(File file, PlyHeader header, ForkJoinPool pool, boolean[][] selections, int chunkSize) {
+        if (header.getFormat() != PlyFormat.ASCII) throw new IllegalArgumentException("Not an ascii ply file.");
+        if (chunkSize < 1) throw new IllegalArgumentException("The chunk size must be positive.");
+        this.file = file;
+        this.header = header;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.selections = selections;
+    }
+
+    /**
+     * @return the elements of the ply file, in the order of header, null for the elements not read
+     * @throws IOException if the file cannot be read or has fewer lines than rows
+     */
+    PlyElement[] decode() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            channel = randomAccessFile.getChannel();
+            bodyStart = header.getBytesCount();
+            bodyEnd = channel.size();
+            int chunkCount = (int) Math.max(1, (bodyEnd - bodyStart + chunkSize - 1) / chunkSize);
+            chunkStarts = new long[chunkCount];
+            for (int i = 0; i < chunkCount; i ++) chunkStarts[i] = bodyStart + (long) i * chunkSize;
+
+            lineCounts = new long[chunkCount];
+            invoke(new ChunkTask(0, chunkCount, false));
+            firstLines = new long[chunkCount];
+            for (int i = 1; i < chunkCount; i ++) firstLines[i] = firstLines[i - 1] + lineCounts[i - 1];
+
+            int elementsCount = header.getElementHeaders().size();
+            elementLines = new long[elementsCount + 1];
+            elements = new PlyElement[elementsCount];
+            for (int i = 0; i < elementsCount; i ++) {
+                PlyHeader.PlyElementHeader elementHeader = header.getElementHeaders().get(i);
+                elementLines[i + 1] = elementLines[i] + elementHeader.number;
+                if (selections == null) {
+                    elements[i] = new PlyElement(elementHeader);
+                } else if (selections[i] != null) {
+                    elements[i] = new PlyElement(elementHeader, selections[i]);
+                }
+            }
+            if (firstLines[chunkCount - 1] + lineCounts[chunkCount - 1] < elementLines[elementsCount]) {
+                throw new IOException("no enough data");
+            }
+
+            chunkLists = new ChunkLists[chunkCount][elementsCount];
+            invoke(new ChunkTask(0, chunkCount, true));
+            for (int i = 0; i < elementsCount; i ++) stitchLists(i);
+            return elements;
+        } finally {
+            channel = null;
+        }
+    }
+
+    private void invoke(ChunkTask task) throws IOException {
+        try {
+            pool.invoke(task);
+        } catch (RuntimeException e) {
+            // fork/join may wrap the exception thrown in another thread
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ChunkException) throw (IOException) cause.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private long chunkEnd(int chunk) {
+        return chunk + 1 < chunkStarts.length ? chunkStarts[chunk + 1] : bodyEnd;
+    }
+
+    /**
+     * read the bytes in [from, to) and those after it until a line feed or the end of body
+     * @return the bytes read, between 0 and the position of buffer
+     */
+    private ByteBuffer readBytes(long from, long to, boolean untilLineFeed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        readFully(buffer, from);
+        while (untilLineFeed && to < bodyEnd && buffer.get(buffer.position() - 1) != '\n') {
+            int length = (int) Math.min(EXTENSION_SIZE, bodyEnd - to);
+            if (buffer.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2 + length);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            // stop at the first line feed in the extension
+            int position = buffer.position();
+            buffer.limit(position + length);
+            readFully(buffer, to);
+            buffer.limit(buffer.capacity());
+            to += length;
+            for (int i = position; i < position + length; i ++) {
+                if (buffer.get(i) == '\n') {
+                    buffer.position(i + 1);
+                    break;
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of file.");
+            position += read;
+        }
+    }
+
+    /**
+     * count the lines starting in [start, end), a line starts at the beginning of body or after a line feed
+     */
+    private void countLines(int chunk) throws IOException {
+        long start = chunkStarts[chunk], end = chunkEnd(chunk);
+        if (start >= end) return;
+        long count = start == bodyStart ? 1 : 0;
+        long from = start == bodyStart ? start : start - 1;
+        ByteBuffer buffer = readBytes(from, end - 1, false);
+        byte[] bytes = buffer.array();
+        for (int i = 0; i < buffer.position(); i ++) {
+            if (bytes[i] == '\n') count += 1;
+        }
+        lineCounts[chunk] = count;
+    }
+
+    private void parseLines(int chunk) throws IOException {
+        long line = firstLines[chunk];
+        long lastLine = Math.min(line + lineCounts[chunk], elementLines[elements.length]);
+        if (line >= lastLine) return;
+        long start = chunkStarts[chunk];
+        long from = start == bodyStart ? start : start - 1;
+        ByteBuffer buffer = readBytes(from, chunkEnd(chunk), true);
+        byte[] bytes = buffer.array();
+        int position = 0;
+        if (start != bodyStart) {
+            // skip the line started in former chunk
+            while (bytes[position] != '\n') position ++;
+            position += 1;
+        }
+        AsciiTokenizer tokenizer = new AsciiTokenizer(bytes, position, buffer.position());
+        int elementIndex = 0;
+        while (elementLines[elementIndex + 1] <= line) elementIndex ++;
+        for (; line < lastLine; line ++) {
+            // the line is in buffer, it has been counted
+            tokenizer.nextLine();
+            while (elementLines[elementIndex + 1] <= line) elementIndex ++;
+            int row = (int) (line - elementLines[elementIndex]);
+            PlyElement element = elements[elementIndex];
+            if (element == null) continue;
+            ChunkLists lists = chunkLists[chunk][elementIndex];
+            if (lists == null && hasList(element)) {
+                lists = new ChunkLists(element, row);
+                chunkLists[chunk][elementIndex] = lists;
+            }
+            parseRow(tokenizer, element, row, lists);
+        }
+    }
+
+    private static boolean hasList(PlyElement element) {
+        for (int[] offsets : element.listOffsets) {
+            if (offsets != null) return true;
+        }
+        return false;
+    }
+
+    private static void parseRow(AsciiTokenizer tokenizer, PlyElement element, int row, ChunkLists lists) throws IOException {
+        // the values after the last column are left in the line
+        for (int i = 0; i < element.columnsEnd; i ++) {
+            PlyPropertyType propertyType = element.getHeader().properties.get(i).getValue();
+            if (element.columns[i] == null) {
+                PcuDataType sizeType = propertyType instanceof PlyPropertyType.PlyListType ? ((PlyPropertyType.PlyListType) propertyType).sizeType() : null;
+                PlyStreamReader.skipAsciiProperty(tokenizer, sizeType);
+                continue;
+            }
+            PcuDataType type = element.columns[i].type;
+            if (element.listOffsets[i] == null) {
+                element.columns[i].set(row, PlyStreamReader.nextAsciiValue(tokenizer, type));
+                continue;
+            }
+            PlyPropertyType.PlyListType listType = (PlyPropertyType.PlyListType) propertyType;
+            int listSize = PlyStreamReader.nextAsciiListSize(tokenizer, listType.sizeType());
+            // the size for now, the offsets are summed up when the lists are stitched
+            element.listOffsets[i][row + 1] = listSize;
+            int start = lists.sizes[i];
+            long end = (long) start + listSize;
+            if (end > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many list values in property " + i);
+            PlyColumn buffer = lists.columns[i];
+            if (end > buffer.capacity()) buffer.resize(PlyColumn.newCapacity(buffer.capacity(), (int) end));
+            for (int j = 0; j < listSize; j ++) buffer.set(start + j, PlyStreamReader.nextAsciiValue(tokenizer, type));
+            lists.sizes[i] = (int) end;
+        }
+    }
+
+    /**
+     * sum up the list sizes to offsets and copy the lists parsed by chunks into the columns
+     */
+    private void stitchLists(int elementIndex) {
+        PlyElement element = elements[elementIndex];
+        if (element == null) return;
+        for (int i = 0; i < element.columns.length; i ++) {
+            int[] offsets = element.listOffsets[i];
+            if (offsets == null) continue;
+            for (int row = 0; row < element.getRowNumber(); row ++) {
+                long end = (long) offsets[row] + offsets[row + 1];
+                if (end > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many list values in property " + i);
+                offsets[row + 1] = (int) end;
+            }
+            PlyColumn column = element.columns[i];
+            column.resize(offsets[element.getRowNumber()]);
+            for (ChunkLists[] lists : chunkLists) {
+                ChunkLists chunk = lists[elementIndex];
+                if (chunk == null) continue;
+                chunk.columns[i].copyTo(0, column, offsets[chunk.firstRow], chunk.sizes[i]);
+            }
+        }
+    }
+
+    /**
+     * The values of the lists of an element in a chunk.
+     */
+    private static class ChunkLists {
+
+        /** the first row of element in the chunk **/
+        final int firstRow;
+
+        /** the values of lists for list properties, null for scalar properties **/
+        final PlyColumn[] columns;
+
+        /** the number of values in columns **/
+        final int[] sizes;
+
+        ChunkLists(PlyElement element, int firstRow) {
+            this.firstRow = firstRow;
+            this.columns = new PlyColumn[element.columns.length];
+            this.sizes = new int[element.columns.length];
+            for (int i = 0; i < columns.length; i ++) {
+                if (element.listOffsets[i] != null) columns[i] = PlyColumn.create(element.columns[i].type, 1024);
+            }
+        }
+    }
+
+    /**
+     * Counts or parses the lines of a range of chunks.
+     */
+    private class ChunkTask extends RecursiveAction {
+
+        private final int chunkFrom;
+
+        private final int chunkTo;
+
+        private final boolean parse;
+
+        ChunkTask(int chunkFrom, int chunkTo, boolean parse) {
+            this.chunkFrom = chunkFrom;
+            this.chunkTo = chunkTo;
+            this.parse = parse;
+        }
+
+        @Override
+        protected void compute() {
+            if (chunkTo - chunkFrom > 1) {
+                int middle = (chunkFrom + chunkTo) >>> 1;
+                invokeAll(new ChunkTask(chunkFrom, middle, parse), new ChunkTask(middle, chunkTo, parse));
+                return;
+            }
+            try {
+                if (parse) {
+                    parseLines(chunkFrom);
+                } else {
+                    countLines(chunkFrom);
+                }
+            } catch (IOException e) {
+                throw new ChunkException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries an IOException out of a fork/join task.
+     */
+    private static class ChunkException extends RuntimeException {
+
+        ChunkException(IOException cause) {
+            super(cause);
+        }
+    }
+
+}
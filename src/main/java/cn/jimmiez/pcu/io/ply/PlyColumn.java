@@ -0,0 +1,351 @@
+package cn.jimmiez.pcu.io.ply;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The values of a property of all rows, stored in a primitive array of the width of its
+ * data type, e.g. a byte[] for uchar and a float[] for float. The unsigned types are stored
+ * as the bits of the signed type of the same width, and read back as unsigned values.
+ */
+abstract class PlyColumn {
+
+    final PcuDataType type;
+
+    PlyColumn(PcuDataType type) {
+        this.type = type;
+    }
+
+    static PlyColumn create(PcuDataType type, int capacity) {
+        switch (type) {
+            case CHAR:
+            case UCHAR:
+                return new ByteColumn(type, capacity);
+            case SHORT:
+            case USHORT:
+                return new ShortColumn(type, capacity);
+            case INT:
+            case UINT:
+                return new IntColumn(type, capacity);
+            case FLOAT:
+                return new FloatColumn(capacity);
+            case DOUBLE:
+                return new DoubleColumn(capacity);
+        }
+        throw new IllegalArgumentException("Unsupported data type: " + type);
+    }
+
+    /** @return the primitive array **/
+    abstract Object array();
+
+    abstract int capacity();
+
+    /** copy the values into an array of the capacity **/
+    abstract void resize(int capacity);
+
+    /** copy length values from position from to position to of target, a column of the same width **/
+    void copyTo(int from, PlyColumn target, int to, int length) {
+        System.arraycopy(array(), from, target.array(), to, length);
+    }
+
+    /** decode the i-th value from buffer in the byte order of buffer **/
+    abstract void read(ByteBuffer buffer, int i);
+
+    abstract void set(int i, double value);
+
+    abstract double getDouble(int i);
+
+    abstract float getFloat(int i);
+
+    /** @return the i-th value, the bits as they are for uint **/
+    abstract int getInt(int i);
+
+    /**
+     * @return the value converted to the data type and back, i.e., the value that a column of
+     * the data type stores, e.g. a double parsed from ascii rounded to float for a float property
+     */
+    static double narrow(PcuDataType type, double value) {
+        switch (type) {
+            case CHAR:
+                return (byte) (int) value;
+            case UCHAR:
+                return (byte) (int) value & 0xFF;
+            case SHORT:
+                return (short) (int) value;
+            case USHORT:
+                return (short) (int) value & 0xFFFF;
+            case INT:
+                return (int) value;
+            case UINT:
+                return (int) (long) value & 0xFFFFFFFFL;
+            case FLOAT:
+                return (float) value;
+        }
+        return value;
+    }
+
+    /** @return the new capacity when the column must hold at least minCapacity values **/
+    static int newCapacity(int capacity, int minCapacity) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(minCapacity, capacity + (capacity >> 1) + 16L));
+    }
+
+    static final class ByteColumn extends PlyColumn {
+
+        private byte[] values;
+
+        private final boolean unsigned;
+
+        ByteColumn(PcuDataType type, int capacity) {
+            super(type);
+            this.values = new byte[capacity];
+            this.unsigned = type == PcuDataType.UCHAR;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void read(ByteBuffer buffer, int i) {
+            values[i] = buffer.get();
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = (byte) (int) value;
+        }
+
+        @Override
+        double getDouble(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        float getFloat(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        int getInt(int i) {
+            return unsigned ? values[i] & 0xFF : values[i];
+        }
+    }
+
+    static final class ShortColumn extends PlyColumn {
+
+        private short[] values;
+
+        private final boolean unsigned;
+
+        ShortColumn(PcuDataType type, int capacity) {
+            super(type);
+            this.values = new short[capacity];
+            this.unsigned = type == PcuDataType.USHORT;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void read(ByteBuffer buffer, int i) {
+            values[i] = buffer.getShort();
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = (short) (int) value;
+        }
+
+        @Override
+        double getDouble(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        float getFloat(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        int getInt(int i) {
+            return unsigned ? values[i] & 0xFFFF : values[i];
+        }
+    }
+
+    static final class IntColumn extends PlyColumn {
+
+        private int[] values;
+
+        private final boolean unsigned;
+
+        IntColumn(PcuDataType type, int capacity) {
+            super(type);
+            this.values = new int[capacity];
+            this.unsigned = type == PcuDataType.UINT;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void read(ByteBuffer buffer, int i) {
+            values[i] = buffer.getInt();
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = unsigned ? (int) (long) value : (int) value;
+        }
+
+        @Override
+        double getDouble(int i) {
+            return unsigned ? values[i] & 0xFFFFFFFFL : values[i];
+        }
+
+        @Override
+        float getFloat(int i) {
+            return (float) getDouble(i);
+        }
+
+        @Override
+        int getInt(int i) {
+            return values[i];
+        }
+    }
+
+    static final class FloatColumn extends PlyColumn {
+
+        private float[] values;
+
+        FloatColumn(int capacity) {
+            super(PcuDataType.FLOAT);
+            this.values = new float[capacity];
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void read(ByteBuffer buffer, int i) {
+            values[i] = buffer.getFloat();
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = (float) value;
+        }
+
+        @Override
+        double getDouble(int i) {
+            return values[i];
+        }
+
+        @Override
+        float getFloat(int i) {
+            return values[i];
+        }
+
+        @Override
+        int getInt(int i) {
+            return (int) values[i];
+        }
+    }
+
+    static final class DoubleColumn extends PlyColumn {
+
+        private double[] values;
+
+        DoubleColumn(int capacity) {
+            super(PcuDataType.DOUBLE);
+            this.values = new double[capacity];
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void read(ByteBuffer buffer, int i) {
+            values[i] = buffer.getDouble();
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = value;
+        }
+
+        @Override
+        double getDouble(int i) {
+            return values[i];
+        }
+
+        @Override
+        float getFloat(int i) {
+            return (float) values[i];
+        }
+
+        @Override
+        int getInt(int i) {
+            return (int) values[i];
+        }
+    }
+
+}
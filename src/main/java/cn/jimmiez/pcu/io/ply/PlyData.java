@@ -1,13 +1,11 @@
 package cn.jimmiez.pcu.io.ply;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 public class PlyData implements Iterable<PlyElement>{
 
@@ -21,173 +19,91 @@ public class PlyData implements Iterable<PlyElement>{
         this.plyElements = new ArrayList<>();
     }
 
-    void parse(byte[] bytes) throws IOException {
-        PlyElementParser parser = null;
-        switch (header.getFormat()) {
-            case ASCII:
-                parser = new AsciiParser(bytes);
-                break;
-            case BINARY_BIG_ENDIAN:
-                parser = new BinaryParser(bytes, ByteOrder.BIG_ENDIAN);
-                break;
-            case BINARY_LITTLE_ENDIAN:
-                parser = new BinaryParser(bytes, ByteOrder.LITTLE_ENDIAN);
-                break;
-            default:
-                throw new IOException("Unsupported Ply format: " + header.getFormat());
+    /**
+     * read all elements of the ply file
+     * @param reader the reader whose header is the header of this data
+     */
+    void parse(PlyStreamReader reader) throws IOException {
+        parse(reader, null);
+    }
+
+    /**
+     * read the elements of the ply file in a projection, the elements after the last one
+     * in the projection are not read at all
+     * @param reader the reader whose header is the header of this data
+     * @param projection the elements and properties to be read, null means all
+     */
+    void parse(PlyStreamReader reader, PlyProjection projection) throws IOException {
+        boolean[][] selections = select(projection);
+        int remaining = header.getElementHeaders().size();
+        if (selections != null) {
+            for (boolean[] selected : selections) {
+                if (selected == null) remaining -= 1;
+            }
         }
-        PlyElement element = null;
-        while ((element = parser.next()) != null) {
+        PlyHeader.PlyElementHeader elementHeader;
+        for (int i = 0; remaining > 0 && (elementHeader = reader.nextElement()) != null; i ++) {
+            boolean[] selected = selections == null ? null : selections[i];
+            // the rows of an element not in the projection are skipped by the next call of nextElement()
+            if (selections != null && selected == null) continue;
+            PlyElement element = new PlyElement(elementHeader, selected);
+            reader.readRows(element, 0, elementHeader.number);
+            element.trim();
             this.plyElements.add(element);
+            remaining -= 1;
         }
     }
 
-    public PlyElement getElement(String elementName) {
-        int index = header.findElement(elementName);
-        if (index < 0 || index >= plyElements.size()) return null;
-        return plyElements.get(index);
-    }
-
-    public PlyHeader getHeader() {
-        return header;
+    /**
+     * read all elements of an ascii ply file in parallel
+     * @param file the ply file whose header is the header of this data
+     * @param pool the pool in which the chunks of file are parsed
+     */
+    void parse(File file, ForkJoinPool pool) throws IOException {
+        parse(file, pool, null);
     }
 
-    @Override
-    public Iterator<PlyElement> iterator() {
-        return plyElements.iterator();
+    /**
+     * read the elements of an ascii ply file in a projection in parallel
+     * @param file the ply file whose header is the header of this data
+     * @param pool the pool in which the chunks of file are parsed
+     * @param projection the elements and properties to be read, null means all
+     */
+    void parse(File file, ForkJoinPool pool, PlyProjection projection) throws IOException {
+        for (PlyElement element : new ParallelAsciiDecoder(file, header, pool, select(projection)).decode()) {
+            if (element != null) this.plyElements.add(element);
+        }
     }
 
-    private interface PlyElementParser {
-        PlyElement next() throws IOException;
+    /**
+     * @return the properties read of each element, null for an element not read; null if projection is null
+     */
+    private boolean[][] select(PlyProjection projection) {
+        if (projection == null) return null;
+        List<PlyHeader.PlyElementHeader> elementHeaders = header.getElementHeaders();
+        boolean[][] selections = new boolean[elementHeaders.size()][];
+        for (int i = 0; i < selections.length; i ++) selections[i] = projection.select(elementHeaders.get(i));
+        return selections;
     }
 
-    private class AsciiParser implements PlyElementParser {
-
-        private int elementPointer = 0;
-
-        private byte[] bytes = null;
-
-        private Scanner scanner;
-
-        public AsciiParser(byte[] bytes) {
-            this.bytes = bytes;
-            ByteArrayInputStream stream = new ByteArrayInputStream(bytes, header.getBytesCount(), bytes.length - header.getBytesCount());
-            this.scanner = new Scanner(stream);
-        }
-
-        @Override
-        public PlyElement next() throws IOException {
-            if (elementPointer >= header.getElementHeaders().size()) return null;
-            PlyElement element = new PlyElement(header.getElementHeaders().get(elementPointer));
-            int propertiesCount = element.getHeader().properties.size();
-            // TODO: 2019/3/20 optimize scanner read()
-            boolean[] isList = new boolean[element.getHeader().properties.size()];
-            for (int i = 0; i < isList.length; i ++) {
-                isList[i] = false;
-                if (element.getHeader().properties.get(i).getValue() instanceof PlyPropertyType.PlyListType) {
-                    isList[i] = true;
-                }
-            }
-            for (int lineCount = 0; lineCount < element.getHeader().number; lineCount ++) {
-                if (! scanner.hasNextLine()) {
-                    throw new IOException("no enough data");
-                }
-                String nextLine = scanner.nextLine();
-                String[] vals = nextLine.split("\\s+");
-                if (vals.length < propertiesCount) {
-                    throw new IllegalStateException("Less properties than expected.");
-                }
-                for (int i = 0; i < propertiesCount; i ++) {
-                    double val = Double.valueOf(vals[i]);
-                    if (isList[i]) {
-                        int listSize = (int) val;
-                        double[] list = new double[listSize];
-                        for (int j = 0; j < listSize; j ++) list[j] = Double.valueOf(vals[i + j + 1]);
-                        element.elementListData.add(list);
-                        val = element.elementListData.size() - 1;
-                    }
-                    element.elementData[lineCount * propertiesCount + i] = val;
-                }
-            }
-            elementPointer += 1;
-            return element;
+    /**
+     * @param elementName the name of element
+     * @return the element, or null if there is no such element or it is not in the projection the file is read with
+     */
+    public PlyElement getElement(String elementName) {
+        for (PlyElement element : plyElements) {
+            if (element.getHeader().elementName.equals(elementName)) return element;
         }
+        return null;
     }
 
-    private class BinaryParser implements PlyElementParser {
-
-        private int elementPointer = 0;
-
-        private ByteBuffer buffer = null;
-
-        BinaryParser(byte[] bytes, ByteOrder order) {
-            buffer = ByteBuffer.wrap(bytes, header.getBytesCount(), bytes.length - header.getBytesCount());
-            buffer.order(order);
-        }
-
-        @Override
-        public PlyElement next() throws IOException {
-            if (elementPointer >= header.getElementHeaders().size()) return null;
-            PlyElement element = new PlyElement(header.getElementHeaders().get(elementPointer));
-            int propertiesCount = element.getHeader().properties.size();
-            int minByteCount = 0; // for one
-            boolean[] isList = new boolean[element.getHeader().properties.size()];
-            PcuDataType[] types = new PcuDataType[element.getHeader().properties.size()];
-            PcuDataType[] listDataType = new PcuDataType[element.getHeader().properties.size()];
-            for (int i = 0; i < isList.length; i ++) {
-                isList[i] = false;
-                PlyPropertyType propertyType = element.getHeader().properties.get(i).getValue();
-                if (propertyType instanceof PlyPropertyType.PlyListType) {
-                    PlyPropertyType.PlyListType listType = (PlyPropertyType.PlyListType) propertyType;
-                    isList[i] = true;
-                    minByteCount += listType.sizeType().size();
-                    types[i] = listType.sizeType();
-                    listDataType[i] = listType.dataType();
-                } else if (propertyType instanceof PlyPropertyType.PlyScalarType) {
-                    PlyPropertyType.PlyScalarType scalarType = (PlyPropertyType.PlyScalarType) propertyType;
-                    minByteCount += scalarType.dataType().size();
-                    types[i] = scalarType.dataType();
-                }
-            }
-            for (int lineCount = 0; lineCount < element.getHeader().number; lineCount ++) {
-                if (buffer.remaining() < minByteCount) {
-                    throw new IOException("no enough data");
-                }
-                for (int i = 0; i < propertiesCount; i ++) {
-                    double val = nextDouble(types[i]);
-                    if (isList[i]) {
-                        int listSize = (int) val;
-                        double[] list = new double[listSize];
-                        for (int j = 0; j < listSize; j ++) list[j] = nextDouble(listDataType[i]);
-                        element.elementListData.add(list);
-                        val = element.elementListData.size() - 1;
-                    }
-                    element.elementData[lineCount * propertiesCount + i] = val;
-                }
-            }
-            elementPointer += 1;
-            return element;
-        }
-
-        double nextDouble(PcuDataType type) {
-            switch (type) {
-                case CHAR:
-                case UCHAR:
-                    return buffer.get();
-                case SHORT:
-                case USHORT:
-                    return buffer.getShort();
-                case INT:
-                case UINT:
-                    return buffer.getInt();
-                case FLOAT:
-                    return buffer.getFloat();
-                case DOUBLE:
-                    return buffer.getDouble();
-            }
-            return 0;
-        }
+    public PlyHeader getHeader() {
+        return header;
+    }
 
+    @Override
+    public Iterator<PlyElement> iterator() {
+        return plyElements.iterator();
     }
 
 }
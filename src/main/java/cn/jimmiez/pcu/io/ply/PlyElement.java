@@ -3,39 +3,222 @@ package cn.jimmiez.pcu.io.ply;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.*;
 
+/**
+ * The data of an element in a ply file, stored by columns: the values of a property of all
+ * rows are kept in a primitive array of the width of its data type, e.g. a float[] for float
+ * and a byte[] for uchar, so the memory of a row is the same as its size in file. The values
+ * of all lists of a list property are kept in one column, and the list of a row is located
+ * by {@link #getListOffsets(int)}.
+ *
+ * The typed getters convert the values if the data type of property is different. The
+ * unsigned types are read as unsigned values, except that getInt() returns the bits of a
+ * uint as they are.
+ *
+ * If the file is read with a {@link PlyProjection}, the properties not in the projection have
+ * no column, see {@link #isRead(int)}, and their values cannot be got.
+ */
 public class PlyElement {
 
-    //private byte[] bytes = null;
-    // store int,char,double,float using DOUBLE
-    // if the properties is a list, store a key,
-    double[] elementData = null;
+    /** the values of each property, the values of all lists for a list property **/
+    final PlyColumn[] columns;
 
-    List<double[]> elementListData = null;
+    /** the list of row i is [listOffsets[p][i], listOffsets[p][i + 1]) in column p, null for a scalar property **/
+    final int[][] listOffsets;
+
+    /** the properties after the last column are not read, so an ascii line can be left there **/
+    final int columnsEnd;
 
     private PlyHeader.PlyElementHeader header = null;
 
     public PlyElement(PlyHeader.PlyElementHeader header) {
-        this.elementData = new double[header.number * header.properties.size()];
-        // TODO: 2019/3/20 set appropriate initial size
-        this.elementListData = new ArrayList<>();
-        this.header = header;
+        this(header, null);
     }
 
+    /**
+     * @param header the header of element
+     * @param selected whether each property is read, the properties not read have no column;
+     *                 null means all properties are read
+     */
+    PlyElement(PlyHeader.PlyElementHeader header, boolean[] selected) {
+        this.header = header;
+        int propertiesCount = header.properties.size();
+        this.columns = new PlyColumn[propertiesCount];
+        this.listOffsets = new int[propertiesCount][];
+        int end = 0;
+        for (int i = 0; i < propertiesCount; i ++) {
+            if (selected != null && ! selected[i]) continue;
+            end = i + 1;
+            PlyPropertyType propertyType = header.properties.get(i).getValue();
+            if (propertyType instanceof PlyPropertyType.PlyListType) {
+                // the size of lists is unknown, the column grows when lists are appended
+                columns[i] = PlyColumn.create(((PlyPropertyType.PlyListType) propertyType).dataType(), header.number);
+                listOffsets[i] = new int[header.number + 1];
+            } else {
+                columns[i] = PlyColumn.create(((PlyPropertyType.PlyScalarType) propertyType).dataType(), header.number);
+            }
+        }
+        this.columnsEnd = end;
+    }
 
     public PlyHeader.PlyElementHeader getHeader() {
         return header;
     }
 
+    public int getRowNumber() {
+        return header.number;
+    }
+
+    /**
+     * @param property the index of property in the element
+     * @return the data type of the property, or the data type of list values for a list property
+     */
+    public PcuDataType getType(int property) {
+        PlyPropertyType propertyType = header.properties.get(property).getValue();
+        if (propertyType instanceof PlyPropertyType.PlyListType) return ((PlyPropertyType.PlyListType) propertyType).dataType();
+        return ((PlyPropertyType.PlyScalarType) propertyType).dataType();
+    }
+
+    public boolean isList(int property) {
+        return header.properties.get(property).getValue() instanceof PlyPropertyType.PlyListType;
+    }
+
+    /**
+     * @param property the index of property in the element
+     * @return false if the property is not in the projection the file is read with
+     */
+    public boolean isRead(int property) {
+        return columns[property] != null;
+    }
+
+    /**
+     * @return the value of property in the row, or the size of list for a list property
+     */
+    public double getDouble(int row, int property) {
+        if (listOffsets[property] != null) return getListSize(row, property);
+        return columns[property].getDouble(row);
+    }
+
+    /**
+     * @return the value of property in the row, or the size of list for a list property
+     */
+    public float getFloat(int row, int property) {
+        if (listOffsets[property] != null) return getListSize(row, property);
+        return columns[property].getFloat(row);
+    }
+
+    /**
+     * @return the value of property in the row, or the size of list for a list property
+     */
+    public int getInt(int row, int property) {
+        if (listOffsets[property] != null) return getListSize(row, property);
+        return columns[property].getInt(row);
+    }
+
+    public int getListSize(int row, int property) {
+        return listOffsets[property][row + 1] - listOffsets[property][row];
+    }
+
+    /**
+     * @return a copy of the list of a list property in the row
+     */
+    public double[] getList(int row, int property) {
+        int start = listOffsets[property][row];
+        double[] list = new double[listOffsets[property][row + 1] - start];
+        for (int i = 0; i < list.length; i ++) list[i] = columns[property].getDouble(start + i);
+        return list;
+    }
+
+    /**
+     * @param property the index of a list property
+     * @return the positions of lists in the column, the list of row i is [offsets[i], offsets[i + 1])
+     */
+    public int[] getListOffsets(int property) {
+        if (columns[property] == null) throw new IllegalArgumentException("The property is not read: " + property);
+        if (listOffsets[property] == null) throw new IllegalArgumentException("Not a list property: " + property);
+        return listOffsets[property];
+    }
+
+    /**
+     * @return the column of a char or uchar property, the values of all lists for a list property
+     */
+    public byte[] getBytes(int property) {
+        return (byte[]) column(property, PcuDataType.CHAR, PcuDataType.UCHAR);
+    }
+
+    /**
+     * @return the column of a short or ushort property, the values of all lists for a list property
+     */
+    public short[] getShorts(int property) {
+        return (short[]) column(property, PcuDataType.SHORT, PcuDataType.USHORT);
+    }
+
+    /**
+     * @return the column of an int or uint property, the values of all lists for a list property
+     */
+    public int[] getInts(int property) {
+        return (int[]) column(property, PcuDataType.INT, PcuDataType.UINT);
+    }
+
+    /**
+     * @return the column of a float property, the values of all lists for a list property
+     */
+    public float[] getFloats(int property) {
+        return (float[]) column(property, PcuDataType.FLOAT, PcuDataType.FLOAT);
+    }
+
+    /**
+     * @return the column of a double property, the values of all lists for a list property
+     */
+    public double[] getDoubles(int property) {
+        return (double[]) column(property, PcuDataType.DOUBLE, PcuDataType.DOUBLE);
+    }
+
+    private Object column(int property, PcuDataType type, PcuDataType unsignedType) {
+        if (columns[property] == null) throw new IllegalArgumentException("The property is not read: " + property);
+        PcuDataType actual = columns[property].type;
+        if (actual != type && actual != unsignedType) {
+            throw new IllegalArgumentException("The data type of property " + property + " is " + actual.typeName());
+        }
+        return columns[property].array();
+    }
+
+    /**
+     * make room for the list of a row, the lists must be appended row by row
+     * @return the position of the first value of the list in column
+     */
+    int appendList(int property, int row, int size) {
+        int[] offsets = listOffsets[property];
+        int start = offsets[row];
+        long end = (long) start + size;
+        if (end > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many list values in property " + property);
+        PlyColumn column = columns[property];
+        if (end > column.capacity()) column.resize(PlyColumn.newCapacity(column.capacity(), (int) end));
+        offsets[row + 1] = (int) end;
+        return start;
+    }
+
+    /**
+     * shrink the list columns to the size of their values, after all rows are read
+     */
+    void trim() {
+        for (int i = 0; i < columns.length; i ++) {
+            if (listOffsets[i] == null) continue;
+            int size = listOffsets[i][header.number];
+            if (columns[i].capacity() != size) columns[i].resize(size);
+        }
+    }
+
     public static int parseInt(ByteBuffer buffer, PcuDataType dataType) throws IOException {
         switch (dataType) {
             case CHAR:
-            case UCHAR:
                 return (int)buffer.get();
+            case UCHAR:
+                return buffer.get() & 0xFF;
             case SHORT:
-            case USHORT:
                 return (int)buffer.getShort();
+            case USHORT:
+                return buffer.getShort() & 0xFFFF;
             case INT:
             case UINT:
                 return buffer.getInt();
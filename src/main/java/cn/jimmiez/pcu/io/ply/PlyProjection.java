@@ -0,0 +1,71 @@
+package cn.jimmiez.pcu.io.ply;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The elements and properties to be read from a ply file, the others are skipped without
+ * being decoded. An element not in the projection is absent from {@link PlyData}, and a
+ * property not in the projection has no column in its {@link PlyElement}, see
+ * {@link PlyElement#isRead(int)}.
+ *
+ * <pre>
+ * PlyProjection projection = new PlyProjection()
+ *         .element("vertex", "x", "y", "z")
+ *         .element("face");
+ * PlyData data = new PlyReader().readPly(file, projection);
+ * </pre>
+ *
+ * The rows of a binary element with fixed-size rows are skipped by seeking over them, and
+ * nothing after the last element in the projection is read.
+ */
+public class PlyProjection {
+
+    /** the names of properties of each element, null means all properties **/
+    private final Map<String, Set<String>> elements = new LinkedHashMap<>();
+
+    /**
+     * add an element to the projection, it can be called several times for an element
+     * @param element the name of element
+     * @param properties the names of properties to be read, all properties are read if none is given
+     * @return this projection
+     */
+    public PlyProjection element(String element, String... properties) {
+        if (element == null) throw new NullPointerException("The element name is null.");
+        if (properties.length == 0) {
+            elements.put(element, null);
+        } else if (! elements.containsKey(element)) {
+            elements.put(element, new HashSet<>(Arrays.asList(properties)));
+        } else if (elements.get(element) != null) {
+            elements.get(element).addAll(Arrays.asList(properties));
+        }
+        return this;
+    }
+
+    public boolean hasElement(String element) {
+        return elements.containsKey(element);
+    }
+
+    public boolean hasProperty(String element, String property) {
+        if (! elements.containsKey(element)) return false;
+        Set<String> properties = elements.get(element);
+        return properties == null || properties.contains(property);
+    }
+
+    /**
+     * @param elementHeader the header of an element in file
+     * @return whether each property of the element is read, or null if the element is not read
+     */
+    boolean[] select(PlyHeader.PlyElementHeader elementHeader) {
+        if (! hasElement(elementHeader.elementName)) return null;
+        boolean[] selected = new boolean[elementHeader.properties.size()];
+        for (int i = 0; i < selected.length; i ++) {
+            selected[i] = hasProperty(elementHeader.elementName, elementHeader.properties.get(i).getKey());
+        }
+        return selected;
+    }
+
+}
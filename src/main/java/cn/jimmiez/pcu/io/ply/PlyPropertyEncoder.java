@@ -0,0 +1,676 @@
+package cn.jimmiez.pcu.io.ply;
+
+import cn.jimmiez.pcu.io.BinaryWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * Writes the values of one or more properties of an element, row by row. An encoder is
+ * created for every group of properties defined in a {@link PlyWriter.PlyWriterRequest},
+ * where the source of values and the data type in file are resolved once, so the rows are
+ * written without looking up the data or dispatching on the data type of every value.
+ *
+ * In ascii, every value is followed by a space; in binary, the values are converted to the
+ * data type in the byte order of writer. The rows of a List, and the float[] or double[] of
+ * the data type in file, are written in bulk without conversion; the other arrays are
+ * converted value by value.
+ */
+abstract class PlyPropertyEncoder {
+
+    /** @return the number of rows of the data **/
+    abstract int rows();
+
+    abstract void writeBinary(BinaryWriter writer, int row) throws IOException;
+
+    abstract void writeAscii(PrintStream stream, int row);
+
+    /**
+     * @param data the rows, each of which is an array of the data type, e.g. a byte[] for uchar
+     * @param first the position of the value of the first property in a row
+     * @param count the number of properties
+     */
+    static PlyPropertyEncoder ofRows(List data, PcuDataType type, int first, int count) {
+        switch (type) {
+            case CHAR:
+            case UCHAR:
+                return new ByteRowsEncoder(data, first, count, type == PcuDataType.UCHAR);
+            case SHORT:
+            case USHORT:
+                return new ShortRowsEncoder(data, first, count, type == PcuDataType.USHORT);
+            case INT:
+            case UINT:
+                return new IntRowsEncoder(data, first, count, type == PcuDataType.UINT);
+            case FLOAT:
+                return new FloatRowsEncoder(data, first, count);
+            case DOUBLE:
+                return new DoubleRowsEncoder(data, first, count);
+        }
+        throw new IllegalArgumentException("Unsupported data type: " + type);
+    }
+
+    /**
+     * @param data the values of count properties, the value of property j in row i is data[offset + i * stride + j]
+     */
+    static PlyPropertyEncoder ofFloats(float[] data, int offset, int stride, PcuDataType type, int count) {
+        checkLayout(data.length, offset, stride, count);
+        if (type == PcuDataType.FLOAT) return new FloatArrayEncoder(data, offset, stride, count);
+        return new ScalarEncoder(new FloatArray(data, offset, stride), count, Converter.of(type));
+    }
+
+    /**
+     * @param data the values of count properties, the value of property j in row i is data[offset + i * stride + j]
+     */
+    static PlyPropertyEncoder ofDoubles(double[] data, int offset, int stride, PcuDataType type, int count) {
+        checkLayout(data.length, offset, stride, count);
+        if (type == PcuDataType.DOUBLE) return new DoubleArrayEncoder(data, offset, stride, count);
+        return new ScalarEncoder(new DoubleArray(data, offset, stride), count, Converter.of(type));
+    }
+
+    /**
+     * @param data the values of count properties, the value of property j in row i is data.get(data.position() + i * stride + j)
+     */
+    static PlyPropertyEncoder ofFloatBuffer(FloatBuffer data, int stride, PcuDataType type, int count) {
+        checkLayout(data.remaining(), 0, stride, count);
+        return new ScalarEncoder(new FloatBufferValues(data.duplicate(), stride), count, Converter.of(type));
+    }
+
+    /**
+     * @param data the rows, each of which is the list of a row, an array of valType, e.g. an int[] for int
+     */
+    static PlyPropertyEncoder ofLists(List data, PcuDataType sizeType, PcuDataType valType) {
+        return new ListEncoder(data, Converter.of(sizeType), valType);
+    }
+
+    private static void checkLayout(int length, int offset, int stride, int count) {
+        if (count < 1) throw new IllegalArgumentException("At least one property is needed.");
+        if (stride < count) throw new IllegalArgumentException("The stride is smaller than the number of properties.");
+        if (offset < 0 || offset > length) throw new IllegalArgumentException("Invalid offset: " + offset);
+    }
+
+    /**
+     * The number of rows of interleaved values, a row is complete if its last property is in data.
+     */
+    private static int interleavedRows(int length, int offset, int stride, int count) {
+        int available = length - offset;
+        return available < count ? 0 : (available - count) / stride + 1;
+    }
+
+    /**
+     * The values of a group of properties.
+     */
+    private interface ValueSource {
+
+        /** @return the number of rows that have the values of count properties **/
+        int rows(int count);
+
+        /** @return the value of the j-th property in the row **/
+        double value(int row, int j);
+    }
+
+    private static final class ScalarEncoder extends PlyPropertyEncoder {
+
+        private final ValueSource source;
+
+        private final int count;
+
+        private final Converter converter;
+
+        ScalarEncoder(ValueSource source, int count, Converter converter) {
+            this.source = source;
+            this.count = count;
+            this.converter = converter;
+        }
+
+        @Override
+        int rows() {
+            return source.rows(count);
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            for (int j = 0; j < count; j ++) converter.write(writer, source.value(row, j));
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            for (int j = 0; j < count; j ++) {
+                converter.print(stream, source.value(row, j));
+                stream.print(' ');
+            }
+        }
+    }
+
+    /**
+     * Floats written as float, the values of a row are copied in bulk.
+     */
+    private static final class FloatArrayEncoder extends PlyPropertyEncoder {
+
+        private final float[] data;
+
+        private final int offset;
+
+        private final int stride;
+
+        private final int count;
+
+        FloatArrayEncoder(float[] data, int offset, int stride, int count) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+            this.count = count;
+        }
+
+        @Override
+        int rows() {
+            return interleavedRows(data.length, offset, stride, count);
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeFloats(data, offset + row * stride, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            int start = offset + row * stride;
+            for (int i = start; i < start + count; i ++) {
+                stream.print(data[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    /**
+     * Doubles written as double, the values of a row are copied in bulk.
+     */
+    private static final class DoubleArrayEncoder extends PlyPropertyEncoder {
+
+        private final double[] data;
+
+        private final int offset;
+
+        private final int stride;
+
+        private final int count;
+
+        DoubleArrayEncoder(double[] data, int offset, int stride, int count) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+            this.count = count;
+        }
+
+        @Override
+        int rows() {
+            return interleavedRows(data.length, offset, stride, count);
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeDoubles(data, offset + row * stride, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            int start = offset + row * stride;
+            for (int i = start; i < start + count; i ++) {
+                stream.print(data[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    /**
+     * The rows of a List, each of which is an array of the data type in file, e.g. an int[]
+     * for int or uint, so the values of a row are copied in bulk without conversion.
+     */
+    private abstract static class RowsEncoder extends PlyPropertyEncoder {
+
+        final List data;
+
+        final int first;
+
+        final int count;
+
+        RowsEncoder(List data, int first, int count) {
+            this.data = data;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        int rows() {
+            return data.size();
+        }
+    }
+
+    private static final class ByteRowsEncoder extends RowsEncoder {
+
+        private final boolean unsigned;
+
+        ByteRowsEncoder(List data, int first, int count, boolean unsigned) {
+            super(data, first, count);
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeBytes((byte[]) data.get(row), first, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            byte[] values = (byte[]) data.get(row);
+            for (int i = first; i < first + count; i ++) {
+                stream.print(unsigned ? values[i] & 0xFF : values[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    private static final class ShortRowsEncoder extends RowsEncoder {
+
+        private final boolean unsigned;
+
+        ShortRowsEncoder(List data, int first, int count, boolean unsigned) {
+            super(data, first, count);
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeShorts((short[]) data.get(row), first, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            short[] values = (short[]) data.get(row);
+            for (int i = first; i < first + count; i ++) {
+                stream.print(unsigned ? values[i] & 0xFFFF : values[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    private static final class IntRowsEncoder extends RowsEncoder {
+
+        private final boolean unsigned;
+
+        IntRowsEncoder(List data, int first, int count, boolean unsigned) {
+            super(data, first, count);
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeInts((int[]) data.get(row), first, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            int[] values = (int[]) data.get(row);
+            for (int i = first; i < first + count; i ++) {
+                if (unsigned) {
+                    stream.print(values[i] & 0xFFFFFFFFL);
+                } else {
+                    stream.print(values[i]);
+                }
+                stream.print(' ');
+            }
+        }
+    }
+
+    private static final class FloatRowsEncoder extends RowsEncoder {
+
+        FloatRowsEncoder(List data, int first, int count) {
+            super(data, first, count);
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeFloats((float[]) data.get(row), first, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            float[] values = (float[]) data.get(row);
+            for (int i = first; i < first + count; i ++) {
+                stream.print(values[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    private static final class DoubleRowsEncoder extends RowsEncoder {
+
+        DoubleRowsEncoder(List data, int first, int count) {
+            super(data, first, count);
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            writer.writeDoubles((double[]) data.get(row), first, count);
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            double[] values = (double[]) data.get(row);
+            for (int i = first; i < first + count; i ++) {
+                stream.print(values[i]);
+                stream.print(' ');
+            }
+        }
+    }
+
+    private static final class ListEncoder extends PlyPropertyEncoder {
+
+        private final List data;
+
+        private final Converter sizeConverter;
+
+        private final PcuDataType valType;
+
+        ListEncoder(List data, Converter sizeConverter, PcuDataType valType) {
+            this.data = data;
+            this.sizeConverter = sizeConverter;
+            this.valType = valType;
+        }
+
+        @Override
+        int rows() {
+            return data.size();
+        }
+
+        @Override
+        void writeBinary(BinaryWriter writer, int row) throws IOException {
+            Object list = data.get(row);
+            switch (valType) {
+                case CHAR:
+                case UCHAR:
+                    byte[] ba = (byte[]) list;
+                    sizeConverter.write(writer, ba.length);
+                    writer.writeBytes(ba, 0, ba.length);
+                    break;
+                case SHORT:
+                case USHORT:
+                    short[] sa = (short[]) list;
+                    sizeConverter.write(writer, sa.length);
+                    writer.writeShorts(sa, 0, sa.length);
+                    break;
+                case INT:
+                case UINT:
+                    int[] ia = (int[]) list;
+                    sizeConverter.write(writer, ia.length);
+                    writer.writeInts(ia, 0, ia.length);
+                    break;
+                case FLOAT:
+                    float[] fa = (float[]) list;
+                    sizeConverter.write(writer, fa.length);
+                    writer.writeFloats(fa, 0, fa.length);
+                    break;
+                case DOUBLE:
+                    double[] da = (double[]) list;
+                    sizeConverter.write(writer, da.length);
+                    writer.writeDoubles(da, 0, da.length);
+                    break;
+            }
+        }
+
+        @Override
+        void writeAscii(PrintStream stream, int row) {
+            Object list = data.get(row);
+            switch (valType) {
+                case CHAR:
+                case UCHAR:
+                    byte[] ba = (byte[]) list;
+                    stream.print(ba.length);
+                    stream.print(' ');
+                    for (byte b : ba) {
+                        stream.print(valType == PcuDataType.UCHAR ? b & 0xFF : b);
+                        stream.print(' ');
+                    }
+                    break;
+                case SHORT:
+                case USHORT:
+                    short[] sa = (short[]) list;
+                    stream.print(sa.length);
+                    stream.print(' ');
+                    for (short s : sa) {
+                        stream.print(valType == PcuDataType.USHORT ? s & 0xFFFF : s);
+                        stream.print(' ');
+                    }
+                    break;
+                case INT:
+                case UINT:
+                    int[] ia = (int[]) list;
+                    stream.print(ia.length);
+                    stream.print(' ');
+                    for (int i : ia) {
+                        if (valType == PcuDataType.UINT) {
+                            stream.print(i & 0xFFFFFFFFL);
+                        } else {
+                            stream.print(i);
+                        }
+                        stream.print(' ');
+                    }
+                    break;
+                case FLOAT:
+                    float[] fa = (float[]) list;
+                    stream.print(fa.length);
+                    stream.print(' ');
+                    for (float f : fa) {
+                        stream.print(f);
+                        stream.print(' ');
+                    }
+                    break;
+                case DOUBLE:
+                    double[] da = (double[]) list;
+                    stream.print(da.length);
+                    stream.print(' ');
+                    for (double d : da) {
+                        stream.print(d);
+                        stream.print(' ');
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static final class FloatArray implements ValueSource {
+
+        private final float[] data;
+
+        private final int offset;
+
+        private final int stride;
+
+        FloatArray(float[] data, int offset, int stride) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        @Override
+        public int rows(int count) {
+            return interleavedRows(data.length, offset, stride, count);
+        }
+
+        @Override
+        public double value(int row, int j) {
+            return data[offset + row * stride + j];
+        }
+    }
+
+    private static final class DoubleArray implements ValueSource {
+
+        private final double[] data;
+
+        private final int offset;
+
+        private final int stride;
+
+        DoubleArray(double[] data, int offset, int stride) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        @Override
+        public int rows(int count) {
+            return interleavedRows(data.length, offset, stride, count);
+        }
+
+        @Override
+        public double value(int row, int j) {
+            return data[offset + row * stride + j];
+        }
+    }
+
+    private static final class FloatBufferValues implements ValueSource {
+
+        private final FloatBuffer data;
+
+        private final int stride;
+
+        FloatBufferValues(FloatBuffer data, int stride) {
+            this.data = data;
+            this.stride = stride;
+        }
+
+        @Override
+        public int rows(int count) {
+            return interleavedRows(data.remaining(), 0, stride, count);
+        }
+
+        @Override
+        public double value(int row, int j) {
+            return data.get(data.position() + row * stride + j);
+        }
+    }
+
+    /**
+     * Converts a value to a data type and writes it.
+     */
+    private abstract static class Converter {
+
+        abstract void write(BinaryWriter writer, double value) throws IOException;
+
+        abstract void print(PrintStream stream, double value);
+
+        static Converter of(PcuDataType type) {
+            switch (type) {
+                case CHAR:
+                case UCHAR:
+                    return new ByteConverter(type == PcuDataType.UCHAR);
+                case SHORT:
+                case USHORT:
+                    return new ShortConverter(type == PcuDataType.USHORT);
+                case INT:
+                    return new IntConverter();
+                case UINT:
+                    return new UintConverter();
+                case FLOAT:
+                    return new FloatConverter();
+                case DOUBLE:
+                    return new DoubleConverter();
+            }
+            throw new IllegalArgumentException("Unsupported data type: " + type);
+        }
+    }
+
+    private static final class ByteConverter extends Converter {
+
+        private final boolean unsigned;
+
+        ByteConverter(boolean unsigned) {
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeByte((byte) (int) value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            byte b = (byte) (int) value;
+            stream.print(unsigned ? b & 0xFF : b);
+        }
+    }
+
+    private static final class ShortConverter extends Converter {
+
+        private final boolean unsigned;
+
+        ShortConverter(boolean unsigned) {
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeShort((short) (int) value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            short s = (short) (int) value;
+            stream.print(unsigned ? s & 0xFFFF : s);
+        }
+    }
+
+    private static final class IntConverter extends Converter {
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeInt((int) value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            stream.print((int) value);
+        }
+    }
+
+    private static final class UintConverter extends Converter {
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeInt((int) (long) value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            stream.print((long) value & 0xFFFFFFFFL);
+        }
+    }
+
+    private static final class FloatConverter extends Converter {
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeFloat((float) value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            stream.print((float) value);
+        }
+    }
+
+    private static final class DoubleConverter extends Converter {
+
+        @Override
+        void write(BinaryWriter writer, double value) throws IOException {
+            writer.writeDouble(value);
+        }
+
+        @Override
+        void print(PrintStream stream, double value) {
+            stream.print(value);
+        }
+    }
+
+}
@@ -0,0 +1,647 @@
+package cn.jimmiez.pcu.io.ply;
+
+import cn.jimmiez.pcu.Constants;
+import cn.jimmiez.pcu.io.AsciiTokenizer;
+import cn.jimmiez.pcu.util.Pair;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a ply file element by element and row by row through a buffered FileChannel, so
+ * a ply file of any size can be consumed without loading it into memory. Only one row (or
+ * one chunk of rows, see {@link #readRows(double[], int, int)}) is decoded at a time.
+ *
+ * <pre>
+ * try (PlyStreamReader reader = new PlyStreamReader(file)) {
+ *     PlyHeader.PlyElementHeader element;
+ *     while ((element = reader.nextElement()) != null) {
+ *         if (! element.getElementName().equals("vertex")) continue;
+ *         while (reader.nextRow()) {
+ *             double x = reader.getDouble(0);
+ *             // ...
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * The values of all data types are returned as double, converted from the data type of
+ * property in the same way as {@link PlyElement}, and the values of a list property are
+ * returned by {@link #getList(int)}.
+ */
+public class PlyStreamReader implements Closeable {
+
+    /** 1MB **/
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    /** the bytes read from channel but not consumed yet, between position and limit **/
+    private ByteBuffer buffer;
+
+    private final PlyHeader header;
+
+    private final RowDecoder decoder;
+
+    /** the index of the current element, -1 before the first call of nextElement() **/
+    private int elementPointer = -1;
+
+    /** the number of rows of the current element that have been read **/
+    private int rowPointer = 0;
+
+    /** the data type of each property, it is the size type for a list property **/
+    private PcuDataType[] types = null;
+
+    /** the data type of each list property, null for a scalar property **/
+    private PcuDataType[] listTypes = null;
+
+    private boolean hasList = false;
+
+    /** the bytes of a row if the element has no list property, otherwise the minimal bytes of a row **/
+    private int rowBytes = 0;
+
+    /** the minimal bytes of the properties after each property in a row **/
+    private int[] tailBytes = null;
+
+    /** the values of the current row, the size of list for a list property **/
+    private double[] values = null;
+
+    /** the list values of the current row, null for a scalar property **/
+    private double[][] lists = null;
+
+    /**
+     * open a ply file and read its header
+     * @param file the ply file
+     * @throws IOException if the file cannot be read or the header is invalid
+     */
+    public PlyStreamReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+        try {
+            this.header = readHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        switch (header.getFormat()) {
+            case ASCII:
+                decoder = new AsciiDecoder();
+                break;
+            case BINARY_BIG_ENDIAN:
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                decoder = new BinaryDecoder();
+                break;
+            case BINARY_LITTLE_ENDIAN:
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                decoder = new BinaryDecoder();
+                break;
+            default:
+                close();
+                throw new IOException("Unsupported Ply format: " + header.getFormat());
+        }
+    }
+
+    public PlyHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * move to the next element, the remaining rows of the current element are skipped
+     * @return the header of the next element, or null if there is no more element
+     * @throws IOException if the data is broken
+     */
+    public PlyHeader.PlyElementHeader nextElement() throws IOException {
+        if (elementPointer >= 0 && elementPointer < header.getElementHeaders().size()) {
+            decoder.skipRows(getElement().number - rowPointer);
+        }
+        if (elementPointer < header.getElementHeaders().size()) elementPointer += 1;
+        if (elementPointer >= header.getElementHeaders().size()) return null;
+        rowPointer = 0;
+        PlyHeader.PlyElementHeader element = getElement();
+        int propertiesCount = element.properties.size();
+        types = new PcuDataType[propertiesCount];
+        listTypes = new PcuDataType[propertiesCount];
+        values = new double[propertiesCount];
+        lists = new double[propertiesCount][];
+        hasList = false;
+        rowBytes = 0;
+        for (int i = 0; i < propertiesCount; i ++) {
+            PlyPropertyType propertyType = element.properties.get(i).getValue();
+            if (propertyType instanceof PlyPropertyType.PlyListType) {
+                PlyPropertyType.PlyListType listType = (PlyPropertyType.PlyListType) propertyType;
+                types[i] = listType.sizeType();
+                listTypes[i] = listType.dataType();
+                hasList = true;
+            } else {
+                types[i] = ((PlyPropertyType.PlyScalarType) propertyType).dataType();
+            }
+            rowBytes += types[i].size();
+        }
+        tailBytes = new int[propertiesCount];
+        for (int i = propertiesCount - 2; i >= 0; i --) tailBytes[i] = tailBytes[i + 1] + types[i + 1].size();
+        return element;
+    }
+
+    /**
+     * @return the header of the current element, or null if nextElement() has not been called
+     * or there is no more element
+     */
+    public PlyHeader.PlyElementHeader getElement() {
+        if (elementPointer < 0 || elementPointer >= header.getElementHeaders().size()) return null;
+        return header.getElementHeaders().get(elementPointer);
+    }
+
+    /**
+     * read the next row of the current element
+     * @return false if all rows of the current element have been read
+     * @throws IOException if the data is broken
+     */
+    public boolean nextRow() throws IOException {
+        PlyHeader.PlyElementHeader element = getElement();
+        if (element == null) throw new IllegalStateException("Call nextElement() before reading rows.");
+        if (rowPointer >= element.number) return false;
+        decoder.readRow();
+        rowPointer += 1;
+        return true;
+    }
+
+    /**
+     * @param property the index of property in the current element
+     * @return the value of the property in the current row, or the size of list for a list property
+     */
+    public double getDouble(int property) {
+        return values[property];
+    }
+
+    /**
+     * @param property the index of a list property in the current element
+     * @return the list values of the property in the current row, the array is created for
+     * every row, so it can be kept by the caller; null for a scalar property
+     */
+    public double[] getList(int property) {
+        return lists[property];
+    }
+
+    /**
+     * read a chunk of rows of the current element, which must have no list property
+     * @param data the values of rows are stored here one row after another, each row takes
+     *             as many values as the number of properties
+     * @param offset the position in data to store the first value
+     * @param maxRows the max number of rows to be read
+     * @return the number of rows read, 0 if all rows of the current element have been read
+     * @throws IOException if the data is broken
+     */
+    public int readRows(double[] data, int offset, int maxRows) throws IOException {
+        PlyHeader.PlyElementHeader element = getElement();
+        if (element == null) throw new IllegalStateException("Call nextElement() before reading rows.");
+        if (hasList) throw new IllegalStateException("Cannot read rows in chunk for an element with list properties.");
+        int rows = Math.min(maxRows, element.number - rowPointer);
+        int propertiesCount = values.length;
+        if (offset < 0 || offset + (long) rows * propertiesCount > data.length) {
+            throw new IllegalArgumentException("The array is too small for " + rows + " rows.");
+        }
+        for (int row = 0; row < rows; row ++) {
+            decoder.readRow();
+            System.arraycopy(values, 0, data, offset + row * propertiesCount, propertiesCount);
+        }
+        rowPointer += rows;
+        return rows;
+    }
+
+    /**
+     * read rows of the current element into the columns of element
+     * @param element the element whose header is the header of the current element
+     * @param fromRow the index of the first row in element
+     * @param maxRows the max number of rows to be read
+     * @return the number of rows read
+     */
+    int readRows(PlyElement element, int fromRow, int maxRows) throws IOException {
+        if (element.getHeader() != getElement()) throw new IllegalStateException("The element is not the current element.");
+        int rows = Math.min(maxRows, element.getHeader().number - rowPointer);
+        for (int row = 0; row < rows; row ++) decoder.readRow(element, fromRow + row);
+        rowPointer += rows;
+        return rows;
+    }
+
+    /**
+     * @return the position in file of the next byte to be decoded, only valid for binary files
+     */
+    long position() throws IOException {
+        return channel.position() - buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * make sure that at least n bytes are in the buffer, the buffer grows if it is too small
+     * @return false if the end of file is reached before n bytes
+     */
+    private boolean fill(int n) throws IOException {
+        if (buffer.remaining() >= n) return true;
+        if (buffer.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2)).order(buffer.order());
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < n) {
+            if (channel.read(buffer) < 0) break;
+        }
+        buffer.flip();
+        return buffer.remaining() >= n;
+    }
+
+    /**
+     * @return the position of the next line feed in buffer, reading more bytes if needed;
+     * -1 if the end of file is reached, the last line may have no line feed
+     */
+    private int findLineEnd() throws IOException {
+        int from = buffer.position();
+        while (true) {
+            for (int i = from; i < buffer.limit(); i ++) {
+                if (buffer.get(i) == '\n') return i;
+            }
+            int scanned = buffer.remaining();
+            if (! fill(scanned + 1)) return -1;
+            from = buffer.position() + scanned;
+        }
+    }
+
+    /**
+     * @return the next line without line separator (LF or CRLF), or null at the end of file
+     */
+    private String readLine() throws IOException {
+        int end = findLineEnd();
+        if (end < 0 && ! buffer.hasRemaining()) return null;
+        int next = end < 0 ? buffer.limit() : end + 1;
+        if (end < 0) end = buffer.limit();
+        if (end > buffer.position() && buffer.get(end - 1) == '\r') end -= 1;
+        String line = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), end - buffer.position(), ASCII);
+        buffer.position(next);
+        return line;
+    }
+
+    private PlyHeader readHeader() throws IOException {
+        PlyHeader header = new PlyHeader();
+        List<String> headerLines = new ArrayList<>();
+        while (true) {
+            String line = readLine();
+            if (line == null) throw new IOException("Invalid ply file: Cannot find end of header.");
+            if (line.equals("end_header")) break;
+            if (line.startsWith("comment ")) {
+                header.getComments().add(line);
+                continue;
+            }
+            headerLines.add(line);
+        }
+        if (headerLines.size() < 2) {
+            throw new IOException("Invalid ply file: No data");
+        }
+        header.setBytesCount((int) position());
+        String firstLine = headerLines.get(0);
+        if (! firstLine.equals(Constants.MAGIC_STRING)) {
+            throw new IOException("Invalid ply file: Ply file does not start with ply.");
+        }
+        readPlyFormat(headerLines.get(1), header);
+        for (int lineNo = 2; lineNo < headerLines.size();) {
+            String elementLine = headerLines.get(lineNo);
+            PlyHeader.PlyElementHeader element = new PlyHeader.PlyElementHeader();
+            Pair<String, Integer> pair = readPlyElement(elementLine);
+            element.setNumber(pair.getValue());
+            element.setElementName(pair.getKey());
+            lineNo += 1;
+            int propertyStartNo = lineNo;
+            while (lineNo < headerLines.size() && headerLines.get(lineNo).startsWith("property ")) lineNo++;
+            for (int i = propertyStartNo; i < lineNo; i ++) {
+                String[] propertySlices = headerLines.get(i).split(" ");
+                if (propertySlices.length < 3) throw new IOException("Invalid ply file.");
+                element.getProperties().add(parseProperty(headerLines.get(i)));
+            }
+            header.getElementHeaders().add(element);
+        }
+        return header;
+    }
+
+    private static Pair<String, Integer> readPlyElement(String line) throws IOException {
+        String[] elementSlices = line.split(" ");
+        if (! line.startsWith("element ") || elementSlices.length < 3) {
+            throw new IOException("Invalid ply file: Invalid format.");
+        }
+        String elementName = elementSlices[1];
+        Integer elementNumber = Integer.valueOf(elementSlices[2]);
+        return new Pair<>(elementName, elementNumber);
+    }
+
+    private static PcuDataType parseType(String type) throws IOException {
+        switch (type) {
+            case "char":
+            case "int8":
+                return PcuDataType.CHAR;
+            case "uchar":
+            case "uint8":
+                return PcuDataType.UCHAR;
+            case "int":
+            case "int32":
+                return PcuDataType.INT;
+            case "uint":
+            case "uint32":
+                return PcuDataType.UINT;
+            case "short":
+            case "int16":
+                return PcuDataType.SHORT;
+            case "ushort":
+            case "uint16":
+                return PcuDataType.USHORT;
+            case "float":
+            case "float32":
+                return PcuDataType.FLOAT;
+            case "double":
+            case "float64":
+                return PcuDataType.DOUBLE;
+        }
+        throw new IOException("Cannot parse type: " + type);
+    }
+
+    @SuppressWarnings("SpellCheckingInspection")
+    static Pair<String, PlyPropertyType> parseProperty(String line) throws IOException {
+        String[] propertySlices = line.split("(\\s)+");
+        String propertyName = propertySlices[propertySlices.length - 1];
+        PlyPropertyType propertyType;
+        if (propertySlices[1].equals("list")) {
+            if (propertySlices.length < 5) throw new IOException("Too less properties for list type: " + propertyName);
+            final PcuDataType sizeType = parseType(propertySlices[2]);
+            final PcuDataType dataType = parseType(propertySlices[3]);
+            propertyType = new PlyPropertyType.PlyListType() {
+                @Override
+                public PcuDataType sizeType() {
+                    return sizeType;
+                }
+
+                @Override
+                public PcuDataType dataType() {
+                    return dataType;
+                }
+            };
+        } else {
+            if (propertySlices.length < 3) throw new IOException("Too less properties for scalar type: " + propertyName);
+            final PcuDataType type = parseType(propertySlices[1]);
+            propertyType = new PlyPropertyType.PlyScalarType() {
+                @Override
+                public PcuDataType dataType() {
+                    return type;
+                }
+            };
+        }
+
+        return new Pair<>(propertyName, propertyType);
+    }
+
+    private static void readPlyFormat(String line, PlyHeader header) throws IOException {
+        if (!line.startsWith("format ")) {
+            throw new IOException("Invalid ply file: No format information");
+        }
+        String[] formatSlices = line.split(" ");
+        if (formatSlices.length == 3) {
+            switch (formatSlices[1]) {
+                case "ascii":
+                    header.setFormat(PlyFormat.ASCII);
+                    break;
+                case "binary_little_endian":
+                    header.setFormat(PlyFormat.BINARY_LITTLE_ENDIAN);
+                    break;
+                case "binary_big_endian":
+                    header.setFormat(PlyFormat.BINARY_BIG_ENDIAN);
+                    break;
+            }
+            header.setVersion(Float.valueOf(formatSlices[2]));
+        } else {
+            throw new IOException("Invalid ply file: Wrong format ply in line");
+        }
+    }
+
+    private interface RowDecoder {
+
+        /** decode the next row into values and lists **/
+        void readRow() throws IOException;
+
+        /** decode the next row into the columns of element **/
+        void readRow(PlyElement element, int row) throws IOException;
+
+        void skipRows(int rows) throws IOException;
+
+    }
+
+    /**
+     * @return the next value in the line of an ascii file, as the column of the data type stores it
+     */
+    static double nextAsciiValue(AsciiTokenizer tokenizer, PcuDataType type) throws IOException {
+        if (! tokenizer.hasNext()) throw new IllegalStateException("Less properties than expected.");
+        if (type == PcuDataType.FLOAT) return tokenizer.nextFloat();
+        return PlyColumn.narrow(type, tokenizer.nextDouble());
+    }
+
+    static int nextAsciiListSize(AsciiTokenizer tokenizer, PcuDataType type) throws IOException {
+        int listSize = (int) nextAsciiValue(tokenizer, type);
+        if (listSize < 0) throw new IllegalStateException("Negative list size: " + listSize);
+        return listSize;
+    }
+
+    /**
+     * move over the value of a property that is not read, the list values too for a list property
+     * @param listType the type of list size, null for a scalar property
+     */
+    static void skipAsciiProperty(AsciiTokenizer tokenizer, PcuDataType listType) throws IOException {
+        int count = listType == null ? 1 : nextAsciiListSize(tokenizer, listType);
+        for (int j = 0; j < count; j ++) {
+            if (! tokenizer.hasNext()) throw new IllegalStateException("Less properties than expected.");
+            tokenizer.skipToken();
+        }
+    }
+
+    private class AsciiDecoder implements RowDecoder {
+
+        /** the bytes after the header are handed over to the tokenizer **/
+        private final AsciiTokenizer tokenizer = new AsciiTokenizer(channel, buffer);
+
+        private void nextLine() throws IOException {
+            if (! tokenizer.nextLine()) throw new IOException("no enough data");
+        }
+
+        private double nextValue(PcuDataType type) throws IOException {
+            return nextAsciiValue(tokenizer, type);
+        }
+
+        private int nextListSize(PcuDataType type) throws IOException {
+            return nextAsciiListSize(tokenizer, type);
+        }
+
+        @Override
+        public void readRow() throws IOException {
+            nextLine();
+            for (int i = 0; i < values.length; i ++) {
+                if (listTypes[i] == null) {
+                    values[i] = nextValue(types[i]);
+                    continue;
+                }
+                int listSize = nextListSize(types[i]);
+                values[i] = listSize;
+                double[] list = new double[listSize];
+                for (int j = 0; j < listSize; j ++) list[j] = nextValue(listTypes[i]);
+                lists[i] = list;
+            }
+        }
+
+        @Override
+        public void readRow(PlyElement element, int row) throws IOException {
+            nextLine();
+            // the values after the last column are left in the line
+            for (int i = 0; i < element.columnsEnd; i ++) {
+                PlyColumn column = element.columns[i];
+                if (column == null) {
+                    skipAsciiProperty(tokenizer, listTypes[i] == null ? null : types[i]);
+                    continue;
+                }
+                if (listTypes[i] == null) {
+                    column.set(row, nextValue(types[i]));
+                    continue;
+                }
+                int listSize = nextListSize(types[i]);
+                int start = element.appendList(i, row, listSize);
+                for (int j = 0; j < listSize; j ++) column.set(start + j, nextValue(listTypes[i]));
+            }
+        }
+
+        @Override
+        public void skipRows(int rows) throws IOException {
+            for (int i = 0; i < rows; i ++) nextLine();
+        }
+    }
+
+    private class BinaryDecoder implements RowDecoder {
+
+        @Override
+        public void readRow() throws IOException {
+            if (! fill(rowBytes)) throw new IOException("no enough data");
+            for (int i = 0; i < values.length; i ++) {
+                if (listTypes[i] == null) {
+                    // the bytes of scalar properties are guaranteed by fill(rowBytes)
+                    values[i] = nextDouble(types[i]);
+                    continue;
+                }
+                if (! fill(types[i].size())) throw new IOException("no enough data");
+                long listSize = (long) nextDouble(types[i]);
+                long listBytes = listSize * listTypes[i].size();
+                if (listSize < 0 || listBytes > Integer.MAX_VALUE - 8 || ! fill((int) listBytes)) throw new IOException("no enough data");
+                values[i] = listSize;
+                double[] list = new double[(int) listSize];
+                for (int j = 0; j < listSize; j ++) list[j] = nextDouble(listTypes[i]);
+                lists[i] = list;
+                // the following properties
+                if (! fill(tailBytes[i])) throw new IOException("no enough data");
+            }
+        }
+
+        @Override
+        public void readRow(PlyElement element, int row) throws IOException {
+            if (! fill(rowBytes)) throw new IOException("no enough data");
+            for (int i = 0; i < values.length; i ++) {
+                PlyColumn column = element.columns[i];
+                if (column == null) {
+                    skipProperty(i);
+                    continue;
+                }
+                if (listTypes[i] == null) {
+                    column.read(buffer, row);
+                    continue;
+                }
+                if (! fill(types[i].size())) throw new IOException("no enough data");
+                long listSize = (long) nextDouble(types[i]);
+                long listBytes = listSize * listTypes[i].size();
+                if (listSize < 0 || listBytes > Integer.MAX_VALUE - 8 || ! fill((int) listBytes)) throw new IOException("no enough data");
+                int start = element.appendList(i, row, (int) listSize);
+                for (int j = 0; j < listSize; j ++) column.read(buffer, start + j);
+                if (! fill(tailBytes[i])) throw new IOException("no enough data");
+            }
+        }
+
+        /**
+         * move over the value of property i in the current row, the bytes of scalar
+         * properties must have been filled
+         */
+        private void skipProperty(int i) throws IOException {
+            if (listTypes[i] == null) {
+                buffer.position(buffer.position() + types[i].size());
+                return;
+            }
+            if (! fill(types[i].size())) throw new IOException("no enough data");
+            long listSize = (long) nextDouble(types[i]);
+            long listBytes = listSize * listTypes[i].size() + tailBytes[i];
+            if (listSize < 0 || listBytes > Integer.MAX_VALUE - 8 || ! fill((int) listBytes)) throw new IOException("no enough data");
+            buffer.position(buffer.position() + (int) (listBytes - tailBytes[i]));
+        }
+
+        @Override
+        public void skipRows(int rows) throws IOException {
+            if (hasList) {
+                // only the list sizes are decoded to find the next row
+                for (int row = 0; row < rows; row ++) {
+                    if (! fill(rowBytes)) throw new IOException("no enough data");
+                    for (int i = 0; i < values.length; i ++) skipProperty(i);
+                }
+                return;
+            }
+            long bytes = (long) rows * rowBytes;
+            if (bytes <= buffer.remaining()) {
+                buffer.position(buffer.position() + (int) bytes);
+                return;
+            }
+            // seek over the rows that are not buffered
+            long target = channel.position() + bytes - buffer.remaining();
+            if (target > channel.size()) throw new IOException("no enough data");
+            channel.position(target);
+            buffer.clear();
+            buffer.flip();
+        }
+
+        private double nextDouble(PcuDataType type) {
+            switch (type) {
+                case CHAR:
+                    return buffer.get();
+                case UCHAR:
+                    return buffer.get() & 0xFF;
+                case SHORT:
+                    return buffer.getShort();
+                case USHORT:
+                    return buffer.getShort() & 0xFFFF;
+                case INT:
+                    return buffer.getInt();
+                case UINT:
+                    return buffer.getInt() & 0xFFFFFFFFL;
+                case FLOAT:
+                    return buffer.getFloat();
+                case DOUBLE:
+                    return buffer.getDouble();
+            }
+            return 0;
+        }
+    }
+
+}
@@ -2,17 +2,27 @@ package cn.jimmiez.pcu.io.ply;
 
 import cn.jimmiez.pcu.Constants;
 import cn.jimmiez.pcu.io.BinaryWriter;
+import cn.jimmiez.pcu.util.AnnotatedGetter;
 import cn.jimmiez.pcu.util.Pair;
 import cn.jimmiez.pcu.util.PcuReflectUtil;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.*;
 
 public class PlyWriter {
 
+    /** the getters decorated with {@link WriteScalarToPly} or {@link WriteListToPly}, grouped by element once per class **/
+    private static final ClassValue<Map<String, List<PlyGetterBinding>>> ELEMENT_GETTERS = new ClassValue<Map<String, List<PlyGetterBinding>>>() {
+        @Override
+        protected Map<String, List<PlyGetterBinding>> computeValue(Class<?> type) {
+            return findPropertiesGetters(type);
+        }
+    };
+
     public int write(Object object, File file) {
         int result = Constants.ERR_CODE_NO_ERROR;
         try {
@@ -20,38 +30,25 @@ public class PlyWriter {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             result = Constants.ERR_CODE_METHOD_NO_LIST;
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
         }
         return result;
     }
 
 
-    private void writeWithObject(Object object, File file) throws InvocationTargetException, IllegalAccessException {
-        List<Method> allMethods = PcuReflectUtil.fetchAllMethods(object);
+    private void writeWithObject(Object object, File file) throws InvocationTargetException {
         PlyWriterRequest request = new PlyWriterRequest();
         request.format(PlyFormat.ASCII);
         request.comment("written by PointCloudUtil.");
-        final Map<String, List<Method>> getters = findPropertiesGetters(allMethods);
+        final Map<String, List<PlyGetterBinding>> getters = ELEMENT_GETTERS.get(object.getClass());
         for (String key : getters.keySet()) {
             request.defineElement(key);
-            for (Method m : getters.get(key)) {
-                if (hasWriteScalarToPly(m)) {
-                    WriteScalarToPly scalarToPly = m.getAnnotation(WriteScalarToPly.class);
-                    if (scalarToPly.properties().length < 1) continue;
-                    List data = (List) m.invoke(object);
-                    String[] propertyNames = scalarToPly.properties();
-                    PcuDataType type = scalarToPly.type();
-                    request.defineScalarProperties(propertyNames, type, data);
-                }
-                if (hasWriteListToPly(m)) {
-                    WriteListToPly listToPly = m.getAnnotation(WriteListToPly.class);
-                    List data = (List) m.invoke(object);
-                    PcuDataType sizeType = listToPly.sizeType();
-                    PcuDataType valType = listToPly.valType();
-                    request.defineListProperty(listToPly.property(), sizeType, valType, data);
+            for (PlyGetterBinding binding : getters.get(key)) {
+                List data = (List) binding.getter.invoke(object);
+                if (binding.isList) {
+                    request.defineListProperty(binding.properties[0], binding.sizeType, binding.valType, data);
+                } else {
+                    request.defineScalarProperties(binding.properties, binding.valType, data);
                 }
-
             }
         }
 
@@ -59,34 +56,24 @@ public class PlyWriter {
         request.okay();
     }
 
-    private boolean hasWriteScalarToPly(Method m) {
-        return m.getAnnotation(WriteScalarToPly.class) != null;
-    }
-
-    private boolean hasWriteListToPly(Method m) {
-        return m.getAnnotation(WriteListToPly.class) != null;
-    }
-
     /**
-     * @param allMethods all methods of user-defined object
+     * @param clazz the class of user-defined object
      * @return element name map to getters
      */
-    private Map<String, List<Method>> findPropertiesGetters(List<Method> allMethods) {
-        Map<String, List<Method>> map = new HashMap<>();
-        for (Method m : allMethods) {
-            if (hasWriteScalarToPly(m) ) {
-                WriteScalarToPly ply = m.getAnnotation(WriteScalarToPly.class);
-                if (map.get(ply.element()) == null) map.put(ply.element(), new ArrayList<Method>());
-                map.get(ply.element()).add(m);
-            }
+    private static Map<String, List<PlyGetterBinding>> findPropertiesGetters(Class<?> clazz) {
+        Map<String, List<PlyGetterBinding>> map = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (AnnotatedGetter<WriteScalarToPly> getter : PcuReflectUtil.fetchAnnotatedGetters(clazz, WriteScalarToPly.class, lookup)) {
+            WriteScalarToPly ply = getter.getAnnotation();
+            if (map.get(ply.element()) == null) map.put(ply.element(), new ArrayList<PlyGetterBinding>());
+            if (ply.properties().length < 1) continue;
+            map.get(ply.element()).add(new PlyGetterBinding(getter, false, ply.properties(), null, ply.type()));
         }
         // by default, scalar properties is prior to list properties.
-        for (Method m : allMethods) {
-            if (hasWriteListToPly(m) ) {
-                WriteListToPly ply = m.getAnnotation(WriteListToPly.class);
-                if (map.get(ply.element()) == null) map.put(ply.element(), new ArrayList<Method>());
-                map.get(ply.element()).add(m);
-            }
+        for (AnnotatedGetter<WriteListToPly> getter : PcuReflectUtil.fetchAnnotatedGetters(clazz, WriteListToPly.class, lookup)) {
+            WriteListToPly ply = getter.getAnnotation();
+            if (map.get(ply.element()) == null) map.put(ply.element(), new ArrayList<PlyGetterBinding>());
+            map.get(ply.element()).add(new PlyGetterBinding(getter, true, new String[] {ply.property()}, ply.sizeType(), ply.valType()));
         }
         return map;
     }
@@ -177,251 +164,30 @@ public class PlyWriter {
     }
 
     private void writeAsciiPlyImpl(StringBuffer header, PlyWriterRequest pq) throws FileNotFoundException {
-        File file = pq.file;
-        PrintStream ps = new PrintStream(new FileOutputStream(file));
-        ps.print(header.toString());
-        for (PlyHeader.PlyElementHeader element : pq.elements) {
-            Map<String, List> dataMap = pq.elementData.get(element.elementName);
-            if (element.properties.size() < 1) continue;
-
-            for (int i = 0; i < element.number; i ++) {
-                int cnt = 0;
-                List partOfData = null;
-                for (Pair<String, PlyPropertyType> pair : element.properties) {
-                    String propertyName = pair.getKey();
-
-                    if (partOfData == null || dataMap.get(propertyName) != partOfData) {
-                        partOfData = dataMap.get(propertyName); cnt = 0;
-                    }
-
-                    if (pair.getValue() instanceof PlyPropertyType.PlyListType) {
-                        PlyPropertyType.PlyListType listType = (PlyPropertyType.PlyListType) pair.getValue();
-                        PcuDataType type = listType.dataType();
-                        printAsciiList(partOfData.get(i), ps, type);
-                        continue;
-                    }
-                    PlyPropertyType.PlyScalarType scalarType = (PlyPropertyType.PlyScalarType) pair.getValue();
-                    PcuDataType type = scalarType.dataType();
-
-                    switch (type) {
-                        case CHAR:
-                        case UCHAR: {
-                            byte[] partOfRow = (byte[]) partOfData.get(i);
-                            ps.print(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case SHORT:
-                        case USHORT: {
-                            short[] partOfRow = (short[]) partOfData.get(i);
-                            ps.print(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case INT:
-                        case UINT: {
-                            int[] partOfRow = (int[]) partOfData.get(i);
-                            ps.print(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case FLOAT: {
-                            float[] partOfRow = (float[]) partOfData.get(i);
-                            ps.print(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case DOUBLE: {
-                            double[] partOfRow = (double []) partOfData.get(i);
-                            ps.print(partOfRow[cnt ++]);
-                            break;
-                        }
-                    }
-                    ps.print(' ');
+        try (PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(pq.file), 1 << 16))) {
+            ps.print(header.toString());
+            for (PlyHeader.PlyElementHeader element : pq.elements) {
+                PlyPropertyEncoder[] encoders = pq.rowEncoder(element);
+                if (encoders.length < 1) continue;
+                for (int i = 0; i < element.number; i ++) {
+                    for (PlyPropertyEncoder encoder : encoders) encoder.writeAscii(ps, i);
+                    ps.print('\n');
                 }
-                ps.print('\n');
             }
         }
-        ps.close();
-    }
-
-    private void printAsciiList(Object o, PrintStream ps, PcuDataType valType) {
-        switch (valType) {
-            case CHAR:
-            case UCHAR:
-                byte[] ba = (byte[]) o;
-                ps.print(ba.length);
-                ps.print(' ');
-                for (byte b : ba) {
-                    ps.print(b);
-                    ps.print(' ');
-                }
-                break;
-            case SHORT:
-            case USHORT:
-                short[] sa = (short[]) o;
-                ps.print(sa.length);
-                ps.print(' ');
-                for (short s : sa) {
-                    ps.print(s);
-                    ps.print(' ');
-                }
-                break;
-            case INT:
-            case UINT:
-                int[] ia = (int[]) o;
-                ps.print(ia.length);
-                ps.print(' ');
-                for (int i : ia) {
-                    ps.print(i);
-                    ps.print(' ');
-                }
-                break;
-            case FLOAT:
-                float[] fa = (float[]) o;
-                ps.print(fa.length);
-                ps.print(' ');
-                for (float f : fa) {
-                    ps.print(f);
-                    ps.print(' ');
-                }
-                break;
-            case DOUBLE:
-                double[] da = (double[]) o;
-                ps.print(da.length);
-                ps.print(' ');
-                for (double d : da) {
-                    ps.print(d);
-                    ps.print(' ');
-                }
-                break;
-        }
     }
 
     private void writeBinaryPlyImpl(StringBuffer buffer, PlyWriterRequest pq, ByteOrder order) throws IOException {
-        BinaryWriter writer = new BinaryWriter(pq.file, order);
-
-        writer.writeString(buffer.toString());
-        for (PlyHeader.PlyElementHeader element : pq.elements) {
-            Map<String, List> dataMap = pq.elementData.get(element.elementName);
-            if (element.properties.size() < 1) continue;
-            //int dataSize = dataMap.get(element.properties.get(0).getKey()).size();
-            for (int i = 0; i < element.number; i ++) {
-                int cnt = 0;
-                List partOfData = null;
-                for (Pair<String, PlyPropertyType> pair : element.properties) {
-                    String propertyName = pair.getKey();
-                    if (partOfData == null || dataMap.get(propertyName) != partOfData) {
-                        partOfData = dataMap.get(propertyName); cnt = 0;
-                    }
-                    if (pair.getValue() instanceof PlyPropertyType.PlyListType) {
-                        PlyPropertyType.PlyListType listType = (PlyPropertyType.PlyListType) pair.getValue();
-                        PcuDataType sizeType = listType.sizeType();
-                        PcuDataType valType = listType.dataType();
-                        writeBinaryList(partOfData.get(i), writer, valType, sizeType);
-                        continue;
-                    }
-                    PlyPropertyType.PlyScalarType scalarType = (PlyPropertyType.PlyScalarType) pair.getValue();
-                    PcuDataType type = scalarType.dataType();
-
-                    switch (type) {
-                        case CHAR:
-                        case UCHAR: {
-                            byte[] partOfRow = (byte[]) partOfData.get(i);
-                            writer.writeByte(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case SHORT:
-                        case USHORT: {
-                            short[] partOfRow = (short[]) partOfData.get(i);
-                            writer.writeShort(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case INT:
-                        case UINT: {
-                            int[] partOfRow = (int[]) partOfData.get(i);
-                            writer.writeInt(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case FLOAT: {
-                            float[] partOfRow = (float []) partOfData.get(i);
-                            writer.writeFloat(partOfRow[cnt ++]);
-                            break;
-                        }
-                        case DOUBLE: {
-                            double[] partOfRow = (double []) partOfData.get(i);
-                            writer.writeDouble(partOfRow[cnt ++]);
-                            break;
-                        }
-                    }
+        try (BinaryWriter writer = new BinaryWriter(pq.file, order)) {
+            writer.writeString(buffer.toString());
+            for (PlyHeader.PlyElementHeader element : pq.elements) {
+                PlyPropertyEncoder[] encoders = pq.rowEncoder(element);
+                if (encoders.length < 1) continue;
+                for (int i = 0; i < element.number; i ++) {
+                    for (PlyPropertyEncoder encoder : encoders) encoder.writeBinary(writer, i);
                 }
             }
         }
-        writer.close();
-    }
-
-    private void writeListSize(int len, BinaryWriter writer, PcuDataType sizeType) throws IOException {
-        switch (sizeType) {
-            case CHAR:
-            case UCHAR:
-                writer.writeByte((byte) len);
-                break;
-            case SHORT:
-            case USHORT:
-                writer.writeShort((short) len);
-                break;
-            case INT:
-            case UINT:
-                writer.writeInt(len);
-                break;
-            case FLOAT:
-                writer.writeFloat(len);
-                break;
-            case DOUBLE:
-                writer.writeDouble(len);
-                break;
-        }
-
-    }
-
-    private void writeBinaryList(Object o, BinaryWriter writer, PcuDataType valType, PcuDataType sizeType) throws IOException {
-        switch (valType) {
-            case CHAR:
-            case UCHAR:
-                byte[] ba = (byte[]) o;
-                writeListSize(ba.length, writer, sizeType);
-                for (byte b : ba) {
-                    writer.writeByte(b);
-                }
-                break;
-            case SHORT:
-            case USHORT:
-                short[] sa = (short[]) o;
-                writeListSize(sa.length, writer, sizeType);
-                for (short s : sa) {
-                    writer.writeShort(s);
-                }
-                break;
-            case INT:
-            case UINT:
-                int[] ia = (int[]) o;
-                writeListSize(ia.length, writer, sizeType);
-                for (int i : ia) {
-                    writer.writeInt(i);
-                }
-                break;
-            case FLOAT:
-                float[] fa = (float[]) o;
-                writeListSize(fa.length, writer, sizeType);
-                for (float f : fa) {
-                    writer.writeFloat(f);
-                }
-                break;
-            case DOUBLE:
-                double[] da = (double[]) o;
-                writeListSize(da.length, writer, sizeType);
-                for (double d : da) {
-                    writer.writeDouble(d);
-                }
-                break;
-        }
-
     }
 
     public PlyWriterRequest prepare() {
@@ -436,18 +202,15 @@ public class PlyWriter {
         List<PlyHeader.PlyElementHeader> elements = new ArrayList<>();
 
         /**
-         * {
-         *     elementName1: {
-         *         propertyName1: data1,
-         *         propertyName2: data2,
-         *     },
-         *     elementName2: {
-         *         propertyName3: data3
-         *     },
-         * }
-         * values in List is java array
+         * the encoders of the properties of each element, in the order of properties,
+         * an encoder may write several properties
          */
-        Map<String, Map<String, List>> elementData = new HashMap<>();
+        Map<String, List<PlyPropertyEncoder>> elementEncoders = new HashMap<>();
+
+        /** the rows of the last defined properties and the position after their values in a row **/
+        private List previousRows = null;
+
+        private int previousEnd = 0;
 
         /** FORMAT_ASCII, FORMAT_BINARY_BIG_ENDIAN, FORMAT_BINARY_LITTLE_ENDIAN **/
         PlyFormat format = PlyFormat.ASCII;
@@ -467,16 +230,20 @@ public class PlyWriter {
             PlyHeader.PlyElementHeader element = new PlyHeader.PlyElementHeader();
             element.elementName = elementName;
             elements.add(element);
-            elementData.put(elementName, new HashMap<String, List>());
+            elementEncoders.put(elementName, new ArrayList<PlyPropertyEncoder>());
+            previousRows = null;
             return this;
         }
 
-        public PlyWriterRequest defineScalarProperties(String[] propertyNames, final PcuDataType valType, List data) {
+        /**
+         * add the properties to the last defined element, and check the number of rows
+         */
+        private void addScalarProperties(String[] propertyNames, final PcuDataType valType, PlyPropertyEncoder encoder) {
             if (elements.size() < 1) {
                 throw new IllegalStateException("defineElement() must be called before defineScalarProperties()");
             }
             PlyHeader.PlyElementHeader element = elements.get(elements.size() - 1);
-            int dataSize = data.size();
+            int dataSize = encoder.rows();
             if (element.number != 0 && element.number != dataSize) {
                 throw new IllegalArgumentException("After defining element " + element.elementName + ", you give two list with different sizes.");
             } else {
@@ -489,8 +256,84 @@ public class PlyWriter {
                         return valType;
                     }
                 }));
-                elementData.get(element.elementName).put(propertyName, data);
             }
+            elementEncoders.get(element.elementName).add(encoder);
+            previousRows = null;
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file
+         * @param data the rows, each of which is an array of valType holding the values of properties, e.g. a float[] for float
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, final PcuDataType valType, List data) {
+            // the properties defined with the same rows as the last ones take the next values of rows
+            int first = data == previousRows ? previousEnd : 0;
+            addScalarProperties(propertyNames, valType, PlyPropertyEncoder.ofRows(data, valType, first, propertyNames.length));
+            previousRows = data;
+            previousEnd = first + propertyNames.length;
+            return this;
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not float
+         * @param data the values of all rows, e.g. {x0, y0, z0, x1, y1, z1, ...}
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, float[] data) {
+            return defineScalarProperties(propertyNames, valType, data, 0, propertyNames.length);
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not float
+         * @param data the interleaved values, property j of row i is data[offset + i * stride + j]
+         * @param offset the position of the first value
+         * @param stride the distance between the first values of two rows, e.g. 6 for {x, y, z, nx, ny, nz}
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, float[] data, int offset, int stride) {
+            addScalarProperties(propertyNames, valType, PlyPropertyEncoder.ofFloats(data, offset, stride, valType, propertyNames.length));
+            return this;
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not double
+         * @param data the values of all rows, e.g. {x0, y0, z0, x1, y1, z1, ...}
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, double[] data) {
+            return defineScalarProperties(propertyNames, valType, data, 0, propertyNames.length);
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not double
+         * @param data the interleaved values, property j of row i is data[offset + i * stride + j]
+         * @param offset the position of the first value
+         * @param stride the distance between the first values of two rows
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, double[] data, int offset, int stride) {
+            addScalarProperties(propertyNames, valType, PlyPropertyEncoder.ofDoubles(data, offset, stride, valType, propertyNames.length));
+            return this;
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not float
+         * @param data the values between position and limit, which are not changed by writing
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, FloatBuffer data) {
+            return defineScalarProperties(propertyNames, valType, data, propertyNames.length);
+        }
+
+        /**
+         * @param propertyNames the names of properties
+         * @param valType the data type of properties in file, the values are converted if it is not float
+         * @param data the interleaved values, property j of row i is data.get(data.position() + i * stride + j)
+         * @param stride the distance between the first values of two rows
+         */
+        public PlyWriterRequest defineScalarProperties(String[] propertyNames, PcuDataType valType, FloatBuffer data, int stride) {
+            addScalarProperties(propertyNames, valType, PlyPropertyEncoder.ofFloatBuffer(data, stride, valType, propertyNames.length));
             return this;
         }
 
@@ -517,7 +360,8 @@ public class PlyWriter {
                 }
             }));
 //            element.listTypes.put(propertyName, new PlyPropertyType[]{sizeType, valType});
-            elementData.get(element.elementName).put(propertyName, data);
+            elementEncoders.get(element.elementName).add(PlyPropertyEncoder.ofLists(data, sizeType, valType));
+            previousRows = null;
             return this;
         }
 
@@ -559,17 +403,52 @@ public class PlyWriter {
         }
 
         private void checkData() {
-            for (Map<String, List> m : elementData.values()) {
-                if (m.size() < 1) continue;
-                int dataSize = 0;
-                for (List l : m.values()) {
-                    if (dataSize == 0) dataSize = l.size();
-                    if (l.size() != dataSize) {
+            for (PlyHeader.PlyElementHeader element : elements) {
+                List<PlyPropertyEncoder> encoders = elementEncoders.get(element.elementName);
+                if (encoders.size() < 1) continue;
+                // the lists may be changed after they are defined
+                int dataSize = encoders.get(0).rows();
+                for (PlyPropertyEncoder encoder : encoders) {
+                    if (encoder.rows() != dataSize) {
                         throw new IllegalStateException("Data lists for one PlyElement should have same size.");
                     }
                 }
+                element.number = dataSize;
             }
         }
+
+        /**
+         * @return the encoders that write a row of element
+         */
+        PlyPropertyEncoder[] rowEncoder(PlyHeader.PlyElementHeader element) {
+            List<PlyPropertyEncoder> encoders = elementEncoders.get(element.elementName);
+            return encoders.toArray(new PlyPropertyEncoder[encoders.size()]);
+        }
     }
-}
 
+    /**
+     * a getter decorated with {@link WriteScalarToPly} or {@link WriteListToPly}, with the values of its annotation
+     */
+    private static class PlyGetterBinding {
+
+        final AnnotatedGetter<?> getter;
+
+        final boolean isList;
+
+        /** the scalar properties, or the only list property **/
+        final String[] properties;
+
+        /** null for the scalar properties **/
+        final PcuDataType sizeType;
+
+        final PcuDataType valType;
+
+        PlyGetterBinding(AnnotatedGetter<?> getter, boolean isList, String[] properties, PcuDataType sizeType, PcuDataType valType) {
+            this.getter = getter;
+            this.isList = isList;
+            this.properties = properties;
+            this.sizeType = sizeType;
+            this.valType = valType;
+        }
+    }
+}
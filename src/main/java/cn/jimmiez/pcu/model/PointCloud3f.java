@@ -1,6 +1,7 @@
 package cn.jimmiez.pcu.model;
 
 import cn.jimmiez.pcu.io.off.ReadFromOff;
+import cn.jimmiez.pcu.io.pcd.ReadFromPcd;
 import cn.jimmiez.pcu.io.ply.ReadFromPly;
 
 import java.util.ArrayList;
@@ -18,6 +19,7 @@ public class PointCloud3f {
     }
 
     @ReadFromOff
+    @ReadFromPcd
     @ReadFromPly(
             properties = {"x", "y", "z"},
             element = "vertex"
@@ -0,0 +1,56 @@
+package cn.jimmiez.pcu.util;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * A getter of user-defined class decorated with an annotation, e.g. {@code ReadFromPly}.
+ * The getter is bound to a method handle once, so calling it does not look up the method
+ * or check the access again, see {@link PcuReflectUtil#fetchAnnotatedGetters}.
+ * @param <A> the type of annotation
+ */
+public final class AnnotatedGetter<A extends Annotation> {
+
+    private final Method method;
+
+    private final A annotation;
+
+    /** (Object)Object **/
+    private final MethodHandle handle;
+
+    AnnotatedGetter(Method method, A annotation, MethodHandle handle) {
+        this.method = method;
+        this.annotation = annotation;
+        // a static getter ignores the object, as Method.invoke does
+        if (Modifier.isStatic(method.getModifiers())) handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        this.handle = handle.asType(MethodType.methodType(Object.class, Object.class));
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public A getAnnotation() {
+        return annotation;
+    }
+
+    /**
+     * call the getter on an object
+     * @param object an instance of the class declaring the getter
+     * @return the value returned by the getter
+     * @throws InvocationTargetException if the getter throws, like {@link Method#invoke}
+     */
+    public Object invoke(Object object) throws InvocationTargetException {
+        try {
+            return (Object) handle.invokeExact(object);
+        } catch (Throwable throwable) {
+            throw new InvocationTargetException(throwable);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package cn.jimmiez.pcu.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the pool used by a class to run its work in parallel. The pool is either
+ * created by {@link #setParallelism(int)} and owned by the holder, or given by
+ * {@link #setForkJoinPool(ForkJoinPool)} and owned by the caller. An owned pool is
+ * shut down once it is replaced, a pool of the caller is never shut down.
+ */
+public class ForkJoinPoolHolder {
+
+    /** the work runs on current thread if it is null **/
+    private ForkJoinPool forkJoinPool = null;
+
+    /** true if the pool is created by setParallelism() **/
+    private boolean owned = false;
+
+    /**
+     * create a pool owned by the holder, the pool is kept if the parallelism is not changed
+     * @param parallelism the number of threads, 1 means running on current thread
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("The parallelism must be positive.");
+        if (owned && forkJoinPool.getParallelism() == parallelism) return;
+        replace(parallelism == 1 ? null : new ForkJoinPool(parallelism), parallelism > 1);
+    }
+
+    /**
+     * @param forkJoinPool the pool owned by the caller, null means running on current thread
+     */
+    public synchronized void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        replace(forkJoinPool, false);
+    }
+
+    public synchronized ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    private void replace(ForkJoinPool forkJoinPool, boolean owned) {
+        if (forkJoinPool == this.forkJoinPool) return;
+        if (this.owned) this.forkJoinPool.shutdown();
+        this.forkJoinPool = forkJoinPool;
+        this.owned = owned;
+    }
+
+}
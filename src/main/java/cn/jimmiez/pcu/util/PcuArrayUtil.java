@@ -1,7 +1,19 @@
 package cn.jimmiez.pcu.util;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class PcuArrayUtil {
 
+    /** the number of bits sorted by a pass of radix sort **/
+    private static final int RADIX_BITS = 11;
+
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /** the number of elements handled by a fork/join task of radix sort **/
+    private static final int RADIX_CHUNK_SIZE = 1 << 16;
+
     public static int find(String[] strs, String target) {
         for (int i = 0; i < strs.length; i ++){
             if (strs[i].equals(target)) {
@@ -23,4 +35,188 @@ public class PcuArrayUtil {
         }
     }
 
+    /**
+     * sort the range [from, to) of keys in ascending order, the elements of values
+     * are moved together with their keys
+     * @param keys the keys, e.g. the distances of neighbors
+     * @param values the values attached to keys, e.g. the indices of neighbors
+     * @param from the first position to be sorted, inclusive
+     * @param to the last position to be sorted, exclusive
+     */
+    public static void sort(double[] keys, int[] values, int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            double pivot = medianOfThree(keys[from], keys[middle], keys[to - 1]);
+            int left = from, right = to - 1;
+            while (left <= right) {
+                while (keys[left] < pivot) left += 1;
+                while (keys[right] > pivot) right -= 1;
+                if (left <= right) {
+                    swap(keys, values, left, right);
+                    left += 1;
+                    right -= 1;
+                }
+            }
+            // recurse into the smaller part to bound the depth of stack
+            if (right - from < to - left) {
+                sort(keys, values, from, right + 1);
+                from = left;
+            } else {
+                sort(keys, values, left, to);
+                to = right + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i ++) {
+            double key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j -= 1;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (a < b) {
+            if (b < c) return b;
+            return a < c ? c : a;
+        }
+        if (a < c) return a;
+        return b < c ? c : b;
+    }
+
+    private static void swap(double[] keys, int[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * sort non-negative keys in ascending order by least-significant-digit radix sort,
+     * the elements of values are moved together with their keys. The sort is stable,
+     * and its cost is linear in the number of keys.
+     * @param keys the keys, e.g. the Morton codes of points, must be non-negative
+     * @param values the values attached to keys, whose length equals the length of keys
+     * @param pool if not null, the array is divided into chunks, and the chunks are
+     *             counted and scattered in parallel in every pass
+     */
+    public static void radixSort(long[] keys, int[] values, ForkJoinPool pool) {
+        if (keys.length != values.length) throw new IllegalArgumentException("The lengths of keys and values are different.");
+        int n = keys.length;
+        long mask = 0;
+        for (long key : keys) {
+            if (key < 0) throw new IllegalArgumentException("The keys of radix sort must be non-negative.");
+            mask |= key;
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(mask);
+        int chunkCount = pool == null ? 1 : Math.max(1, (n + RADIX_CHUNK_SIZE - 1) / RADIX_CHUNK_SIZE);
+        int[][] counts = new int[chunkCount][RADIX];
+        long[] sourceKeys = keys, targetKeys = new long[n];
+        int[] sourceValues = values, targetValues = new int[n];
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            runRadixTask(new RadixTask(sourceKeys, sourceValues, targetKeys, targetValues, counts, shift, 0, chunkCount, false), pool);
+            // the elements with smaller digits go first, and then the elements in former chunks
+            int offset = 0;
+            for (int digit = 0; digit < RADIX; digit ++) {
+                for (int chunk = 0; chunk < chunkCount; chunk ++) {
+                    int count = counts[chunk][digit];
+                    counts[chunk][digit] = offset;
+                    offset += count;
+                }
+            }
+            runRadixTask(new RadixTask(sourceKeys, sourceValues, targetKeys, targetValues, counts, shift, 0, chunkCount, true), pool);
+            long[] tempKeys = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = tempKeys;
+            int[] tempValues = sourceValues;
+            sourceValues = targetValues;
+            targetValues = tempValues;
+        }
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, n);
+            System.arraycopy(sourceValues, 0, values, 0, n);
+        }
+    }
+
+    private static void runRadixTask(RadixTask task, ForkJoinPool pool) {
+        if (pool != null && task.chunkTo - task.chunkFrom > 1) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    /**
+     * Counts the digits of a range of chunks, or scatters the elements of the chunks
+     * to their positions in the target arrays, in a pass of radix sort.
+     */
+    private static class RadixTask extends RecursiveAction {
+
+        private final long[] sourceKeys;
+
+        private final int[] sourceValues;
+
+        private final long[] targetKeys;
+
+        private final int[] targetValues;
+
+        /** the number of digits in each chunk, or the next position of digits in each chunk if scatter **/
+        private final int[][] counts;
+
+        private final int shift;
+
+        private final int chunkFrom;
+
+        private final int chunkTo;
+
+        private final boolean scatter;
+
+        RadixTask(long[] sourceKeys, int[] sourceValues, long[] targetKeys, int[] targetValues,
+                  int[][] counts, int shift, int chunkFrom, int chunkTo, boolean scatter) {
+            this.sourceKeys = sourceKeys;
+            this.sourceValues = sourceValues;
+            this.targetKeys = targetKeys;
+            this.targetValues = targetValues;
+            this.counts = counts;
+            this.shift = shift;
+            this.chunkFrom = chunkFrom;
+            this.chunkTo = chunkTo;
+            this.scatter = scatter;
+        }
+
+        @Override
+        protected void compute() {
+            if (chunkTo - chunkFrom > 1) {
+                int middle = (chunkFrom + chunkTo) >>> 1;
+                invokeAll(new RadixTask(sourceKeys, sourceValues, targetKeys, targetValues, counts, shift, chunkFrom, middle, scatter),
+                        new RadixTask(sourceKeys, sourceValues, targetKeys, targetValues, counts, shift, middle, chunkTo, scatter));
+                return;
+            }
+            int n = sourceKeys.length;
+            int chunkCount = counts.length;
+            int from = (int) ((long) n * chunkFrom / chunkCount);
+            int to = (int) ((long) n * chunkTo / chunkCount);
+            int[] chunkCounts = counts[chunkFrom];
+            if (! scatter) {
+                Arrays.fill(chunkCounts, 0);
+                for (int i = from; i < to; i ++) {
+                    chunkCounts[(int) (sourceKeys[i] >>> shift) & (RADIX - 1)] += 1;
+                }
+                return;
+            }
+            for (int i = from; i < to; i ++) {
+                int target = chunkCounts[(int) (sourceKeys[i] >>> shift) & (RADIX - 1)] ++;
+                targetKeys[target] = sourceKeys[i];
+                targetValues[target] = sourceValues[i];
+            }
+        }
+    }
+
 }
@@ -1,5 +1,7 @@
 package cn.jimmiez.pcu.util;
 
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
@@ -32,4 +34,33 @@ public class PcuReflectUtil {
         return methodList;
     }
 
+    /**
+     * fetch the getters decorated with an annotation in a class and its super classes,
+     * and bind them to method handles. A getter is a method without parameters; the
+     * getters that cannot be accessed through the lookup are skipped with a warning.
+     * The readers and writers cache the result per class, so this is called once per class.
+     * @param clazz the user-defined class
+     * @param annotationClass the type of annotation
+     * @param lookup the lookup used to access the getters, it should be created by the caller
+     * @param <A> the type of annotation
+     * @return the annotated getters, in the order of {@link #fetchAllMethods(Object)}
+     */
+    public static <A extends Annotation> List<AnnotatedGetter<A>> fetchAnnotatedGetters(Class<?> clazz, Class<A> annotationClass, MethodHandles.Lookup lookup) {
+        List<AnnotatedGetter<A>> getters = new ArrayList<>();
+        Class tempClass = clazz;
+        while (tempClass != null) {
+            for (Method method : tempClass.getDeclaredMethods()) {
+                A annotation = method.getAnnotation(annotationClass);
+                if (annotation == null || method.getParameterTypes().length != 0) continue;
+                try {
+                    getters.add(new AnnotatedGetter<>(method, annotation, lookup.unreflect(method)));
+                } catch (IllegalAccessException e) {
+                    System.err.println("Cannot access the annotated method: " + method);
+                }
+            }
+            tempClass = tempClass.getSuperclass();
+        }
+        return getters;
+    }
+
 }
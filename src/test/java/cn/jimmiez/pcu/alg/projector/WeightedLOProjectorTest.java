@@ -1,5 +1,7 @@
 package cn.jimmiez.pcu.alg.projector;
 
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.Octree;
 import org.junit.Test;
 
 import javax.vecmath.Point3d;
@@ -60,4 +62,21 @@ public class WeightedLOProjectorTest {
         }
 
     }
+
+    @Test
+    public void testProjectWithUpdatedOctree() {
+        List<Point3d> originals = DataUtil.generateRandomData(3000, 0, 1, 0, 1, 0, 0.1);
+        List<Point3d> samples = DataUtil.generateRandomData(300, 0, 1, 0, 1, 0, 0.1);
+        List<Point3d> copies = new ArrayList<>();
+        for (Point3d sample : samples) copies.add(new Point3d(sample));
+
+        new WeightedLocallyOptimalProjector(originals).project(samples, 5);
+        // the sample octree is updated rather than rebuilt, the result shall be the same
+        WeightedLocallyOptimalProjector wlop = new WeightedLocallyOptimalProjector(originals);
+        wlop.setSampleIndex(new Octree());
+        wlop.project(copies, 5);
+        for (int i = 0; i < samples.size(); i ++) {
+            assertEquals(0, samples.get(i).distance(copies.get(i)), 1E-9);
+        }
+    }
 }
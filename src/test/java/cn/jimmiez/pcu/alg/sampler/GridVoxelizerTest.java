@@ -1,5 +1,7 @@
 package cn.jimmiez.pcu.alg.sampler;
 
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.KdTree;
 import org.junit.Test;
 
 import java.util.Random;
@@ -22,4 +24,15 @@ public class GridVoxelizerTest {
             assertEquals(zRow, cellCoordinates[2]);
         }
     }
+
+    @Test
+    public void testKeepApproximationErrorOfIndex() {
+        KdTree kdTree = new KdTree();
+        kdTree.setApproximationError(0.25);
+        GridVoxelizer voxelizer = new GridVoxelizer();
+        voxelizer.setSpatialIndex(kdTree);
+        voxelizer.setApproximationError(1);
+        assertFalse(voxelizer.voxelize(DataUtil.generateRandomData(2000, 0, 1, 0, 1, 0, 1)).isEmpty());
+        assertEquals(0.25, kdTree.getApproximationError(), 0);
+    }
 }
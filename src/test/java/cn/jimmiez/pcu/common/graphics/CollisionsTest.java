@@ -1,10 +1,12 @@
 package cn.jimmiez.pcu.common.graphics;
 
 import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
 import cn.jimmiez.pcu.common.graphics.shape.Sphere;
 import org.junit.Test;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 import static org.junit.Assert.*;
 
 public class CollisionsTest {
@@ -76,4 +78,38 @@ public class CollisionsTest {
 
     }
 
+    @Test
+    public void testBoxIntersectsBox() {
+        Box box = new Box(new Point3d(0, 0, 0), 3, 4, 5);
+        assertTrue(Collisions.intersect(box, new Box(new Point3d(1, 1, 1), 1, 1, 1)));
+        assertTrue(Collisions.intersect(box, new Box(new Point3d(5, 0, 0), 2, 1, 1)));
+        assertTrue(Collisions.intersect(box, new Box(new Point3d(0, 0, 0), 30, 40, 50)));
+        assertFalse(Collisions.intersect(box, new Box(new Point3d(5, 0, 0), 1.9, 1, 1)));
+        assertFalse(Collisions.intersect(box, new Box(new Point3d(0, 0, -7), 1, 1, 1)));
+        assertTrue(Collisions.intersect(box, 3, 4, 5, 6, 6, 6));
+        assertFalse(Collisions.intersect(box, 3.1, 0, 0, 6, 6, 6));
+    }
+
+    @Test
+    public void testBoxContainsBox() {
+        Box box = new Box(new Point3d(0, 0, 0), 3, 4, 5);
+        assertTrue(Collisions.contains(box, new Box(new Point3d(1, 1, 1), 1, 1, 1)));
+        assertTrue(Collisions.contains(box, box));
+        assertFalse(Collisions.contains(box, new Box(new Point3d(2.5, 0, 0), 1, 1, 1)));
+        assertFalse(Collisions.contains(new Box(new Point3d(1, 1, 1), 1, 1, 1), box));
+        assertTrue(Collisions.contains(box, 3, 4, 5, 3, 4, 5));
+        assertFalse(Collisions.contains(box, 3, 4, 5.1, 3, 4, 5.1));
+    }
+
+    @Test
+    public void testBoxAndPolytope() {
+        // the half-space x + y + z <= 3
+        ConvexPolytope polytope = new ConvexPolytope();
+        polytope.addPlane(new Vector3d(1, 1, 1), new Point3d(1, 1, 1));
+        assertTrue(Collisions.intersect(new Box(new Point3d(1, 1, 1), 1, 1, 1), polytope));
+        assertTrue(Collisions.intersect(new Box(new Point3d(2, 2, 2), 1, 1, 1), polytope));
+        assertFalse(Collisions.intersect(new Box(new Point3d(2, 2, 2), 0.9, 0.9, 0.9), polytope));
+        assertTrue(Collisions.contains(polytope, new Box(new Point3d(0, 0, 0), 1, 1, 1)));
+        assertFalse(Collisions.contains(polytope, new Box(new Point3d(1, 1, 1), 1, 1, 1)));
+    }
 }
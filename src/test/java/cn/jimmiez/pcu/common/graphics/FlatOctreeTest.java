@@ -0,0 +1,321 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.common.graphics.shape.ConvexPolytope;
+import cn.jimmiez.pcu.util.VectorUtil;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static cn.jimmiez.pcu.CommonAssertions.*;
+import static org.junit.Assert.*;
+
+public class FlatOctreeTest {
+
+    /**
+     * find the k nearest neighbors by brute force, return the distance of the k-th neighbor
+     */
+    private double kthDistance(List<Point3d> data, Point3d point, int k) {
+        List<Double> distances = new ArrayList<>();
+        for (Point3d p : data) {
+            if (! VectorUtil.validPoint(p)) continue;
+            double distance = p.distance(point);
+            if (distance == 0) continue;
+            distances.add(distance);
+        }
+        Collections.sort(distances);
+        return distances.get(k - 1);
+    }
+
+    private void assertKNearestNeighbors(List<Point3d> data, Point3d point, int k, int[] indices) {
+        assertEquals(k, indices.length);
+        Set<Integer> set = new HashSet<>();
+        double prevDistance = 0;
+        for (int index : indices) {
+            assertTrue("There should't be duplicate numbers", set.add(index));
+            assertTrue("A point's nearest neighbor shouldn't be it self.", data.get(index) != point);
+            double distance = data.get(index).distance(point);
+            assertLessEqualThan(prevDistance, distance);
+            prevDistance = distance;
+        }
+        assertEquals(kthDistance(data, point, k), prevDistance, 1E-10);
+    }
+
+    @Test
+    public void testSearchNearestNeighbors() {
+        Random random = new Random(System.currentTimeMillis());
+
+        // test small data
+        List<Point3d> smallData = DataUtil.generateRandomData(30, 0, 3, 3, 5, -3, -1);
+        FlatOctree smallOctree = new FlatOctree();
+        smallOctree.buildIndex(smallData);
+        for (int k = 1; k < smallData.size(); k ++) {
+            int pointIndex = random.nextInt(smallData.size());
+            assertKNearestNeighbors(smallData, smallData.get(pointIndex), k, smallOctree.searchNearestNeighbors(k, pointIndex));
+        }
+        try {
+            smallOctree.searchNearestNeighbors(smallData.size() + 1, 0);
+            fail("Should throw exception");
+        } catch (IllegalArgumentException e) {}
+
+        // test large data with small leaves, so the tree is deep
+        List<Point3d> data = DataUtil.generateRandomData(23131, 1, 11.5, -3, 2, 0, 1);
+        FlatOctree octree = new FlatOctree();
+        octree.setMaxPointsPerNode(15);
+        octree.buildIndex(data);
+        for (int i = 0; i < 50; i ++) {
+            int k = 1 + random.nextInt(200);
+            int pointIndex = random.nextInt(data.size());
+            assertKNearestNeighbors(data, data.get(pointIndex), k, octree.searchNearestNeighbors(k, pointIndex));
+        }
+
+        // test the points inside and outside the bounding box of data
+        BoundingBox box = BoundingBox.of(data);
+        for (int i = 0; i < 30; i ++) {
+            double scale = i < 15 ? 1.0 : 4.0;
+            double x = box.getCenter().x + box.getxExtent() * scale * (random.nextDouble() - 0.5);
+            double y = box.getCenter().y + box.getyExtent() * scale * (random.nextDouble() - 0.5);
+            double z = box.getCenter().z + box.getzExtent() * scale * (random.nextDouble() - 0.5);
+            Point3d p = new Point3d(x, y, z);
+            int k = 1 + random.nextInt(100);
+            assertKNearestNeighbors(data, p, k, octree.searchNearestNeighbors(k, p));
+        }
+
+        // test invalid arguments
+        assertEquals(0, octree.searchNearestNeighbors(0, 0).length);
+        try {
+            octree.searchNearestNeighbors(-1, 0);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+        try {
+            octree.searchNearestNeighbors(1, new Point3d(Double.NaN, Double.NaN, Double.NaN));
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+        try {
+            new FlatOctree().searchNearestNeighbors(1, 0);
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+
+        // test NaN in raw points
+        data = DataUtil.generateRandomData(7328, 1.5, 9.5, 1.5, 9.5, 1.5, 9.5);
+        for (int i = 0; i < 1000; i ++) {
+            data.set(random.nextInt(data.size()), new Point3d(Double.NaN, Double.NaN, Double.NaN));
+        }
+        octree = new FlatOctree();
+        octree.buildIndex(data);
+        for (int i = 0; i < 10; i ++) {
+            Point3d p = new Point3d(1.5 + random.nextDouble() * 8, 1.5 + random.nextDouble() * 8, 1.5 + random.nextDouble() * 8);
+            int k = 3 + random.nextInt(30);
+            assertKNearestNeighbors(data, p, k, octree.searchNearestNeighbors(k, p));
+        }
+    }
+
+    @Test
+    public void testSearchAllNeighborsWithinDistance() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(5127, 0.5, 11.5, 0.5, 11.5, 0.5, 11.5);
+        data.set(7, new Point3d(Double.NaN, 0, 0));
+        FlatOctree octree = new FlatOctree();
+        octree.setMaxPointsPerNode(20);
+        octree.buildIndex(data);
+
+        for (int i = 0; i < 50; i ++) {
+            int index = random.nextInt(data.size());
+            if (index == 7) continue;
+            Point3d point = data.get(index);
+            double radius = random.nextDouble() * 3;
+            List<Integer> neighbors = octree.searchAllNeighborsWithinDistance(index, radius);
+            assertTrue(neighbors.contains(index));
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && data.get(j).distance(point) < radius) expected.add(j);
+            }
+            assertEquals(expected, new HashSet<>(neighbors));
+            assertEquals(expected.size(), neighbors.size());
+            for (int j = 1; j < neighbors.size(); j ++) {
+                assertLessEqualThan(point.distance(data.get(neighbors.get(j - 1))), point.distance(data.get(neighbors.get(j))));
+            }
+        }
+
+        // a point far away from the data has no neighbor
+        assertEquals(0, octree.searchAllNeighborsWithinDistance(new Point3d(100, 100, 100), 1.0).size());
+    }
+
+    @Test
+    public void testSearchAllPointsInPolytope() throws IOException {
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(8000, -2, 2, -2, 2, -2, 2);
+        data.set(5, new Point3d(Double.NaN, 0, 0));
+        FlatOctree flatOctree = new FlatOctree();
+        flatOctree.setMaxPointsPerNode(20);
+        File file = File.createTempFile("octree", ".bin");
+        file.deleteOnExit();
+        flatOctree.buildIndex(data);
+        flatOctree.save(file);
+        SpatialIndex[] indices = {new Octree(), flatOctree, new LinearOctree(), new KdTree(), MappedOctree.open(file)};
+        for (SpatialIndex index : indices) {
+            if (index != flatOctree && ! (index instanceof MappedOctree)) index.buildIndex(data);
+        }
+        for (int i = 0; i < 20; i ++) {
+            Point3d eye = new Point3d(random.nextDouble() * 6 - 3, random.nextDouble() * 6 - 3, random.nextDouble() * 6 - 3);
+            Vector3d direction = new Vector3d(- eye.x, - eye.y, - eye.z + 0.1);
+            ConvexPolytope frustum = ConvexPolytope.frustum(eye, direction, new Vector3d(0, 0, 1),
+                    random.nextDouble() + 0.2, random.nextDouble() + 0.5, random.nextDouble(), random.nextDouble() * 5 + 1);
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && frustum.contains(data.get(j))) expected.add(j);
+            }
+            for (SpatialIndex index : indices) {
+                List<Integer> result = index.searchAllPointsInPolytope(frustum);
+                assertEquals(expected.size(), result.size());
+                assertEquals(expected, new HashSet<>(result));
+            }
+        }
+
+        // contained nodes are returned as ranges rather than point by point
+        Box box = new Box(new Point3d(0.5, 0, 0), 1.5, 2, 2);
+        IndexRanges ranges = flatOctree.searchRangesInBox(box);
+        assertTrue(ranges.rangeCount() * 10 < ranges.size());
+        assertEquals(ranges.size(), ranges.toArray().length);
+        List<Integer> list = ranges.toList();
+        Set<Integer> expected = new HashSet<>();
+        for (int j = 0; j < data.size(); j ++) {
+            if (VectorUtil.validPoint(data.get(j)) && box.contains(data.get(j), 0)) expected.add(j);
+        }
+        assertEquals(expected, new HashSet<>(list));
+        for (int r = 0, position = 0; r < ranges.rangeCount(); r ++) {
+            for (int p = ranges.start(r); p < ranges.end(r); p ++, position ++) {
+                assertEquals(list.get(position).intValue(), ranges.index(p));
+            }
+        }
+        assertEquals(expected, new HashSet<>(((KdTree) indices[3]).searchRangesInBox(box).toList()));
+    }
+
+    @Test
+    public void testSearchAllPointsInBox() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(6000, -2, 2, -2, 2, -2, 2);
+        data.set(3, new Point3d(Double.NaN, 0, 0));
+        FlatOctree octree = new FlatOctree();
+        octree.setMaxPointsPerNode(20);
+        octree.buildIndex(data);
+        for (int i = 0; i < 30; i ++) {
+            Point3d center = new Point3d(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2);
+            Box box = new Box(center, random.nextDouble(), random.nextDouble() * 2, random.nextDouble() * 0.5);
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && box.contains(data.get(j), 0)) expected.add(j);
+            }
+            List<Integer> result = octree.searchAllPointsInBox(box);
+            assertEquals(expected.size(), result.size());
+            assertEquals(expected, new HashSet<>(result));
+        }
+
+        // a box that contains all points
+        assertEquals(data.size() - 1, octree.searchAllPointsInBox(new Box(new Point3d(), 3, 3, 3)).size());
+        // a box far away from the data
+        assertEquals(0, octree.searchAllPointsInBox(new Box(new Point3d(10, 10, 10), 1, 1, 1)).size());
+    }
+
+    @Test
+    public void testSameNeighborsAsOctree() {
+        List<Point3d> data = DataUtil.generateRandomData(4000, -1, 1, -2, 2, -3, 3);
+        Octree octree = new Octree();
+        octree.buildIndex(data);
+        FlatOctree flatOctree = new FlatOctree();
+        flatOctree.buildIndex(data);
+        for (int i = 0; i < data.size(); i += 37) {
+            int[] expected = octree.searchNearestNeighbors(8, i);
+            int[] actual = flatOctree.searchNearestNeighbors(8, i);
+            assertEquals(expected.length, actual.length);
+            for (int j = 0; j < expected.length; j ++) {
+                assertEquals(data.get(i).distance(data.get(expected[j])), data.get(i).distance(data.get(actual[j])), 1E-10);
+            }
+            assertEquals(
+                    new HashSet<>(octree.searchAllNeighborsWithinDistance(i, 0.3)),
+                    new HashSet<>(flatOctree.searchAllNeighborsWithinDistance(i, 0.3)));
+        }
+    }
+
+    @Test
+    public void testParallelBuild() {
+        List<Point3d> data = DataUtil.generateRandomData(60000, -3, 3, -1, 1, 0, 10);
+        FlatOctree sequential = new FlatOctree();
+        sequential.setMaxPointsPerNode(30);
+        sequential.buildIndex(data);
+
+        FlatOctree parallel = new FlatOctree();
+        parallel.setMaxPointsPerNode(30);
+        parallel.setParallelism(4);
+        parallel.setParallelThreshold(500);
+        parallel.buildIndex(data);
+
+        assertArrayEquals(sequential.order, parallel.order);
+        assertArrayEquals(sequential.coordinates, parallel.coordinates, 0);
+        assertEquals(sequential.nodeCount, parallel.nodeCount);
+        for (int node = 0; node < sequential.nodeCount; node ++) {
+            assertEquals(sequential.nodeStart[node], parallel.nodeStart[node]);
+            assertEquals(sequential.nodeEnd[node], parallel.nodeEnd[node]);
+            assertEquals(sequential.nodeFirstChild[node], parallel.nodeFirstChild[node]);
+            assertEquals(sequential.nodeDepth[node], parallel.nodeDepth[node]);
+            assertEquals(sequential.nodeHalfLength[node], parallel.nodeHalfLength[node], 0);
+        }
+
+        ForkJoinPool pool = parallel.getForkJoinPool();
+        parallel.setParallelism(2);
+        assertTrue(pool.isShutdown());
+
+        try {
+            parallel.setParallelism(0);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testKnnAll() {
+        List<Point3d> data = DataUtil.generateRandomData(9000, 0, 2, 0, 2, 0, 2);
+        data.set(11, new Point3d(Double.NaN, 1, 1));
+        int k = 7;
+        for (int parallelism : new int[] {1, 3}) {
+            FlatOctree octree = new FlatOctree();
+            octree.setMaxPointsPerNode(25);
+            octree.setParallelism(parallelism);
+            octree.buildIndex(data);
+            double[] distances = new double[data.size() * k];
+            int[] neighbors = octree.knnAll(k, distances);
+            assertEquals(data.size() * k, neighbors.length);
+            for (int i = 0; i < data.size(); i ++) {
+                if (i == 11) {
+                    assertEquals(0, SpatialIndexes.neighborsOf(neighbors, k, i).length);
+                    assertTrue(Double.isInfinite(distances[i * k]));
+                    continue;
+                }
+                int[] expected = octree.searchNearestNeighbors(k, i);
+                for (int j = 0; j < k; j ++) {
+                    double distance = data.get(i).distance(data.get(neighbors[i * k + j]));
+                    assertEquals(data.get(i).distance(data.get(expected[j])), distance, 1E-10);
+                    assertEquals(distance, distances[i * k + j], 1E-10);
+                }
+            }
+
+            // search for a subset of points
+            int[] queries = new int[] {5, 11, 8999, 5};
+            int[] subset = octree.searchNearestNeighbors(k, queries, null);
+            assertEquals(queries.length * k, subset.length);
+            assertEquals(0, SpatialIndexes.neighborsOf(subset, k, 1).length);
+            assertArrayEquals(SpatialIndexes.neighborsOf(subset, k, 0), SpatialIndexes.neighborsOf(subset, k, 3));
+            assertArrayEquals(SpatialIndexes.neighborsOf(neighbors, k, 8999), SpatialIndexes.neighborsOf(subset, k, 2));
+        }
+
+        try {
+            new FlatOctree().knnAll(3);
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+    }
+}
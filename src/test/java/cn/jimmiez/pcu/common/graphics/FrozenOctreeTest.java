@@ -0,0 +1,163 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.alg.normal.HoppeEstimator;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jimmiez.pcu.CommonAssertions.*;
+import static org.junit.Assert.*;
+
+public class FrozenOctreeTest {
+
+    @Test
+    public void testSameResultsAsOctree() {
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(20000, 0, 10, 0, 5, 0, 1);
+        data.set(11, new Point3d(Double.NaN, 0, 0));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(30);
+        octree.buildIndex(data);
+        octree.remove(12);
+        FrozenOctree frozen = octree.freeze();
+        assertEquals(data.size(), frozen.getPointNumber());
+        assertSamePoint(data.get(3), frozen.getPoint(3));
+
+        int k = 8;
+        for (int i = 0; i < 50; i ++) {
+            Point3d point = new Point3d(random.nextDouble() * 12 - 1, random.nextDouble() * 6, random.nextDouble());
+            assertArrayEquals(octree.searchNearestNeighbors(k, point), frozen.searchNearestNeighbors(k, point));
+            int index = random.nextInt(data.size());
+            if (index == 11) continue;
+            assertArrayEquals(octree.searchNearestNeighbors(k, index), frozen.searchNearestNeighbors(k, index));
+            assertEquals(octree.searchAllNeighborsWithinDistance(index, 0.3), frozen.searchAllNeighborsWithinDistance(index, 0.3));
+            Box box = new Box(point, random.nextDouble() * 2, random.nextDouble(), random.nextDouble());
+            assertEquals(new HashSet<>(octree.searchAllPointsInBox(box)), new HashSet<>(frozen.searchAllPointsInBox(box)));
+        }
+        int[] neighbors = frozen.knnAll(k);
+        for (int j = 0; j < k; j ++) {
+            assertEquals(-1, neighbors[11 * k + j]);
+            assertEquals(-1, neighbors[12 * k + j]);
+        }
+        for (int j = 0; j < neighbors.length; j ++) assertNotEquals(12, neighbors[j]);
+
+        // the snapshot is not affected by the changes of octree and point cloud
+        int[] expected = frozen.searchNearestNeighbors(k, 100);
+        Point3d point = frozen.getPoint(100);
+        for (int i = 0; i < 1000; i ++) {
+            octree.update(random.nextInt(data.size()), new Point3d(random.nextDouble(), random.nextDouble(), random.nextDouble()));
+        }
+        octree.insert(new Point3d(point.x + 1E-6, point.y, point.z));
+        assertArrayEquals(expected, frozen.searchNearestNeighbors(k, 100));
+
+        try {
+            frozen.buildIndex(data);
+            fail("should throw exception");
+        } catch (UnsupportedOperationException e) {
+            // the point cloud is changed after freezing
+        }
+        frozen.setApproximationError(1);
+        assertEquals(1, frozen.getApproximationError(), 0);
+        try {
+            new Octree().freeze();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testSearchInAlgorithms() {
+        List<Point3d> data = DataUtil.generateRandomData(5000, 0, 10, 0, 5, 0, 1);
+        FlatOctree flatOctree = new FlatOctree();
+        Octree octree = new Octree();
+        octree.buildIndex(data);
+        octree.setApproximationError(0.5);
+        FrozenOctree frozen = octree.freeze();
+
+        // the algorithms build the index for the same points before searching
+        Neighborhoods expected = Neighborhoods.knn(data, 6, flatOctree);
+        assertEquals(0.5, frozen.getApproximationError(), 0);
+        frozen.setApproximationError(0);
+        Neighborhoods actual = Neighborhoods.knn(data, 6, frozen);
+        for (int i = 0; i < data.size(); i ++) assertArrayEquals(expected.neighborsOf(i), actual.neighborsOf(i));
+        expected = Neighborhoods.radius(data, 0.3, flatOctree);
+        actual = Neighborhoods.radius(data, 0.3, frozen);
+        for (int i = 0; i < data.size(); i ++) assertArrayEquals(expected.neighborsOf(i), actual.neighborsOf(i));
+
+        HoppeEstimator estimator = new HoppeEstimator();
+        List<Vector3d> normals = estimator.estimateNormals(data);
+        estimator.setSpatialIndex(frozen);
+        List<Vector3d> frozenNormals = estimator.estimateNormals(data);
+        for (int i = 0; i < data.size(); i ++) {
+            assertEquals(normals.get(i).x, frozenNormals.get(i).x, 1E-10);
+            assertEquals(normals.get(i).y, frozenNormals.get(i).y, 1E-10);
+            assertEquals(normals.get(i).z, frozenNormals.get(i).z, 1E-10);
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        final List<Point3d> data = DataUtil.generateRandomData(50000, 0, 1, 0, 1, 0, 1);
+        final Octree octree = new Octree();
+        octree.setMaxPointsPerNode(20);
+        octree.buildIndex(data);
+        final FrozenOctree frozen = octree.freeze();
+        final int k = 10;
+        final int queryNumber = 2000;
+        final int[] queries = new int[queryNumber];
+        final int[][] expectedNeighbors = new int[queryNumber][];
+        final List<List<Integer>> expectedRadius = new ArrayList<>();
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < queryNumber; i ++) {
+            queries[i] = random.nextInt(data.size());
+            expectedNeighbors[i] = frozen.searchNearestNeighbors(k, queries[i]);
+            expectedRadius.add(frozen.searchAllNeighborsWithinDistance(queries[i], 0.03));
+        }
+
+        int threadNumber = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threadNumber + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger mismatches = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadNumber; t ++) {
+            final long seed = random.nextLong();
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    NeighborBuffer buffer = new NeighborBuffer();
+                    start.await();
+                    for (int round = 0; round < 5000; round ++) {
+                        int i = random.nextInt(queryNumber);
+                        if (! Arrays.equals(expectedNeighbors[i], frozen.searchNearestNeighbors(k, queries[i]))) mismatches.incrementAndGet();
+                        buffer.clear();
+                        int count = frozen.searchAllNeighborsWithinDistance(queries[i], 0.03, buffer);
+                        if (! expectedRadius.get(i).equals(buffer.toList(0, count))) mismatches.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+        // the octree and the point cloud are modified while the snapshot is searched
+        futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Random random = new Random(1);
+                start.await();
+                for (int round = 0; round < 20000; round ++) {
+                    octree.update(random.nextInt(data.size()), new Point3d(random.nextDouble(), random.nextDouble(), random.nextDouble()));
+                }
+                return null;
+            }
+        }));
+        start.countDown();
+        for (Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -39,6 +39,17 @@ public class HoppeEstimatorTest {
         }
     }
 
+    @Test
+    public void testKeepApproximationErrorOfIndex() {
+        KdTree kdTree = new KdTree();
+        kdTree.setApproximationError(0.25);
+        HoppeEstimator estimator = new HoppeEstimator();
+        estimator.setSpatialIndex(kdTree);
+        estimator.setApproximationError(1);
+        assertEquals(1000, estimator.estimateNormals(generatePlaneData()).size());
+        assertEquals(0.25, kdTree.getApproximationError(), 0);
+    }
+
 
     private List<Point3d> generatePlaneData() {
         List<Point3d> data = new Vector<>();
@@ -0,0 +1,241 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import cn.jimmiez.pcu.util.VectorUtil;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static cn.jimmiez.pcu.CommonAssertions.*;
+import static org.junit.Assert.*;
+
+public class KdTreeTest {
+
+    /**
+     * find the k nearest neighbors by brute force, return the distance of the k-th neighbor
+     */
+    private double kthDistance(List<Point3d> data, Point3d point, int k) {
+        List<Double> distances = new ArrayList<>();
+        for (Point3d p : data) {
+            if (! VectorUtil.validPoint(p)) continue;
+            double distance = p.distance(point);
+            if (distance == 0) continue;
+            distances.add(distance);
+        }
+        Collections.sort(distances);
+        return distances.get(k - 1);
+    }
+
+    private void assertKNearestNeighbors(List<Point3d> data, Point3d point, int k, int[] indices) {
+        assertEquals(k, indices.length);
+        Set<Integer> set = new HashSet<>();
+        double prevDistance = 0;
+        for (int index : indices) {
+            assertTrue("There should't be duplicate numbers", set.add(index));
+            assertTrue("A point's nearest neighbor shouldn't be it self.", data.get(index) != point);
+            double distance = data.get(index).distance(point);
+            assertLessEqualThan(prevDistance, distance);
+            prevDistance = distance;
+        }
+        assertEquals(kthDistance(data, point, k), prevDistance, 1E-10);
+    }
+
+    @Test
+    public void testSearchNearestNeighbors() {
+        Random random = new Random(System.currentTimeMillis());
+
+        // test small data
+        List<Point3d> smallData = DataUtil.generateRandomData(30, 0, 3, 3, 5, -3, -1);
+        KdTree smallTree = new KdTree();
+        smallTree.buildIndex(smallData);
+        for (int k = 1; k < smallData.size(); k ++) {
+            int pointIndex = random.nextInt(smallData.size());
+            assertKNearestNeighbors(smallData, smallData.get(pointIndex), k, smallTree.searchNearestNeighbors(k, pointIndex));
+        }
+
+        // test an elongated point cloud, like a corridor
+        List<Point3d> data = DataUtil.generateRandomData(20000, 0, 1000, 0, 1, 0, 0.5);
+        KdTree tree = new KdTree();
+        tree.buildIndex(data);
+        for (int i = 0; i < 50; i ++) {
+            int k = 1 + random.nextInt(100);
+            int pointIndex = random.nextInt(data.size());
+            assertKNearestNeighbors(data, data.get(pointIndex), k, tree.searchNearestNeighbors(k, pointIndex));
+        }
+        for (int i = 0; i < 10; i ++) {
+            Point3d p = new Point3d(random.nextDouble() * 1200 - 100, random.nextDouble() * 3 - 1, random.nextDouble() * 3 - 1);
+            assertKNearestNeighbors(data, p, 10, tree.searchNearestNeighbors(10, p));
+        }
+
+        // test duplicate points and NaN in raw points
+        data = DataUtil.generateRandomData(3000, 1, 2, 1, 2, 1, 2);
+        for (int i = 0; i < 500; i ++) data.add(new Point3d(1.5, 1.5, 1.5));
+        for (int i = 0; i < 100; i ++) data.set(random.nextInt(data.size()), new Point3d(Double.NaN, Double.NaN, Double.NaN));
+        tree = new KdTree();
+        tree.buildIndex(data);
+        for (int i = 0; i < 10; i ++) {
+            Point3d p = new Point3d(1 + random.nextDouble(), 1 + random.nextDouble(), 1 + random.nextDouble());
+            assertKNearestNeighbors(data, p, 20, tree.searchNearestNeighbors(20, p));
+        }
+        assertKNearestNeighbors(data, new Point3d(1.5, 1.5, 1.5), 5, tree.searchNearestNeighbors(5, new Point3d(1.5, 1.5, 1.5)));
+
+        // test invalid arguments
+        assertEquals(0, tree.searchNearestNeighbors(0, 0).length);
+        try {
+            tree.searchNearestNeighbors(-1, 0);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+        try {
+            new KdTree().searchNearestNeighbors(1, 0);
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void testSearchAllNeighborsWithinDistance() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(5127, 0, 100, 0.5, 1.5, 0.5, 1.5);
+        data.set(7, new Point3d(Double.NaN, 0, 0));
+        KdTree tree = new KdTree();
+        tree.buildIndex(data);
+
+        for (int i = 0; i < 50; i ++) {
+            int index = random.nextInt(data.size());
+            if (index == 7) continue;
+            Point3d point = data.get(index);
+            double radius = random.nextDouble() * 3;
+            List<Integer> neighbors = tree.searchAllNeighborsWithinDistance(index, radius);
+            assertTrue(neighbors.contains(index));
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && data.get(j).distance(point) < radius) expected.add(j);
+            }
+            assertEquals(expected, new HashSet<>(neighbors));
+            assertEquals(expected.size(), neighbors.size());
+            for (int j = 1; j < neighbors.size(); j ++) {
+                assertLessEqualThan(point.distance(data.get(neighbors.get(j - 1))), point.distance(data.get(neighbors.get(j))));
+            }
+        }
+        assertEquals(0, tree.searchAllNeighborsWithinDistance(new Point3d(500, 100, 100), 1.0).size());
+    }
+
+    @Test
+    public void testSearchAllPointsInBox() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(6000, -2, 2, -20, 20, -2, 2);
+        data.set(3, new Point3d(Double.NaN, 0, 0));
+        KdTree tree = new KdTree();
+        tree.buildIndex(data);
+        for (int i = 0; i < 30; i ++) {
+            Point3d center = new Point3d(random.nextDouble() * 4 - 2, random.nextDouble() * 40 - 20, random.nextDouble() * 4 - 2);
+            Box box = new Box(center, random.nextDouble(), random.nextDouble() * 10, random.nextDouble() * 0.5);
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && box.contains(data.get(j), 0)) expected.add(j);
+            }
+            List<Integer> result = tree.searchAllPointsInBox(box);
+            assertEquals(expected.size(), result.size());
+            assertEquals(expected, new HashSet<>(result));
+        }
+        assertEquals(data.size() - 1, tree.searchAllPointsInBox(new Box(new Point3d(), 3, 30, 3)).size());
+    }
+
+    @Test
+    public void testKnnAll() {
+        List<Point3d> data = DataUtil.generateRandomData(9000, 0, 20, 0, 2, 0, 2);
+        data.set(11, new Point3d(Double.NaN, 1, 1));
+        int k = 7;
+        for (int parallelism : new int[] {1, 3}) {
+            KdTree tree = new KdTree();
+            tree.setParallelism(parallelism);
+            tree.buildIndex(data);
+            double[] distances = new double[data.size() * k];
+            int[] neighbors = tree.knnAll(k, distances);
+            for (int i = 0; i < data.size(); i ++) {
+                if (i == 11) {
+                    assertEquals(0, SpatialIndexes.neighborsOf(neighbors, k, i).length);
+                    continue;
+                }
+                int[] expected = tree.searchNearestNeighbors(k, i);
+                for (int j = 0; j < k; j ++) {
+                    double distance = data.get(i).distance(data.get(neighbors[i * k + j]));
+                    assertEquals(data.get(i).distance(data.get(expected[j])), distance, 1E-10);
+                    assertEquals(distance, distances[i * k + j], 1E-10);
+                }
+            }
+            int[] queries = new int[] {5, 11, 8999};
+            int[] subset = tree.searchNearestNeighbors(k, queries, null);
+            assertEquals(0, SpatialIndexes.neighborsOf(subset, k, 1).length);
+            assertArrayEquals(SpatialIndexes.neighborsOf(neighbors, k, 8999), SpatialIndexes.neighborsOf(subset, k, 2));
+
+            ForkJoinPool pool = tree.getForkJoinPool();
+            tree.setParallelism(1);
+            if (pool != null) assertTrue(pool.isShutdown());
+        }
+    }
+
+    @Test
+    public void testSameNeighborsAsOtherIndices() {
+        List<Point3d> data = DataUtil.generateRandomData(4000, -1, 1, -2, 2, -3, 3);
+        SpatialIndex[] indices = new SpatialIndex[] {new Octree(), new FlatOctree(), new KdTree()};
+        int k = 6;
+        double[][] distances = new double[indices.length][data.size() * k];
+        for (int i = 0; i < indices.length; i ++) {
+            indices[i].buildIndex(data);
+            indices[i].knnAll(k, distances[i]);
+        }
+        assertArrayEquals(distances[0], distances[1], 1E-10);
+        assertArrayEquals(distances[0], distances[2], 1E-10);
+        for (int i = 0; i < data.size(); i += 97) {
+            Set<Integer> expected = new HashSet<>(indices[0].searchAllNeighborsWithinDistance(i, 0.3));
+            assertEquals(expected, new HashSet<>(indices[1].searchAllNeighborsWithinDistance(i, 0.3)));
+            assertEquals(expected, new HashSet<>(indices[2].searchAllNeighborsWithinDistance(i, 0.3)));
+        }
+    }
+
+    @Test
+    public void testApproximateSearch() {
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(20000, 0, 1, 0, 1, 0, 1);
+        double epsilon = 0.5;
+        int k = 10;
+        for (SpatialIndex index : new SpatialIndex[] {new Octree(), new FlatOctree(), new LinearOctree(), new KdTree()}) {
+            try {
+                index.setApproximationError(-1);
+                fail("should throw exception");
+            } catch (IllegalArgumentException e) {}
+            index.buildIndex(data);
+            index.setApproximationError(epsilon);
+            assertEquals(epsilon, index.getApproximationError(), 0);
+            for (int i = 0; i < 30; i ++) {
+                Point3d point = new Point3d(random.nextDouble(), random.nextDouble(), random.nextDouble());
+                List<Double> expected = new ArrayList<>();
+                for (Point3d p : data) expected.add(p.distance(point));
+                Collections.sort(expected);
+                int[] neighbors = index.searchNearestNeighbors(k, point);
+                assertEquals(k, neighbors.length);
+                assertEquals(k, new HashSet<>(Arrays.asList(box(neighbors))).size());
+                double prevDistance = 0;
+                for (int j = 0; j < k; j ++) {
+                    double distance = data.get(neighbors[j]).distance(point);
+                    assertLessEqualThan(prevDistance, distance);
+                    assertLessEqualThan(distance, expected.get(j) * (1 + epsilon) + 1E-12);
+                    prevDistance = distance;
+                }
+            }
+            // the search is exact again
+            index.setApproximationError(0);
+            int[] neighbors = index.searchNearestNeighbors(k, 0);
+            assertKNearestNeighbors(data, data.get(0), k, neighbors);
+        }
+    }
+
+    private static Integer[] box(int[] array) {
+        Integer[] result = new Integer[array.length];
+        for (int i = 0; i < array.length; i ++) result[i] = array[i];
+        return result;
+    }
+}
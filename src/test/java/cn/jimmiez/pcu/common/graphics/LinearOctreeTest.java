@@ -0,0 +1,149 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LinearOctreeTest {
+
+    @Test
+    public void testSameNeighborsAsFlatOctree() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(8000, -1, 1, -2, 2, 0, 30);
+        for (int i = 0; i < 300; i ++) data.add(new Point3d(0.5, 0.5, 0.5));
+        data.set(17, new Point3d(Double.NaN, 0, 0));
+        FlatOctree flatOctree = new FlatOctree();
+        flatOctree.buildIndex(data);
+        LinearOctree octree = new LinearOctree();
+        octree.setMaxPointsPerNode(20);
+        octree.buildIndex(data);
+        int k = 9;
+        double[] expected = new double[data.size() * k];
+        double[] actual = new double[data.size() * k];
+        flatOctree.knnAll(k, expected);
+        octree.knnAll(k, actual);
+        assertArrayEquals(expected, actual, 1E-10);
+        for (int i = 0; i < 50; i ++) {
+            int index = random.nextInt(data.size());
+            if (index == 17) continue;
+            assertEquals(
+                    new HashSet<>(flatOctree.searchAllNeighborsWithinDistance(index, 1.1)),
+                    new HashSet<>(octree.searchAllNeighborsWithinDistance(index, 1.1)));
+            Box box = new Box(data.get(index), 0.5, 1, 2);
+            assertEquals(new HashSet<>(flatOctree.searchAllPointsInBox(box)), new HashSet<>(octree.searchAllPointsInBox(box)));
+        }
+
+        // the codes are sorted, and the points of a node share the code prefix of the node
+        for (int i = 1; i < octree.codes.length; i ++) assertTrue(octree.codes[i - 1] <= octree.codes[i]);
+        for (int node = 0; node < octree.nodeCount; node ++) {
+            int shift = 3 * (MortonCode.BITS - octree.nodeDepth[node]);
+            for (int i = octree.nodeStart[node]; i < octree.nodeEnd[node]; i ++) {
+                assertEquals(octree.nodeCodes[node], octree.codes[i] >>> shift);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBuild() {
+        List<Point3d> data = DataUtil.generateRandomData(300000, -3, 3, -1, 1, 0, 10);
+        LinearOctree sequential = new LinearOctree();
+        sequential.buildIndex(data);
+
+        LinearOctree parallel = new LinearOctree();
+        parallel.setParallelism(4);
+        parallel.setParallelThreshold(1000);
+        parallel.buildIndex(data);
+
+        assertArrayEquals(sequential.codes, parallel.codes);
+        assertArrayEquals(sequential.order, parallel.order);
+        assertEquals(sequential.nodeCount, parallel.nodeCount);
+        for (int node = 0; node < sequential.nodeCount; node ++) {
+            assertEquals(sequential.nodeStart[node], parallel.nodeStart[node]);
+            assertEquals(sequential.nodeEnd[node], parallel.nodeEnd[node]);
+            assertEquals(sequential.nodeFirstChild[node], parallel.nodeFirstChild[node]);
+        }
+
+        try {
+            sequential.setMaxDepth(22);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testLocateLeaf() {
+        List<Point3d> data = DataUtil.generateRandomData(5000, 0, 1, 0, 1, 0, 1);
+        LinearOctree octree = new LinearOctree();
+        octree.setMaxPointsPerNode(10);
+        octree.buildIndex(data);
+        for (int i = 0; i < data.size(); i += 7) {
+            int leaf = octree.locateLeaf(data.get(i));
+            assertTrue(octree.isLeaf(leaf));
+            boolean found = false;
+            for (int index : octree.pointsInNode(leaf)) found |= index == i;
+            assertTrue(found);
+        }
+        assertEquals(-1, octree.locateLeaf(new Point3d(5, 5, 5)));
+        assertEquals(-1, octree.locateLeaf(new Point3d(Double.NaN, 0, 0)));
+    }
+
+    /**
+     * the number of axes on which two cubes only touch, -1 if separated, 0 if overlapping
+     */
+    private int touchingAxes(LinearOctree octree, int a, int b) {
+        double[] ca = {octree.nodeCenterX[a], octree.nodeCenterY[a], octree.nodeCenterZ[a]};
+        double[] cb = {octree.nodeCenterX[b], octree.nodeCenterY[b], octree.nodeCenterZ[b]};
+        double sum = octree.nodeHalfLength[a] + octree.nodeHalfLength[b];
+        double eps = 1E-9;
+        int touching = 0;
+        for (int axis = 0; axis < 3; axis ++) {
+            double distance = Math.abs(ca[axis] - cb[axis]);
+            if (distance > sum + eps) return -1;
+            if (distance > sum - eps) touching += 1;
+        }
+        return touching;
+    }
+
+    @Test
+    public void testAdjacentNodes() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(3000, 0, 1, 0, 1, 0, 1);
+        data.addAll(DataUtil.generateRandomData(3000, 0, 0.2, 0, 0.2, 0, 0.2));
+        LinearOctree octree = new LinearOctree();
+        octree.setMaxPointsPerNode(15);
+        try {
+            octree.adjacentNodes(0, Adjacency.FACE);
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+        octree.buildIndex(data);
+        try {
+            octree.adjacentNodes(-1, Adjacency.FACE);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+
+        for (int i = 0; i < 40; i ++) {
+            int node = random.nextInt(octree.nodeCount);
+            Set<Integer> faceOrEdge = new HashSet<>(octree.adjacentNodes(node, Adjacency.EDGE));
+            for (int other : octree.adjacentNodes(node, Adjacency.VERTEX)) {
+                assertEquals(3, touchingAxes(octree, node, other));
+                assertTrue(faceOrEdge.add(other));
+            }
+            assertEquals(faceOrEdge, new HashSet<>(octree.adjacentNodes(node, Adjacency.TOUCHING)));
+            for (Adjacency adjacency : Adjacency.values()) {
+                Set<Integer> expected = new HashSet<>();
+                for (int other = 0; other < octree.nodeCount; other ++) {
+                    if (other == node || ! octree.isLeaf(other) || octree.nodeStart[other] == octree.nodeEnd[other]) continue;
+                    int touching = touchingAxes(octree, node, other);
+                    if (MortonCode.isAdjacent(touching, adjacency)) expected.add(other);
+                }
+                List<Integer> actual = octree.adjacentNodes(node, adjacency);
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected, new HashSet<>(actual));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static cn.jimmiez.pcu.CommonAssertions.*;
+import static org.junit.Assert.*;
+
+public class MappedOctreeTest {
+
+    private File saveOctree(FlatOctree octree) throws IOException {
+        File file = File.createTempFile("octree", ".bin");
+        file.deleteOnExit();
+        octree.save(file);
+        return file;
+    }
+
+    @Test
+    public void testSameResultsAsFlatOctree() throws IOException {
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(20000, 0, 10, 0, 5, 0, 1);
+        data.set(17, new Point3d(Double.NaN, 0, 0));
+        FlatOctree octree = new FlatOctree();
+        octree.setMaxPointsPerNode(30);
+        octree.buildIndex(data);
+        File file = saveOctree(octree);
+        // small chunks make the arrays span many mapped buffers
+        for (MappedOctree mapped : new MappedOctree[] {MappedOctree.open(file), MappedOctree.open(file, 10)}) {
+            assertEquals(data.size(), mapped.getPointNumber());
+            assertEquals(octree.getNodeCount(), mapped.getNodeCount());
+            assertSamePoint(data.get(3), mapped.getPoint(3));
+
+            int k = 8;
+            double[] expectedDistances = new double[data.size() * k];
+            double[] distances = new double[data.size() * k];
+            assertArrayEquals(octree.knnAll(k, expectedDistances), mapped.knnAll(k, distances));
+            assertArrayEquals(expectedDistances, distances, 0);
+            int[] queries = {0, 17, 19999};
+            assertArrayEquals(octree.searchNearestNeighbors(k, queries, null), mapped.searchNearestNeighbors(k, queries, null));
+
+            for (int i = 0; i < 20; i ++) {
+                Point3d point = new Point3d(random.nextDouble() * 12 - 1, random.nextDouble() * 6, random.nextDouble());
+                assertArrayEquals(octree.searchNearestNeighbors(k, point), mapped.searchNearestNeighbors(k, point));
+                int index = random.nextInt(data.size());
+                if (index == 17) continue;
+                assertArrayEquals(octree.searchNearestNeighbors(k, index), mapped.searchNearestNeighbors(k, index));
+                assertEquals(octree.searchAllNeighborsWithinDistance(index, 0.3), mapped.searchAllNeighborsWithinDistance(index, 0.3));
+                Box box = new Box(point, random.nextDouble() * 2, random.nextDouble(), random.nextDouble());
+                assertEquals(new HashSet<>(octree.searchAllPointsInBox(box)), new HashSet<>(mapped.searchAllPointsInBox(box)));
+            }
+
+            mapped.setParallelism(3);
+            assertArrayEquals(octree.knnAll(k), mapped.knnAll(k));
+            ForkJoinPool pool = mapped.getForkJoinPool();
+            mapped.setParallelism(1);
+            assertTrue(pool.isShutdown());
+        }
+    }
+
+    @Test
+    public void testInvalidFile() throws IOException {
+        File file = File.createTempFile("octree", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[100]);
+        }
+        try {
+            MappedOctree.open(file);
+            fail("should throw exception");
+        } catch (IOException e) {}
+
+        FlatOctree octree = new FlatOctree();
+        try {
+            octree.save(file);
+            fail("should throw exception");
+        } catch (IllegalStateException e) {}
+        octree.buildIndex(DataUtil.generateRandomData(100, 0, 1, 0, 1, 0, 1));
+        octree.save(file);
+        MappedOctree mapped = MappedOctree.open(file);
+        try {
+            mapped.buildIndex(new ArrayList<Point3d>());
+            fail("should throw exception");
+        } catch (UnsupportedOperationException e) {}
+    }
+
+    @Test
+    public void testSearchInAlgorithms() throws IOException {
+        List<Point3d> data = DataUtil.generateRandomData(5000, 0, 10, 0, 5, 0, 1);
+        data.set(3, new Point3d(Double.NaN, 0, 0));
+        FlatOctree octree = new FlatOctree();
+        octree.buildIndex(data);
+        MappedOctree mapped = MappedOctree.open(saveOctree(octree));
+
+        // the algorithms build the index for the same points before searching
+        Neighborhoods expected = Neighborhoods.knn(data, 6, new FlatOctree());
+        Neighborhoods actual = Neighborhoods.knn(data, 6, mapped);
+        for (int i = 0; i < data.size(); i ++) assertArrayEquals(expected.neighborsOf(i), actual.neighborsOf(i));
+
+        List<Point3d> moved = new ArrayList<>(data);
+        moved.set(10, new Point3d(20, 20, 20));
+        try {
+            mapped.buildIndex(moved);
+            fail("should throw exception");
+        } catch (UnsupportedOperationException e) {}
+    }
+}
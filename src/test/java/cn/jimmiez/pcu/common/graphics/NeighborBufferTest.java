@@ -0,0 +1,54 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NeighborBufferTest {
+
+    @Test
+    public void testSearchIntoBuffer() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(5000, 0, 10, 0, 10, 0, 10);
+        data.set(9, new Point3d(Double.NaN, 0, 0));
+        for (SpatialIndex index : new SpatialIndex[] {new Octree(), new FlatOctree(), new KdTree()}) {
+            index.buildIndex(data);
+            // a small buffer grows as needed, the neighborhoods are appended one after another
+            NeighborBuffer buffer = new NeighborBuffer(1);
+            int[] queries = new int[20];
+            int[] offsets = new int[queries.length + 1];
+            for (int i = 0; i < queries.length; i ++) {
+                queries[i] = random.nextInt(data.size());
+                if (queries[i] == 9) queries[i] = 0;
+                int count = index.searchAllNeighborsWithinDistance(queries[i], 1.5, buffer);
+                offsets[i + 1] = offsets[i] + count;
+                assertEquals(offsets[i + 1], buffer.size());
+            }
+            for (int i = 0; i < queries.length; i ++) {
+                Point3d query = data.get(queries[i]);
+                List<Integer> expected = index.searchAllNeighborsWithinDistance(queries[i], 1.5);
+                assertEquals(expected.size(), offsets[i + 1] - offsets[i]);
+                for (int j = offsets[i]; j < offsets[i + 1]; j ++) {
+                    assertEquals(query.distance(data.get(expected.get(j - offsets[i]))), buffer.distance(j), 1E-10);
+                    assertEquals(query.distance(data.get(buffer.index(j))), buffer.distance(j), 1E-10);
+                    if (j > offsets[i]) assertTrue(buffer.distance(j - 1) <= buffer.distance(j));
+                }
+                assertEquals(0, buffer.distance(offsets[i]), 0);
+            }
+
+            // reuse the buffer
+            buffer.clear();
+            assertEquals(0, buffer.size());
+            assertEquals(0, index.searchAllNeighborsWithinDistance(new Point3d(100, 100, 100), 1.5, buffer));
+            try {
+                buffer.index(0);
+                fail("should throw exception");
+            } catch (IndexOutOfBoundsException e) {}
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cn.jimmiez.pcu.common.graphics;
+
+import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.alg.normal.HoppeEstimator;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NeighborhoodCacheTest {
+
+    private void assertSameNeighborhoods(Neighborhoods expected, Neighborhoods actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i ++) {
+            assertArrayEquals(expected.neighborsOf(i), actual.neighborsOf(i));
+            for (int j = 0; j < expected.count(i); j ++) {
+                assertEquals(expected.distance(expected.offset(i) + j), actual.distance(actual.offset(i) + j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testKnn() {
+        List<Point3d> data = DataUtil.generateRandomData(3000, 0, 1, 0, 1, 0, 1);
+        data.set(7, new Point3d(Double.NaN, 0, 0));
+        NeighborhoodCache cache = new NeighborhoodCache();
+        FlatOctree octree = new FlatOctree();
+        Neighborhoods expected = Neighborhoods.knn(data, 10, new KdTree());
+        assertEquals(0, expected.count(7));
+        assertEquals(10, expected.count(8));
+
+        Neighborhoods neighborhoods = cache.knn(data, 10, octree);
+        assertSameNeighborhoods(expected, neighborhoods);
+        assertEquals(1, cache.getMissCount());
+        assertSame(neighborhoods, cache.knn(data, 10, octree));
+        assertEquals(1, cache.getHitCount());
+        // the nearest neighbors of a smaller k are taken from the cached ones
+        assertSameNeighborhoods(Neighborhoods.knn(data, 4, octree), cache.knn(data, 4, octree));
+        assertEquals(2, cache.size());
+        assertEquals(neighborhoods.memorySize() + cache.knn(data, 4, octree).memorySize(), cache.getUsedBytes());
+
+        // the same coordinates in another list are not the same point set
+        List<Point3d> copies = new ArrayList<>(data);
+        cache.knn(copies, 10, octree);
+        assertEquals(3, cache.getMissCount());
+        // the points are modified in place
+        data.get(3).x += 0.5;
+        Neighborhoods modified = cache.knn(data, 10, octree);
+        assertNotSame(neighborhoods, modified);
+        assertSameNeighborhoods(Neighborhoods.knn(data, 10, new KdTree()), modified);
+
+        // the approximate neighbors are cached separately
+        octree.setApproximationError(1);
+        assertNotSame(modified, cache.knn(data, 10, octree));
+
+        cache.invalidate(data);
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testRadiusAndEviction() {
+        List<Point3d> data1 = DataUtil.generateRandomData(2000, 0, 1, 0, 1, 0, 1);
+        List<Point3d> data2 = new ArrayList<>();
+        for (Point3d point : data1) data2.add(new Point3d(point.x + 1, point.y, point.z));
+        Neighborhoods expected = Neighborhoods.radius(data1, 0.1, new Octree());
+        Octree octree1 = new Octree();
+        octree1.buildIndex(data1);
+        for (int i = 0; i < data1.size(); i ++) {
+            List<Integer> neighbors = octree1.searchAllNeighborsWithinDistance(i, 0.1);
+            assertEquals(neighbors.size(), expected.count(i));
+            for (int j = 0; j < neighbors.size(); j ++) assertEquals(neighbors.get(j).intValue(), expected.index(expected.offset(i) + j));
+        }
+
+        // room for the neighborhoods of one point set only
+        NeighborhoodCache cache = new NeighborhoodCache(expected.memorySize() + 100);
+        FlatOctree octree = new FlatOctree();
+        assertSameNeighborhoods(expected, cache.radius(data1, 0.1, octree));
+        cache.radius(data1, 0.1, octree);
+        assertEquals(1, cache.getHitCount());
+        cache.radius(data2, 0.1, octree);
+        assertEquals(1, cache.size());
+        // data1 has been evicted
+        cache.radius(data1, 0.1, octree);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertTrue(cache.getUsedBytes() <= cache.getCapacity());
+
+        // the neighborhoods larger than the capacity are not cached
+        NeighborhoodCache small = new NeighborhoodCache(100);
+        small.radius(data1, 0.1, octree);
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    public void testSharedByAlgorithms() {
+        List<Point3d> data = DataUtil.generateRandomData(2000, 0, 1, 0, 1, 0, 0.05);
+        List<Vector3d> expected = new HoppeEstimator().estimateNormals(data);
+        NeighborhoodCache cache = new NeighborhoodCache();
+        for (int round = 0; round < 3; round ++) {
+            HoppeEstimator estimator = new HoppeEstimator();
+            estimator.setNeighborhoodCache(cache);
+            List<Vector3d> normals = estimator.estimateNormals(data);
+            for (int i = 0; i < data.size(); i ++) assertEquals(expected.get(i), normals.get(i));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+}
@@ -1,12 +1,15 @@
 package cn.jimmiez.pcu.common.graphics;
 
 import cn.jimmiez.pcu.DataUtil;
+import cn.jimmiez.pcu.common.graphics.shape.Box;
 import cn.jimmiez.pcu.util.PcuCommonUtil;
 import cn.jimmiez.pcu.util.VectorUtil;
 import org.junit.Test;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static cn.jimmiez.pcu.CommonAssertions.*;
 import static org.junit.Assert.*;
@@ -200,6 +203,32 @@ public class OctreeTest {
         }
     }
 
+    @Test
+    public void testSearchNearestNeighborsOutsideOctree() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = randomData(20000, 0, 1);
+        // coincident points
+        for (int i = 0; i < 30; i ++) data.add(new Point3d(0.5, 0.5, 0.5));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(10);
+        octree.buildIndex(data);
+        for (int i = 0; i < 30; i ++) {
+            double scale = 1 + random.nextDouble() * 100;
+            Point3d p = new Point3d(0.5 + scale * (random.nextDouble() - 0.5), 0.5 + scale * (random.nextDouble() - 0.5), 0.5 + scale);
+            int k = 1 + random.nextInt(60);
+            int[] neighbors = octree.searchNearestNeighbors(k, p);
+            assertEquals(k, neighbors.length);
+            assertKNearestNeighbors(data, p, neighbors);
+        }
+
+        // the coincident points are neighbors of each other, but not of the query at the same position
+        int[] neighbors = octree.searchNearestNeighbors(40, data.size() - 1);
+        assertEquals(40, neighbors.length);
+        for (int index : neighbors) assertTrue(data.get(index).distance(new Point3d(0.5, 0.5, 0.5)) > 0);
+        neighbors = octree.searchNearestNeighbors(20, new Point3d(0.5, 0.5, 0.50001));
+        for (int index : neighbors) assertTrue(index >= 20000);
+    }
+
     @Test
     public void testSearchAllNeighborsWithinDistance() {
         int dataSize = 3127;
@@ -276,6 +305,328 @@ public class OctreeTest {
     }
 
 
+    @Test
+    public void testParallelBuild() {
+        List<Point3d> data = randomData(60000, -3, 3);
+        Octree sequential = new Octree();
+        sequential.buildIndex(data);
+
+        Octree parallel = new Octree();
+        parallel.setParallelism(4);
+        parallel.setParallelThreshold(1000);
+        parallel.buildIndex(data);
+
+        assertEquals(sequential.octreeIndices.keySet(), parallel.octreeIndices.keySet());
+        for (Long index : sequential.octreeIndices.keySet()) {
+            Octree.OctreeNode node1 = sequential.octreeIndices.get(index);
+            Octree.OctreeNode node2 = parallel.octreeIndices.get(index);
+            assertEquals(node1.getIndices(), node2.getIndices());
+            assertEquals(node1.getDepth(), node2.getDepth());
+            assertSamePoint(node1.getCenter(), node2.getCenter());
+        }
+    }
+
+    @Test
+    public void testReplaceForkJoinPool() {
+        Octree octree = new Octree();
+        octree.setParallelism(2);
+        ForkJoinPool first = octree.getForkJoinPool();
+        octree.setParallelism(2);
+        assertSame(first, octree.getForkJoinPool());
+        octree.setParallelism(3);
+        assertTrue(first.isShutdown());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        octree.setForkJoinPool(pool);
+        octree.setParallelism(1);
+        assertNull(octree.getForkJoinPool());
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+
+        // the frozen octree keeps searching after the octree replaces its pool
+        List<Point3d> data = randomData(3000, -1, 1);
+        octree.setParallelism(2);
+        octree.buildIndex(data);
+        FrozenOctree frozen = octree.freeze();
+        int[] neighbors = frozen.knnAll(4);
+        octree.setParallelism(1);
+        assertArrayEquals(neighbors, frozen.knnAll(4));
+    }
+
+    /**
+     * check that every leaf is registered, has valid size, and contains exactly the active points
+     */
+    private void assertValidOctree(Octree octree, List<Point3d> data, Set<Integer> active) {
+        Set<Integer> indexed = new HashSet<>();
+        for (Octree.OctreeNode leaf : octree.octreeIndices.values()) {
+            assertTrue(leaf.isLeaf());
+            assertTrue(leaf.getIndices().size() > 0);
+            assertTrue(leaf.getIndices().size() <= octree.getMaxPointsPerNode() || leaf.getDepth() == octree.getMaxDepth());
+            for (int index : leaf.getIndices()) {
+                assertTrue("A point is in two leaves.", indexed.add(index));
+                assertTrue(leaf.contains(data.get(index), 1E-9));
+            }
+        }
+        assertEquals(active, indexed);
+    }
+
+    @Test
+    public void testInsertRemoveUpdate() {
+        // DataUtil seeds its generator by currentTimeMillis, so nanoTime is used to get different points
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(3000, 0, 10, 0, 10, 0, 10);
+        data.set(5, new Point3d(Double.NaN, 0, 0));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(16);
+        try {
+            octree.insert(new Point3d());
+            fail("Should throw exception");
+        } catch (IllegalStateException e) {}
+        octree.buildIndex(data);
+        Set<Integer> active = new HashSet<>(PcuCommonUtil.incrementalIntegerList(data.size()));
+        active.remove(5);
+        assertValidOctree(octree, data, active);
+
+        for (int round = 0; round < 5; round ++) {
+            for (int i = 0; i < 300; i ++) {
+                int index = random.nextInt(data.size());
+                Point3d moved = new Point3d(data.get(index));
+                if (! VectorUtil.validPoint(moved)) continue;
+                moved.x += random.nextGaussian() * 0.5;
+                moved.y += random.nextGaussian() * 0.5;
+                moved.z += random.nextGaussian() * 0.5;
+                // a point may move out of the root node
+                moved.clamp(-0.5, 10.5);
+                octree.update(index, moved);
+                assertSamePoint(moved, data.get(index));
+                active.add(index);
+            }
+            for (int i = 0; i < 200; i ++) {
+                int index = random.nextInt(data.size());
+                assertEquals(active.remove(index), octree.remove(index));
+            }
+            for (int i = 0; i < 200; i ++) {
+                Point3d point = new Point3d(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+                int index = octree.insert(point);
+                assertEquals(data.size() - 1, index);
+                assertSame(point, data.get(index));
+                active.add(index);
+            }
+            // move the points in place, as WeightedLocallyOptimalProjector does
+            for (int i = 0; i < 100; i ++) {
+                int index = random.nextInt(data.size());
+                Point3d point = data.get(index);
+                if (! VectorUtil.validPoint(point)) continue;
+                point.scale(0.9);
+                octree.update(index, point);
+                active.add(index);
+            }
+            assertValidOctree(octree, data, active);
+
+            for (int i = 0; i < 20; i ++) {
+                Point3d query = new Point3d(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+                Set<Integer> expected = new HashSet<>();
+                List<Double> distances = new ArrayList<>();
+                for (int index : active) {
+                    double distance = data.get(index).distance(query);
+                    if (distance < 1.0) expected.add(index);
+                    distances.add(distance);
+                }
+                assertEquals(expected, new HashSet<>(octree.searchAllNeighborsWithinDistance(query, 1.0)));
+                Collections.sort(distances);
+                int[] neighbors = octree.searchNearestNeighbors(8, query);
+                assertEquals(8, neighbors.length);
+                for (int j = 0; j < 8; j ++) {
+                    assertTrue(active.contains(neighbors[j]));
+                    assertEquals(distances.get(j), data.get(neighbors[j]).distance(query), 1E-10);
+                }
+            }
+        }
+
+        // removing all points merges the leaves into the root
+        for (int index : active) assertTrue(octree.remove(index));
+        assertTrue(octree.root.isLeaf());
+        assertEquals(0, octree.octreeIndices.size());
+        assertEquals(0, octree.searchAllNeighborsWithinDistance(new Point3d(5, 5, 5), 100).size());
+
+        // a point far away from the root node
+        int index = octree.insert(new Point3d(100, 100, 100));
+        assertEquals(1, octree.searchAllNeighborsWithinDistance(new Point3d(100, 100, 100.5), 1).size());
+        octree.update(3, new Point3d(99, 99, 99));
+        assertArrayEquals(new int[] {3}, octree.searchNearestNeighbors(1, index));
+    }
+
+    @Test
+    public void testAutoTuning() {
+        Random random = new Random(System.nanoTime());
+        // a sparse plane and a dense patch on it, the densities differ by 1000 times
+        List<Point3d> data = new ArrayList<>();
+        for (int i = 0; i < 20000; i ++) data.add(new Point3d(random.nextDouble() * 1000, random.nextDouble() * 1000, 0));
+        for (int i = 0; i < 20000; i ++) data.add(new Point3d(random.nextDouble() * 31.6, random.nextDouble() * 31.6, 0));
+        data.add(new Point3d(Double.NaN, 0, 0));
+        Octree octree = new Octree();
+        octree.setAutoTuning(true);
+        octree.buildIndex(data);
+        assertTrue(octree.isAutoTuning());
+        assertGreaterThan(octree.getMaxDepth(), Octree.MAX_DEPTH);
+        assertLessEqualThan(octree.getMaxPointsPerNode(), 256);
+        Set<Integer> active = new HashSet<>(PcuCommonUtil.incrementalIntegerList(data.size() - 1));
+        assertValidOctree(octree, data, active);
+        // the dense patch is split as finely as the sparse plane
+        for (Octree.OctreeNode leaf : octree.octreeIndices.values()) {
+            assertTrue(leaf.getIndices().size() <= octree.getMaxPointsPerNode());
+        }
+        for (int i = 0; i < 20; i ++) {
+            int index = random.nextInt(data.size() - 1);
+            assertKNearestNeighbors(data, data.get(index), octree.searchNearestNeighbors(10, index));
+        }
+
+        // the parameters are chosen again for other points
+        octree.buildIndex(randomData(1000, 0, 1));
+        assertLessEqualThan(octree.getMaxDepth(), Octree.MAX_DEPTH);
+        octree.setAutoTuning(false);
+        octree.setMaxDepth(4);
+        octree.setMaxPointsPerNode(10);
+        octree.buildIndex(data);
+        assertEquals(4, octree.getMaxDepth());
+        assertEquals(10, octree.getMaxPointsPerNode());
+        try {
+            octree.setMaxDepth(21);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    /**
+     * @return the parameter t of the point on the segment origin + t * direction (0 <= t <= max) nearest
+     * to the point, NaN if the distance between them is not less than radius
+     */
+    private double rayParameter(Point3d point, Point3d origin, Vector3d direction, double max, double radius) {
+        Vector3d op = new Vector3d();
+        op.sub(point, origin);
+        double t = Math.max(0, Math.min(max, op.dot(direction) / direction.lengthSquared()));
+        Point3d nearest = new Point3d();
+        nearest.scaleAdd(t, direction, origin);
+        return nearest.distance(point) < radius ? t : Double.NaN;
+    }
+
+    @Test
+    public void testCastRay() {
+        Random random = new Random(System.nanoTime());
+        List<Point3d> data = DataUtil.generateRandomData(5000, 0, 10, 0, 10, 0, 10);
+        data.set(3, new Point3d(Double.NaN, 0, 0));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(10);
+        octree.buildIndex(data);
+        double radius = 0.2;
+        for (int round = 0; round < 100; round ++) {
+            Point3d origin = new Point3d(random.nextDouble() * 14 - 2, random.nextDouble() * 14 - 2, random.nextDouble() * 14 - 2);
+            Point3d target = new Point3d(random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+            Vector3d direction = new Vector3d();
+            direction.sub(target, origin);
+
+            double first = Double.POSITIVE_INFINITY;
+            Map<Integer, Double> hits = new HashMap<>();
+            for (int i = 0; i < data.size(); i ++) {
+                if (! VectorUtil.validPoint(data.get(i))) continue;
+                double t = rayParameter(data.get(i), origin, direction, Double.POSITIVE_INFINITY, radius);
+                if (t < first) first = t;
+                double s = rayParameter(data.get(i), origin, direction, 1, radius);
+                if (! Double.isNaN(s)) hits.put(i, s);
+            }
+            int index = octree.castRay(origin, direction, radius);
+            if (Double.isInfinite(first)) {
+                assertEquals(-1, index);
+            } else {
+                assertEquals(first, rayParameter(data.get(index), origin, direction, Double.POSITIVE_INFINITY, radius), 1E-12);
+            }
+
+            List<Integer> result = octree.searchPointsAlongSegment(origin, target, radius);
+            assertEquals(hits.keySet(), new HashSet<>(result));
+            assertEquals(hits.size(), result.size());
+            for (int i = 1; i < result.size(); i ++) {
+                assertLessEqualThan(hits.get(result.get(i - 1)), hits.get(result.get(i)));
+            }
+        }
+        // a ray pointing away from the point cloud
+        assertEquals(-1, octree.castRay(new Point3d(-1, -1, -1), new Vector3d(-1, 0, 0), radius));
+        assertEquals(octree.searchAllNeighborsWithinDistance(data.get(0), radius), octree.searchPointsAlongSegment(data.get(0), data.get(0), radius));
+        try {
+            octree.castRay(new Point3d(), new Vector3d(), radius);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testSearchAllPointsInBox() {
+        Random random = new Random(System.currentTimeMillis());
+        List<Point3d> data = DataUtil.generateRandomData(6000, -2, 2, -2, 2, -2, 2);
+        data.set(3, new Point3d(Double.NaN, 0, 0));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(20);
+        octree.buildIndex(data);
+        for (int i = 0; i < 30; i ++) {
+            Point3d center = new Point3d(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2);
+            Box box = new Box(center, random.nextDouble(), random.nextDouble() * 2, random.nextDouble() * 0.5);
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < data.size(); j ++) {
+                if (VectorUtil.validPoint(data.get(j)) && box.contains(data.get(j), 0)) expected.add(j);
+            }
+            List<Integer> result = octree.searchAllPointsInBox(box);
+            assertEquals(expected.size(), result.size());
+            assertEquals(expected, new HashSet<>(result));
+        }
+
+        // a box that contains all points
+        assertEquals(data.size() - 1, octree.searchAllPointsInBox(new Box(new Point3d(), 3, 3, 3)).size());
+        // a box far away from the data
+        assertEquals(0, octree.searchAllPointsInBox(new Box(new Point3d(10, 10, 10), 1, 1, 1)).size());
+    }
+
+    @Test
+    public void testAdjacentLeaves() {
+        List<Point3d> data = DataUtil.generateRandomData(3000, 0, 1, 0, 1, 0, 1);
+        data.addAll(DataUtil.generateRandomData(2000, 0.5, 0.6, 0.5, 0.6, 0.5, 0.6));
+        Octree octree = new Octree();
+        octree.setMaxPointsPerNode(20);
+        try {
+            octree.adjacentNodes(0L, Adjacency.FACE);
+            fail("Should throw exception");
+        } catch (IllegalStateException e) {}
+        octree.buildIndex(data);
+        try {
+            octree.adjacentNodes(-1L, Adjacency.FACE);
+            fail("Should throw exception");
+        } catch (IllegalArgumentException e) {}
+
+        List<Long> leaves = new ArrayList<>(octree.octreeIndices.keySet());
+        Collections.shuffle(leaves);
+        for (Long leafIndex : leaves.subList(0, 30)) {
+            Octree.OctreeNode leaf = octree.octreeIndices.get(leafIndex);
+            for (Adjacency adjacency : Adjacency.values()) {
+                Set<Octree.OctreeNode> expected = new HashSet<>();
+                for (Octree.OctreeNode other : octree.octreeIndices.values()) {
+                    if (other == leaf) continue;
+                    // the number of axes on which the two cubes only touch
+                    double sum = leaf.getxExtent() + other.getxExtent();
+                    double[] distances = {
+                            Math.abs(leaf.getCenter().x - other.getCenter().x),
+                            Math.abs(leaf.getCenter().y - other.getCenter().y),
+                            Math.abs(leaf.getCenter().z - other.getCenter().z)};
+                    int touching = 0;
+                    boolean separated = false;
+                    for (double distance : distances) {
+                        if (distance > sum + 1E-9) separated = true;
+                        else if (distance > sum - 1E-9) touching += 1;
+                    }
+                    if (! separated && MortonCode.isAdjacent(touching, adjacency)) expected.add(other);
+                }
+                List<Octree.OctreeNode> actual = octree.adjacentNodes(leafIndex, adjacency);
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected, new HashSet<>(actual));
+            }
+        }
+    }
+
     @Test
     public void testAdjacentNodes() {
 //        Random random = new Random(System.currentTimeMillis());
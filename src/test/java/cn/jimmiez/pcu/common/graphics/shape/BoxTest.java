@@ -3,6 +3,7 @@ package cn.jimmiez.pcu.common.graphics.shape;
 import org.junit.Test;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 
 import static org.junit.Assert.*;
 
@@ -111,5 +112,34 @@ public class BoxTest {
         assertFalse(box.contains(p));
     }
 
+    @Test
+    public void testClipRay() {
+        Box box = new Box(new Point3d(1, 2, 3), 1, 1, 1);
+        double[] range = {0, Double.POSITIVE_INFINITY};
+        assertTrue(box.clipRay(new Point3d(-2, 2, 3), new Vector3d(2, 0, 0), 0, range));
+        assertArrayEquals(new double[] {1, 2}, range, 1E-12);
+        // the box enlarged by margin
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertTrue(box.clipRay(new Point3d(-2, 2, 3), new Vector3d(1, 0, 0), 0.5, range));
+        assertArrayEquals(new double[] {1.5, 4.5}, range, 1E-12);
+        // a segment that stops before the box
+        range = new double[] {0, 1.5};
+        assertFalse(box.clipRay(new Point3d(-2, 2, 3), new Vector3d(1, 0, 0), 0, range));
+        // the ray points away from the box
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertFalse(box.clipRay(new Point3d(-2, 2, 3), new Vector3d(-1, 0, 0), 0, range));
+        // parallel to a slab, outside and on the face
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertFalse(box.clipRay(new Point3d(-2, 3.5, 3), new Vector3d(1, 0, 0), 0, range));
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertTrue(box.clipRay(new Point3d(-2, 3, 3), new Vector3d(1, 0, 0), 0, range));
+        // the origin is inside
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertTrue(box.clipRay(new Point3d(1, 2, 3), new Vector3d(1, 1, 1), 0, range));
+        assertArrayEquals(new double[] {0, 1}, range, 1E-12);
+        // a diagonal ray passing a corner
+        range = new double[] {0, Double.POSITIVE_INFINITY};
+        assertFalse(box.clipRay(new Point3d(-1, 2, 3), new Vector3d(1, 1.6, 0), 0, range));
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package cn.jimmiez.pcu.common.graphics.shape;
+
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ConvexPolytopeTest {
+
+    @Test
+    public void testFrustum() {
+        // looking along +x, 90 degrees of vertical field of view, twice as wide as high
+        ConvexPolytope frustum = ConvexPolytope.frustum(new Point3d(0, 0, 0), new Vector3d(2, 0, 0), new Vector3d(0, 0, 1),
+                Math.PI / 2, 2, 1, 10);
+        assertEquals(6, frustum.getPlaneCount());
+        assertTrue(frustum.contains(new Point3d(5, 0, 0)));
+        assertTrue(frustum.contains(new Point3d(1, 0, 0)));
+        assertTrue(frustum.contains(new Point3d(10, 0, 0)));
+        assertFalse(frustum.contains(new Point3d(0.9, 0, 0)));
+        assertFalse(frustum.contains(new Point3d(10.1, 0, 0)));
+        assertFalse(frustum.contains(new Point3d(-5, 0, 0)));
+        // the half width is 2 * x and the half height is x
+        assertTrue(frustum.contains(new Point3d(5, 9.9, 0)));
+        assertFalse(frustum.contains(new Point3d(5, 10.1, 0)));
+        assertTrue(frustum.contains(new Point3d(5, -9.9, 4.9)));
+        assertFalse(frustum.contains(new Point3d(5, 0, -5.1)));
+
+        try {
+            ConvexPolytope.frustum(new Point3d(), new Vector3d(1, 0, 0), new Vector3d(2, 0, 0), 1, 1, 1, 2);
+            fail("should throw exceptions");
+        } catch (IllegalArgumentException e) {}
+        try {
+            ConvexPolytope.frustum(new Point3d(), new Vector3d(1, 0, 0), new Vector3d(0, 1, 0), 1, 1, 3, 2);
+            fail("should throw exceptions");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testBoxTests() {
+        Random random = new Random(System.currentTimeMillis());
+        ConvexPolytope frustum = ConvexPolytope.frustum(new Point3d(0, 0, 0), new Vector3d(1, 1, 1), new Vector3d(0, 0, 1),
+                Math.PI / 3, 1.5, 0.5, 5);
+        for (int i = 0; i < 1000; i ++) {
+            double x = random.nextDouble() * 8 - 2, y = random.nextDouble() * 8 - 2, z = random.nextDouble() * 8 - 2;
+            double size = random.nextDouble();
+            // sample the box on a grid
+            boolean anyInside = false, allInside = true;
+            for (int s = 0; s <= 4; s ++) {
+                for (int t = 0; t <= 4; t ++) {
+                    for (int u = 0; u <= 4; u ++) {
+                        boolean inside = frustum.contains(x + size * s / 4, y + size * t / 4, z + size * u / 4);
+                        anyInside |= inside;
+                        allInside &= inside;
+                    }
+                }
+            }
+            boolean contains = frustum.contains(x, y, z, x + size, y + size, z + size);
+            // the corners are sampled, so containing is exact
+            assertEquals(allInside, contains);
+            // intersecting is conservative
+            if (anyInside) assertTrue(frustum.intersects(x, y, z, x + size, y + size, z + size));
+        }
+
+        ConvexPolytope box = ConvexPolytope.of(new Box(new Point3d(1, 2, 3), 1, 1, 1));
+        assertTrue(box.contains(new Point3d(2, 3, 4)));
+        assertFalse(box.contains(new Point3d(2, 3, 4.01)));
+        assertTrue(box.contains(0.5, 1.5, 2.5, 1.5, 2.5, 3.5));
+        assertTrue(box.intersects(1.5, 2.5, 3.5, 5, 5, 5));
+        assertFalse(box.intersects(2.1, 2.5, 3.5, 5, 5, 5));
+        assertTrue(new ConvexPolytope().contains(new Point3d(1E10, 0, 0)));
+    }
+}
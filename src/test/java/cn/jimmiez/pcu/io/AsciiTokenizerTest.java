@@ -0,0 +1,114 @@
+package cn.jimmiez.pcu.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AsciiTokenizerTest {
+
+    private static void assertSameDouble(String text) {
+        byte[] bytes = text.getBytes();
+        double expected = Double.parseDouble(text);
+        double actual = AsciiTokenizer.parseDouble(bytes, 0, bytes.length);
+        assertEquals(text, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static void assertSameFloat(String text) {
+        byte[] bytes = text.getBytes();
+        float expected = Float.parseFloat(text);
+        float actual = AsciiTokenizer.parseFloat(bytes, 0, bytes.length);
+        assertEquals(text, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+
+    private static void assertSame(String text) {
+        assertSameDouble(text);
+        assertSameFloat(text);
+    }
+
+    @Test
+    public void testParseNumbers() {
+        String[] texts = {"0", "-0", "+1", "1.", ".5", "-.5e-3", "3.14159", "1e22", "1e23", "123456789012345678901234567890",
+                "0.000000000000000000000000000123456789", "1.7976931348623157e308", "1.8e308", "4.9e-324", "2.5e-324",
+                "1e-400", "3.4028235e38", "3.4028236e38", "1.4e-45", "1.17549435e-38", "0.108566828072071075",
+                "9007199254740993", "9007199254740992.5", "1.00000005960464477539062", "1.000000059604644775390625",
+                "1.000000059604644775390626", "2.2250738585072011e-308", "2.2250738585072012e-308", "NaN", "-Infinity",
+                "1.5f", "0x1p3", "00012.5000", "7e0000000000001"};
+        for (String text : texts) assertSame(text);
+
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 50000; i ++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+            assertSame(Double.toString(value));
+            assertSame(Float.toString((float) value));
+            assertSame(String.format("%.6g", random.nextDouble() * 100));
+            // 18 to 25 significant digits
+            StringBuilder builder = new StringBuilder(random.nextBoolean() ? "-" : "");
+            int length = 18 + random.nextInt(8);
+            for (int j = 0; j < length; j ++) builder.append((char) ('0' + random.nextInt(10)));
+            builder.insert(builder.length() - random.nextInt(length), '.');
+            builder.append('e').append(random.nextInt(80) - 40);
+            assertSame(builder.toString());
+        }
+
+        // half way between two floats
+        for (int i = 0; i < 10000; i ++) {
+            float value = Math.abs(random.nextFloat() * (float) Math.pow(10, random.nextInt(60) - 30));
+            double midpoint = ((double) value + (double) Math.nextUp(value)) / 2;
+            assertSameFloat(new java.math.BigDecimal(midpoint).toString());
+        }
+
+        byte[] bytes = "-2147483648 2147483648 12 1.5".getBytes();
+        assertEquals(Integer.MIN_VALUE, AsciiTokenizer.parseInt(bytes, 0, 11));
+        assertEquals(12, AsciiTokenizer.parseInt(bytes, 23, 25));
+        for (int[] range : new int[][] {{12, 22}, {26, 29}, {0, 1}}) {
+            try {
+                AsciiTokenizer.parseInt(bytes, range[0], range[1]);
+                fail();
+            } catch (NumberFormatException e) {
+                // not an int
+            }
+        }
+    }
+
+    @Test
+    public void testLinesAndTokens() throws IOException {
+        String text = "ply 1.5\r\n\n  # comment\t 2\n-3 4e1 five\n6";
+        // a buffer of 4 bytes, so the tokens cross the refilled buffers
+        for (AsciiTokenizer tokenizer : new AsciiTokenizer[] {
+                new AsciiTokenizer(text.getBytes(), 0, text.length()),
+                new AsciiTokenizer(Channels.newChannel(new ByteArrayInputStream(text.getBytes())), null, 4)}) {
+            assertTrue(tokenizer.nextLine());
+            assertEquals("ply", tokenizer.nextToken());
+            assertEquals(1.5, tokenizer.nextDouble(), 0);
+            assertFalse(tokenizer.hasNext());
+            try {
+                tokenizer.nextDouble();
+                fail();
+            } catch (NoSuchElementException e) {
+                // the end of line
+            }
+            assertTrue(tokenizer.nextLine());
+            assertFalse(tokenizer.hasNext());
+            assertTrue(tokenizer.nextLine());
+            assertEquals('#', tokenizer.peek());
+            assertTrue(tokenizer.nextLine());
+            assertEquals(-3, tokenizer.nextInt());
+            assertEquals(40f, tokenizer.nextFloat(), 0);
+            assertEquals("five", tokenizer.peekToken());
+            assertEquals("five", tokenizer.nextToken());
+            assertEquals(-1, tokenizer.peek());
+            assertTrue(tokenizer.nextLine());
+            assertEquals(6, tokenizer.nextInt());
+            assertFalse(tokenizer.nextLine());
+            assertFalse(tokenizer.nextLine());
+        }
+    }
+
+}
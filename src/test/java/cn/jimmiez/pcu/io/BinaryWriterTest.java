@@ -0,0 +1,75 @@
+package cn.jimmiez.pcu.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class BinaryWriterTest {
+
+    @Test
+    public void testWriteValues() throws IOException {
+        int length = 1000;
+        short[] shorts = new short[length];
+        int[] ints = new int[length];
+        long[] longs = new long[length];
+        float[] floats = new float[length];
+        double[] doubles = new double[length];
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i ++) {
+            shorts[i] = (short) (i * 37);
+            ints[i] = i * 1234567;
+            longs[i] = i * 123456789012L;
+            floats[i] = i / 7f;
+            doubles[i] = -i / 3.0;
+            bytes[i] = (byte) i;
+        }
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer expected = ByteBuffer.allocate(1 << 16).order(order);
+            expected.put("ply".getBytes()).put((byte) -1).putShort((short) 7).putInt(8).putLong(9L).putFloat(1.5f).putDouble(2.5);
+            // 13 bytes, so the values cross the boundaries of buffer
+            for (int bufferSize : new int[] {8, 13, 1 << 20}) {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                try (BinaryWriter writer = new BinaryWriter(Channels.newChannel(stream), order, bufferSize)) {
+                    assertEquals(order, writer.getOrder());
+                    writer.writeString("ply");
+                    writer.writeByte((byte) -1);
+                    writer.writeShort((short) 7);
+                    writer.writeInt(8);
+                    writer.writeLong(9L);
+                    writer.writeFloat(1.5f);
+                    writer.writeDouble(2.5);
+                    // the short arrays are written value by value, the long ones in bulk
+                    for (int count : new int[] {3, length - 3}) {
+                        int offset = count == 3 ? 0 : 3;
+                        writer.writeBytes(bytes, offset, count);
+                        writer.writeShorts(shorts, offset, count);
+                        writer.writeInts(ints, offset, count);
+                        writer.writeLongs(longs, offset, count);
+                        writer.writeFloats(floats, offset, count);
+                        writer.writeDoubles(doubles, offset, count);
+                    }
+                }
+                ByteBuffer reference = expected.duplicate().order(order);
+                for (int[] range : new int[][] {{0, 3}, {3, length}}) {
+                    for (int i = range[0]; i < range[1]; i ++) reference.put(bytes[i]);
+                    for (int i = range[0]; i < range[1]; i ++) reference.putShort(shorts[i]);
+                    for (int i = range[0]; i < range[1]; i ++) reference.putInt(ints[i]);
+                    for (int i = range[0]; i < range[1]; i ++) reference.putLong(longs[i]);
+                    for (int i = range[0]; i < range[1]; i ++) reference.putFloat(floats[i]);
+                    for (int i = range[0]; i < range[1]; i ++) reference.putDouble(doubles[i]);
+                }
+                reference.flip();
+                byte[] referenceBytes = new byte[reference.remaining()];
+                reference.get(referenceBytes);
+                assertArrayEquals(referenceBytes, stream.toByteArray());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+import cn.jimmiez.pcu.model.PointCloud3f;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PcdReaderTest {
+
+    @Test
+    public void testReadAscii() throws IOException {
+        File file = new File(PcdReaderTest.class.getClassLoader().getResource("model/pcd/simple.pcd").getFile());
+        PcdData data = new PcdReader().read(file);
+        PcdHeader header = data.getHeader();
+        assertEquals(4, data.getPointNumber());
+        assertEquals(PcdFormat.ASCII, header.getFormat());
+        assertEquals(4, header.getFields().size());
+        assertEquals(PcuDataType.UINT, header.getFields().get(3).getType());
+        assertEquals(16, header.pointBytes());
+
+        float[] xs = data.getFloats(0);
+        assertEquals(0.5f, xs[0], 1e-7);
+        assertEquals(1e-3f, xs[1], 1e-7);
+        assertTrue(Float.isNaN(xs[2]));
+        assertEquals(7.75f, data.getFloat(3, 2, 0), 1e-7);
+        assertEquals(4278190335L, (long) data.getDouble(0, 3, 0));
+        assertEquals(0xFF0000FF, data.getInt(0, 3, 0));
+        assertEquals(255, data.getInts(3)[3]);
+    }
+
+    @Test
+    public void testReadFields() throws IOException {
+        File file = new File(PcdReaderTest.class.getClassLoader().getResource("model/pcd/simple.pcd").getFile());
+        PcdData data = new PcdReader().read(file, "y", "rgb");
+        assertFalse(data.isRead(0));
+        assertTrue(data.isRead(1));
+        assertFalse(data.isRead(2));
+        assertEquals(2f, data.getFloat(1, 1, 0), 1e-7);
+        assertEquals(16711680, data.getInts(3)[1]);
+        try {
+            data.getFloats(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadIntoPointCloud() throws IOException {
+        File file = new File(PcdReaderTest.class.getClassLoader().getResource("model/pcd/simple.pcd").getFile());
+        PointCloud3f cloud = new PcdReader().read(file, PointCloud3f.class);
+        assertNotNull(cloud);
+        assertEquals(4, cloud.getPoints().size());
+        assertArrayEquals(new float[] {-1.5f, 0f, 7.75f}, cloud.getPoints().get(3), 1e-7f);
+    }
+
+    @Test
+    public void testReadBrokenFiles() throws IOException {
+        String[] headers = {
+                "VERSION 0.7\nFIELDS x y\nSIZE 4\nTYPE F F\nWIDTH 1\nPOINTS 1\nDATA ascii\n0 0\n",
+                "VERSION 0.7\nFIELDS x\nSIZE 8\nTYPE I\nWIDTH 1\nPOINTS 1\nDATA binary\n",
+                "VERSION 0.7\nFIELDS x\nSIZE 4\nTYPE F\nWIDTH 1\nPOINTS 1\nDATA lzma\n",
+                "VERSION 0.7\nFIELDS x\nSIZE 4\nTYPE F\nWIDTH 1\nPOINTS 1\n",
+                "VERSION 0.7\nFIELDS x\nSIZE 4\nTYPE F\nWIDTH 1\nPOINTS 2\nDATA ascii\n0\n",
+                "VERSION 0.7\nFIELDS x\nSIZE 4\nTYPE F\nWIDTH 1\nPOINTS 2\nDATA binary\n\0\0\0\0",
+                "VERSION 0.7\nFIELDS x\nSIZE 4\nTYPE F\nWIDTH 1\nPOINTS 2\nDATA binary_compressed\n\4\0\0\0\10\0\0\0\3\0",
+        };
+        for (String text : headers) {
+            File file = File.createTempFile("pcu", ".pcd");
+            file.deleteOnExit();
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                stream.write(text.getBytes(StandardCharsets.US_ASCII));
+            }
+            try {
+                new PcdReader().read(file);
+                fail("A broken file is read: " + text);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testReadTruncatedCompressedFile() throws IOException {
+        File file = File.createTempFile("pcu", ".pcd");
+        file.deleteOnExit();
+        float[] points = new float[3000];
+        for (int i = 0; i < points.length; i ++) points[i] = i % 7;
+        new PcdWriter().prepare()
+                .format(PcdFormat.BINARY_COMPRESSED)
+                .defineFields(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, points)
+                .writeTo(file)
+                .okay();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+        try {
+            new PcdReader().read(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
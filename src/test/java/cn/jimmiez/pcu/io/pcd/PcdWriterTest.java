@@ -0,0 +1,137 @@
+package cn.jimmiez.pcu.io.pcd;
+
+import cn.jimmiez.pcu.Constants;
+import cn.jimmiez.pcu.io.ply.PcuDataType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PcdWriterTest {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Random random = new Random(7);
+        int n = 2049;
+        float[] points = new float[n * 3];
+        List<int[]> colors = new ArrayList<>();
+        List<double[]> intensities = new ArrayList<>();
+        List<float[]> histograms = new ArrayList<>();
+        for (int i = 0; i < n; i ++) {
+            points[i * 3] = random.nextFloat();
+            points[i * 3 + 1] = i % 5;
+            points[i * 3 + 2] = i == 3 ? Float.NaN : -random.nextFloat();
+            colors.add(new int[] {random.nextInt(256), 0xFFFFFFFF - i});
+            intensities.add(new double[] {random.nextDouble() * 100});
+            histograms.add(new float[] {i, i % 3, 0.25f});
+        }
+        for (PcdFormat format : PcdFormat.values()) {
+            File file = File.createTempFile("pcu", ".pcd");
+            file.deleteOnExit();
+            int result = new PcdWriter().prepare()
+                    .format(format)
+                    .defineFields(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, points)
+                    .defineFields(new String[] {"label", "rgba"}, PcuDataType.UCHAR, colors)
+                    .defineFields(new String[] {"intensity"}, PcuDataType.DOUBLE, intensities)
+                    .defineField("histogram", PcuDataType.FLOAT, 3, histograms)
+                    .viewpoint(new double[] {1, 2, 3, 1, 0, 0, 0})
+                    .writeTo(file)
+                    .okay();
+            assertEquals((int) Constants.ERR_CODE_NO_ERROR, result);
+
+            PcdData data = new PcdReader().read(file);
+            PcdHeader header = data.getHeader();
+            assertEquals(format, header.getFormat());
+            assertEquals(n, data.getPointNumber());
+            assertEquals(n, header.getWidth());
+            assertEquals(7, header.getFields().size());
+            assertEquals(3, header.getFields().get(6).getCount());
+            assertArrayEquals(new double[] {1, 2, 3, 1, 0, 0, 0}, header.getViewpoint(), 0);
+            for (int i = 0; i < n; i ++) {
+                for (int j = 0; j < 3; j ++) {
+                    assertEquals(points[i * 3 + j], data.getFloat(i, j, 0), 0);
+                }
+                assertEquals(colors.get(i)[0], (int) data.getDouble(i, 3, 0));
+                assertEquals((0xFFFFFFFF - i) & 0xFF, data.getInt(i, 4, 0));
+                if (format == PcdFormat.ASCII) {
+                    assertEquals(intensities.get(i)[0], data.getDouble(i, 5, 0), 1e-9);
+                } else {
+                    assertEquals(intensities.get(i)[0], data.getDouble(i, 5, 0), 0);
+                }
+                for (int k = 0; k < 3; k ++) {
+                    assertEquals(histograms.get(i)[k], data.getFloat(i, 6, k), 0);
+                }
+            }
+            assertTrue(Float.isNaN(data.getFloats(2)[3]));
+
+            PcdData projected = new PcdReader().read(file, "z", "histogram");
+            assertFalse(projected.isRead(0));
+            assertFalse(projected.isRead(5));
+            assertArrayEquals(data.getFloats(6), projected.getFloats(6), 0);
+
+            File copy = File.createTempFile("pcu", ".pcd");
+            copy.deleteOnExit();
+            assertEquals((int) Constants.ERR_CODE_NO_ERROR, new PcdWriter().write(data, format, copy));
+            assertArrayEquals(data.getDoubles(5), new PcdReader().read(copy).getDoubles(5), 0);
+        }
+    }
+
+    @Test
+    public void testWriteOrganizedPoints() throws IOException {
+        File file = File.createTempFile("pcu", ".pcd");
+        file.deleteOnExit();
+        double[] points = {0, 0, 1, 1, 0, 1, 0, 1, 1, 1, 1, 1, 0, 2, 1, 1, 2, 1};
+        int result = new PcdWriter().prepare()
+                .format(PcdFormat.BINARY)
+                .defineFields(new String[] {"x", "y", "z"}, PcuDataType.SHORT, points)
+                .organize(2, 3)
+                .writeTo(file)
+                .okay();
+        assertEquals((int) Constants.ERR_CODE_NO_ERROR, result);
+        PcdData data = new PcdReader().read(file);
+        assertEquals(2, data.getHeader().getWidth());
+        assertEquals(3, data.getHeader().getHeight());
+        assertArrayEquals(new short[] {0, 0, 1, 1, 2, 2}, data.getShorts(1));
+
+        result = new PcdWriter().prepare()
+                .defineFields(new String[] {"x", "y", "z"}, PcuDataType.SHORT, points)
+                .organize(4, 2)
+                .writeTo(file)
+                .okay();
+        assertEquals((int) Constants.ERR_CODE_BAD_WRITE_REQUEST, result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDefineFieldsOfDifferentSizes() {
+        new PcdWriter().prepare()
+                .defineFields(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, new float[9])
+                .defineFields(new String[] {"intensity"}, PcuDataType.FLOAT, new float[4]);
+    }
+
+    @Test
+    public void testLzf() {
+        Random random = new Random(3);
+        int[] lengths = {0, 1, 2, 3, 31, 32, 33, 1000, 100000};
+        for (int length : lengths) {
+            for (int repetition : new int[] {1, 4, 300}) {
+                byte[] input = new byte[length];
+                for (int i = 0; i < length; i ++) {
+                    input[i] = i >= repetition ? input[i - repetition] : (byte) random.nextInt();
+                    if (random.nextInt(50) == 0) input[i] = (byte) random.nextInt();
+                }
+                byte[] compressed = new byte[Lzf.maxCompressedLength(length)];
+                int size = Lzf.compress(input, length, compressed);
+                if (repetition < 300 && length >= 1000) assertTrue(size < length / 2);
+                byte[] output = new byte[length];
+                Lzf.decompress(compressed, 0, size, output);
+                assertArrayEquals(input, output);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package cn.jimmiez.pcu.io.ply;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MappedPlyTest {
+
+    private static File resource(String name) {
+        return new File(MappedPlyTest.class.getClassLoader().getResource(name).getFile());
+    }
+
+    @Test
+    public void testMapVertices() throws IOException {
+        File file = resource("model/ply/tree_bin.ply");
+        PlyElement expected = new PlyReader().readPly(file).getElement("vertex");
+        int propertiesCount = expected.getHeader().getProperties().size();
+        // 1KB chunks, so the vertices are split into many chunks
+        for (MappedPly ply : new MappedPly[] {MappedPly.open(file), MappedPly.open(file, 10)}) {
+            MappedPlyElement vertices = ply.getElement("vertex");
+            assertSame(vertices, ply.getElement("vertex"));
+            assertEquals(27788, vertices.getRowNumber());
+            int x = vertices.getHeader().findProperty("x");
+            int red = vertices.getHeader().findProperty("red");
+            assertEquals(PcuDataType.FLOAT, vertices.getType(x));
+            for (int row = 0; row < vertices.getRowNumber(); row ++) {
+                for (int i = 0; i < propertiesCount; i ++) {
+                    assertEquals(expected.getDouble(row, i), vertices.getDouble(row, i), 0);
+                }
+                assertEquals(expected.getFloat(row, x), vertices.getFloat(row, x), 0);
+                assertTrue(vertices.getInt(row, red) >= 0);
+                assertEquals((int) vertices.getDouble(row, red), vertices.getInt(row, red));
+            }
+            float[] xs = new float[100];
+            vertices.getFloats(x, 27688, xs, 0, 100);
+            assertEquals(vertices.getFloat(27787, x), xs[99], 0);
+            try {
+                ply.getElement("face");
+                fail();
+            } catch (IllegalArgumentException e) {
+                // faces have list properties
+            }
+            assertNull(ply.getElement("edge"));
+        }
+    }
+
+    @Test
+    public void testElementAfterList() throws IOException {
+        File file = File.createTempFile("pcu", ".ply");
+        file.deleteOnExit();
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(file))) {
+            stream.write(("ply\nformat binary_big_endian 1.0\nelement face 2\nproperty list uchar int vertex_indices\n" +
+                    "element vertex 3\nproperty float x\nproperty ushort c\nend_header\n").getBytes("US-ASCII"));
+            stream.writeByte(3);
+            stream.writeInt(0);
+            stream.writeInt(1);
+            stream.writeInt(2);
+            stream.writeByte(1);
+            stream.writeInt(2);
+            for (int i = 0; i < 3; i ++) {
+                stream.writeFloat(i + 0.5f);
+                stream.writeShort(65535 - i);
+            }
+        }
+        MappedPlyElement vertices = MappedPly.open(file, 3).getElement("vertex");
+        for (int i = 0; i < 3; i ++) {
+            assertEquals(i + 0.5f, vertices.getFloat(i, 0), 0);
+            assertEquals(65535 - i, vertices.getInt(i, 1));
+        }
+
+        try {
+            MappedPly.open(resource("model/ply/simple.ply"));
+            fail();
+        } catch (IOException e) {
+            // ascii files cannot be mapped
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package cn.jimmiez.pcu.io.ply;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelAsciiDecoderTest {
+
+    private static File writeTempFile(String text) throws IOException {
+        File file = File.createTempFile("pcu", ".ply");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(text.getBytes("US-ASCII"));
+        }
+        return file;
+    }
+
+    private static PlyData readSequentially(File file) throws IOException {
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            PlyData data = new PlyData(reader.getHeader());
+            data.parse(reader);
+            return data;
+        }
+    }
+
+    private static PlyHeader readHeader(File file) throws IOException {
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            return reader.getHeader();
+        }
+    }
+
+    private static void assertSameElements(PlyData expected, PlyElement[] actual) {
+        int index = 0;
+        for (PlyElement element : expected) {
+            PlyElement other = actual[index ++];
+            assertEquals(element.getRowNumber(), other.getRowNumber());
+            for (int p = 0; p < element.getHeader().getProperties().size(); p ++) {
+                if (element.isList(p)) assertArrayEquals(element.getListOffsets(p), other.getListOffsets(p));
+                assertEquals(element.columns[p].capacity(), other.columns[p].capacity());
+                for (int i = 0; i < element.columns[p].capacity(); i ++) {
+                    assertEquals(element.columns[p].getDouble(i), other.columns[p].getDouble(i), 0);
+                }
+            }
+        }
+        assertEquals(index, actual.length);
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        Random random = new Random(7);
+        StringBuilder builder = new StringBuilder("ply\nformat ascii 1.0\nelement vertex 50\nproperty float x\nproperty uchar c\n" +
+                "element face 30\nproperty list uchar int vertex_indices\nproperty short s\n" +
+                "element edge 10\nproperty int a\nproperty list int double w\nend_header\n");
+        for (int i = 0; i < 50; i ++) builder.append(random.nextFloat()).append("  ").append(random.nextInt(256)).append("\r\n");
+        for (int i = 0; i < 30; i ++) {
+            // the lists have 0 to 5 values
+            int size = random.nextInt(6);
+            builder.append(size);
+            for (int j = 0; j < size; j ++) builder.append(' ').append(random.nextInt(50));
+            builder.append(' ').append(-i).append('\n');
+        }
+        for (int i = 0; i < 10; i ++) builder.append(i).append(" 2 ").append(random.nextDouble()).append(" 1e-3\n");
+        builder.append("ignored line\n");
+        File file = writeTempFile(builder.toString());
+        PlyData expected = readSequentially(file);
+        PlyHeader header = readHeader(file);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        // the lines cross the boundaries of small chunks
+        for (int chunkSize : new int[] {1, 2, 7, 64, 1000, ParallelAsciiDecoder.CHUNK_SIZE}) {
+            assertSameElements(expected, new ParallelAsciiDecoder(file, header, pool, chunkSize).decode());
+        }
+
+        PlyReader reader = new PlyReader();
+        reader.setParallelism(2);
+        File simple = new File(ParallelAsciiDecoderTest.class.getClassLoader().getResource("model/ply/simple.ply").getFile());
+        PlyData data = reader.readPly(simple);
+        PlyElement[] elements = new PlyElement[data.getHeader().getElementHeaders().size()];
+        for (int i = 0; i < elements.length; i ++) elements[i] = data.getElement(data.getHeader().getElementHeaders().get(i).elementName);
+        assertSameElements(readSequentially(simple), elements);
+
+        ForkJoinPool owned = reader.getForkJoinPool();
+        reader.setForkJoinPool(pool);
+        assertTrue(owned.isShutdown());
+        assertFalse(pool.isShutdown());
+    }
+
+    @Test
+    public void testBrokenFiles() throws IOException {
+        String header = "ply\nformat ascii 1.0\nelement vertex 3\nproperty float x\nproperty float y\nend_header\n";
+        ForkJoinPool pool = new ForkJoinPool(2);
+        File file = writeTempFile(header + "1 2\n3 4\n");
+        try {
+            new ParallelAsciiDecoder(file, readHeader(file), pool, 3).decode();
+            fail();
+        } catch (IOException e) {
+            // fewer lines than rows
+        }
+        file = writeTempFile(header + "1 2\n3\n5 6");
+        try {
+            new ParallelAsciiDecoder(file, readHeader(file), pool, 3).decode();
+            fail();
+        } catch (IllegalStateException e) {
+            // fewer values than properties
+        }
+    }
+
+}
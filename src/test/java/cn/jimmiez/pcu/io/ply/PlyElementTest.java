@@ -0,0 +1,89 @@
+package cn.jimmiez.pcu.io.ply;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PlyElementTest {
+
+    @Test
+    public void testColumns() {
+        File file = new File(PlyElementTest.class.getClassLoader().getResource("model/ply/tree_bin.ply").getFile());
+        PlyData data = new PlyReader().readPly(file);
+        PlyElement vertices = data.getElement("vertex");
+        int x = vertices.getHeader().findProperty("x");
+        int red = vertices.getHeader().findProperty("red");
+        assertEquals(PcuDataType.FLOAT, vertices.getType(x));
+        assertEquals(PcuDataType.UCHAR, vertices.getType(red));
+        // the columns have the width of data types
+        assertEquals(vertices.getRowNumber(), vertices.getFloats(x).length);
+        assertEquals(vertices.getRowNumber(), vertices.getBytes(red).length);
+        for (int row = 0; row < vertices.getRowNumber(); row ++) {
+            assertEquals(vertices.getFloats(x)[row], vertices.getFloat(row, x), 0);
+            assertEquals(vertices.getBytes(red)[row] & 0xFF, vertices.getInt(row, red));
+        }
+        try {
+            vertices.getInts(x);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // x is a float property
+        }
+
+        PlyElement faces = data.getElement("face");
+        assertTrue(faces.isList(0));
+        assertEquals(PcuDataType.INT, faces.getType(0));
+        int[] offsets = faces.getListOffsets(0);
+        int[] indices = faces.getInts(0);
+        assertEquals(faces.getRowNumber() + 1, offsets.length);
+        assertEquals(offsets[faces.getRowNumber()], indices.length);
+        for (int row = 0; row < faces.getRowNumber(); row ++) {
+            assertEquals(3, faces.getListSize(row, 0));
+            assertEquals(3, faces.getInt(row, 0));
+            assertEquals(indices[offsets[row] + 2], faces.getList(row, 0)[2], 0);
+        }
+    }
+
+    @Test
+    public void testUnsignedValues() throws IOException {
+        File file = File.createTempFile("pcu", ".ply");
+        file.deleteOnExit();
+        String header = "element vertex 1\nproperty uchar a\nproperty ushort b\nproperty uint c\nproperty char d\n" +
+                "property list uchar uchar e\nend_header\n";
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(file))) {
+            stream.write(("ply\nformat binary_big_endian 1.0\n" + header).getBytes("US-ASCII"));
+            stream.writeByte(200);
+            stream.writeShort(60000);
+            stream.writeInt((int) 4000000000L);
+            stream.writeByte(-3);
+            // a list of 130 values
+            stream.writeByte(130);
+            for (int i = 0; i < 130; i ++) stream.writeByte(255 - i);
+        }
+        assertUnsignedValues(new PlyReader().readPly(file).getElement("vertex"));
+
+        StringBuilder builder = new StringBuilder("ply\nformat ascii 1.0\n" + header + "200 60000 4000000000 -3 130");
+        for (int i = 0; i < 130; i ++) builder.append(' ').append(255 - i);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(builder.toString().getBytes("US-ASCII"));
+        }
+        assertUnsignedValues(new PlyReader().readPly(file).getElement("vertex"));
+    }
+
+    private static void assertUnsignedValues(PlyElement element) {
+        assertEquals(200, element.getDouble(0, 0), 0);
+        assertEquals(200, element.getInt(0, 0));
+        assertEquals(60000, element.getDouble(0, 1), 0);
+        assertEquals(4000000000.0, element.getDouble(0, 2), 0);
+        assertEquals((int) 4000000000L, element.getInt(0, 2));
+        assertEquals(-3, element.getDouble(0, 3), 0);
+        assertEquals(130, element.getListSize(0, 4));
+        assertEquals(255, element.getList(0, 4)[0], 0);
+        assertEquals(126, element.getList(0, 4)[129], 0);
+    }
+
+}
@@ -55,6 +55,108 @@ public class PlyReaderTest {
         }
     }
 
+    @Test
+    public void testReadFilesOfDifferentLayouts() throws IOException {
+        // the positions of properties cached for the first file must not be used for the second one
+        String[][] layouts = new String[][] {{"x", "y", "z"}, {"nx", "z", "y", "x"}, {"x", "y", "z"}};
+        PlyReader reader = new PlyReader();
+        for (String[] layout : layouts) {
+            File file = File.createTempFile("pcu", ".ply");
+            file.deleteOnExit();
+            List<float[]> rows = new ArrayList<>();
+            for (int i = 0; i < 10; i ++) {
+                float[] row = new float[layout.length];
+                for (int j = 0; j < layout.length; j ++) row[j] = i * 10 + ("xyz".indexOf(layout[j]) + 1);
+                rows.add(row);
+            }
+            new PlyWriter().prepare()
+                    .format(PlyFormat.BINARY_LITTLE_ENDIAN)
+                    .defineElement("vertex")
+                    .defineScalarProperties(layout, PcuDataType.FLOAT, rows)
+                    .writeTo(file)
+                    .okay();
+            PointCloud3f pointCloud = reader.read(file, PointCloud3f.class);
+            assertEquals(10, pointCloud.getPoints().size());
+            for (int i = 0; i < 10; i ++) {
+                assertArrayEquals(new float[] {i * 10 + 1, i * 10 + 2, i * 10 + 3}, pointCloud.getPoints().get(i), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testReadWithProjection() throws IOException {
+        Random random = new Random(11);
+        int n = 40;
+        List<float[]> vertices = new ArrayList<>();
+        List<byte[]> colors = new ArrayList<>();
+        List<int[]> faces = new ArrayList<>();
+        List<int[]> labels = new ArrayList<>();
+        List<double[]> weights = new ArrayList<>();
+        for (int i = 0; i < n; i ++) {
+            vertices.add(new float[] {random.nextFloat(), random.nextFloat(), random.nextFloat()});
+            colors.add(new byte[] {(byte) random.nextInt(256)});
+            int[] face = new int[random.nextInt(5)];
+            for (int j = 0; j < face.length; j ++) face[j] = random.nextInt(n);
+            faces.add(face);
+            labels.add(new int[] {i});
+            weights.add(new double[] {random.nextDouble()});
+        }
+        for (PlyFormat format : PlyFormat.values()) {
+            File file = File.createTempFile("pcu", ".ply");
+            file.deleteOnExit();
+            // the faces with lists are before the edges, the edges are the last element
+            new PlyWriter().prepare()
+                    .format(format)
+                    .defineElement("vertex")
+                    .defineScalarProperties(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, vertices)
+                    .defineScalarProperties(new String[] {"red"}, PcuDataType.UCHAR, colors)
+                    .defineElement("face")
+                    .defineListProperty("vertex_indices", PcuDataType.UCHAR, PcuDataType.INT, faces)
+                    .defineScalarProperties(new String[] {"label"}, PcuDataType.INT, labels)
+                    .defineElement("edge")
+                    .defineScalarProperties(new String[] {"weight"}, PcuDataType.DOUBLE, weights)
+                    .writeTo(file)
+                    .okay();
+            for (int parallelism : new int[] {1, 2}) {
+                PlyReader reader = new PlyReader();
+                reader.setParallelism(parallelism);
+                PlyData full = reader.readPly(file);
+                PlyData data = reader.readPly(file, new PlyProjection()
+                        .element("vertex", "x", "z")
+                        .element("face", "label")
+                        .element("vertex", "red"));
+                assertNull(data.getElement("edge"));
+                PlyElement vertex = data.getElement("vertex");
+                assertTrue(vertex.isRead(0));
+                assertFalse(vertex.isRead(1));
+                assertTrue(vertex.isRead(3));
+                assertArrayEquals(full.getElement("vertex").getFloats(0), vertex.getFloats(0), 0f);
+                assertArrayEquals(full.getElement("vertex").getFloats(2), vertex.getFloats(2), 0f);
+                assertArrayEquals(full.getElement("vertex").getBytes(3), vertex.getBytes(3));
+                PlyElement face = data.getElement("face");
+                assertFalse(face.isRead(0));
+                assertTrue(face.isList(0));
+                assertArrayEquals(full.getElement("face").getInts(1), face.getInts(1));
+                try {
+                    face.getInts(0);
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    // not read
+                }
+                // the elements before the edges are skipped, the lists too
+                PlyElement edge = reader.readPly(file, new PlyProjection().element("edge")).getElement("edge");
+                assertArrayEquals(full.getElement("edge").getDoubles(0), edge.getDoubles(0), 0);
+                assertNull(reader.readPly(file, new PlyProjection().element("edge")).getElement("vertex"));
+            }
+
+            // only the vertices in the annotation are read
+            PolygonMesh3f mesh = new PlyReader().read(file, PolygonMesh3f.class);
+            assertEquals(n, mesh.getPoints().size());
+            assertArrayEquals(vertices.get(7), mesh.getPoints().get(7), 0f);
+            assertArrayEquals(faces.get(9), mesh.getFaces().get(9));
+        }
+    }
+
     public static class MeshWithColor4b extends PolygonMesh3f{
         private List<byte[]> vertexColors;
 
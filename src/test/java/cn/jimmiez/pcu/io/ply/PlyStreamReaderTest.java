@@ -0,0 +1,146 @@
+package cn.jimmiez.pcu.io.ply;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PlyStreamReaderTest {
+
+    private static File resource(String name) {
+        return new File(PlyStreamReaderTest.class.getClassLoader().getResource(name).getFile());
+    }
+
+    /**
+     * the rows streamed are the same as the rows in PlyData
+     */
+    private static void assertSameRows(File file) throws IOException {
+        PlyData data = new PlyReader().readPly(file);
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            int elementCount = 0;
+            PlyHeader.PlyElementHeader elementHeader;
+            while ((elementHeader = reader.nextElement()) != null) {
+                PlyElement element = data.getElement(elementHeader.getElementName());
+                int propertiesCount = elementHeader.getProperties().size();
+                int rowCount = 0;
+                while (reader.nextRow()) {
+                    for (int i = 0; i < propertiesCount; i ++) {
+                        double[] list = reader.getList(i);
+                        assertEquals(element.getDouble(rowCount, i), reader.getDouble(i), 0);
+                        if (list != null) assertArrayEquals(element.getList(rowCount, i), list, 0);
+                    }
+                    rowCount += 1;
+                }
+                assertEquals(elementHeader.getNumber(), rowCount);
+                elementCount += 1;
+            }
+            assertEquals(data.getHeader().getElementHeaders().size(), elementCount);
+            assertNull(reader.nextElement());
+        }
+    }
+
+    @Test
+    public void testReadRows() throws IOException {
+        assertSameRows(resource("model/ply/simple.ply"));
+        assertSameRows(resource("model/ply/drill_shaft_zip.ply"));
+        // larger than the buffer of reader
+        assertSameRows(resource("model/ply/tree_bin.ply"));
+    }
+
+    @Test
+    public void testReadChunksAndSkip() throws IOException {
+        File file = resource("model/ply/tree_bin.ply");
+        PlyData data = new PlyReader().readPly(file);
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            // skip the vertices without reading them
+            assertEquals("vertex", reader.nextElement().getElementName());
+            PlyHeader.PlyElementHeader face = reader.nextElement();
+            assertEquals("face", face.getElementName());
+            assertTrue(reader.nextRow());
+            assertArrayEquals(data.getElement("face").getList(0, 0), reader.getList(0), 0);
+            try {
+                reader.readRows(new double[16], 0, 1);
+                fail();
+            } catch (IllegalStateException e) {
+                // faces have list properties
+            }
+        }
+
+        file = resource("model/ply/simple.ply");
+        data = new PlyReader().readPly(file);
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            PlyHeader.PlyElementHeader vertex = reader.nextElement();
+            double[] chunk = new double[1000 * 3];
+            PlyElement expected = data.getElement("vertex");
+            int rows = 0, read;
+            while ((read = reader.readRows(chunk, 0, 1000)) > 0) {
+                for (int i = 0; i < read * 3; i ++) assertEquals(expected.getDouble(rows + i / 3, i % 3), chunk[i], 0);
+                rows += read;
+            }
+            assertEquals(vertex.getNumber(), rows);
+            assertFalse(reader.nextRow());
+        }
+    }
+
+    @Test
+    public void testCrlfAndBrokenFiles() throws IOException {
+        File file = File.createTempFile("pcu", ".ply");
+        file.deleteOnExit();
+        write(file, "ply\r\nformat ascii 1.0\r\ncomment crlf\r\nelement vertex 2\r\nproperty float x\r\n" +
+                "property list uchar int i\r\nend_header\r\n 1.5 2 7 8\r\n-1 0");
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            assertEquals(1, reader.getHeader().getComments().size());
+            reader.nextElement();
+            assertTrue(reader.nextRow());
+            assertEquals(1.5, reader.getDouble(0), 0);
+            assertArrayEquals(new double[] {7, 8}, reader.getList(1), 0);
+            assertTrue(reader.nextRow());
+            assertEquals(0, reader.getList(1).length);
+            assertFalse(reader.nextRow());
+        }
+
+        write(file, "ply\nformat binary_little_endian 1.0\nelement vertex 2\nproperty float x\nend_header\n\0\0\0\0");
+        try (PlyStreamReader reader = new PlyStreamReader(file)) {
+            reader.nextElement();
+            assertTrue(reader.nextRow());
+            try {
+                reader.nextRow();
+                fail();
+            } catch (IOException e) {
+                // the second row is missing
+            }
+        }
+
+        // a negative and an oversized list size
+        for (String size : new String[] {"\377\377\377\377", "\377\377\377\177"}) {
+            write(file, "ply\nformat binary_little_endian 1.0\nelement face 1\nproperty list int int i\nend_header\n" + size + "\0\0\0\0");
+            try (PlyStreamReader reader = new PlyStreamReader(file)) {
+                reader.nextElement();
+                try {
+                    reader.nextRow();
+                    fail();
+                } catch (IOException e) {
+                    // the list size is invalid
+                }
+            }
+        }
+
+        write(file, "ply\nformat ascii 1.0\nelement vertex 2\n");
+        try {
+            new PlyStreamReader(file).close();
+            fail();
+        } catch (IOException e) {
+            // no end of header
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(content.getBytes("ISO-8859-1"));
+        }
+    }
+
+}
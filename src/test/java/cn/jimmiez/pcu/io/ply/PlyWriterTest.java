@@ -8,6 +8,12 @@ import org.junit.*;
 
 import javax.vecmath.Point3d;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -191,6 +197,121 @@ public class PlyWriterTest {
         assertEquals(faceData.size(), mesh.getFaces().size());
     }
 
+    @Test
+    public void testColumnarProperties() throws IOException {
+        int n = 100;
+        // x y z in a packed array, normals and colors interleaved after an offset
+        float[] xyz = new float[n * 3];
+        double[] interleaved = new double[2 + n * 7];
+        FloatBuffer intensity = ByteBuffer.allocateDirect(n * 8).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < n; i ++) {
+            for (int j = 0; j < 3; j ++) xyz[i * 3 + j] = i * 0.5f + j;
+            for (int j = 0; j < 7; j ++) interleaved[2 + i * 7 + j] = j < 3 ? -i / 3.0 : 200 + j;
+            intensity.put(i / 7f).put(-1);
+        }
+        intensity.flip();
+        for (PlyFormat format : PlyFormat.values()) {
+            File file = File.createTempFile("pcu", ".ply");
+            file.deleteOnExit();
+            int code = new PlyWriter()
+                    .prepare()
+                    .format(format)
+                    .defineElement("vertex")
+                    .defineScalarProperties(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, xyz)
+                    .defineScalarProperties(new String[] {"nx", "ny", "nz"}, PcuDataType.DOUBLE, interleaved, 2, 7)
+                    .defineScalarProperties(new String[] {"red", "green"}, PcuDataType.UCHAR, interleaved, 5, 7)
+                    .defineScalarProperties(new String[] {"intensity"}, PcuDataType.FLOAT, intensity, 2)
+                    .writeTo(file)
+                    .okay();
+            assertEquals((int) Constants.ERR_CODE_NO_ERROR, code);
+            assertEquals(0, intensity.position());
+
+            PlyElement vertices = new PlyReader().readPly(file).getElement("vertex");
+            assertEquals(n, vertices.getRowNumber());
+            String[] names = {"x", "y", "z", "nx", "ny", "nz", "red", "green", "intensity"};
+            for (int i = 0; i < names.length; i ++) assertEquals(names[i], vertices.getHeader().getProperties().get(i).getKey());
+            for (int i = 0; i < n; i ++) {
+                for (int j = 0; j < 3; j ++) {
+                    assertEquals(xyz[i * 3 + j], vertices.getFloat(i, j), 0);
+                    assertEquals(-i / 3.0, vertices.getDouble(i, 3 + j), 0);
+                }
+                assertEquals(203, vertices.getInt(i, 6));
+                assertEquals(204, vertices.getInt(i, 7));
+                assertEquals(i / 7f, vertices.getFloat(i, 8), 0);
+            }
+        }
+
+        try {
+            new PlyWriter().prepare().defineElement("vertex")
+                    .defineScalarProperties(new String[] {"x", "y", "z"}, PcuDataType.FLOAT, xyz)
+                    .defineScalarProperties(new String[] {"w"}, PcuDataType.FLOAT, new float[n - 1]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // different numbers of rows
+        }
+    }
+
+    @Test
+    public void testAsciiUnsignedValues() throws IOException {
+        File file = File.createTempFile("pcu", ".ply");
+        file.deleteOnExit();
+        int code = new PlyWriter()
+                .prepare()
+                .format(PlyFormat.ASCII)
+                .defineElement("vertex")
+                .defineScalarProperties(new String[] {"c"}, PcuDataType.CHAR, Collections.singletonList(new byte[] {-1}))
+                .defineScalarProperties(new String[] {"uc"}, PcuDataType.UCHAR, Collections.singletonList(new byte[] {-1}))
+                .defineScalarProperties(new String[] {"s"}, PcuDataType.SHORT, Collections.singletonList(new short[] {-1}))
+                .defineScalarProperties(new String[] {"us"}, PcuDataType.USHORT, Collections.singletonList(new short[] {-1}))
+                .defineScalarProperties(new String[] {"i"}, PcuDataType.INT, Collections.singletonList(new int[] {-1}))
+                .defineScalarProperties(new String[] {"ui"}, PcuDataType.UINT, Collections.singletonList(new int[] {-1}))
+                .defineElement("face")
+                .defineListProperty("vertex_indices", PcuDataType.UCHAR, PcuDataType.UCHAR, Collections.singletonList(new byte[] {-1, 1}))
+                .writeTo(file)
+                .okay();
+        assertEquals((int) Constants.ERR_CODE_NO_ERROR, code);
+
+        // the values of unsigned types are printed as unsigned numbers, as the ply format defines them
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        int body = lines.indexOf("end_header") + 1;
+        assertEquals("-1 255 -1 65535 -1 4294967295", lines.get(body).trim());
+        assertEquals("2 255 1", lines.get(body + 1).trim());
+    }
+
+    @Test
+    public void testBinaryIntegerRows() throws IOException {
+        List<short[]> shorts = new ArrayList<>();
+        List<int[]> ints = new ArrayList<>();
+        for (int i = 0; i < 40; i ++) {
+            shorts.add(new short[] {(short) -i, (short) (i * 500)});
+            ints.add(new int[] {7, -i, i * 100000});
+        }
+        for (PlyFormat format : new PlyFormat[] {PlyFormat.BINARY_LITTLE_ENDIAN, PlyFormat.BINARY_BIG_ENDIAN}) {
+            File file = File.createTempFile("pcu", ".ply");
+            file.deleteOnExit();
+            int code = new PlyWriter()
+                    .prepare()
+                    .format(format)
+                    .defineElement("vertex")
+                    .defineScalarProperties(new String[] {"s", "us"}, PcuDataType.SHORT, shorts)
+                    .defineScalarProperties(new String[] {"i"}, PcuDataType.INT, ints)
+                    .defineScalarProperties(new String[] {"j", "k"}, PcuDataType.INT, ints)
+                    .writeTo(file)
+                    .okay();
+            assertEquals((int) Constants.ERR_CODE_NO_ERROR, code);
+
+            PlyElement vertices = new PlyReader().readPly(file).getElement("vertex");
+            assertEquals(40, vertices.getRowNumber());
+            for (int i = 0; i < 40; i ++) {
+                assertEquals(-i, vertices.getInt(i, 0));
+                assertEquals(i * 500, vertices.getInt(i, 1));
+                assertEquals(7, vertices.getInt(i, 2));
+                assertEquals(-i, vertices.getInt(i, 3));
+                assertEquals(i * 100000, vertices.getInt(i, 4));
+            }
+        }
+    }
+
     public static class PlyEntity {
 
         List<double[]> vertices = new ArrayList<>();
@@ -0,0 +1,38 @@
+package cn.jimmiez.pcu.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ForkJoinPoolHolderTest {
+
+    @Test
+    public void testReplacePool() {
+        ForkJoinPoolHolder holder = new ForkJoinPoolHolder();
+        assertNull(holder.getForkJoinPool());
+        holder.setParallelism(2);
+        ForkJoinPool first = holder.getForkJoinPool();
+        assertEquals(2, first.getParallelism());
+        holder.setParallelism(2);
+        assertSame(first, holder.getForkJoinPool());
+        holder.setParallelism(3);
+        assertTrue(first.isShutdown());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        ForkJoinPool second = holder.getForkJoinPool();
+        holder.setForkJoinPool(pool);
+        assertTrue(second.isShutdown());
+        holder.setParallelism(1);
+        assertNull(holder.getForkJoinPool());
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new ForkJoinPoolHolder().setParallelism(0);
+    }
+
+}
@@ -2,6 +2,9 @@ package cn.jimmiez.pcu.util;
 
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import static cn.jimmiez.pcu.util.PcuArrayUtil.*;
 import static org.junit.Assert.*;
 
@@ -29,4 +32,60 @@ public class PcuArrayUtilTest {
         assertEquals(1, a4[2]);
         assertEquals(0, a4[3]);
     }
+
+    @Test
+    public void testSort() {
+        Random random = new Random(System.currentTimeMillis());
+        for (int length : new int[] {0, 1, 2, 15, 17, 1000}) {
+            double[] keys = new double[length];
+            int[] values = new int[length];
+            for (int i = 0; i < length; i ++) {
+                keys[i] = random.nextInt(50) * 0.5;
+                values[i] = i;
+            }
+            double[] originalKeys = keys.clone();
+            sort(keys, values, 0, length);
+            for (int i = 0; i < length; i ++) {
+                if (i > 0) assertTrue(keys[i - 1] <= keys[i]);
+                assertEquals(originalKeys[values[i]], keys[i], 0);
+            }
+        }
+
+        // sort a sub-range only
+        double[] keys = new double[] {5, 4, 3, 2, 1};
+        int[] values = new int[] {0, 1, 2, 3, 4};
+        sort(keys, values, 1, 4);
+        assertArrayEquals(new double[] {5, 2, 3, 4, 1}, keys, 0);
+        assertArrayEquals(new int[] {0, 3, 2, 1, 4}, values);
+    }
+
+    @Test
+    public void testRadixSort() {
+        Random random = new Random(System.currentTimeMillis());
+        ForkJoinPool pool = new ForkJoinPool(3);
+        for (int length : new int[] {0, 1, 1000, 300000}) {
+            for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+                long[] keys = new long[length];
+                int[] values = new int[length];
+                for (int i = 0; i < length; i ++) {
+                    // many duplicate keys to check the stability
+                    keys[i] = (random.nextLong() >>> 1) & ~0xffffL;
+                    if (i % 3 == 0 && i > 0) keys[i] = keys[i - 1];
+                    values[i] = i;
+                }
+                long[] originalKeys = keys.clone();
+                radixSort(keys, values, p);
+                for (int i = 0; i < length; i ++) {
+                    assertEquals(originalKeys[values[i]], keys[i]);
+                    if (i == 0) continue;
+                    assertTrue(keys[i - 1] <= keys[i]);
+                    if (keys[i - 1] == keys[i]) assertTrue(values[i - 1] < values[i]);
+                }
+            }
+        }
+        try {
+            radixSort(new long[] {-1}, new int[] {0}, null);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {}
+    }
 }
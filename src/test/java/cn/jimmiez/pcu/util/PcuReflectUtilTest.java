@@ -0,0 +1,78 @@
+package cn.jimmiez.pcu.util;
+
+import cn.jimmiez.pcu.io.ply.ReadFromPly;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PcuReflectUtilTest {
+
+    @Test
+    public void testFetchAnnotatedGetters() throws InvocationTargetException {
+        List<AnnotatedGetter<ReadFromPly>> getters = PcuReflectUtil.fetchAnnotatedGetters(Child.class, ReadFromPly.class, MethodHandles.lookup());
+        // the getters of super class are included, the method with a parameter is not
+        assertEquals(3, getters.size());
+        Child child = new Child();
+        List<String> names = new ArrayList<>();
+        for (AnnotatedGetter<ReadFromPly> getter : getters) {
+            names.add(getter.getMethod().getName());
+            if (getter.getMethod().getName().equals("points")) {
+                assertSame(child.points, getter.invoke(child));
+                assertEquals("vertex", getter.getAnnotation().element());
+            } else if (getter.getMethod().getName().equals("faces")) {
+                assertEquals("face", getter.getAnnotation().element());
+                try {
+                    getter.invoke(child);
+                    fail();
+                } catch (InvocationTargetException e) {
+                    assertTrue(e.getCause() instanceof UnsupportedOperationException);
+                }
+            } else {
+                assertEquals("constant", getter.getMethod().getName());
+                assertEquals("constant", getter.invoke(child));
+            }
+        }
+        assertTrue(names.contains("points"));
+        assertTrue(names.contains("faces"));
+    }
+
+    public static class Parent {
+
+        List<float[]> points = new ArrayList<>();
+
+        @ReadFromPly
+        public List<float[]> points() {
+            return points;
+        }
+
+        @ReadFromPly
+        public static String constant() {
+            return "constant";
+        }
+
+    }
+
+    public static class Child extends Parent {
+
+        @ReadFromPly(element = "face", properties = {"vertex_indices"})
+        public List<int[]> faces() {
+            throw new UnsupportedOperationException();
+        }
+
+        @ReadFromPly
+        public List<int[]> faces(int n) {
+            return null;
+        }
+
+        public List<int[]> edges() {
+            return null;
+        }
+
+    }
+
+}